@@ -19,9 +19,13 @@
 package tui;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import chess.Bench;
+import chess.ChessParseError;
 import chess.ComputerPlayer;
 import chess.HumanPlayer;
+import chess.MatchRunner;
 import chess.Player;
 import chess.TreeLogger;
 
@@ -45,6 +49,21 @@ public class Main {
             game.play();
         } else if ((args.length == 2) && args[0].equals("tree")) {
             TreeLogger.main(new String[]{args[1]});
+        } else if ((args.length >= 1) && (args.length <= 4) && args[0].equals("bench")) {
+            int hashSizeMB = (args.length > 1) ? Integer.parseInt(args[1]) : Bench.DEFAULT_HASH_MB;
+            int depth = (args.length > 2) ? Integer.parseInt(args[2]) : Bench.DEFAULT_DEPTH;
+            int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Bench.DEFAULT_THREADS;
+            try {
+                Bench.run(hashSizeMB, depth, threads, System.out);
+            } catch (ChessParseError ex) {
+                throw new RuntimeException(ex);
+            }
+        } else if ((args.length >= 1) && args[0].equals("match")) {
+            try {
+                MatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (ChessParseError ex) {
+                throw new RuntimeException(ex);
+            }
         } else {
             uci.UCIProtocol.main(false);
         }
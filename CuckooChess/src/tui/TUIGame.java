@@ -19,20 +19,18 @@
 package tui;
 
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.util.List;
 
 import uci.UCIProtocol;
+import chess.Bench;
 import chess.ChessParseError;
-import chess.ComputerPlayer;
 import chess.Evaluate;
 import chess.Game;
-import chess.Move;
 import chess.Player;
 import chess.Position;
+import chess.TestSuiteRunner;
 import chess.TextIO;
-import chess.TwoReturnValues;
 
 public class TUIGame extends Game {
 
@@ -46,6 +44,8 @@ public class TUIGame extends Game {
         if (moveStr.startsWith("testsuite ")) {
             String testSuiteCmd = moveStr.substring(moveStr.indexOf(" ") + 1);
             return handleTestSuite(testSuiteCmd);
+        } else if (moveStr.equals("bench") || moveStr.startsWith("bench ")) {
+            return handleBench(moveStr);
         } else if (moveStr.equals("uci")) {
             whitePlayer = null;
             blackPlayer = null;
@@ -75,69 +75,88 @@ public class TUIGame extends Game {
         System.out.println("  draw offer move - Play move and offer draw");
         System.out.println("  draw accept     - Accept a draw offer");
         System.out.println("  resign          - Resign the current game");
-        System.out.println("  testsuite filename maxtime");
+        System.out.println("  testsuite filename [maxtime] [time t] [depth d] [nodes n]");
+        System.out.println("            [threads n] [hash MB] [out resultfile]");
+        System.out.println("                  - Run EPD test suite, write results in JSON format");
         System.out.println("  book on|off     - Turn opening book on/off");
         System.out.println("  time t          - Set computer thinking time, ms");
-        System.out.println("  perft d         - Run perft test to depth d");
+        System.out.println("  perft d         - Run perft test to depth d, print counts for each move");
+        System.out.println("  bench [hash [depth [threads]]]");
+        System.out.println("                  - Search benchmark positions, print nodes and speed");
         System.out.println("  uci             - Switch to uci protocol.");
         System.out.println("  help            - Show this help");
         System.out.println("  quit            - Terminate program");
     }
 
+    private boolean handleBench(String cmd) {
+        String[] tokens = cmd.trim().split("\\s+");
+        try {
+            int hashSizeMB = (tokens.length > 1) ? Integer.parseInt(tokens[1]) : Bench.DEFAULT_HASH_MB;
+            int depth = (tokens.length > 2) ? Integer.parseInt(tokens[2]) : Bench.DEFAULT_DEPTH;
+            int threads = (tokens.length > 3) ? Integer.parseInt(tokens[3]) : Bench.DEFAULT_THREADS;
+            Bench.run(hashSizeMB, depth, threads, System.out);
+        } catch (NumberFormatException nfe) {
+            System.out.printf("Number format exception: %s\n", nfe.getMessage());
+            return false;
+        } catch (ChessParseError cpe) {
+            System.out.printf("Parse error: %s\n", cpe.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Run a test suite. The syntax is "testsuite filename [maxtime] [options]", where options are
+     * "time t", "depth d", "nodes n", "threads n", "hash MB" and "out resultfile".
+     */
     private boolean handleTestSuite(String cmd) {
-        LineNumberReader fr = null;
+        String[] tokens = cmd.trim().split("\\s+");
+        String filename = tokens[0];
+        int timeLimit = -1;
+        int depthLimit = -1;
+        int nodeLimit = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashSizeMB = TestSuiteRunner.DEFAULT_HASH_MB;
+        String outFile = filename + ".results.json";
         try {
-            int idx = cmd.indexOf(" ");
-            String filename = cmd.substring(0, idx);
-            String timeStr = cmd.substring(idx + 1, cmd.length());
-            int timeLimit = Integer.parseInt(timeStr);
-            //            System.out.printf("file:%s time:%s (%d)\n", filename, timeStr, timeLimit);
-            fr = new LineNumberReader(new FileReader(filename));
-            String line;
-            Player pl = whitePlayer.isHumanPlayer() ? blackPlayer : whitePlayer;
-            if (pl.isHumanPlayer()) {
-                System.out.printf("No computer player available");
+            int i = 1;
+            if ((tokens.length > 1) && Character.isDigit(tokens[1].charAt(0)))
+                timeLimit = Integer.parseInt(tokens[i++]);
+            for ( ; i + 1 < tokens.length; i += 2) {
+                String key = tokens[i];
+                String val = tokens[i + 1];
+                if (key.equals("time")) {
+                    timeLimit = Integer.parseInt(val);
+                } else if (key.equals("depth")) {
+                    depthLimit = Integer.parseInt(val);
+                } else if (key.equals("nodes")) {
+                    nodeLimit = Integer.parseInt(val);
+                } else if (key.equals("threads")) {
+                    threads = Integer.parseInt(val);
+                } else if (key.equals("hash")) {
+                    hashSizeMB = Integer.parseInt(val);
+                } else if (key.equals("out")) {
+                    outFile = val;
+                } else {
+                    System.out.printf("Unknown option: %s\n", key);
+                    return false;
+                }
+            }
+            if (i < tokens.length) {
+                System.out.printf("Missing value for option: %s\n", tokens[i]);
                 return false;
             }
-            ComputerPlayer cp = (ComputerPlayer)pl;
-            int numRight = 0;
-            int numTotal = 0;
-            while ((line = fr.readLine()) != null) {
-                if (line.startsWith("#") || (line.length() == 0)) {
-                    continue;
-                }
-                int idx1 = line.indexOf(" bm ");
-                String fen = line.substring(0, idx1);
-                int idx2 = line.indexOf(";", idx1);
-                String bm = line.substring(idx1 + 4, idx2);
-                //                System.out.printf("Line %3d: fen:%s bm:%s\n", fr.getLineNumber(), fen, bm);
-                Position testPos = TextIO.readFEN(fen);
-                cp.clearTT();
-                TwoReturnValues<Move, String> ret = cp.searchPosition(testPos, timeLimit);
-                Move sm = ret.first;
-                String PV = ret.second;
-                Move m = new Move(sm);
-                String[] answers = bm.split(" ");
-                boolean correct = false;
-                for (String a : answers) {
-                    Move am = TextIO.stringToMove(testPos, a);
-                    if (am == null) {
-                        throw new ChessParseError("Invalid move " + a);
-                    }
-                    if (am.equals(m)) {
-                        correct = true;
-                        break;
-                    }
-                }
-                if (correct) {
-                    numRight++;
-                }
-                numTotal++;
-                System.out.printf("%3d : %6s %6d %d %03d/%03d %s : %s\n", fr.getLineNumber(),
-                        TextIO.moveToString(testPos, sm, false), sm.score, correct ? 1 : 0,
-                                numRight, numTotal, bm, PV);
+            if ((timeLimit < 0) && (depthLimit < 0) && (nodeLimit < 0)) {
+                System.out.printf("No time, depth or node limit given\n");
+                return false;
             }
-            fr.close();
+            List<TestSuiteRunner.TestPosition> tests = TestSuiteRunner.readEPD(filename);
+            TestSuiteRunner runner = new TestSuiteRunner(threads, hashSizeMB);
+            runner.setLimits(timeLimit, depthLimit, nodeLimit);
+            TestSuiteRunner.Result[] results = runner.run(tests, System.out);
+            new TestSuiteRunner.Summary(results).print(System.out);
+            runner.writeResults(outFile, filename, results);
+            System.out.printf("Results written to %s\n", outFile);
         } catch (NumberFormatException nfe) {
             System.out.printf("Number format exception: %s\n", nfe.getMessage());
             return false;
@@ -147,19 +166,7 @@ public class TUIGame extends Game {
         } catch (IOException ex) {
             System.out.printf("IO error: %s\n", ex.getMessage());
         } catch (ChessParseError cpe) {
-            int lineNo = (fr == null) ? -1 : fr.getLineNumber();
-            System.out.printf("Parse error, line %d: %s\n", lineNo, cpe.getMessage());
-        } catch (StringIndexOutOfBoundsException e) {
-            int lineNo = (fr == null) ? -1 : fr.getLineNumber();
-            System.out.printf("Parse error, line %d: %s\n", lineNo, e.getMessage());
-        } finally {
-            if (fr != null) {
-                try {
-                    fr.close();
-                } catch (IOException ex) {
-                    // Stupid FileReader class forces me to catch this meaningless exception
-                }
-            }
+            System.out.printf("Parse error, %s\n", cpe.getMessage());
         }
         return true;
     }
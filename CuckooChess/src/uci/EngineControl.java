@@ -20,10 +20,13 @@ package uci;
 
 import chess.Book;
 import chess.ComputerPlayer;
+import chess.Evaluate;
 import chess.History;
 import chess.Move;
 import chess.MoveGen;
+import chess.NNUE;
 import chess.Parameters;
+import chess.Perft;
 import chess.Piece;
 import chess.Position;
 import chess.Search;
@@ -36,6 +39,8 @@ import chess.Parameters.SpinParam;
 import chess.Parameters.StringParam;
 import chess.TranspositionTable.TTEntry;
 import chess.UndoInfo;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -52,8 +57,10 @@ public class EngineControl {
     private final Object threadMutex;
     Search sc;
     TranspositionTable tt;
+    Evaluate[] evals;   // One evaluator per search thread, reused between searches
     History ht;
     MoveGen moveGen;
+    HashStats hashStats;
 
     Position pos;
     long[] posHashList;
@@ -70,6 +77,14 @@ public class EngineControl {
 
     // Options
     int hashSizeMB = 16;
+    boolean hashBuckets = false;
+    int threads = 1;
+    int multiPV = 1;
+    int evalCacheMB = Evaluate.DEFAULT_CACHE_SIZE_MB;
+    String hashFile = "";
+    boolean hashLoaded = false;  // True if tt holds the contents of hashFile
+    boolean useNetwork = false;  // True to evaluate with the neural network, if one is loaded
+    NNUE network = null;         // Network loaded from the EvalFile option
     boolean ownBook = false;
     boolean analyseMode = false;
     boolean ponderMode = true;
@@ -81,11 +96,13 @@ public class EngineControl {
     /**
      * This class is responsible for sending "info" strings during search.
      */
-    private static class SearchListener implements Search.Listener {
+    private static class SearchListener implements Search.HashStatsListener, Search.MultiPVListener {
         PrintStream os;
-        
-        SearchListener(PrintStream os) {
+        HashStats hashStats;
+
+        SearchListener(PrintStream os, HashStats hashStats) {
             this.os = os;
+            this.hashStats = hashStats;
         }
 
         public void notifyDepth(int depth) {
@@ -98,6 +115,11 @@ public class EngineControl {
 
         public void notifyPV(int depth, int score, int time, long nodes, int nps, boolean isMate,
                 boolean upperBound, boolean lowerBound, ArrayList<Move> pv) {
+            notifyMultiPV(0, depth, score, time, nodes, nps, isMate, upperBound, lowerBound, pv);
+        }
+
+        public void notifyMultiPV(int multiPV, int depth, int score, int time, long nodes, int nps,
+                boolean isMate, boolean upperBound, boolean lowerBound, ArrayList<Move> pv) {
             StringBuilder pvBuf = new StringBuilder();
             for (Move m : pv) {
                 pvBuf.append(" ");
@@ -109,21 +131,33 @@ public class EngineControl {
             } else if (lowerBound) {
                 bound = " lowerbound";
             }
-            os.printf("info depth %d score %s %d%s time %d nodes %d nps %d pv%s%n",
-                    depth, isMate ? "mate" : "cp", score, bound, time, nodes, nps, pvBuf.toString());
+            String multiPVStr = (multiPV > 0) ? String.format(" multipv %d", multiPV) : "";
+            os.printf("info depth %d%s score %s %d%s time %d nodes %d nps %d pv%s%n",
+                    depth, multiPVStr, isMate ? "mate" : "cp", score, bound, time, nodes, nps,
+                    pvBuf.toString());
         }
 
         public void notifyStats(long nodes, int nps, int time) {
             os.printf("info nodes %d nps %d time %d%n", nodes, nps, time);
         }
+
+        public void notifyHashStats(int hashFull, TranspositionTable.Stats stats,
+                                    Evaluate.CacheStats evalStats) {
+            os.printf("info hashfull %d%n", hashFull);
+            os.printf("info string hash %s%n", stats.toString());
+            os.printf("info string evalcache %s%n", evalStats.toString());
+            hashStats.update(hashFull, stats);
+        }
     }
 
     public EngineControl(PrintStream os) {
         this.os = os;
         threadMutex = new Object();
-        setupTT();
+        setupTT(hashSizeMB, hashBuckets);
         ht = new History();
         moveGen = new MoveGen();
+        hashStats = new HashStats();
+        hashStats.register();
     }
 
     final public void startSearch(Position pos, ArrayList<Move> moves, SearchParams sPar) {
@@ -143,20 +177,37 @@ public class EngineControl {
         startThread(-1, -1, -1, -1);
     }
 
+    /**
+     * Print the number of leaf nodes below each legal move at the given depth,
+     * using the configured hash size and number of threads.
+     */
+    final public void perft(Position pos, List<Move> moves, int depth) {
+        stopThread();
+        setupPosition(new Position(pos), moves);
+        Perft perft = new Perft(hashSizeMB, threads);
+        try {
+            perft.divide(this.pos, depth, os);
+        } finally {
+            perft.shutdown();
+        }
+    }
+
     final public void ponderHit() {
         Search mySearch;
         synchronized (threadMutex) {
             mySearch = sc;
-        }
-        if (mySearch != null) {
-            if (onePossibleMove) {
+            if ((mySearch != null) && onePossibleMove) {
                 if (minTimeLimit > 1) minTimeLimit = 1;
                 if (maxTimeLimit > 1) maxTimeLimit = 1;
             }
-            mySearch.timeLimit(minTimeLimit, maxTimeLimit);
+            // Clear ponder before setting the time limits, so that the engine thread
+            // does not have to wait for a notification when the search stops at once.
+            infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
+            ponder = false;
+            threadMutex.notifyAll();
         }
-        infinite = (maxTimeLimit < 0) && (maxDepth < 0) && (maxNodes < 0);
-        ponder = false;
+        if (mySearch != null)
+            mySearch.timeLimit(minTimeLimit, maxTimeLimit);
     }
 
     final public void stopSearch() {
@@ -165,7 +216,10 @@ public class EngineControl {
 
     final public void newGame() {
         randomSeed = new Random().nextLong();
-        tt.clear();
+        if (hashLoaded)
+            tt.nextGeneration(); // Keep loaded entries, but let new entries replace them
+        else
+            tt.clear();
         ht.init();
     }
 
@@ -226,10 +280,14 @@ public class EngineControl {
     final private void startThread(final int minTimeLimit, final int maxTimeLimit,
                                    int maxDepth, final int maxNodes) {
         synchronized (threadMutex) {} // Must not start new search until old search is finished
-        sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        setupEvaluators();
+        sc = new Search(pos, posHashList, posHashListSize, tt, ht, evals[0]);
+        sc.setThreadEvaluators(evals);
         sc.timeLimit(minTimeLimit, maxTimeLimit);
-        sc.setListener(new SearchListener(os));
+        sc.setListener(new SearchListener(os, hashStats));
         sc.setStrength(strength, randomSeed);
+        sc.setThreads(threads);
+        sc.setMultiPV(multiPV);
         MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
         MoveGen.removeIllegal(pos, moves);
         if ((searchMoves != null) && (searchMoves.size() > 0))
@@ -253,14 +311,20 @@ public class EngineControl {
                 }
                 if (m == null) {
                     m = sc.iterativeDeepening(srchMoves, srchmaxDepth, maxNodes, false);
+                    EngineControl ec = EngineControl.this;
+                    if (!ponder && (ec.maxTimeLimit >= 0))
+                        os.printf("info string time %d allotted %d %d%n",
+                                  sc.getElapsedMillis(), ec.minTimeLimit, ec.maxTimeLimit);
                 }
-                while (ponder || infinite) {
-                    // We should not respond until told to do so. Just wait until
-                    // we are allowed to respond.
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException ex) {
-                        break;
+                synchronized (threadMutex) {
+                    while (ponder || infinite) {
+                        // We should not respond until told to do so. Just wait until
+                        // we are allowed to respond.
+                        try {
+                            threadMutex.wait();
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
                     }
                 }
                 Move ponderMove = getPonderMove(pos, m);
@@ -286,9 +350,12 @@ public class EngineControl {
             mySearch = sc;
         }
         if (myThread != null) {
-            mySearch.timeLimit(0, 0);
-            infinite = false;
-            ponder = false;
+            synchronized (threadMutex) {
+                infinite = false;
+                ponder = false;
+                threadMutex.notifyAll();
+            }
+            mySearch.stop();
             try {
                 myThread.join();
             } catch (InterruptedException ex) {
@@ -298,10 +365,82 @@ public class EngineControl {
     }
 
 
-    private final void setupTT() {
-        int nEntries = hashSizeMB > 0 ? hashSizeMB * (1 << 20) / 24 : 1024;
-        int logSize = (int) Math.floor(Math.log(nEntries) / Math.log(2));
-        tt = new TranspositionTable(logSize);
+    /**
+     * Replace the transposition table with a table of the given size and replacement scheme.
+     * If there is not enough memory for the new table, the old table and options are kept.
+     */
+    private final void setupTT(int sizeMB, boolean buckets) {
+        long nEntries = sizeMB > 0 ? sizeMB * (1L << 20) / TranspositionTable.BYTES_PER_ENTRY : 1024;
+        int logSize = 63 - Long.numberOfLeadingZeros(nEntries);
+        try {
+            tt = new TranspositionTable(logSize, logSize > TranspositionTable.MAX_HEAP_LOG_SIZE, buckets);
+            hashSizeMB = sizeMB;
+            hashBuckets = buckets;
+        } catch (OutOfMemoryError ex) {
+            if (tt == null)
+                throw ex;
+            os.printf("info string Failed to allocate %d MB hash table, keeping %d MB table: %s%n",
+                      sizeMB, hashSizeMB, ex.getMessage());
+        }
+    }
+
+    /**
+     * Make sure there is one evaluator with the configured cache size for each search thread,
+     * using the configured evaluation backend.
+     */
+    private final void setupEvaluators() {
+        int n = Math.max(threads, 1);
+        if ((evals == null) || (evals.length != n)) {
+            Evaluate[] newEvals = new Evaluate[n];
+            for (int i = 0; i < n; i++)
+                newEvals[i] = ((evals != null) && (i < evals.length)) ? evals[i] : new Evaluate(evalCacheMB);
+            evals = newEvals;
+        }
+        NNUE net = useNetwork ? network : null;
+        for (Evaluate e : evals)
+            if (e.getNetwork() != net)
+                e.setNetwork(net);
+    }
+
+    /** Load the neural network from evalFile. */
+    private final void loadNetwork(String evalFile) {
+        network = null;
+        if (evalFile.length() == 0)
+            return;
+        try {
+            network = NNUE.load(evalFile);
+            os.printf("info string Loaded network from %s%n", evalFile);
+        } catch (IOException ex) {
+            os.printf("info string Failed to load network: %s%n", ex.getMessage());
+        }
+    }
+
+    /**
+     * Replace the transposition table with the contents of hashFile. The file must be
+     * writable, see TranspositionTable.load(), but the search does not change it.
+     */
+    private final void loadHash() {
+        try {
+            tt = TranspositionTable.load(hashFile);
+            hashLoaded = true;
+            os.printf("info string Loaded hash table from %s%n", hashFile);
+        } catch (IOException ex) {
+            os.printf("info string Failed to load hash table: %s%n", ex.getMessage());
+        }
+    }
+
+    /** Save the transposition table to hashFile. */
+    private final void saveHash() {
+        if (hashFile.length() == 0) {
+            os.printf("info string No HashFile set%n");
+            return;
+        }
+        try {
+            tt.save(hashFile);
+            os.printf("info string Saved hash table to %s%n", hashFile);
+        } catch (IOException ex) {
+            os.printf("info string Failed to save hash table: %s%n", ex.getMessage());
+        }
     }
 
     private final void setupPosition(Position pos, List<Move> moves) {
@@ -331,7 +470,7 @@ public class EngineControl {
             MoveGen.removeIllegal(pos, moves);
             boolean contains = false;
             for (int mi = 0; mi < moves.size; mi++)
-                if (moves.m[mi].equals(ret)) {
+                if (moves.getMove(mi).equals(ret)) {
                     contains = true;
                     break;
                 }
@@ -371,7 +510,17 @@ public class EngineControl {
     }
 
     static void printOptions(PrintStream os) {
-        os.printf("option name Hash type spin default 16 min 1 max 2048%n");
+        os.printf("option name Hash type spin default 16 min 1 max 131072%n");
+        os.printf("option name HashScheme type combo default Cuckoo var Cuckoo var Buckets%n");
+        os.printf("option name Threads type spin default 1 min 1 max 64%n");
+        os.printf("option name MultiPV type spin default 1 min 1 max 256%n");
+        os.printf("option name EvalCache type spin default %d min 1 max 1024%n",
+                  Evaluate.DEFAULT_CACHE_SIZE_MB);
+        // The hash file is memory mapped copy-on-write, which requires a writable file
+        os.printf("option name HashFile type string default <empty>%n");
+        os.printf("option name EvalBackend type combo default Classical var Classical var NNUE%n");
+        os.printf("option name EvalFile type string default <empty>%n");
+        os.printf("option name SaveHash type button%n");
         os.printf("option name OwnBook type check default false%n");
         os.printf("option name Ponder type check default true%n");
         os.printf("option name UCI_AnalyseMode type check default false%n");
@@ -417,9 +566,35 @@ public class EngineControl {
 
     final void setOption(String optionName, String optionValue) {
         try {
-            if (optionName.equals("hash")) {
-                hashSizeMB = Integer.parseInt(optionValue);
-                setupTT();
+            if (optionName.equals("hash") || optionName.equals("hashscheme")) {
+                if (hashLoaded) {
+                    os.printf("info string Hash table loaded from %s, clear HashFile to change %s%n",
+                              hashFile, optionName);
+                } else if (optionName.equals("hash")) {
+                    setupTT(Integer.parseInt(optionValue), hashBuckets);
+                } else {
+                    setupTT(hashSizeMB, optionValue.toLowerCase().equals("buckets"));
+                }
+            } else if (optionName.equals("threads")) {
+                threads = Integer.parseInt(optionValue);
+            } else if (optionName.equals("multipv")) {
+                multiPV = Integer.parseInt(optionValue);
+            } else if (optionName.equals("evalcache")) {
+                evalCacheMB = Integer.parseInt(optionValue);
+                evals = null;
+            } else if (optionName.equals("hashfile")) {
+                hashFile = optionValue.equals("<empty>") ? "" : optionValue;
+                hashLoaded = false;
+                if ((hashFile.length() > 0) && new File(hashFile).exists())
+                    loadHash();
+            } else if (optionName.equals("evalbackend")) {
+                useNetwork = optionValue.toLowerCase().equals("nnue");
+                if (useNetwork && (network == null))
+                    os.printf("info string No EvalFile loaded, using classical evaluation%n");
+            } else if (optionName.equals("evalfile")) {
+                loadNetwork(optionValue.equals("<empty>") ? "" : optionValue);
+            } else if (optionName.equals("savehash")) {
+                saveHash();
             } else if (optionName.equals("ownbook")) {
                 ownBook = Boolean.parseBoolean(optionValue);
             } else if (optionName.equals("ponder")) {
@@ -0,0 +1,68 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package uci;
+
+import chess.TranspositionTable;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Transposition table statistics from the most recent search, exported as a JMX MBean.
+ * @author petero
+ */
+public class HashStats implements HashStatsMBean {
+    private volatile int hashFull = 0;
+    private volatile TranspositionTable.Stats stats = new TranspositionTable.Stats();
+
+    /** Register this object with the platform MBean server, replacing any earlier instance. */
+    public final void register() {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("cuckoochess:type=HashStats");
+            if (mbs.isRegistered(name))
+                mbs.unregisterMBean(name);
+            mbs.registerMBean(this, name);
+        } catch (JMException ex) {
+        }
+    }
+
+    /** Called by the search listener. "stats" must not be modified after this call. */
+    final void update(int hashFull, TranspositionTable.Stats stats) {
+        this.hashFull = hashFull;
+        this.stats = stats;
+    }
+
+    public int getHashFull() { return hashFull; }
+    public long getProbes() { return stats.probes; }
+    public long getHits() { return stats.hits; }
+    public double getHitRate() {
+        TranspositionTable.Stats s = stats;
+        return s.probes > 0 ? s.hits / (double)s.probes : 0.0;
+    }
+    public long getCutoffs() { return stats.cutoffs; }
+    public long getCollisions() { return stats.collisions; }
+    public long getStoresNew() { return stats.storesNew; }
+    public long getStoresUpdate() { return stats.storesUpdate; }
+    public long getStoresSkipped() { return stats.storesSkipped; }
+    public long getReplacedOld() { return stats.replacedOld; }
+    public long getReplacedCurrent() { return stats.replacedCurrent; }
+    public long getRelocations() { return stats.relocations; }
+}
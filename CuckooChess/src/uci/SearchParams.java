@@ -38,6 +38,7 @@ public class SearchParams {
     int mate;                // If >0, search for mate-in-x
     int moveTime;            // If >0, search for exactly this amount of time, ms
     boolean infinite;
+    int perft;               // If >0, run perft to this depth instead of searching
 
     public SearchParams() {
         searchMoves = new ArrayList<Move>();
@@ -18,6 +18,7 @@
 
 package uci;
 
+import chess.Bench;
 import chess.ChessParseError;
 import chess.ComputerPlayer;
 import chess.Move;
@@ -100,7 +101,7 @@ public class UCIProtocol {
                     }
                     if ((idx < tokens.length) && tokens[idx++].equals("value")) {
                         while ((idx < tokens.length)) {
-                            optionValue.append(tokens[idx++].toLowerCase());
+                            optionValue.append(tokens[idx++]);
                             optionValue.append(' ');
                         }
                     }
@@ -185,9 +186,13 @@ public class UCIProtocol {
                         sPar.moveTime = Integer.parseInt(tokens[idx++]);
                     } else if (subCmd.equals("infinite")) {
                         sPar.infinite = true;
+                    } else if (subCmd.equals("perft")) {
+                        sPar.perft = Integer.parseInt(tokens[idx++]);
                     }
                 }
-                if (ponder) {
+                if (sPar.perft > 0) {
+                    engine.perft(pos, moves, sPar.perft);
+                } else if (ponder) {
                     engine.startPonder(pos, moves, sPar);
                 } else {
                     engine.startSearch(pos, moves, sPar);
@@ -196,6 +201,14 @@ public class UCIProtocol {
                 engine.stopSearch();
             } else if (cmd.equals("ponderhit")) {
                 engine.ponderHit();
+            } else if (cmd.equals("bench")) {
+                if (engine != null) {
+                    engine.stopSearch();
+                }
+                int hashSizeMB = (tokens.length > 1) ? Integer.parseInt(tokens[1]) : Bench.DEFAULT_HASH_MB;
+                int depth = (tokens.length > 2) ? Integer.parseInt(tokens[2]) : Bench.DEFAULT_DEPTH;
+                int threads = (tokens.length > 3) ? Integer.parseInt(tokens[3]) : Bench.DEFAULT_THREADS;
+                Bench.run(hashSizeMB, depth, threads, os);
             } else if (cmd.equals("quit")) {
                 if (engine != null) {
                     engine.stopSearch();
@@ -0,0 +1,194 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package uci;
+
+import chess.ChessParseError;
+import chess.Move;
+import chess.Piece;
+import chess.Position;
+import chess.TextIO;
+import chess.TranspositionTable;
+import chess.TranspositionTable.TTEntry;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class EngineControlTest {
+
+    public EngineControlTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    /** Output stream that records the time when a bestmove line is written. */
+    private static final class BestMoveStream extends OutputStream {
+        private StringBuilder line = new StringBuilder();
+        volatile long bestMoveTime;
+        volatile CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                if (line.toString().startsWith("bestmove")) {
+                    bestMoveTime = System.nanoTime();
+                    latch.countDown();
+                }
+                line.setLength(0);
+            } else {
+                line.append((char)b);
+            }
+        }
+    }
+
+    /**
+     * Test of stopSearch and ponderHit methods, of class EngineControl.
+     */
+    @Test
+    public void testStopLatency() throws ChessParseError, InterruptedException {
+        System.out.println("stopLatency");
+        BestMoveStream bs = new BestMoveStream();
+        EngineControl ec = new EngineControl(new PrintStream(bs));
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        measureLatency(ec, bs, pos, false, 10); // Let the JIT compiler compile the search code
+        final int nTests = 20;
+        long[] stopLatency = measureLatency(ec, bs, pos, false, nTests);
+        printHistogram("stop", stopLatency);
+        long[] ponderHitLatency = measureLatency(ec, bs, pos, true, nTests);
+        printHistogram("ponderhit", ponderHitLatency);
+
+        // With a single CPU the search thread shares the CPU with the JIT compiler thread,
+        // which can keep it for a whole scheduler tick after the command has been sent.
+        long limit = (Runtime.getRuntime().availableProcessors() > 1) ? 1000000 : 20000000;
+        assertTrue(median(stopLatency) < limit);
+        assertTrue(median(ponderHitLatency) < limit);
+    }
+
+    /**
+     * Measure the time from stopSearch, or from ponderHit after the allotted time has
+     * already been used, until the bestmove line has been written.
+     * @return The latencies in nanoseconds.
+     */
+    private static long[] measureLatency(EngineControl ec, BestMoveStream bs, Position pos,
+                                         boolean ponderHit, int nTests) throws InterruptedException {
+        long[] latency = new long[nTests];
+        for (int i = 0; i < nTests; i++) {
+            bs.latch = new CountDownLatch(1);
+            SearchParams sPar = new SearchParams();
+            if (ponderHit) {
+                sPar.wTime = sPar.bTime = 1000;
+                ec.startPonder(pos, new ArrayList<Move>(), sPar);
+            } else {
+                sPar.infinite = true;
+                ec.startSearch(pos, new ArrayList<Move>(), sPar);
+            }
+            Thread.sleep(20);
+            long t0 = System.nanoTime();
+            if (ponderHit)
+                ec.ponderHit();
+            else
+                ec.stopSearch();
+            assertTrue(bs.latch.await(10, TimeUnit.SECONDS));
+            latency[i] = bs.bestMoveTime - t0;
+            ec.stopSearch();
+        }
+        return latency;
+    }
+
+    /**
+     * Test that a table loaded from HashFile survives newGame and is not resized.
+     */
+    @Test
+    public void testHashFile() throws IOException {
+        System.out.println("hashFile");
+        TranspositionTable tt = new TranspositionTable(10);
+        Move m = new Move(12, 28, Piece.EMPTY);
+        m.score = 17;
+        tt.insert(0x123456789abcdef0L, m, TTEntry.T_EXACT, 0, 40, 0);
+        File f = File.createTempFile("hash", ".bin");
+        f.deleteOnExit();
+        tt.save(f.getPath());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EngineControl ec = new EngineControl(new PrintStream(out));
+        ec.setOption("hashfile", f.getPath());
+        TranspositionTable loaded = ec.tt;
+        ec.newGame();
+        TTEntry ent = new TTEntry();
+        ec.tt.probe(0x123456789abcdef0L, ent);
+        assertEquals(TTEntry.T_EXACT, ent.type);
+        assertEquals(17, ent.getScore(0));
+
+        ec.setOption("hash", "32");
+        assertSame(loaded, ec.tt);
+        assertTrue(out.toString().contains("clear HashFile"));
+
+        ec.setOption("hashfile", "<empty>");
+        ec.setOption("hash", "1");
+        assertTrue(loaded != ec.tt);
+        ec.newGame();
+        ec.tt.probe(0x123456789abcdef0L, ent);
+        assertEquals(TTEntry.T_EMPTY, ent.type);
+    }
+
+    private static long median(long[] v) {
+        long[] tmp = v.clone();
+        Arrays.sort(tmp);
+        return tmp[tmp.length / 2];
+    }
+
+    /** Print a latency histogram. Latencies are in nanoseconds. */
+    private static void printHistogram(String name, long[] latency) {
+        final long[] limits = { 250, 500, 1000, 2000, 5000, 10000, Long.MAX_VALUE };
+        int[] count = new int[limits.length];
+        for (long l : latency) {
+            int i = 0;
+            while (l / 1000 >= limits[i])
+                i++;
+            count[i]++;
+        }
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < limits.length; i++) {
+            if (limits[i] == Long.MAX_VALUE)
+                buf.append(String.format(" >=%dus:%d", limits[i-1], count[i]));
+            else
+                buf.append(String.format(" <%dus:%d", limits[i], count[i]));
+        }
+        System.out.printf("%s latency, median %dus:%s%n", name, median(latency) / 1000, buf.toString());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.BitBoard;
+import chess.Piece;
+import chess.Position;
+
+/**
+ * Slider attack lookup benchmarks. Each corpus position gives one occupancy
+ * bitboard, which is used for lookups from all 64 squares.
+ * Scores are the average time per lookup.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BitBoardBench {
+    private long[] occupied;
+    private long[] rooks;   // Rooks and queens
+    private long[] bishops; // Bishops and queens
+
+    @Setup
+    public void setup() {
+        Position[] positions = Corpus.positions();
+        occupied = new long[positions.length];
+        rooks = new long[positions.length];
+        bishops = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            long[] bb = pos.pieceTypeBB;
+            occupied[i] = pos.whiteBB | pos.blackBB;
+            rooks[i] = bb[Piece.WROOK] | bb[Piece.BROOK] | bb[Piece.WQUEEN] | bb[Piece.BQUEEN];
+            bishops[i] = bb[Piece.WBISHOP] | bb[Piece.BBISHOP] | bb[Piece.WQUEEN] | bb[Piece.BQUEEN];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE * 64)
+    public long rookAttacks() {
+        long ret = 0;
+        for (long occ : occupied)
+            for (int sq = 0; sq < 64; sq++)
+                ret ^= BitBoard.rookAttacks(sq, occ);
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE * 64)
+    public long bishopAttacks() {
+        long ret = 0;
+        for (long occ : occupied)
+            for (int sq = 0; sq < 64; sq++)
+                ret ^= BitBoard.bishopAttacks(sq, occ);
+        return ret;
+    }
+
+    /**
+     * Lookups from the squares of the sliders in each position, as in move generation.
+     * Scores are the average time per corpus position.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public long sliderAttacks() {
+        long ret = 0;
+        for (int i = 0; i < occupied.length; i++) {
+            long occ = occupied[i];
+            long r = rooks[i];
+            while (r != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(r);
+                ret ^= BitBoard.rookAttacks(sq, occ);
+                r &= r - 1;
+            }
+            long b = bishops[i];
+            while (b != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(b);
+                ret ^= BitBoard.bishopAttacks(sq, occ);
+                b &= b - 1;
+            }
+        }
+        return ret;
+    }
+}
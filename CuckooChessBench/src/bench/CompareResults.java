@@ -0,0 +1,285 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare two JMH result files in JSON format, as written by "-rf json".
+ * For each benchmark the scores are printed together with the relative change.
+ * Changes larger than the sum of the score errors are marked with "*".
+ * No mark is printed if JMH could not compute the errors, which happens
+ * when there are too few measurement iterations.
+ * The gc.alloc.rate.norm secondary metric, from "-prof gc", is also compared.
+ * Usage: java bench.CompareResults old.json new.json
+ * @author petero
+ */
+public class CompareResults {
+
+    /** Score and error for one benchmark. */
+    static final class Result {
+        String unit;
+        double score;
+        double error;
+        double allocBytes = Double.NaN; // Allocated bytes per operation, or NaN if not measured
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.printf("Usage: java bench.CompareResults old.json new.json%n");
+            System.exit(2);
+        }
+        Map<String,Result> oldRes = readResults(args[0]);
+        Map<String,Result> newRes = readResults(args[1]);
+        System.out.printf("%-60s %12s %12s %8s %10s%n", "Benchmark", "Old", "New", "Change", "Alloc B/op");
+        for (Map.Entry<String,Result> e : newRes.entrySet()) {
+            String name = e.getKey();
+            Result n = e.getValue();
+            Result o = oldRes.get(name);
+            String alloc = Double.isNaN(n.allocBytes) ? "" : String.format("%.0f", n.allocBytes);
+            if (o == null) {
+                System.out.printf("%-60s %12s %12.3f %8s %10s %s%n", name, "-", n.score, "", alloc, n.unit);
+                continue;
+            }
+            double change = (n.score - o.score) / o.score * 100;
+            boolean significant = !Double.isNaN(o.error) && !Double.isNaN(n.error) &&
+                                  (Math.abs(n.score - o.score) > o.error + n.error);
+            if (!Double.isNaN(o.allocBytes) && !Double.isNaN(n.allocBytes))
+                alloc = String.format("%.0f>%.0f", o.allocBytes, n.allocBytes);
+            System.out.printf("%-60s %12.3f %12.3f %+7.1f%%%s %10s %s%n", name, o.score, n.score,
+                              change, significant ? "*" : " ", alloc, n.unit);
+        }
+        for (String name : oldRes.keySet())
+            if (!newRes.containsKey(name))
+                System.out.printf("%-60s %12.3f %12s%n", name, oldRes.get(name).score, "-");
+    }
+
+    /** Read a JMH result file. Returns a map from benchmark name and parameters to result. */
+    @SuppressWarnings("unchecked")
+    static Map<String,Result> readResults(String fileName) throws IOException {
+        Map<String,Result> ret = new LinkedHashMap<String,Result>();
+        Object json = new JsonParser(readFile(fileName)).parse();
+        if (!(json instanceof List))
+            throw new IOException("Not a JMH result file: " + fileName);
+        for (Object o : (List<Object>)json) {
+            Map<String,Object> bench = (Map<String,Object>)o;
+            StringBuilder name = new StringBuilder((String)bench.get("benchmark"));
+            Object params = bench.get("params");
+            if (params instanceof Map) {
+                Map<String,Object> sorted = new TreeMap<String,Object>((Map<String,Object>)params);
+                for (Map.Entry<String,Object> p : sorted.entrySet())
+                    name.append(':').append(p.getKey()).append('=').append(p.getValue());
+            }
+            Map<String,Object> primary = (Map<String,Object>)bench.get("primaryMetric");
+            Result r = new Result();
+            r.unit = (String)primary.get("scoreUnit");
+            r.score = toDouble(primary.get("score"));
+            r.error = toDouble(primary.get("scoreError"));
+            Object secondary = bench.get("secondaryMetrics");
+            if (secondary instanceof Map) {
+                // JMH versions differ in whether the profiler metric names start with a middle dot
+                Object alloc = ((Map<String,Object>)secondary).get("\u00b7gc.alloc.rate.norm");
+                if (alloc == null)
+                    alloc = ((Map<String,Object>)secondary).get("gc.alloc.rate.norm");
+                if (alloc instanceof Map)
+                    r.allocBytes = toDouble(((Map<String,Object>)alloc).get("score"));
+            }
+            ret.put(name.toString(), r);
+        }
+        return ret;
+    }
+
+    private static double toDouble(Object o) {
+        if (o instanceof Double)
+            return (Double)o;
+        return Double.NaN; // JMH writes "NaN" as a string when the error is not known
+    }
+
+    private static String readFile(String fileName) throws IOException {
+        File f = new File(fileName);
+        byte[] data = new byte[(int)f.length()];
+        InputStream is = new FileInputStream(f);
+        try {
+            int len = 0;
+            while (len < data.length) {
+                int n = is.read(data, len, data.length - len);
+                if (n < 0)
+                    break;
+                len += n;
+            }
+        } finally {
+            is.close();
+        }
+        return new String(data, "UTF-8");
+    }
+
+    /**
+     * A minimal JSON parser. Objects are returned as maps, arrays as lists,
+     * numbers as doubles, and true/false/null as Boolean/null.
+     */
+    static final class JsonParser {
+        private final String s;
+        private int pos;
+
+        JsonParser(String s) {
+            this.s = s;
+            pos = 0;
+        }
+
+        final Object parse() throws IOException {
+            Object ret = value();
+            skipSpace();
+            if (pos != s.length())
+                throw error("Trailing characters");
+            return ret;
+        }
+
+        private Object value() throws IOException {
+            skipSpace();
+            if (pos >= s.length())
+                throw error("Unexpected end of input");
+            char c = s.charAt(pos);
+            switch (c) {
+            case '{': {
+                pos++;
+                Map<String,Object> ret = new LinkedHashMap<String,Object>();
+                skipSpace();
+                if (peek('}'))
+                    return ret;
+                do {
+                    skipSpace();
+                    String key = string();
+                    skipSpace();
+                    expect(':');
+                    ret.put(key, value());
+                    skipSpace();
+                } while (peek(','));
+                expect('}');
+                return ret;
+            }
+            case '[': {
+                pos++;
+                List<Object> ret = new ArrayList<Object>();
+                skipSpace();
+                if (peek(']'))
+                    return ret;
+                do {
+                    ret.add(value());
+                    skipSpace();
+                } while (peek(','));
+                expect(']');
+                return ret;
+            }
+            case '"':
+                return string();
+            default:
+                if (s.startsWith("true", pos)) {
+                    pos += 4;
+                    return Boolean.TRUE;
+                } else if (s.startsWith("false", pos)) {
+                    pos += 5;
+                    return Boolean.FALSE;
+                } else if (s.startsWith("null", pos)) {
+                    pos += 4;
+                    return null;
+                }
+                return number();
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length())
+                    throw error("Unterminated string");
+                char c = s.charAt(pos++);
+                if (c == '"')
+                    break;
+                if (c == '\\') {
+                    if (pos >= s.length())
+                        throw error("Unterminated string");
+                    c = s.charAt(pos++);
+                    switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        if (pos + 4 > s.length())
+                            throw error("Bad unicode escape");
+                        try {
+                            c = (char)Integer.parseInt(s.substring(pos, pos + 4), 16);
+                        } catch (NumberFormatException ex) {
+                            throw error("Bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        private Double number() throws IOException {
+            int start = pos;
+            while ((pos < s.length()) && ("+-0123456789.eE".indexOf(s.charAt(pos)) >= 0))
+                pos++;
+            try {
+                return Double.valueOf(s.substring(start, pos));
+            } catch (NumberFormatException ex) {
+                throw error("Bad number");
+            }
+        }
+
+        private void skipSpace() {
+            while ((pos < s.length()) && Character.isWhitespace(s.charAt(pos)))
+                pos++;
+        }
+
+        private boolean peek(char c) {
+            if ((pos < s.length()) && (s.charAt(pos) == c)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            if (!peek(c))
+                throw error("Expected '" + c + "'");
+        }
+
+        private IOException error(String msg) {
+            return new IOException(msg + " at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import chess.ChessParseError;
+import chess.MoveGen;
+import chess.Position;
+import chess.TextIO;
+import chess.UndoInfo;
+
+/**
+ * The fixed set of positions used by all benchmarks.
+ * The positions are stored in positions.fen, so that results from different
+ * engine versions are measured on exactly the same input. The file was created
+ * by the main method in this class and should not be regenerated, since that
+ * would make old results incomparable with new ones.
+ * @author petero
+ */
+public class Corpus {
+    /** Number of positions in the corpus. */
+    public static final int SIZE = 1024;
+
+    private static final String FILE_NAME = "positions.fen";
+
+    private static String[] fens;
+
+    /** Start positions for the random games used to create the corpus. */
+    private static final String[] startFens = {
+        TextIO.startPosFEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+        "8/8/4k3/3p4/3P4/4K3/8/8 w - - 0 1",
+    };
+
+    /** Return the corpus positions as FEN strings. */
+    public static synchronized String[] fens() {
+        if (fens == null) {
+            List<String> lines = new ArrayList<String>();
+            InputStream is = Corpus.class.getResourceAsStream(FILE_NAME);
+            if (is == null)
+                throw new RuntimeException("Corpus file not found: " + FILE_NAME);
+            try {
+                BufferedReader r = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                String line;
+                while ((line = r.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0)
+                        lines.add(line);
+                }
+                r.close();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            if (lines.size() != SIZE)
+                throw new RuntimeException("Corpus size mismatch: " + lines.size());
+            fens = lines.toArray(new String[lines.size()]);
+        }
+        return fens.clone();
+    }
+
+    /** Return new Position objects for all corpus positions. */
+    public static Position[] positions() {
+        String[] f = fens();
+        Position[] ret = new Position[f.length];
+        try {
+            for (int i = 0; i < f.length; i++)
+                ret[i] = TextIO.readFEN(f[i]);
+        } catch (ChessParseError ex) {
+            throw new RuntimeException(ex);
+        }
+        return ret;
+    }
+
+    /**
+     * Create the corpus by playing random games from a set of start positions
+     * and picking every fourth position that has at least one legal move.
+     * Usage: java bench.Corpus > src/bench/positions.fen
+     */
+    public static void main(String[] args) throws ChessParseError {
+        Random rnd = new Random(20111127);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        PrintWriter out = new PrintWriter(System.out);
+        int nPos = 0;
+        while (nPos < SIZE) {
+            Position pos = TextIO.readFEN(startFens[rnd.nextInt(startFens.length)]);
+            for (int ply = 0; (ply < 120) && (nPos < SIZE); ply++) {
+                MoveGen.MoveList moves = moveGen.legalMoves(pos);
+                if (moves.size == 0) {
+                    moveGen.returnMoveList(moves);
+                    break;
+                }
+                if (ply % 4 == 3) {
+                    out.println(TextIO.toFEN(pos));
+                    nPos++;
+                }
+                pos.makeMove(moves.m[rnd.nextInt(moves.size)], ui);
+                moveGen.returnMoveList(moves);
+            }
+        }
+        out.flush();
+    }
+}
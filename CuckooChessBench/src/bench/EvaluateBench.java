@@ -0,0 +1,186 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.Evaluate;
+import chess.NNUE;
+import chess.Position;
+import chess.UndoInfo;
+
+/**
+ * Static evaluation benchmarks, comparing the handcrafted evaluation with the
+ * neural network evaluation. Scores are the average time per corpus position.
+ * The static evaluation cache is cleared before each pass over the corpus, so the
+ * scores measure the evaluation itself. The pawn and king safety caches are kept,
+ * as they would be during a search.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvaluateBench {
+    /**
+     * Network file to use for the NNUE benchmarks. If empty, a network with random
+     * weights and 256/32/32 hidden layer sizes is used. The speed only depends on the sizes.
+     */
+    @Param({""})
+    public String networkFile;
+
+    private Position[] positions;     // Positions for the handcrafted evaluation, without accumulators
+    private Position[] nnuePositions; // The same positions, with network accumulators
+    private int[][] moves;
+    private Evaluate handcrafted;
+    private Evaluate nnue;
+    private NNUE network;
+    private UndoInfo ui;
+
+    @Setup
+    public void setup() throws IOException {
+        positions = Corpus.positions();
+        moves = PositionBench.legalMoves(positions);
+        handcrafted = new Evaluate();
+        String fileName = networkFile;
+        if (fileName.length() == 0)
+            fileName = writeRandomNetwork(256, 32, 32, 1);
+        network = NNUE.load(fileName);
+        nnue = new Evaluate();
+        nnue.setNetwork(network);
+        nnuePositions = Corpus.positions();
+        for (Position pos : nnuePositions)
+            pos.setAccumulator(network.newAccumulator());
+        ui = new UndoInfo();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int handcrafted() {
+        handcrafted.setNetwork(null); // Clears the static evaluation cache
+        int sum = 0;
+        for (Position pos : positions)
+            sum += handcrafted.evalPos(pos);
+        return sum;
+    }
+
+    /** Network evaluation of positions whose accumulators are up to date. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int nnue() {
+        nnue.setNetwork(network); // Clears the static evaluation cache
+        int sum = 0;
+        for (Position pos : nnuePositions)
+            sum += nnue.evalPos(pos);
+        return sum;
+    }
+
+    /**
+     * Network evaluation after a move, including the incremental accumulator
+     * update in makeMove() and unMakeMove(), as in the search.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int nnueAfterMove() {
+        nnue.setNetwork(network);
+        int sum = 0;
+        for (int i = 0; i < nnuePositions.length; i++) {
+            Position pos = nnuePositions[i];
+            int m = moves[i][0];
+            pos.makeMove(m, ui);
+            sum += nnue.evalPos(pos);
+            pos.unMakeMove(m, ui);
+        }
+        return sum;
+    }
+
+    /** Like nnueAfterMove, but using the handcrafted evaluation. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int handcraftedAfterMove() {
+        handcrafted.setNetwork(null);
+        int sum = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            int m = moves[i][0];
+            pos.makeMove(m, ui);
+            sum += handcrafted.evalPos(pos);
+            pos.unMakeMove(m, ui);
+        }
+        return sum;
+    }
+
+    /** Write a network with random weights to a temporary file and return the file name. */
+    private static String writeRandomNetwork(int nHidden, int nL2, int nL3, long seed) throws IOException {
+        final int nInputs = 12 * 64;
+        Random rnd = new Random(seed);
+        int size = 5 * 4 + (nInputs + 1) * nHidden * 2 + nL2 * 2 * nHidden + nL2 * 4 +
+                   nL3 * nL2 + nL3 * 4 + nL3 + 4;
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0x4e4e4343);
+        buf.putInt(1);
+        buf.putInt(nHidden);
+        buf.putInt(nL2);
+        buf.putInt(nL3);
+        for (int i = 0; i < (nInputs + 1) * nHidden; i++)
+            buf.putShort((short)(rnd.nextInt(41) - 20));
+        for (int i = 0; i < nL2 * 2 * nHidden; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        for (int i = 0; i < nL2; i++)
+            buf.putInt(rnd.nextInt(2000) - 1000);
+        for (int i = 0; i < nL3 * nL2; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        for (int i = 0; i < nL3; i++)
+            buf.putInt(rnd.nextInt(2000) - 1000);
+        for (int i = 0; i < nL3; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        buf.putInt(rnd.nextInt(2000) - 1000);
+
+        File f = File.createTempFile("nnue", ".bin");
+        f.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(f);
+        try {
+            os.write(buf.array());
+        } finally {
+            os.close();
+        }
+        return f.getAbsolutePath();
+    }
+}
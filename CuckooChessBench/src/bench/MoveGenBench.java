@@ -0,0 +1,134 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.AttackInfo;
+import chess.MoveGen;
+import chess.Position;
+
+/**
+ * Move generation benchmarks. Scores are the average time per corpus position.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoveGenBench {
+    private Position[] positions;
+    private boolean[] inCheck;
+    private MoveGen moveGen;
+    private AttackInfo ai;
+
+    @Setup
+    public void setup() {
+        positions = Corpus.positions();
+        inCheck = new boolean[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            inCheck[i] = MoveGen.inCheck(positions[i]);
+        moveGen = new MoveGen();
+        ai = new AttackInfo();
+    }
+
+    /** Pseudo-legal moves, or check evasions when in check, as generated by the search. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int pseudoLegalMoves() {
+        int n = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            MoveGen.MoveList moves = inCheck[i] ? moveGen.checkEvasions(pos)
+                                                : moveGen.pseudoLegalMoves(pos);
+            n += moves.size;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int legalMoves() {
+        int n = 0;
+        for (Position pos : positions) {
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            n += moves.size;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int pseudoLegalCaptures() {
+        int n = 0;
+        for (Position pos : positions) {
+            MoveGen.MoveList moves = moveGen.pseudoLegalCaptures(pos);
+            n += moves.size;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+
+    /** Legality test of all pseudo-legal moves, using shared attack information. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int isLegal() {
+        int n = 0;
+        for (Position pos : positions) {
+            ai.clear();
+            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+            for (int mi = 0; mi < moves.size; mi++)
+                if (MoveGen.isLegal(pos, moves.m[mi], ai))
+                    n++;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int givesCheck() {
+        int n = 0;
+        for (Position pos : positions) {
+            ai.clear();
+            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+            for (int mi = 0; mi < moves.size; mi++)
+                if (MoveGen.givesCheck(pos, moves.m[mi], ai))
+                    n++;
+            moveGen.returnMoveList(moves);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.ChessParseError;
+import chess.MoveGen;
+import chess.Position;
+import chess.TextIO;
+import chess.UndoInfo;
+
+/**
+ * Perft benchmarks for some standard test positions. This measures the combined
+ * speed of legal move generation and makeMove/unMakeMove.
+ * Scores are the average time for one perft call.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PerftBench {
+    @Param({"start", "kiwipete", "endgame", "promotions"})
+    public String position;
+
+    private static final String[][] positions = {
+        { "start", TextIO.startPosFEN, "4", "197281" },
+        { "kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", "3", "97862" },
+        { "endgame", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", "5", "674624" },
+        { "promotions", "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1", "4", "422333" },
+    };
+
+    private Position pos;
+    private int depth;
+    private long expected;
+    private MoveGen moveGen;
+
+    @Setup
+    public void setup() throws ChessParseError {
+        for (String[] p : positions) {
+            if (p[0].equals(position)) {
+                pos = TextIO.readFEN(p[1]);
+                depth = Integer.parseInt(p[2]);
+                expected = Long.parseLong(p[3]);
+            }
+        }
+        if (pos == null)
+            throw new IllegalArgumentException("Unknown position: " + position);
+        moveGen = new MoveGen();
+        long nodes = perfT(pos, depth);
+        if (nodes != expected)
+            throw new RuntimeException("Wrong perft result: " + nodes + ", expected: " + expected);
+    }
+
+    @Benchmark
+    public long perfT() {
+        return perfT(pos, depth);
+    }
+
+    private long perfT(Position pos, int depth) {
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        if (depth == 1) {
+            int ret = moves.size;
+            moveGen.returnMoveList(moves);
+            return ret;
+        }
+        long nodes = 0;
+        UndoInfo ui = new UndoInfo();
+        for (int mi = 0; mi < moves.size; mi++) {
+            int m = moves.m[mi];
+            pos.makeMove(m, ui);
+            nodes += perfT(pos, depth - 1);
+            pos.unMakeMove(m, ui);
+        }
+        moveGen.returnMoveList(moves);
+        return nodes;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.MoveGen;
+import chess.Position;
+import chess.UndoInfo;
+
+/**
+ * Benchmarks for Position.makeMove() and Position.unMakeMove().
+ * Scores are the average time to make and unmake all legal moves in a corpus position.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PositionBench {
+    private Position[] positions;
+    private int[][] moves;
+    private UndoInfo ui;
+
+    @Setup
+    public void setup() {
+        positions = Corpus.positions();
+        moves = legalMoves(positions);
+        ui = new UndoInfo();
+    }
+
+    /** Return the legal moves for each position. */
+    static int[][] legalMoves(Position[] positions) {
+        MoveGen moveGen = new MoveGen();
+        int[][] ret = new int[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            MoveGen.MoveList ml = moveGen.legalMoves(positions[i]);
+            ret[i] = new int[ml.size];
+            System.arraycopy(ml.m, 0, ret[i], 0, ml.size);
+            moveGen.returnMoveList(ml);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public long makeUnMakeMove() {
+        long h = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (int m : moves[i]) {
+                pos.makeMove(m, ui);
+                h ^= pos.zobristHash();
+                pos.unMakeMove(m, ui);
+            }
+        }
+        return h;
+    }
+}
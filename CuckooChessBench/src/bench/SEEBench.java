@@ -0,0 +1,104 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.AttackInfo;
+import chess.Evaluate;
+import chess.History;
+import chess.MoveGen;
+import chess.Position;
+import chess.Search;
+import chess.TranspositionTable;
+
+/**
+ * Static exchange evaluation benchmarks. Scores are the average time to
+ * evaluate all legal captures in a corpus position.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SEEBench {
+    private Search[] searches;
+    private int[][] captures;
+
+    @Setup
+    public void setup() {
+        Position[] positions = Corpus.positions();
+        TranspositionTable tt = new TranspositionTable(10);
+        History ht = new History();
+        Evaluate eval = new Evaluate(0);
+        long[] nullHist = new long[200];
+        MoveGen moveGen = new MoveGen();
+        AttackInfo ai = new AttackInfo();
+        searches = new Search[positions.length];
+        captures = new int[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            searches[i] = new Search(pos, nullHist, 0, tt, ht, eval);
+            MoveGen.MoveList moves = moveGen.pseudoLegalCaptures(pos);
+            MoveGen.removeIllegal(pos, moves, ai);
+            captures[i] = new int[moves.size];
+            System.arraycopy(moves.m, 0, captures[i], 0, moves.size);
+            moveGen.returnMoveList(moves);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int see() {
+        int sum = 0;
+        for (int i = 0; i < searches.length; i++) {
+            Search sc = searches[i];
+            for (int m : captures[i])
+                sum += sc.SEE(m);
+        }
+        return sum;
+    }
+
+    /** Sign only, which avoids the full exchange for captures of more valuable pieces. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int signSEE() {
+        int sum = 0;
+        for (int i = 0; i < searches.length; i++) {
+            Search sc = searches[i];
+            for (int m : captures[i])
+                sum += sc.signSEE(m);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.ChessParseError;
+import chess.Move;
+import chess.Position;
+import chess.TextIO;
+
+/**
+ * FEN and move text conversion benchmarks.
+ * Scores are the average time per corpus position.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TextIOBench {
+    private String[] fens;
+    private Position[] positions;
+    private Move[][] moves;
+    private String[][] sanMoves;
+    private String[][] uciMoves;
+
+    @Setup
+    public void setup() {
+        fens = Corpus.fens();
+        positions = Corpus.positions();
+        int[][] legalMoves = PositionBench.legalMoves(positions);
+        moves = new Move[positions.length][];
+        sanMoves = new String[positions.length][];
+        uciMoves = new String[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            int n = legalMoves[i].length;
+            moves[i] = new Move[n];
+            sanMoves[i] = new String[n];
+            uciMoves[i] = new String[n];
+            for (int mi = 0; mi < n; mi++) {
+                int m = legalMoves[i][mi];
+                Move move = new Move(Move.getFrom(m), Move.getTo(m), Move.getPromoteTo(m));
+                moves[i][mi] = move;
+                sanMoves[i][mi] = TextIO.moveToString(positions[i], move, false);
+                uciMoves[i][mi] = TextIO.moveToUCIString(move);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int readFEN() throws ChessParseError {
+        int n = 0;
+        for (String fen : fens)
+            n += TextIO.readFEN(fen).fullMoveCounter;
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int toFEN() {
+        int n = 0;
+        for (Position pos : positions)
+            n += TextIO.toFEN(pos).length();
+        return n;
+    }
+
+    /** Convert all legal moves to short algebraic notation. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int moveToString() {
+        int n = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (Move m : moves[i])
+                n += TextIO.moveToString(pos, m, false).length();
+        }
+        return n;
+    }
+
+    /** Parse all legal moves from short algebraic notation. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int stringToMove() {
+        int n = 0;
+        for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (String s : sanMoves[i])
+                n += TextIO.stringToMove(pos, s).to;
+        }
+        return n;
+    }
+
+    /** Parse all legal moves from UCI notation. */
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public int uciStringToMove() {
+        int n = 0;
+        for (String[] strs : uciMoves)
+            for (String s : strs)
+                n += TextIO.uciStringToMove(s).to;
+        return n;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chess.Position;
+import chess.TranspositionTable;
+import chess.TranspositionTable.TTEntry;
+import chess.UndoInfo;
+
+/**
+ * Transposition table benchmarks. The keys are the hash keys of the positions
+ * reachable in one move from the corpus positions.
+ * Scores are the average time per probe or insert.
+ * @author petero
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TranspositionTableBench {
+    private static final int N_KEYS = 16384;
+    private static final int plyScale = 8; // Same as in Search
+
+    /** Log2 of the number of table entries. 16 fits in the CPU caches, 22 does not. */
+    @Param({"16", "22"})
+    public int log2Size;
+
+    /** True to use the bucket replacement scheme, false to use the cuckoo scheme. */
+    @Param({"false", "true"})
+    public boolean buckets;
+
+    private TranspositionTable tt;
+    private long[] keys;
+    private int[] moves;
+    private TTEntry ent;
+    private long salt;
+
+    @Setup
+    public void setup() {
+        Position[] positions = Corpus.positions();
+        int[][] legalMoves = PositionBench.legalMoves(positions);
+        keys = new long[N_KEYS];
+        moves = new int[N_KEYS];
+        UndoInfo ui = new UndoInfo();
+        int n = 0;
+        for (int i = 0; (i < positions.length) && (n < N_KEYS); i++) {
+            Position pos = positions[i];
+            for (int mi = 0; (mi < legalMoves[i].length) && (n < N_KEYS); mi++) {
+                int m = legalMoves[i][mi];
+                pos.makeMove(m, ui);
+                keys[n] = pos.zobristHash();
+                moves[n] = m;
+                n++;
+                pos.unMakeMove(m, ui);
+            }
+        }
+        if (n < N_KEYS)
+            throw new RuntimeException("Too few keys: " + n);
+
+        tt = new TranspositionTable(log2Size, false, buckets);
+        for (int i = 0; i < N_KEYS; i++)
+            tt.insert(keys[i], moves[i], TTEntry.T_EXACT, 0, depth(i), 0);
+        ent = new TTEntry();
+        salt = 0;
+    }
+
+    private static int depth(int i) {
+        return (i % 20) * plyScale;
+    }
+
+    /** Probe for keys that were inserted in setup(). */
+    @Benchmark
+    @OperationsPerInvocation(N_KEYS)
+    public int probeHit() {
+        int n = 0;
+        for (long key : keys) {
+            tt.probe(key, ent);
+            if (ent.type != TTEntry.T_EMPTY)
+                n++;
+        }
+        return n;
+    }
+
+    /** Probe for keys that are not in the table. */
+    @Benchmark
+    @OperationsPerInvocation(N_KEYS)
+    public int probeMiss() {
+        int n = 0;
+        for (long key : keys) {
+            tt.probe(~key, ent);
+            if (ent.type != TTEntry.T_EMPTY)
+                n++;
+        }
+        return n;
+    }
+
+    /** Like probeHit, but uses the probe method that allocates a new TTEntry object. */
+    @Benchmark
+    @OperationsPerInvocation(N_KEYS)
+    public int probeHitAlloc() {
+        int n = 0;
+        for (long key : keys)
+            if (tt.probe(key).type != TTEntry.T_EMPTY)
+                n++;
+        return n;
+    }
+
+    /** Insert keys that are not in the table, so that older entries have to be replaced. */
+    @Benchmark
+    @OperationsPerInvocation(N_KEYS)
+    public void insert() {
+        salt += 0x9e3779b97f4a7c15L;
+        final long s = salt;
+        for (int i = 0; i < N_KEYS; i++)
+            tt.insert(keys[i] ^ s, moves[i], TTEntry.T_EXACT, 0, depth(i), 0);
+    }
+}
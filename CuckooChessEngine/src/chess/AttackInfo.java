@@ -0,0 +1,176 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+/**
+ * Attack information for a position, shared by move generation, evaluation and SEE.
+ * The data is computed lazily in two parts, check information and attack maps.
+ * Each part is recomputed when it is requested for a position with a different
+ * hash key than the one it was last computed for.
+ * @author petero
+ */
+public final class AttackInfo {
+    private long checkInfoKey;
+    private long attacksKey;
+    private boolean checkInfoValid;
+    private boolean attacksValid;
+
+    // Check information, relative to the side to move
+    long checkers;      // Opponent pieces giving check to the side to move
+    long pinned;        // Own pieces pinned to the own king
+    long discCheckers;  // Own pieces that give discovered check when moved off the line
+    long pawnCheckSq;   // Squares where an own pawn would attack the opponent king
+    long knightCheckSq; // Squares where an own knight would attack the opponent king
+    long bishopCheckSq; // Squares where an own bishop would attack the opponent king
+    long rookCheckSq;   // Squares where an own rook would attack the opponent king
+    boolean kingCapture; // True if the side to move can capture the opponent king
+
+    // Attack maps
+    long wPawnAttacks, bPawnAttacks;     // Squares attacked by white/black pawns
+    long wKnightAttacks, bKnightAttacks; // Squares attacked by white/black knights
+    long wAttacks, bAttacks;             // Squares attacked by any white/black piece
+
+    /** Mark all information as not computed. */
+    public final void clear() {
+        checkInfoValid = false;
+        attacksValid = false;
+    }
+
+    /** Compute check information for pos, unless already computed. */
+    public final void computeCheckInfo(Position pos) {
+        final long key = pos.zobristHash();
+        if (checkInfoValid && (checkInfoKey == key))
+            return;
+        final boolean wtm = pos.whiteMove;
+        final long[] bb = pos.pieceTypeBB;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final long own = wtm ? pos.whiteBB : pos.blackBB;
+        final int kSq = pos.getKingSq(wtm);
+        final int oKSq = pos.getKingSq(!wtm);
+
+        final long oBishops, oRooks, bishops, rooks;
+        if (wtm) {
+            oBishops = bb[Piece.BBISHOP] | bb[Piece.BQUEEN];
+            oRooks = bb[Piece.BROOK] | bb[Piece.BQUEEN];
+            bishops = bb[Piece.WBISHOP] | bb[Piece.WQUEEN];
+            rooks = bb[Piece.WROOK] | bb[Piece.WQUEEN];
+            checkers = (BitBoard.wPawnAttacks[kSq] & bb[Piece.BPAWN]) |
+                       (BitBoard.knightAttacks[kSq] & bb[Piece.BKNIGHT]);
+            pawnCheckSq = BitBoard.bPawnAttacks[oKSq];
+        } else {
+            oBishops = bb[Piece.WBISHOP] | bb[Piece.WQUEEN];
+            oRooks = bb[Piece.WROOK] | bb[Piece.WQUEEN];
+            bishops = bb[Piece.BBISHOP] | bb[Piece.BQUEEN];
+            rooks = bb[Piece.BROOK] | bb[Piece.BQUEEN];
+            checkers = (BitBoard.bPawnAttacks[kSq] & bb[Piece.WPAWN]) |
+                       (BitBoard.knightAttacks[kSq] & bb[Piece.WKNIGHT]);
+            pawnCheckSq = BitBoard.wPawnAttacks[oKSq];
+        }
+        checkers |= (BitBoard.bishopAttacks(kSq, occupied) & oBishops) |
+                    (BitBoard.rookAttacks(kSq, occupied) & oRooks);
+        knightCheckSq = BitBoard.knightAttacks[oKSq];
+        bishopCheckSq = BitBoard.bishopAttacks(oKSq, occupied);
+        rookCheckSq = BitBoard.rookAttacks(oKSq, occupied);
+
+        pinned = blockers(kSq, oBishops, oRooks, occupied) & own;
+        discCheckers = blockers(oKSq, bishops, rooks, occupied) & own;
+
+        final int pawn = wtm ? Piece.WPAWN : Piece.BPAWN;
+        final int knight = wtm ? Piece.WKNIGHT : Piece.BKNIGHT;
+        kingCapture = ((pawnCheckSq & bb[pawn]) |
+                       (knightCheckSq & bb[knight]) |
+                       (bishopCheckSq & bishops) |
+                       (rookCheckSq & rooks) |
+                       (BitBoard.kingAttacks[oKSq] & (1L << kSq))) != 0;
+
+        checkInfoKey = key;
+        checkInfoValid = true;
+    }
+
+    /**
+     * Return the pieces that are the only piece between kSq and a slider
+     * that would otherwise attack kSq.
+     */
+    private static long blockers(int kSq, long bishops, long rooks, long occupied) {
+        long ret = 0;
+        long snipers = (BitBoard.bishopAttacks(kSq, 0) & bishops) |
+                       (BitBoard.rookAttacks(kSq, 0) & rooks);
+        while (snipers != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(snipers);
+            long b = BitBoard.squaresBetween[kSq][sq] & occupied;
+            if ((b != 0) && ((b & (b-1)) == 0))
+                ret |= b;
+            snipers &= snipers-1;
+        }
+        return ret;
+    }
+
+    /** Compute attack maps for pos, unless already computed. */
+    public final void computeAttacks(Position pos) {
+        final long key = pos.zobristHash();
+        if (attacksValid && (attacksKey == key))
+            return;
+        final long[] bb = pos.pieceTypeBB;
+        final long occupied = pos.whiteBB | pos.blackBB;
+
+        long pawns = bb[Piece.WPAWN];
+        wPawnAttacks = ((pawns & BitBoard.maskBToHFiles) << 7) |
+                       ((pawns & BitBoard.maskAToGFiles) << 9);
+        pawns = bb[Piece.BPAWN];
+        bPawnAttacks = ((pawns & BitBoard.maskBToHFiles) >>> 9) |
+                       ((pawns & BitBoard.maskAToGFiles) >>> 7);
+        wKnightAttacks = knightAttacks(bb[Piece.WKNIGHT]);
+        bKnightAttacks = knightAttacks(bb[Piece.BKNIGHT]);
+
+        wAttacks = wPawnAttacks | wKnightAttacks | BitBoard.kingAttacks[pos.getKingSq(true)] |
+                   sliderAttacks(bb[Piece.WBISHOP] | bb[Piece.WQUEEN],
+                                 bb[Piece.WROOK] | bb[Piece.WQUEEN], occupied);
+        bAttacks = bPawnAttacks | bKnightAttacks | BitBoard.kingAttacks[pos.getKingSq(false)] |
+                   sliderAttacks(bb[Piece.BBISHOP] | bb[Piece.BQUEEN],
+                                 bb[Piece.BROOK] | bb[Piece.BQUEEN], occupied);
+
+        attacksKey = key;
+        attacksValid = true;
+    }
+
+    private static long knightAttacks(long knights) {
+        long atk = 0;
+        while (knights != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(knights);
+            atk |= BitBoard.knightAttacks[sq];
+            knights &= knights-1;
+        }
+        return atk;
+    }
+
+    private static long sliderAttacks(long bishops, long rooks, long occupied) {
+        long atk = 0;
+        while (bishops != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(bishops);
+            atk |= BitBoard.bishopAttacks(sq, occupied);
+            bishops &= bishops-1;
+        }
+        while (rooks != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(rooks);
+            atk |= BitBoard.rookAttacks(sq, occupied);
+            rooks &= rooks-1;
+        }
+        return atk;
+    }
+}
@@ -18,6 +18,8 @@
 
 package chess;
 
+import java.util.Arrays;
+
 public class BitBoard {
 
     /** Squares attacked by a king on a given square. */
@@ -113,7 +115,10 @@ public class BitBoard {
         }
     }
 
-    private final static long[][] rTables;
+    // Attack tables for all squares are stored in one array. The attacks for a square
+    // are found at rOffs[sq] + magic index, and similarly for bishops.
+    private final static long[] rTable;
+    private final static int[] rOffs;
     private final static long[] rMasks;
     private final static int[] rBits = { 12, 11, 11, 11, 11, 11, 11, 12,
                                          11, 10, 10, 11, 10, 10, 10, 11,
@@ -141,7 +146,8 @@ public class BitBoard {
         0x00ffff5dff65cfb6L, 0x007fffbaffd1c5aeL, 0x003fff71ff6cbceaL, 0x001fffd9ffd4756eL,
         0x000ffff5fff338e6L, 0x0007fffdfffe24f6L, 0x0003ffef27eebe74L, 0x0001ffff23ff605eL
     };
-    private final static long[][] bTables;
+    private final static long[] bTable;
+    private final static int[] bOffs;
     private final static long[] bMasks;
     private final static int[] bBits = { 5, 4, 5, 5, 5, 5, 4, 5,
                                          4, 4, 5, 5, 5, 5, 4, 4,
@@ -170,20 +176,6 @@ public class BitBoard {
         0x000000007efa8146L, 0x0000007ed3e2ef60L, 0x00007f47243adcd6L, 0x007fb65afabfb3b5L
     };
 
-    private static final long createPattern(int i, long mask) {
-        long ret = 0L;
-        for (int j = 0; ; j++) {
-            long nextMask = mask & (mask - 1);
-            long bit = mask ^ nextMask;
-            if ((i & (1L << j)) != 0)
-                ret |= bit;
-            mask = nextMask;
-            if (mask == 0)
-                break;
-        }
-        return ret;
-    }
-    
     private static final long addRookRays(int x, int y, long occupied, boolean inner) {
         long mask = 0;
         mask = addRay(mask, x, y,  1,  0, occupied, inner);
@@ -220,62 +212,55 @@ public class BitBoard {
         return mask;
     }
 
-    static { // Rook magics
-        rTables = new long[64][];
-        rMasks = new long[64];
+    /**
+     * Create the attack table for one slider type. Stores the relevant occupancy
+     * masks in masks[] and the start of each square's entries in offs[].
+     */
+    private static final long[] createSliderTable(boolean rook, long[] magics, int[] bits,
+                                                  long[] masks, int[] offs) {
+        int size = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            offs[sq] = size;
+            size += 1 << bits[sq];
+        }
+        long[] table = new long[size];
+        Arrays.fill(table, -1);
         for (int sq = 0; sq < 64; sq++) {
             int x = Position.getX(sq);
             int y = Position.getY(sq);
-            rMasks[sq] = addRookRays(x, y, 0L, true);
-            int tableSize = 1 << rBits[sq];
-            long[] table = new long[tableSize];
-            for (int i = 0; i < tableSize; i++) table[i] = -1;
-            int nPatterns = 1 << Long.bitCount(rMasks[sq]);
-            for (int i = 0; i < nPatterns; i++) {
-                long p = createPattern(i, rMasks[sq]);
-                int entry = (int)((p * rMagics[sq]) >>> (64 - rBits[sq]));
-                long atks = addRookRays(x, y, p, false);
+            long mask = rook ? addRookRays(x, y, 0L, true) : addBishopRays(x, y, 0L, true);
+            masks[sq] = mask;
+            int shift = 64 - bits[sq];
+            long p = 0;
+            do { // Enumerate all subsets of mask
+                int entry = offs[sq] + (int)((p * magics[sq]) >>> shift);
+                long atks = rook ? addRookRays(x, y, p, false) : addBishopRays(x, y, p, false);
                 if (table[entry] == -1) {
                     table[entry] = atks;
                 } else if (table[entry] != atks) {
                     throw new RuntimeException();
                 }
-            }
-            rTables[sq] = table;
+                p = (p - mask) & mask;
+            } while (p != 0);
         }
+        return table;
     }
 
-    static { // Bishop magics
-        bTables = new long[64][];
+    static {
+        rMasks = new long[64];
+        rOffs = new int[64];
+        rTable = createSliderTable(true, rMagics, rBits, rMasks, rOffs);
         bMasks = new long[64];
-        for (int sq = 0; sq < 64; sq++) {
-            int x = Position.getX(sq);
-            int y = Position.getY(sq);
-            bMasks[sq] = addBishopRays(x, y, 0L, true);
-            int tableSize = 1 << bBits[sq];
-            long[] table = new long[tableSize];
-            for (int i = 0; i < tableSize; i++) table[i] = -1;
-            int nPatterns = 1 << Long.bitCount(bMasks[sq]);
-            for (int i = 0; i < nPatterns; i++) {
-                long p = createPattern(i, bMasks[sq]);
-                int entry = (int)((p * bMagics[sq]) >>> (64 - bBits[sq]));
-                long atks = addBishopRays(x, y, p, false);
-                if (table[entry] == -1) {
-                    table[entry] = atks;
-                } else if (table[entry] != atks) {
-                    throw new RuntimeException();
-                }
-            }
-            bTables[sq] = table;
-        }
+        bOffs = new int[64];
+        bTable = createSliderTable(false, bMagics, bBits, bMasks, bOffs);
     }
 
     public static final long bishopAttacks(int sq, long occupied) {
-        return bTables[sq][(int)(((occupied & bMasks[sq]) * bMagics[sq]) >>> (64 - bBits[sq]))];
+        return bTable[bOffs[sq] + (int)(((occupied & bMasks[sq]) * bMagics[sq]) >>> (64 - bBits[sq]))];
     }
 
     public static final long rookAttacks(int sq, long occupied) {
-        return rTables[sq][(int)(((occupied & rMasks[sq]) * rMagics[sq]) >>> (64 - rBits[sq]))];
+        return rTable[rOffs[sq] + (int)(((occupied & rMasks[sq]) * rMagics[sq]) >>> (64 - rBits[sq]))];
     }
     
     static public final long[][] squaresBetween;
@@ -365,18 +350,8 @@ public class BitBoard {
         return mask;
     }
 
-    private static final int trailingZ[] = {
-        63,  0, 58,  1, 59, 47, 53,  2,
-        60, 39, 48, 27, 54, 33, 42,  3,
-        61, 51, 37, 40, 49, 18, 28, 20,
-        55, 30, 34, 11, 43, 14, 22,  4,
-        62, 57, 46, 52, 38, 26, 32, 41,
-        50, 36, 17, 19, 29, 10, 13, 21,
-        56, 45, 25, 31, 35, 16,  9, 12,
-        44, 24, 15,  8, 23,  7,  6,  5
-    };
-
+    /** Return the index of the least significant one bit. mask must be non-zero. */
     static public final int numberOfTrailingZeros(long mask) {
-        return trailingZ[(int)(((mask & -mask) * 0x07EDD5E59A4E28C2L) >>> 58)];
+        return Long.numberOfTrailingZeros(mask);
     }
 }
@@ -126,6 +126,15 @@ public class Book {
 
     /** Return a random book move for a position, or null if out of book. */
     public final Move getBookMove(Position pos) {
+        initBook();
+        return getBookMove(pos, rndGen);
+    }
+
+    /**
+     * Return a random book move for a position, or null if out of book.
+     * The move is chosen using rnd, so that the choice can be made reproducible.
+     */
+    public final Move getBookMove(Position pos, Random rnd) {
         initBook();
         List<BookEntry> bookMoves = bookMap.get(pos.zobristHash());
         if (bookMoves == null) {
@@ -139,7 +148,7 @@ public class Book {
             BookEntry be = bookMoves.get(i);
             boolean contains = false;
             for (int mi = 0; mi < legalMoves.size; mi++)
-                if (legalMoves.m[mi].equals(be.move)) {
+                if (legalMoves.getMove(mi).equals(be.move)) {
                     contains = true;
                     break;
                 }
@@ -152,11 +161,11 @@ public class Book {
         if (sum <= 0) {
             return null;
         }
-        int rnd = rndGen.nextInt(sum);
+        int r = rnd.nextInt(sum);
         sum = 0;
         for (int i = 0; i < bookMoves.size(); i++) {
             sum += getWeight(bookMoves.get(i).count);
-            if (rnd < sum) {
+            if (r < sum) {
                 return bookMoves.get(i).move;
             }
         }
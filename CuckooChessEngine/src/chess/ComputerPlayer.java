@@ -49,10 +49,13 @@ public class ComputerPlayer implements Player {
     int maxNodes;
     public boolean verbose;
     TranspositionTable tt;
+    Evaluate eval;      // Reused between searches to keep the evaluation caches warm
     Book book;
     boolean bookEnabled;
     boolean randomMode;
     Search currentSearch;
+    int lastScore;          // Score of the move returned by the last getCommand call, from the mover's view
+    boolean lastScoreValid; // False if the last move was not searched, e.g. a book move
 
     public ComputerPlayer() {
         minTimeMillis = 10000;
@@ -61,6 +64,7 @@ public class ComputerPlayer implements Player {
         maxNodes = -1;
         verbose = true;
         setTTLogSize(15);
+        eval = new Evaluate();
         book = new Book(verbose);
         bookEnabled = true;
         randomMode = false;
@@ -75,8 +79,19 @@ public class ComputerPlayer implements Player {
         this.listener = listener;
     }
 
+    /** Use a private set of tunable parameters, see Evaluate.setParameters(). */
+    public void setParameters(Parameters params) {
+        eval.setParameters(params);
+    }
+
+    /** Use a neural network for evaluation, or the handcrafted evaluation if network is null. */
+    public void setNetwork(NNUE network) {
+        eval.setNetwork(network);
+    }
+
     @Override
     public String getCommand(Position pos, boolean drawOffer, List<Position> history) {
+        lastScoreValid = false;
         // Create a search object
         long[] posHashList = new long[200 + history.size()];
         int posHashListSize = 0;
@@ -85,7 +100,7 @@ public class ComputerPlayer implements Player {
         }
         tt.nextGeneration();
         History ht = new History();
-        Search sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        Search sc = new Search(pos, posHashList, posHashListSize, tt, ht, eval);
 
         // Determine all legal moves
         MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
@@ -110,14 +125,16 @@ public class ComputerPlayer implements Player {
         currentSearch = sc;
         sc.setListener(listener);
         Move bestM;
-        if ((moves.size == 1) && (canClaimDraw(pos, posHashList, posHashListSize, moves.m[0]) == "")) {
-            bestM = moves.m[0];
+        if ((moves.size == 1) && (canClaimDraw(pos, posHashList, posHashListSize, moves.getMove(0)) == "")) {
+            bestM = moves.getMove(0);
             bestM.score = 0;
         } else if (randomMode) {
             bestM = findSemiRandomMove(sc, moves);
         } else {
             sc.timeLimit(minTimeMillis, maxTimeMillis);
             bestM = sc.iterativeDeepening(moves, maxDepth, maxNodes, verbose);
+            lastScore = bestM.score;
+            lastScoreValid = true;
         }
         currentSearch = null;
 //        tt.printStats();
@@ -188,11 +205,22 @@ public class ComputerPlayer implements Player {
 
     /** Search a position and return the best move and score. Used for test suite processing. */
     public TwoReturnValues<Move, String> searchPosition(Position pos, int maxTimeMillis) {
+        return searchPosition(pos, maxTimeMillis, -1, -1);
+    }
+
+    /**
+     * Like searchPosition(Position, int), but can also limit the search depth and
+     * the number of searched nodes. -1 means no limit. Searches that are only limited
+     * by depth or nodes give reproducible results. The listener, if set, gets the
+     * search progress. pos must have at least one legal move.
+     */
+    public TwoReturnValues<Move, String> searchPosition(Position pos, int maxTimeMillis,
+                                                       int maxDepth, int maxNodes) {
         // Create a search object
         long[] posHashList = new long[200];
         tt.nextGeneration();
         History ht = new History();
-        Search sc = new Search(pos, posHashList, 0, tt, ht);
+        Search sc = new Search(pos, posHashList, 0, tt, ht, eval);
         
         // Determine all legal moves
         MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
@@ -200,8 +228,9 @@ public class ComputerPlayer implements Player {
         sc.scoreMoveList(moves, 0);
 
         // Find best move using iterative deepening
+        sc.setListener(listener);
         sc.timeLimit(maxTimeMillis, maxTimeMillis);
-        Move bestM = sc.iterativeDeepening(moves, -1, -1, false);
+        Move bestM = sc.iterativeDeepening(moves, maxDepth, maxNodes, false);
 
         // Extract PV
         String PV = TextIO.moveToString(pos, bestM, false) + " ";
@@ -226,13 +255,13 @@ public class ComputerPlayer implements Player {
 
         int sum = 0;
         for (int mi = 0; mi < moves.size; mi++) {
-            sum += moveProbWeight(moves.m[mi].score, bestScore);
+            sum += moveProbWeight(Move.getScore(moves.m[mi]), bestScore);
         }
         int rnd = rndGen.nextInt(sum);
         for (int mi = 0; mi < moves.size; mi++) {
-            int weight = moveProbWeight(moves.m[mi].score, bestScore);
+            int weight = moveProbWeight(Move.getScore(moves.m[mi]), bestScore);
             if (rnd < weight) {
-                return moves.m[mi];
+                return moves.getMove(mi);
             }
             rnd -= weight;
         }
@@ -20,6 +20,7 @@ package chess;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Position evaluation routines.
@@ -201,25 +202,117 @@ public class Evaluate {
     static final int[] bishMobScore = {-15,-10,-6,-2,2,6,10,13,16,18,20,22,23,24};
     static final int[] queenMobScore = {-5,-4,-3,-2,-1,0,1,2,3,4,5,6,7,8,9,9,10,10,10,10,10,10,10,10,10,10,10,10};
 
-    private static final class PawnHashData {
-        long key;
-        int score;         // Positive score means good for white
-        short passedBonusW;
-        short passedBonusB;
-        long passedPawnsW;     // The most advanced passed pawns for each file
-        long passedPawnsB;
-    }
-    static final PawnHashData[] pawnHash;
-    static {
-        final int numEntries = 1<<16;
-        pawnHash = new PawnHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            PawnHashData phd = new PawnHashData();
-            phd.key = -1; // Non-zero to avoid collision for positions with no pawns
-            phd.score = 0;
-            pawnHash[i] = phd;
+    /**
+     * Pawn hash table, owned by this object so that evaluators used by different
+     * threads never share entries. Each entry uses PAWN_HASH_LONGS longs: the key,
+     * the score and passed pawn bonuses, and the white and black passed pawn masks.
+     */
+    private final long[] pawnHash;
+    private final int pawnHashMask;
+    private static final int PAWN_HASH_LONGS = 4;
+
+    /** King safety hash table, keyed on pawn and king positions. */
+    private final long[] kingSafetyHashKeys;
+    private final int[] kingSafetyHashScores;
+
+    /**
+     * Static evaluation cache, indexed by the low bits of the Zobrist hash. Each
+     * entry holds the upper 48 bits of the hash and the 16 bit evaluation score.
+     */
+    private final long[] evalHash;
+
+    /**
+     * Material table, indexed by Position.materialKey(). Each entry holds the endgame
+     * evaluator to use, the trade bonus and game phase values for interpolation, all of
+     * which only depend on the material. Entries are computed when first needed.
+     */
+    private final long[] matHashKeys;
+    private final int[] matHashData;
+    private int matIdx;             // Index in matHashData of the entry for the current position
+    private static final int MAT_HASH_LOG_SIZE = 10;
+    private static final int MAT_HASH_INTS = 10;
+
+    // Material table entry contents
+    private static final int MI_ENDGAME = 0;           // Endgame evaluator, EG_xxx
+    private static final int MI_TRADE_BONUS = 1;       // Trade bonus
+    private static final int MI_W_KING_PHASE = 2;      // Phase for white king and pawn piece/square tables
+    private static final int MI_B_KING_PHASE = 3;
+    private static final int MI_W_KNIGHT_PHASE = 4;    // Phase for white knight piece/square table
+    private static final int MI_B_KNIGHT_PHASE = 5;
+    private static final int MI_W_PASSED_PHASE = 6;    // Phase for white passed pawn bonus
+    private static final int MI_B_PASSED_PHASE = 7;
+    private static final int MI_KING_SAFETY_PHASE = 8; // Phase for king safety, -1 if no king safety
+    private static final int MI_BISHOP_PHASE = 9;      // Phase for opposite colored bishop penalty
+
+    // Phase ranges, the phase values go from 0 to the range value
+    private static final int KING_PHASE_LO = rV;
+    private static final int KING_PHASE_RANGE = qV + 2 * rV + 2 * bV - KING_PHASE_LO;
+    private static final int KNIGHT_PHASE_LO = nV + 8 * pV;
+    private static final int KNIGHT_PHASE_RANGE = qV + 2 * rV + 1 * bV + 1 * nV + 6 * pV - KNIGHT_PHASE_LO;
+    private static final int PASSED_PHASE_RANGE = qV + rV;
+    private static final int KING_SAFETY_PHASE_LO = rV + bV;
+    private static final int KING_SAFETY_PHASE_RANGE = qV + 2 * rV + 2 * bV + 2 * nV - KING_SAFETY_PHASE_LO;
+    private static final int BISHOP_PHASE_LO = 2 * bV;
+    private static final int BISHOP_PHASE_RANGE = 2 * (qV + rV + bV) - BISHOP_PHASE_LO;
+
+    // Endgame evaluators
+    private static final int EG_NONE = 0;        // Too much material left for endgame evaluation
+    private static final int EG_GENERIC = 1;     // Rules for insufficient/excess material, KPK
+    private static final int EG_MINOR_DRAW = 2;  // King + minor piece vs king + minor piece
+    private static final int EG_KQKP = 3;
+    private static final int EG_KPKQ = 4;
+    private static final int EG_KRKP = 5;
+    private static final int EG_KPKR = 6;
+    private static final int EG_KRKB = 7;
+    private static final int EG_KBKR = 8;
+
+    /** Number of bytes used by one pawn hash, half a king safety hash and one eval hash entry. */
+    static final int CACHE_BYTES_PER_ENTRY = PAWN_HASH_LONGS * 8 + (8 + 4) / 2 + 8;
+
+    /** Default evaluation cache size in megabytes. */
+    public static final int DEFAULT_CACHE_SIZE_MB = 4;
+
+    /** Evaluation cache usage counters. */
+    static final public class CacheStats {
+        public long pawnProbes;     // Number of pawn hash lookups
+        public long pawnHits;       // Number of pawn hash lookups that found the entry
+        public long kingProbes;     // Number of king safety hash lookups
+        public long kingHits;       // Number of king safety hash lookups that found the entry
+        public long evalProbes;     // Number of static evaluation cache lookups
+        public long evalHits;       // Number of evaluations avoided by the static evaluation cache
+        public long lazyExits;      // Number of evaluations where the expensive terms were skipped
+
+        /** Add counters from "other" to this object. */
+        public final void add(CacheStats other) {
+            pawnProbes += other.pawnProbes;
+            pawnHits += other.pawnHits;
+            kingProbes += other.kingProbes;
+            kingHits += other.kingHits;
+            evalProbes += other.evalProbes;
+            evalHits += other.evalHits;
+            lazyExits += other.lazyExits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("eval probes %d hits %d (%.1f%%) lazy %d (%.1f%%) " +
+                                 "pawn probes %d hits %d (%.1f%%) king probes %d hits %d (%.1f%%)",
+                                 evalProbes, evalHits, evalProbes > 0 ? evalHits * 100.0 / evalProbes : 0.0,
+                                 lazyExits, evalProbes > 0 ? lazyExits * 100.0 / evalProbes : 0.0,
+                                 pawnProbes, pawnHits, pawnProbes > 0 ? pawnHits * 100.0 / pawnProbes : 0.0,
+                                 kingProbes, kingHits, kingProbes > 0 ? kingHits * 100.0 / kingProbes : 0.0);
         }
     }
+    private final CacheStats cacheStats = new CacheStats();
+
+    /** Lazy evaluation is used when the cheap terms are this far outside the search window. */
+    private int lazyEvalMargin;
+
+    /** Neural network used instead of the handcrafted evaluation, or null. */
+    private NNUE network = null;
+
+    /** Source of tunable parameter values. */
+    private Parameters params = Parameters.instance();
 
     static byte[] kpkTable = null;
     static byte[] krkpTable = null;
@@ -230,8 +323,38 @@ public class Evaluate {
     private long wAttacksBB, bAttacksBB;
     private long wPawnAttacks, bPawnAttacks; // Squares attacked by white/black pawns
 
-    /** Constructor. */
+    /** Attack information used when the caller does not provide any. */
+    private final AttackInfo attackInfo = new AttackInfo();
+
+    /** Constructor. Uses evaluation caches of the default size. */
     public Evaluate() {
+        this(DEFAULT_CACHE_SIZE_MB);
+    }
+
+    /**
+     * Constructor.
+     * @param cacheSizeMB Approximate size in megabytes of the pawn and king safety hash tables.
+     */
+    public Evaluate(int cacheSizeMB) {
+        long nEntries = Math.max(cacheSizeMB, 0) * (1L << 20) / CACHE_BYTES_PER_ENTRY;
+        int log2Size = 10;
+        while ((log2Size < 26) && ((1L << (log2Size + 1)) <= nEntries))
+            log2Size++;
+        final int numEntries = 1 << log2Size;
+        pawnHash = new long[numEntries * PAWN_HASH_LONGS];
+        pawnHashMask = numEntries - 1;
+        for (int i = 0; i < numEntries; i++)
+            pawnHash[i * PAWN_HASH_LONGS] = -1; // Non-zero to avoid collision for positions with no pawns
+        kingSafetyHashKeys = new long[numEntries / 2];
+        kingSafetyHashScores = new int[numEntries / 2];
+        Arrays.fill(kingSafetyHashKeys, -1);
+        evalHash = new long[numEntries];
+        Arrays.fill(evalHash, -1);
+        matHashKeys = new long[1 << MAT_HASH_LOG_SIZE];
+        matHashData = new int[(1 << MAT_HASH_LOG_SIZE) * MAT_HASH_INTS];
+        Arrays.fill(matHashKeys, -1);
+        readParameters();
+
         if (kpkTable == null)
             kpkTable = readTable("/kpk.bitbase", 2*32*64*48/8);
         if (krkpTable == null)
@@ -256,6 +379,71 @@ public class Evaluate {
         }
     }
 
+    /** Names of the parameters read by readParameters(). */
+    private static final String[] instanceParams = { "LazyEvalMargin" };
+
+    /** Read tunable parameters. Called by the search before each new search. */
+    final void readParameters() {
+        lazyEvalMargin = params.getIntPar("LazyEvalMargin");
+    }
+
+    /**
+     * Return true if the named parameter is read by readParameters(), so that it can
+     * be set with setParameters(). Other parameters, such as the piece values, are
+     * read once when the class is loaded and are the same for all Evaluate objects.
+     */
+    static boolean isInstanceParam(String name) {
+        for (String p : instanceParams)
+            if (p.equalsIgnoreCase(name))
+                return true;
+        return false;
+    }
+
+    /**
+     * Use a private set of parameters instead of the global instance. Only parameters
+     * that are read before each search can differ between Evaluate objects.
+     */
+    public final void setParameters(Parameters params) {
+        this.params = params;
+        readParameters();
+    }
+
+    final Parameters getParameters() {
+        return params;
+    }
+
+    /**
+     * Use a neural network instead of the handcrafted evaluation terms.
+     * Use null to go back to the handcrafted evaluation. Clears the static evaluation cache.
+     */
+    public final void setNetwork(NNUE network) {
+        this.network = network;
+        Arrays.fill(evalHash, -1);
+    }
+
+    /** Return the neural network used for evaluation, or null if the handcrafted evaluation is used. */
+    public final NNUE getNetwork() {
+        return network;
+    }
+
+    /** Return the number of entries in the pawn hash table. */
+    public final int getPawnHashSize() {
+        return pawnHashMask + 1;
+    }
+
+    /** Return evaluation cache usage counters since the last call to resetCacheStats. */
+    public final CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    /** Reset evaluation cache usage counters. */
+    public final void resetCacheStats() {
+        cacheStats.pawnProbes = cacheStats.pawnHits = 0;
+        cacheStats.kingProbes = cacheStats.kingHits = 0;
+        cacheStats.evalProbes = cacheStats.evalHits = 0;
+        cacheStats.lazyExits = 0;
+    }
+
     /**
      * Static evaluation of a position.
      * @param pos The position to evaluate.
@@ -263,28 +451,85 @@ public class Evaluate {
      *         Positive values are good for the side to make the next move.
      */
     final public int evalPos(Position pos) {
+        return evalPos(pos, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Like evalPos(Position), but uses the attack information in ai. */
+    final public int evalPos(Position pos, AttackInfo ai) {
+        return evalPos(pos, Integer.MIN_VALUE, Integer.MAX_VALUE, ai);
+    }
+
+    /**
+     * Static evaluation of a position, using lazy evaluation. If the material, piece
+     * square, pawn structure, trade and castle terms give a score that is more than
+     * LazyEvalMargin outside the (alpha,beta) window, the mobility, threat and king
+     * safety terms are not computed. The returned score is then only an estimate,
+     * on the same side of the window as the full evaluation would most likely be.
+     */
+    final public int evalPos(Position pos, int alpha, int beta) {
+        return evalPos(pos, alpha, beta, attackInfo);
+    }
+
+    /**
+     * Like evalPos(Position, int, int), but takes the pawn and knight attacks from ai,
+     * so that they are only computed once per position.
+     */
+    final public int evalPos(Position pos, int alpha, int beta, AttackInfo ai) {
+        final long key = pos.zobristHash();
+        final int idx = (int)key & (evalHash.length - 1);
+        cacheStats.evalProbes++;
+        final long ent = evalHash[idx];
+        if (((ent ^ key) & ~0xffffL) == 0) {
+            cacheStats.evalHits++;
+            return (short)ent;
+        }
+        final int score;
+        if (network != null) {
+            lazyExit = false;
+            score = network.evalPos(pos);
+        } else {
+            score = computeEval(pos, alpha, beta, ai);
+        }
+        if ((score == (short)score) && !lazyExit)
+            evalHash[idx] = (key & ~0xffffL) | (score & 0xffffL);
+        return score;
+    }
+
+    private boolean lazyExit; // True if the last computeEval call skipped the expensive terms
+
+    /** Static evaluation of a position, without using the static evaluation cache. */
+    private final int computeEval(Position pos, int alpha, int beta, AttackInfo ai) {
         int score = pos.wMtrl - pos.bMtrl;
+        lookupMaterial(pos);
 
         wKingAttacks = bKingAttacks = 0;
         wKingZone = BitBoard.kingAttacks[pos.getKingSq(true)]; wKingZone |= wKingZone << 8;
         bKingZone = BitBoard.kingAttacks[pos.getKingSq(false)]; bKingZone |= bKingZone >>> 8;
         wAttacksBB = bAttacksBB = 0L;
 
-        long pawns = pos.pieceTypeBB[Piece.WPAWN];
-        wPawnAttacks = ((pawns & BitBoard.maskBToHFiles) << 7) |
-                       ((pawns & BitBoard.maskAToGFiles) << 9);
-        pawns = pos.pieceTypeBB[Piece.BPAWN];
-        bPawnAttacks = ((pawns & BitBoard.maskBToHFiles) >>> 9) |
-                       ((pawns & BitBoard.maskAToGFiles) >>> 7);
+        ai.computeAttacks(pos);
+        wPawnAttacks = ai.wPawnAttacks;
+        bPawnAttacks = ai.bPawnAttacks;
 
         score += pieceSquareEval(pos);
         score += pawnBonus(pos);
-        score += tradeBonus(pos);
+        score += matHashData[matIdx + MI_TRADE_BONUS];
         score += castleBonus(pos);
 
+        // endGameEval can change the score a lot, but does nothing when there is much material left
+        lazyExit = false;
+        if (matHashData[matIdx + MI_ENDGAME] == EG_NONE) {
+            final int lazyScore = pos.whiteMove ? score : -score;
+            if ((lazyScore - lazyEvalMargin >= beta) || (lazyScore + lazyEvalMargin <= alpha)) {
+                lazyExit = true;
+                cacheStats.lazyExits++;
+                return lazyScore;
+            }
+        }
+
         score += rookBonus(pos);
         score += bishopEval(pos, score);
-        score += threatBonus(pos);
+        score += threatBonus(pos, ai);
         score += kingSafety(pos);
         score = endGameEval(pos, score);
 
@@ -297,6 +542,52 @@ public class Evaluate {
         // FIXME! Test "tempo value"
     }
 
+    /** Find or compute the material table entry for pos and set matIdx to point to it. */
+    private final void lookupMaterial(Position pos) {
+        final long key = pos.materialKey();
+        final int idx = (int)((key * 0x9E3779B97F4A7C15L) >>> (64 - MAT_HASH_LOG_SIZE));
+        matIdx = idx * MAT_HASH_INTS;
+        if (matHashKeys[idx] != key) {
+            computeMaterialData(pos, matIdx);
+            matHashKeys[idx] = key;
+        }
+    }
+
+    /** Compute material table data for pos and store it at index idx in matHashData. */
+    private final void computeMaterialData(Position pos, int idx) {
+        final int wMtrl = pos.wMtrl;
+        final int bMtrl = pos.bMtrl;
+        final int wMtrlNoPawns = wMtrl - pos.wMtrlPawns;
+        final int bMtrlNoPawns = bMtrl - pos.bMtrlPawns;
+        int[] data = matHashData;
+
+        data[idx + MI_ENDGAME] = endGameType(pos);
+        data[idx + MI_TRADE_BONUS] = tradeBonus(pos);
+        data[idx + MI_W_KING_PHASE] = phase(bMtrlNoPawns, KING_PHASE_LO, KING_PHASE_RANGE);
+        data[idx + MI_B_KING_PHASE] = phase(wMtrlNoPawns, KING_PHASE_LO, KING_PHASE_RANGE);
+        data[idx + MI_W_KNIGHT_PHASE] = phase(bMtrl, KNIGHT_PHASE_LO, KNIGHT_PHASE_RANGE);
+        data[idx + MI_B_KNIGHT_PHASE] = phase(wMtrl, KNIGHT_PHASE_LO, KNIGHT_PHASE_RANGE);
+        data[idx + MI_W_PASSED_PHASE] = phase(bMtrlNoPawns, 0, PASSED_PHASE_RANGE);
+        data[idx + MI_B_PASSED_PHASE] = phase(wMtrlNoPawns, 0, PASSED_PHASE_RANGE);
+        final int m = (wMtrlNoPawns + bMtrlNoPawns) / 2;
+        data[idx + MI_KING_SAFETY_PHASE] = (m <= KING_SAFETY_PHASE_LO) ? -1 :
+            phase(m, KING_SAFETY_PHASE_LO, KING_SAFETY_PHASE_RANGE);
+        data[idx + MI_BISHOP_PHASE] = phase(wMtrlNoPawns + bMtrlNoPawns, BISHOP_PHASE_LO, BISHOP_PHASE_RANGE);
+    }
+
+    /** Return x clamped to the interval [lo,lo+range], relative to lo. */
+    private static final int phase(int x, int lo, int range) {
+        return Math.max(0, Math.min(x - lo, range));
+    }
+
+    /**
+     * Interpolate between y1 and y2 using a phase value from the material table.
+     * Gives the same result as interpolate(x, lo, y1, lo+range, y2) if phase is phase(x, lo, range).
+     */
+    private static final int interpolatePhase(int phase, int range, int y1, int y2) {
+        return phase * (y2 - y1) / range + y1;
+    }
+
     /** Compute white_material - black_material. */
     static final int material(Position pos) {
         return pos.wMtrl - pos.bMtrl;
@@ -305,60 +596,53 @@ public class Evaluate {
     /** Compute score based on piece square tables. Positive values are good for white. */
     private final int pieceSquareEval(Position pos) {
         int score = 0;
-        final int wMtrl = pos.wMtrl;
-        final int bMtrl = pos.bMtrl;
         final int wMtrlPawns = pos.wMtrlPawns;
         final int bMtrlPawns = pos.bMtrlPawns;
         
+        final int[] mData = matHashData;
+        final int mIdx = matIdx;
+        final int wKingPhase = mData[mIdx + MI_W_KING_PHASE];
+        final int bKingPhase = mData[mIdx + MI_B_KING_PHASE];
+
         // Kings
         {
-            final int t1 = qV + 2 * rV + 2 * bV;
-            final int t2 = rV;
             {
                 final int k1 = pos.psScore1[Piece.WKING];
                 final int k2 = pos.psScore2[Piece.WKING];
-                final int t = bMtrl - bMtrlPawns;
-                score += interpolate(t, t2, k2, t1, k1);
+                score += interpolatePhase(wKingPhase, KING_PHASE_RANGE, k2, k1);
             }
             {
                 final int k1 = pos.psScore1[Piece.BKING];
                 final int k2 = pos.psScore2[Piece.BKING];
-                final int t = wMtrl - wMtrlPawns;
-                score -= interpolate(t, t2, k2, t1, k1);
+                score -= interpolatePhase(bKingPhase, KING_PHASE_RANGE, k2, k1);
             }
         }
 
         // Pawns
         {
-            final int t1 = qV + 2 * rV + 2 * bV;
-            final int t2 = rV;
             int wp1 = pos.psScore1[Piece.WPAWN];
             int wp2 = pos.psScore2[Piece.WPAWN];
             if ((wp1 != 0) || (wp2 != 0)) {
-                final int tw = bMtrl - bMtrlPawns;
-                score += interpolate(tw, t2, wp2, t1, wp1);
+                score += interpolatePhase(wKingPhase, KING_PHASE_RANGE, wp2, wp1);
             }
             int bp1 = pos.psScore1[Piece.BPAWN];
             int bp2 = pos.psScore2[Piece.BPAWN];
             if ((bp1 != 0) || (bp2 != 0)) {
-                final int tb = wMtrl - wMtrlPawns;
-                score -= interpolate(tb, t2, bp2, t1, bp1);
+                score -= interpolatePhase(bKingPhase, KING_PHASE_RANGE, bp2, bp1);
             }
         }
 
         // Knights
         {
-            final int t1 = qV + 2 * rV + 1 * bV + 1 * nV + 6 * pV;
-            final int t2 = nV + 8 * pV;
             int n1 = pos.psScore1[Piece.WKNIGHT];
             int n2 = pos.psScore2[Piece.WKNIGHT];
             if ((n1 != 0) || (n2 != 0)) {
-                score += interpolate(bMtrl, t2, n2, t1, n1);
+                score += interpolatePhase(mData[mIdx + MI_W_KNIGHT_PHASE], KNIGHT_PHASE_RANGE, n2, n1);
             }
             n1 = pos.psScore1[Piece.BKNIGHT];
             n2 = pos.psScore2[Piece.BKNIGHT];
             if ((n1 != 0) || (n2 != 0)) {
-                score -= interpolate(wMtrl, t2, n2, t1, n1);
+                score -= interpolatePhase(mData[mIdx + MI_B_KNIGHT_PHASE], KNIGHT_PHASE_RANGE, n2, n1);
             }
         }
 
@@ -449,10 +733,7 @@ public class Evaluate {
 
         final int k1 = kt1b[7*8+6] - kt1b[7*8+4];
         final int k2 = kt2b[7*8+6] - kt2b[7*8+4];
-        final int t1 = qV + 2 * rV + 2 * bV;
-        final int t2 = rV;
-        final int t = pos.bMtrl - pos.bMtrlPawns;
-        final int ks = interpolate(t, t2, k2, t1, k1);
+        final int ks = interpolatePhase(matHashData[matIdx + MI_W_KING_PHASE], KING_PHASE_RANGE, k2, k1);
 
         final int castleValue = ks + rt1b[7*8+5] - rt1b[7*8+7];
         if (castleValue <= 0)
@@ -474,19 +755,27 @@ public class Evaluate {
 
     private final int pawnBonus(Position pos) {
         long key = pos.pawnZobristHash();
-        PawnHashData phd = pawnHash[(int)key & (pawnHash.length - 1)];
-        if (phd.key != key)
-            computePawnHashData(pos, phd);
-        int score = phd.score;
-
-        final int hiMtrl = qV + rV;
-        score += interpolate(pos.bMtrl - pos.bMtrlPawns, 0, 2 * phd.passedBonusW, hiMtrl, phd.passedBonusW);
-        score -= interpolate(pos.wMtrl - pos.wMtrlPawns, 0, 2 * phd.passedBonusB, hiMtrl, phd.passedBonusB);
+        final int idx = ((int)key & pawnHashMask) * PAWN_HASH_LONGS;
+        cacheStats.pawnProbes++;
+        if (pawnHash[idx] != key)
+            computePawnHashData(pos, key, idx);
+        else
+            cacheStats.pawnHits++;
+        final long data = pawnHash[idx + 1];
+        int score = (int)(data >> 32);
+        final int passedBonusW = (short)(data >>> 16);
+        final int passedBonusB = (short)data;
+
+        final int hiMtrl = PASSED_PHASE_RANGE;
+        final int wPassedPhase = matHashData[matIdx + MI_W_PASSED_PHASE];
+        final int bPassedPhase = matHashData[matIdx + MI_B_PASSED_PHASE];
+        score += interpolatePhase(wPassedPhase, hiMtrl, 2 * passedBonusW, passedBonusW);
+        score -= interpolatePhase(bPassedPhase, hiMtrl, 2 * passedBonusB, passedBonusB);
 
         // Passed pawns are more dangerous if enemy king is far away
         int bestWPawnDist = 8;
         int bestWPromSq = -1;
-        long m = phd.passedPawnsW;
+        long m = pawnHash[idx + 2];
         if (m != 0) {
             int mtrlNoPawns = pos.bMtrl - pos.bMtrlPawns;
             if (mtrlNoPawns < hiMtrl) {
@@ -499,7 +788,7 @@ public class Evaluate {
                     int kingDist = BitBoard.getDistance(kingPos, Position.getSquare(x, 7));
                     int kScore = kingDist * 4;
                     if (kingDist > pawnDist) kScore += (kingDist - pawnDist) * (kingDist - pawnDist);
-                    score += interpolate(mtrlNoPawns, 0, kScore, hiMtrl, 0);
+                    score += interpolatePhase(wPassedPhase, hiMtrl, kScore, 0);
                     if (!pos.whiteMove)
                         kingDist--;
                     if ((pawnDist < kingDist) && (mtrlNoPawns == 0)) {
@@ -516,7 +805,7 @@ public class Evaluate {
         }
         int bestBPawnDist = 8;
         int bestBPromSq = -1;
-        m = phd.passedPawnsB;
+        m = pawnHash[idx + 3];
         if (m != 0) {
             int mtrlNoPawns = pos.wMtrl - pos.wMtrlPawns;
             if (mtrlNoPawns < hiMtrl) {
@@ -529,7 +818,7 @@ public class Evaluate {
                     int kingDist = BitBoard.getDistance(kingPos, Position.getSquare(x, 0));
                     int kScore = kingDist * 4;
                     if (kingDist > pawnDist) kScore += (kingDist - pawnDist) * (kingDist - pawnDist);
-                    score -= interpolate(mtrlNoPawns, 0, kScore, hiMtrl, 0);
+                    score -= interpolatePhase(bPassedPhase, hiMtrl, kScore, 0);
                     if (pos.whiteMove)
                         kingDist--;
                     if ((pawnDist < kingDist) && (mtrlNoPawns == 0)) {
@@ -569,8 +858,8 @@ public class Evaluate {
         return score;
     }
 
-    /** Compute pawn hash data for pos. */
-    private final void computePawnHashData(Position pos, PawnHashData ph) {
+    /** Compute pawn hash data for pos and store it in the pawn hash entry starting at idx. */
+    private final void computePawnHashData(Position pos, long key, int idx) {
         int score = 0;
 
         // Evaluate double pawns and pawn islands
@@ -657,12 +946,10 @@ public class Evaluate {
 //            passedBonusB += 13 * Long.bitCount(passedPawnsB & mask);
 //        }
 
-        ph.key = pos.pawnZobristHash();
-        ph.score = score;
-        ph.passedBonusW = (short)passedBonusW;
-        ph.passedBonusB = (short)passedBonusB;
-        ph.passedPawnsW = passedPawnsW;
-        ph.passedPawnsB = passedPawnsB;
+        pawnHash[idx] = key;
+        pawnHash[idx + 1] = ((long)score << 32) | ((passedBonusW & 0xffffL) << 16) | (passedBonusB & 0xffffL);
+        pawnHash[idx + 2] = passedPawnsW;
+        pawnHash[idx + 3] = passedPawnsB;
     }
 
     /** Compute rook bonus. Rook on open/half-open file. */
@@ -761,10 +1048,7 @@ public class Evaluate {
         if ((numWhite == 1) && (numBlack == 1) && (whiteDark != blackDark) &&
             (pos.wMtrl - pos.wMtrlPawns == pos.bMtrl - pos.bMtrlPawns)) {
             final int penalty = (oldScore + score) / 2;
-            final int loMtrl = 2 * bV;
-            final int hiMtrl = 2 * (qV + rV + bV);
-            int mtrl = pos.wMtrl + pos.bMtrl - pos.wMtrlPawns - pos.bMtrlPawns;
-            score -= interpolate(mtrl, loMtrl, penalty, hiMtrl, 0);
+            score -= interpolatePhase(matHashData[matIdx + MI_BISHOP_PHASE], BISHOP_PHASE_RANGE, penalty, 0);
         }
 
         // Penalty for bishop trapped behind pawn at a2/h2/a7/h7
@@ -790,23 +1074,18 @@ public class Evaluate {
         return score;
     }
 
-    private int threatBonus(Position pos) {
+    private int threatBonus(Position pos, AttackInfo ai) {
         // FIXME!! Try higher weight for attacks on more valuable pieces.
         int score = 0;
 
         // Sum values for all black pieces under attack
-        long m = pos.pieceTypeBB[Piece.WKNIGHT];
-        while (m != 0) {
-            int sq = BitBoard.numberOfTrailingZeros(m);
-            wAttacksBB |= BitBoard.knightAttacks[sq];
-            m &= m-1;
-        }
+        wAttacksBB |= ai.wKnightAttacks;
         wAttacksBB &= (pos.pieceTypeBB[Piece.BKNIGHT] |
                        pos.pieceTypeBB[Piece.BBISHOP] |
                        pos.pieceTypeBB[Piece.BROOK] |
                        pos.pieceTypeBB[Piece.BQUEEN]);
         wAttacksBB |= wPawnAttacks;
-        m = wAttacksBB & pos.blackBB & ~pos.pieceTypeBB[Piece.BKING];
+        long m = wAttacksBB & pos.blackBB & ~pos.pieceTypeBB[Piece.BKING];
         int tmp = 0;
         while (m != 0) {
             int sq = BitBoard.numberOfTrailingZeros(m);
@@ -816,12 +1095,7 @@ public class Evaluate {
         score += tmp + tmp * tmp / qV;
 
         // Sum values for all white pieces under attack
-        m = pos.pieceTypeBB[Piece.BKNIGHT];
-        while (m != 0) {
-            int sq = BitBoard.numberOfTrailingZeros(m);
-            bAttacksBB |= BitBoard.knightAttacks[sq];
-            m &= m-1;
-        }
+        bAttacksBB |= ai.bKnightAttacks;
         bAttacksBB &= (pos.pieceTypeBB[Piece.WKNIGHT] |
                        pos.pieceTypeBB[Piece.WBISHOP] |
                        pos.pieceTypeBB[Piece.WROOK] |
@@ -840,11 +1114,9 @@ public class Evaluate {
 
     /** Compute king safety for both kings. */
     private final int kingSafety(Position pos) {
-        final int minM = rV + bV;
-        final int m = (pos.wMtrl - pos.wMtrlPawns + pos.bMtrl - pos.bMtrlPawns) / 2;
-        if (m <= minM)
+        final int phase = matHashData[matIdx + MI_KING_SAFETY_PHASE];
+        if (phase < 0)
             return 0;
-        final int maxM = qV + 2 * rV + 2 * bV + 2 * nV;
         int score = kingSafetyKPPart(pos);
         if (Position.getY(pos.wKingSq) == 0) {
             if (((pos.pieceTypeBB[Piece.WKING] & 0x60L) != 0) && // King on f1 or g1
@@ -875,31 +1147,16 @@ public class Evaluate {
             }
         }
         score += (bKingAttacks - wKingAttacks) * 4;
-        final int kSafety = interpolate(m, minM, 0, maxM, score);
+        final int kSafety = interpolatePhase(phase, KING_SAFETY_PHASE_RANGE, 0, score);
         return kSafety;
     }
 
-    private static final class KingSafetyHashData {
-        long key;
-        int score;
-    }
-    private static final KingSafetyHashData[] kingSafetyHash;
-    static {
-        final int numEntries = 1 << 15;
-        kingSafetyHash = new KingSafetyHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            KingSafetyHashData ksh = new KingSafetyHashData();
-            ksh.key = -1;
-            ksh.score = 0;
-            kingSafetyHash[i] = ksh;
-        }
-    }
-
     private final int kingSafetyKPPart(Position pos) {
         // FIXME!!! Try non-linear king safety
         final long key = pos.pawnZobristHash() ^ pos.kingZobristHash();
-        KingSafetyHashData ksh = kingSafetyHash[(int)key & (kingSafetyHash.length - 1)];
-        if (ksh.key != key) {
+        final int idx = (int)key & (kingSafetyHashKeys.length - 1);
+        cacheStats.kingProbes++;
+        if (kingSafetyHashKeys[idx] != key) {
             int score = 0;
             long wPawns = pos.pieceTypeBB[Piece.WPAWN];
             long bPawns = pos.pieceTypeBB[Piece.BPAWN];
@@ -963,81 +1220,112 @@ public class Evaluate {
                 final int kSafety = (safety - 9) * 15 - halfOpenFiles;
                 score -= kSafety;
             }
-            ksh.key = key;
-            ksh.score = score;
+            kingSafetyHashKeys[idx] = key;
+            kingSafetyHashScores[idx] = score;
+        } else {
+            cacheStats.kingHits++;
         }
-        return ksh.score;
+        return kingSafetyHashScores[idx];
+    }
+
+    /** Return the endgame evaluator to use for the material in pos. Only depends on the material. */
+    private static final int endGameType(Position pos) {
+        if (pos.wMtrl + pos.bMtrl > 6 * rV)
+            return EG_NONE;
+        final int wMtrlNoPawns = pos.wMtrl - pos.wMtrlPawns;
+        final int bMtrlNoPawns = pos.bMtrl - pos.bMtrlPawns;
+        if ((pos.wMtrlPawns + pos.bMtrlPawns == 0) && (wMtrlNoPawns < rV) && (bMtrlNoPawns < rV))
+            return EG_MINOR_DRAW;
+        if ((pos.wMtrl == qV) && (pos.bMtrl == pV) && (pos.pieceTypeBB[Piece.WQUEEN] != 0))
+            return EG_KQKP;
+        if ((pos.wMtrl == rV) && (pos.pieceTypeBB[Piece.WROOK] != 0)) {
+            if (pos.bMtrl == pV)
+                return EG_KRKP;
+            if ((pos.bMtrl == bV) && (pos.pieceTypeBB[Piece.BBISHOP] != 0))
+                return EG_KRKB;
+        }
+        if ((pos.bMtrl == qV) && (pos.wMtrl == pV) && (pos.pieceTypeBB[Piece.BQUEEN] != 0))
+            return EG_KPKQ;
+        if ((pos.bMtrl == rV) && (pos.pieceTypeBB[Piece.BROOK] != 0)) {
+            if (pos.wMtrl == pV)
+                return EG_KPKR;
+            if ((pos.wMtrl == bV) && (pos.pieceTypeBB[Piece.WBISHOP] != 0))
+                return EG_KBKR;
+        }
+        return EG_GENERIC;
     }
 
     /** Implements special knowledge for some endgame situations. */
     private final int endGameEval(Position pos, int oldScore) {
         int score = oldScore;
-        if (pos.wMtrl + pos.bMtrl > 6 * rV)
+        switch (matHashData[matIdx + MI_ENDGAME]) {
+        case EG_NONE:
             return score;
-        final int wMtrlPawns = pos.wMtrlPawns;
-        final int bMtrlPawns = pos.bMtrlPawns;
-        final int wMtrlNoPawns = pos.wMtrl - wMtrlPawns;
-        final int bMtrlNoPawns = pos.bMtrl - bMtrlPawns;
-
-        boolean handled = false;
-        if ((wMtrlPawns + bMtrlPawns == 0) && (wMtrlNoPawns < rV) && (bMtrlNoPawns < rV)) {
+        case EG_MINOR_DRAW:
             // King + minor piece vs king + minor piece is a draw
             return 0;
-        }
-        if (!handled && (pos.wMtrl == qV) && (pos.bMtrl == pV) && (pos.pieceTypeBB[Piece.WQUEEN] != 0)) {
+        case EG_KQKP: {
             int wk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WKING]);
             int wq = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WQUEEN]);
             int bk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BKING]);
             int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
-            score = evalKQKP(wk, wq, bk, bp, pos.whiteMove);
-            handled = true;
+            return evalKQKP(wk, wq, bk, bp, pos.whiteMove);
         }
-        if (!handled && (pos.wMtrl == rV) && (pos.pieceTypeBB[Piece.WROOK] != 0)) {
-            if (pos.bMtrl == pV) {
-                int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
-                score = krkpEval(pos.getKingSq(true), pos.getKingSq(false),
-                        bp, pos.whiteMove);
-                handled = true;
-            } else if ((pos.bMtrl == bV) && (pos.pieceTypeBB[Piece.BBISHOP] != 0)) {
-                score /= 8;
-                final int kSq = pos.getKingSq(false);
-                final int x = Position.getX(kSq);
-                final int y = Position.getY(kSq);
-                if ((pos.pieceTypeBB[Piece.BBISHOP] & BitBoard.maskDarkSq) != 0) {
-                    score += (7 - distToH1A8[7-y][7-x]) * 7;
-                } else {
-                    score += (7 - distToH1A8[7-y][x]) * 7;
-                }
-                handled = true;
+        case EG_KRKP: {
+            int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
+            return krkpEval(pos.getKingSq(true), pos.getKingSq(false),
+                            bp, pos.whiteMove);
+        }
+        case EG_KRKB: {
+            score /= 8;
+            final int kSq = pos.getKingSq(false);
+            final int x = Position.getX(kSq);
+            final int y = Position.getY(kSq);
+            if ((pos.pieceTypeBB[Piece.BBISHOP] & BitBoard.maskDarkSq) != 0) {
+                score += (7 - distToH1A8[7-y][7-x]) * 7;
+            } else {
+                score += (7 - distToH1A8[7-y][x]) * 7;
             }
+            return score;
         }
-        if (!handled && (pos.bMtrl == qV) && (pos.wMtrl == pV) && (pos.pieceTypeBB[Piece.BQUEEN] != 0)) {
+        case EG_KPKQ: {
             int bk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BKING]);
             int bq = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BQUEEN]);
             int wk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WKING]);
             int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
-            score = -evalKQKP(63-bk, 63-bq, 63-wk, 63-wp, !pos.whiteMove);
-            handled = true;
+            return -evalKQKP(63-bk, 63-bq, 63-wk, 63-wp, !pos.whiteMove);
         }
-        if (!handled && (pos.bMtrl == rV) && (pos.pieceTypeBB[Piece.BROOK] != 0)) {
-            if (pos.wMtrl == pV) {
-                int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
-                score = -krkpEval(63-pos.getKingSq(false), 63-pos.getKingSq(true),
-                        63-wp, !pos.whiteMove);
-                handled = true;
-            } else if ((pos.wMtrl == bV) && (pos.pieceTypeBB[Piece.WBISHOP] != 0)) {
-                score /= 8;
-                final int kSq = pos.getKingSq(true);
-                final int x = Position.getX(kSq);
-                final int y = Position.getY(kSq);
-                if ((pos.pieceTypeBB[Piece.WBISHOP] & BitBoard.maskDarkSq) != 0) {
-                    score -= (7 - distToH1A8[7-y][7-x]) * 7;
-                } else {
-                    score -= (7 - distToH1A8[7-y][x]) * 7;
-                }
-                handled = true;
+        case EG_KPKR: {
+            int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
+            return -krkpEval(63-pos.getKingSq(false), 63-pos.getKingSq(true),
+                             63-wp, !pos.whiteMove);
+        }
+        case EG_KBKR: {
+            score /= 8;
+            final int kSq = pos.getKingSq(true);
+            final int x = Position.getX(kSq);
+            final int y = Position.getY(kSq);
+            if ((pos.pieceTypeBB[Piece.WBISHOP] & BitBoard.maskDarkSq) != 0) {
+                score -= (7 - distToH1A8[7-y][7-x]) * 7;
+            } else {
+                score -= (7 - distToH1A8[7-y][x]) * 7;
             }
+            return score;
         }
+        default:
+            return genericEndGameEval(pos, score);
+        }
+    }
+
+    /** Endgame rules for insufficient material, excess material and KPK. */
+    private final int genericEndGameEval(Position pos, int oldScore) {
+        int score = oldScore;
+        final int wMtrlPawns = pos.wMtrlPawns;
+        final int bMtrlPawns = pos.bMtrlPawns;
+        final int wMtrlNoPawns = pos.wMtrl - wMtrlPawns;
+        final int bMtrlNoPawns = pos.bMtrl - bMtrlPawns;
+
+        boolean handled = false;
         if (!handled && (score > 0)) {
             if ((wMtrlPawns == 0) && (wMtrlNoPawns <= bMtrlNoPawns + bV)) {
                 if (wMtrlNoPawns < rV) {
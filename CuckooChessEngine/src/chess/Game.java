@@ -283,11 +283,12 @@ public class Game {
             try {
                 String depthStr = moveStr.substring(moveStr.indexOf(" ") + 1);
                 int depth = Integer.parseInt(depthStr);
-                MoveGen moveGen = new MoveGen();
-                long t0 = System.currentTimeMillis();
-                long nodes = perfT(moveGen, pos, depth);
-                long t1 = System.currentTimeMillis();
-                System.out.printf("perft(%d) = %d, t=%.3fs\n", depth, nodes, (t1 - t0)*1e-3);
+                Perft perft = new Perft(Perft.DEFAULT_HASH_MB, Runtime.getRuntime().availableProcessors());
+                try {
+                    perft.divide(new Position(pos), depth, System.out);
+                } finally {
+                    perft.shutdown();
+                }
             }
             catch (NumberFormatException nfe) {
                 System.out.printf("Number format exception: %s\n", nfe.getMessage());
@@ -553,8 +554,7 @@ public class Game {
         if (depth == 0)
             return 1;
         long nodes = 0;
-        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         if (depth == 1) {
             int ret = moves.size;
             moveGen.returnMoveList(moves);
@@ -562,7 +562,7 @@ public class Game {
         }
         UndoInfo ui = new UndoInfo();
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            int m = moves.m[mi];
             pos.makeMove(m, ui);
             nodes += perfT(moveGen, pos, depth - 1);
             pos.unMakeMove(m, ui);
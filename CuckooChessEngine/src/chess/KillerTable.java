@@ -41,10 +41,10 @@ public class KillerTable {
     }
 
     /** Add a killer move to the table. Moves are replaced on an LRU basis. */
-    final public void addKiller(int ply, Move m) {
+    final public void addKiller(int ply, int m) {
         if (ply >= ktList.length)
             return;
-        int move = (short)(m.from + (m.to << 6) + (m.promoteTo << 12));
+        int move = Move.noScore(m);
         KTEntry ent = ktList[ply];
         if (move != ent.move0) {
             ent.move1 = ent.move0;
@@ -53,15 +53,15 @@ public class KillerTable {
     }
 
     /**
-     * Get a score for move m based on hits in the killer table.
+     * Get a score for packed move m based on hits in the killer table.
      * The score is 4 for primary   hit at ply.
      * The score is 3 for secondary hit at ply.
      * The score is 2 for primary   hit at ply - 2.
      * The score is 1 for secondary hit at ply - 2.
      * The score is 0 otherwise.
      */
-    final public int getKillerScore(int ply, Move m) {
-        int move = (short)(m.from + (m.to << 6) + (m.promoteTo << 12));
+    final public int getKillerScore(int ply, int m) {
+        int move = Move.noScore(m);
         if (ply < ktList.length) {
             KTEntry ent = ktList[ply];
             if (move == ent.move0) {
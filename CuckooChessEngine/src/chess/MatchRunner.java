@@ -0,0 +1,685 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Play a match between two engine configurations in the same JVM. Several games are
+ * played at the same time, each game by its own pair of ComputerPlayer objects.
+ * Each opening is played twice, with colors reversed. Games can be adjudicated, and
+ * the match can be stopped early by a sequential probability ratio test (SPRT).
+ * The games are written in PGN format.
+ * <p>
+ * When more games are played at the same time than there are CPU cores, the search
+ * time for a player depends on what the other games are doing, so node limits
+ * should be used instead of time limits.
+ * @author petero
+ */
+public class MatchRunner {
+    public static final int DEFAULT_HASH_MB = 16;
+
+    /** Engine configuration. */
+    public static final class Engine {
+        public final String name;
+        final Parameters params;  // Tunable parameters, or null to use the global parameters
+        final NNUE network;       // Evaluation network, or null for the handcrafted evaluation
+
+        public Engine(String name, Parameters params, NNUE network) {
+            this.name = name;
+            this.params = params;
+            this.network = network;
+        }
+    }
+
+    /** A finished game. */
+    public static final class GameRecord {
+        public int round;           // 1-based game number
+        public String white;
+        public String black;
+        public String fen;          // Start position
+        public List<String> moves = new ArrayList<String>(); // Moves in short algebraic notation
+        public String result;       // "1-0", "0-1" or "1/2-1/2"
+        public String reason;       // Description of how the game ended
+        public boolean adjudicated;
+    }
+
+    /** Game results from the first engine's point of view. */
+    public static final class Stats {
+        public int wins;
+        public int draws;
+        public int losses;
+
+        public final int games() {
+            return wins + draws + losses;
+        }
+
+        /** Average score per game, between 0 and 1. */
+        public final double score() {
+            int n = games();
+            return (n > 0) ? (wins + draws * 0.5) / n : 0.5;
+        }
+
+        /** Elo difference corresponding to the score. */
+        public final double elo() {
+            return scoreToElo(score());
+        }
+
+        /** Half the width of the 95% confidence interval for the Elo difference. */
+        public final double eloError() {
+            int n = games();
+            if (n == 0)
+                return Double.POSITIVE_INFINITY;
+            double s = score();
+            double sd = Math.sqrt(variance() / n);
+            return (scoreToElo(s + 1.96 * sd) - scoreToElo(s - 1.96 * sd)) / 2;
+        }
+
+        /** Likelihood of superiority, the probability that the first engine is stronger. */
+        public final double los() {
+            if (wins + losses == 0)
+                return 0.5;
+            return 0.5 * (1 + erf((wins - losses) / Math.sqrt(2.0 * (wins + losses))));
+        }
+
+        /**
+         * Log-likelihood ratio for H1: elo = elo1 against H0: elo = elo0, using
+         * a normal approximation of the score distribution.
+         */
+        public final double llr(double elo0, double elo1) {
+            int n = games();
+            double var = variance();
+            if ((n == 0) || (var <= 0))
+                return 0;
+            double s0 = eloToScore(elo0);
+            double s1 = eloToScore(elo1);
+            return (s1 - s0) * (2 * score() - s0 - s1) / (2 * var / n);
+        }
+
+        /** Variance of the score of one game. */
+        private double variance() {
+            int n = games();
+            if (n == 0)
+                return 0;
+            double w = (double)wins / n;
+            double d = (double)draws / n;
+            double s = w + d / 2;
+            return w + d / 4 - s * s;
+        }
+
+        final void add(double score) {
+            if (score > 0.75)
+                wins++;
+            else if (score < 0.25)
+                losses++;
+            else
+                draws++;
+        }
+    }
+
+    static double scoreToElo(double s) {
+        if (s <= 0)
+            return Double.NEGATIVE_INFINITY;
+        if (s >= 1)
+            return Double.POSITIVE_INFINITY;
+        return 400 * Math.log10(s / (1 - s));
+    }
+
+    static double eloToScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** Error function, Abramowitz and Stegun formula 7.1.26. Absolute error less than 1.5e-7. */
+    static double erf(double x) {
+        double t = 1 / (1 + 0.3275911 * Math.abs(x));
+        double y = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 +
+                   t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return (x >= 0) ? y : -y;
+    }
+
+    private final Engine[] engines;
+    private final int threads;
+    private final int ttLogSize;
+    private int moveTimeMillis = -1;
+    private int maxDepth = -1;
+    private int maxNodes = -1;
+
+    private int resignScore = 1000;  // Adjudicate a win when both engines agree the score is at least this
+    private int resignPlies = 8;     // for this many plies in a row.
+    private int drawScore = 10;      // Adjudicate a draw when the absolute score is at most this
+    private int drawPlies = 12;      // for this many plies in a row,
+    private int drawMinPly = 80;     // not before this ply.
+    private int maxPlies = 400;      // Adjudicate a draw after this many plies. 0 disables.
+
+    private boolean sprt = false;
+    private double elo0, elo1;
+    private double alpha, beta;
+
+    /**
+     * Constructor.
+     * @param a          First engine.
+     * @param b          Second engine. Statistics are from a's point of view.
+     * @param threads    Number of games played at the same time.
+     * @param hashSizeMB Transposition table size for each player, in megabytes.
+     */
+    public MatchRunner(Engine a, Engine b, int threads, int hashSizeMB) {
+        engines = new Engine[]{ a, b };
+        this.threads = Math.max(threads, 1);
+        long nEntries = Math.max(hashSizeMB, 1) * (1L << 20) / TranspositionTable.BYTES_PER_ENTRY;
+        ttLogSize = 63 - Long.numberOfLeadingZeros(nEntries);
+    }
+
+    /** Set the search limits for each move. -1 means no limit. At least one limit must be set. */
+    public final void setLimits(int moveTimeMillis, int maxDepth, int maxNodes) {
+        if ((moveTimeMillis < 0) && (maxDepth < 0) && (maxNodes < 0))
+            throw new IllegalArgumentException("No search limit");
+        this.moveTimeMillis = moveTimeMillis;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Set adjudication rules. Scores are in centipawns. resignPlies = 0 disables win
+     * adjudication, drawPlies = 0 disables draw adjudication and maxPlies = 0 disables
+     * the game length limit.
+     */
+    public final void setAdjudication(int resignScore, int resignPlies, int drawScore, int drawPlies,
+                                      int drawMinPly, int maxPlies) {
+        this.resignScore = resignScore;
+        this.resignPlies = resignPlies;
+        this.drawScore = drawScore;
+        this.drawPlies = drawPlies;
+        this.drawMinPly = drawMinPly;
+        this.maxPlies = maxPlies;
+    }
+
+    /**
+     * Stop the match when a sequential probability ratio test accepts H0: elo = elo0
+     * or H1: elo = elo1. alpha and beta are the probabilities of false positives and
+     * false negatives.
+     */
+    public final void setSPRT(double elo0, double elo1, double alpha, double beta) {
+        this.sprt = true;
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /** SPRT lower bound. H0 is accepted when the LLR is below this value. */
+    public final double sprtLowerBound() {
+        return Math.log(beta / (1 - alpha));
+    }
+
+    /** SPRT upper bound. H1 is accepted when the LLR is above this value. */
+    public final double sprtUpperBound() {
+        return Math.log((1 - beta) / alpha);
+    }
+
+    /** Return "H0", "H1", or null if the SPRT has not finished or is not used. */
+    public final String sprtResult(Stats stats) {
+        if (!sprt)
+            return null;
+        double llr = stats.llr(elo0, elo1);
+        if (llr >= sprtUpperBound())
+            return "H1";
+        if (llr <= sprtLowerBound())
+            return "H0";
+        return null;
+    }
+
+    /**
+     * Create opening positions by playing random moves from the opening book.
+     * @param count Number of openings.
+     * @param plies Maximum number of book moves in each opening.
+     * @param seed  Random seed, the same seed gives the same openings.
+     */
+    public static List<String> bookOpenings(int count, int plies, long seed) {
+        Random rnd = new Random(seed);
+        Book book = new Book(false);
+        List<String> ret = new ArrayList<String>();
+        UndoInfo ui = new UndoInfo();
+        for (int i = 0; i < count; i++) {
+            Position pos;
+            try {
+                pos = TextIO.readFEN(TextIO.startPosFEN);
+            } catch (ChessParseError ex) {
+                throw new RuntimeException();
+            }
+            for (int p = 0; p < plies; p++) {
+                Move m = book.getBookMove(pos, rnd);
+                if (m == null)
+                    break;
+                pos.makeMove(m, ui);
+            }
+            ret.add(TextIO.toFEN(pos));
+        }
+        return ret;
+    }
+
+    /** Read opening positions from an EPD or FEN file. Operations on the lines are ignored. */
+    public static List<String> readOpenings(String fileName) throws IOException, ChessParseError {
+        List<String> ret = new ArrayList<String>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.startsWith("#") || (line.length() == 0))
+                    continue;
+                try {
+                    String fen = TestSuiteRunner.splitEPD(line)[0];
+                    TextIO.readFEN(fen);
+                    ret.add(fen);
+                } catch (ChessParseError cpe) {
+                    throw new ChessParseError("Line " + lineNo + ": " + cpe.getMessage());
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Play the match. Game i uses opening i/2, and the first engine plays white in even
+     * numbered games. A line is printed to log after each game, and the game is written
+     * to pgn. Both streams may be null. A game that fails with an exception is reported
+     * to log and is not counted.
+     * @param openings Start positions as FEN strings.
+     * @param maxGames Maximum number of games. Fewer games are played if the SPRT finishes.
+     * @return The results from the first engine's point of view.
+     */
+    public final Stats run(final List<String> openings, final int maxGames,
+                           final PrintStream log, final PrintStream pgn) {
+        if (openings.isEmpty())
+            throw new IllegalArgumentException("No openings");
+        final Stats stats = new Stats();
+        final AtomicInteger nextGame = new AtomicInteger(0);
+        final String date = new SimpleDateFormat("yyyy.MM.dd", Locale.US).format(new Date());
+        int nWorkers = Math.min(threads, Math.max(maxGames, 1));
+        Thread[] workers = new Thread[nWorkers];
+        for (int i = 0; i < nWorkers; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    while (true) {
+                        synchronized (stats) {
+                            if (sprtResult(stats) != null)
+                                break;
+                        }
+                        int idx = nextGame.getAndIncrement();
+                        if (idx >= maxGames)
+                            break;
+                        String fen = openings.get((idx / 2) % openings.size());
+                        boolean aWhite = (idx & 1) == 0;
+                        GameRecord g;
+                        try {
+                            g = playGame(idx + 1, fen, aWhite ? 0 : 1);
+                        } catch (RuntimeException ex) {
+                            // Report the failed game, it is not counted in the results
+                            if (log != null) {
+                                synchronized (stats) {
+                                    log.printf(Locale.US, "Game %d: failed: %s%n", idx + 1, ex);
+                                }
+                            }
+                            continue;
+                        }
+                        double aScore = g.result.equals("1-0") ? 1 : g.result.equals("0-1") ? 0 : 0.5;
+                        if (!aWhite)
+                            aScore = 1 - aScore;
+                        synchronized (stats) {
+                            stats.add(aScore);
+                            if (log != null)
+                                printProgress(log, g, stats);
+                            if (pgn != null)
+                                writePGN(pgn, g, date);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    // Keep waiting, the workers can not be stopped early
+                }
+            }
+        }
+        if (pgn != null)
+            pgn.flush();
+        return stats;
+    }
+
+    private ComputerPlayer newPlayer(Engine e) {
+        ComputerPlayer cp = new ComputerPlayer();
+        cp.verbose = false;
+        cp.useBook(false);
+        cp.setTTLogSize(ttLogSize);
+        if (e.params != null)
+            cp.setParameters(e.params);
+        if (e.network != null)
+            cp.setNetwork(e.network);
+        cp.timeLimit(moveTimeMillis, moveTimeMillis, false);
+        cp.maxDepth = (maxDepth > 0) ? maxDepth : 100;
+        cp.maxNodes = maxNodes;
+        return cp;
+    }
+
+    /**
+     * Play one game.
+     * @param whiteIdx Index of the engine playing white.
+     */
+    final GameRecord playGame(int round, String fen, int whiteIdx) {
+        Engine we = engines[whiteIdx];
+        Engine be = engines[1 - whiteIdx];
+        ComputerPlayer white = newPlayer(we);
+        ComputerPlayer black = newPlayer(be);
+        GameRecord g = new GameRecord();
+        g.round = round;
+        g.white = we.name;
+        g.black = be.name;
+        g.fen = fen;
+
+        Game game = new Game(white, black);
+        game.processString("setpos " + fen);
+        int whiteWinPlies = 0;
+        int blackWinPlies = 0;
+        int drawnPlies = 0;
+        int ply = 0;
+        while (true) {
+            Game.GameState state = game.getGameState();
+            if (state != Game.GameState.ALIVE) {
+                g.result = game.getPGNResultString();
+                g.reason = gameStateReason(state);
+                break;
+            }
+            if ((maxPlies > 0) && (ply >= maxPlies)) {
+                adjudicate(g, "1/2-1/2", "Game length limit reached");
+                break;
+            }
+            Position pos = new Position(game.pos);
+            ComputerPlayer cp = pos.whiteMove ? white : black;
+            String cmd = cp.getCommand(new Position(pos), game.haveDrawOffer(), game.getHistory());
+            int nMoves = game.currentMove;
+            if (!game.processString(cmd))
+                throw new RuntimeException("Invalid engine command: " + cmd);
+            if (game.currentMove > nMoves) {
+                g.moves.add(TextIO.moveToString(pos, game.getLastMove(), false));
+            } else if ((game.drawStateMoveStr != null) && (game.getGameState() != Game.GameState.ALIVE)) {
+                g.moves.add(game.drawStateMoveStr); // Draw claimed after this move
+            }
+            ply++;
+
+            if (cp.lastScoreValid) {
+                int score = pos.whiteMove ? cp.lastScore : -cp.lastScore;
+                if (score >= resignScore) {
+                    whiteWinPlies++;
+                    blackWinPlies = 0;
+                } else if (score <= -resignScore) {
+                    blackWinPlies++;
+                    whiteWinPlies = 0;
+                } else {
+                    whiteWinPlies = blackWinPlies = 0;
+                }
+                if ((ply >= drawMinPly) && (Math.abs(score) <= drawScore))
+                    drawnPlies++;
+                else
+                    drawnPlies = 0;
+            }
+            if (game.getGameState() != Game.GameState.ALIVE)
+                continue;
+            if ((resignPlies > 0) && (whiteWinPlies >= resignPlies)) {
+                adjudicate(g, "1-0", "White wins by adjudication");
+                break;
+            }
+            if ((resignPlies > 0) && (blackWinPlies >= resignPlies)) {
+                adjudicate(g, "0-1", "Black wins by adjudication");
+                break;
+            }
+            if ((drawPlies > 0) && (drawnPlies >= drawPlies)) {
+                adjudicate(g, "1/2-1/2", "Draw by adjudication");
+                break;
+            }
+        }
+        return g;
+    }
+
+    private static void adjudicate(GameRecord g, String result, String reason) {
+        g.result = result;
+        g.reason = reason;
+        g.adjudicated = true;
+    }
+
+    private static String gameStateReason(Game.GameState state) {
+        switch (state) {
+        case WHITE_MATE:      return "White mates";
+        case BLACK_MATE:      return "Black mates";
+        case WHITE_STALEMATE:
+        case BLACK_STALEMATE: return "Draw by stalemate";
+        case DRAW_REP:        return "Draw by repetition";
+        case DRAW_50:         return "Draw by 50 move rule";
+        case DRAW_NO_MATE:    return "Draw by insufficient material";
+        case DRAW_AGREE:      return "Draw by agreement";
+        case RESIGN_WHITE:    return "White resigns";
+        case RESIGN_BLACK:    return "Black resigns";
+        default:              return "";
+        }
+    }
+
+    private void printProgress(PrintStream os, GameRecord g, Stats s) {
+        os.printf(Locale.US, "Game %d: %s - %s %s {%s}%n", g.round, g.white, g.black, g.result, g.reason);
+        os.printf(Locale.US, "Score of %s vs %s: %d - %d - %d [%.3f] %d%n",
+                  engines[0].name, engines[1].name, s.wins, s.losses, s.draws, s.score(), s.games());
+        os.printf(Locale.US, "Elo difference: %.1f +/- %.1f, LOS: %.1f %%%n",
+                  s.elo(), s.eloError(), s.los() * 100);
+        if (sprt)
+            os.printf(Locale.US, "SPRT: llr %.2f (%.2f, %.2f) [%.1f, %.1f]%n",
+                      s.llr(elo0, elo1), sprtLowerBound(), sprtUpperBound(), elo0, elo1);
+    }
+
+    /** Print the final result of the match. */
+    public final void printSummary(PrintStream os, Stats s) {
+        os.printf(Locale.US, "Finished match%n");
+        os.printf(Locale.US, "Score of %s vs %s: %d - %d - %d [%.3f] %d%n",
+                  engines[0].name, engines[1].name, s.wins, s.losses, s.draws, s.score(), s.games());
+        os.printf(Locale.US, "Elo difference: %.1f +/- %.1f, LOS: %.1f %%%n",
+                  s.elo(), s.eloError(), s.los() * 100);
+        if (sprt) {
+            String res = sprtResult(s);
+            os.printf(Locale.US, "SPRT: llr %.2f (%.2f, %.2f) [%.1f, %.1f] %s%n",
+                      s.llr(elo0, elo1), sprtLowerBound(), sprtUpperBound(), elo0, elo1,
+                      (res == null) ? "inconclusive" : (res + " accepted"));
+        }
+    }
+
+    private static void writePGN(PrintStream os, GameRecord g, String date) {
+        os.printf("[Event \"CuckooChess match\"]%n");
+        os.printf("[Site \"?\"]%n");
+        os.printf("[Date \"%s\"]%n", date);
+        os.printf("[Round \"%d\"]%n", g.round);
+        os.printf("[White \"%s\"]%n", g.white);
+        os.printf("[Black \"%s\"]%n", g.black);
+        os.printf("[Result \"%s\"]%n", g.result);
+        if (!g.fen.equals(TextIO.startPosFEN)) {
+            os.printf("[SetUp \"1\"]%n");
+            os.printf("[FEN \"%s\"]%n", g.fen);
+        }
+        os.printf("[PlyCount \"%d\"]%n", g.moves.size());
+        os.printf("[Termination \"%s\"]%n", g.adjudicated ? "adjudication" : "normal");
+        os.printf("%n");
+
+        Position pos;
+        try {
+            pos = TextIO.readFEN(g.fen);
+        } catch (ChessParseError ex) {
+            throw new RuntimeException();
+        }
+        StringBuilder line = new StringBuilder();
+        List<String> tokens = new ArrayList<String>();
+        boolean whiteMove = pos.whiteMove;
+        int moveNo = pos.fullMoveCounter;
+        for (int i = 0; i < g.moves.size(); i++) {
+            if (whiteMove)
+                tokens.add(moveNo + ".");
+            else if (i == 0)
+                tokens.add(moveNo + "...");
+            tokens.add(g.moves.get(i));
+            if (!whiteMove)
+                moveNo++;
+            whiteMove = !whiteMove;
+        }
+        tokens.add("{" + g.reason + "}");
+        tokens.add(g.result);
+        for (String t : tokens) {
+            if ((line.length() > 0) && (line.length() + 1 + t.length() > 79)) {
+                os.printf("%s%n", line);
+                line.setLength(0);
+            }
+            if (line.length() > 0)
+                line.append(' ');
+            line.append(t);
+        }
+        os.printf("%s%n%n", line);
+    }
+
+    /**
+     * Run a match from the command line. Options are given as name/value pairs:
+     * games n, threads n, time ms, nodes n, depth d, hash MB, book plies, epd file,
+     * seed n, pgn file, sprt elo0 elo1 alpha beta, adj resignScore resignPlies drawScore
+     * drawPlies drawMinPly maxPlies, and for each engine e (a or b): e.name name,
+     * e.param name=value, e.net file.
+     * Only parameters that can differ between engines in the same JVM are accepted
+     * by e.param, currently LazyEvalMargin. The piece values (pV, nV, bV, rV, qV) are
+     * fixed when the Evaluate class is loaded, so they are rejected.
+     */
+    public static void main(String[] args) throws IOException, ChessParseError {
+        int games = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int time = -1, nodes = -1, depth = -1;
+        int hashSizeMB = DEFAULT_HASH_MB;
+        int bookPlies = 8;
+        String epdFile = null;
+        long seed = 1;
+        String pgnFile = null;
+        double[] sprtPars = null;
+        int[] adjPars = null;
+        String[] names = { "A", "B" };
+        Parameters[] params = { null, null };
+        NNUE[] nets = { null, null };
+        for (int i = 0; i < args.length; i++) {
+            String opt = args[i];
+            int nArgs = opt.equals("sprt") ? 4 : opt.equals("adj") ? 6 : 1;
+            if (i + nArgs >= args.length)
+                throw new IllegalArgumentException("Missing value for option: " + opt);
+            if (opt.equals("games")) {
+                games = Integer.parseInt(args[++i]);
+            } else if (opt.equals("threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (opt.equals("time")) {
+                time = Integer.parseInt(args[++i]);
+            } else if (opt.equals("nodes")) {
+                nodes = Integer.parseInt(args[++i]);
+            } else if (opt.equals("depth")) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (opt.equals("hash")) {
+                hashSizeMB = Integer.parseInt(args[++i]);
+            } else if (opt.equals("book")) {
+                bookPlies = Integer.parseInt(args[++i]);
+            } else if (opt.equals("epd")) {
+                epdFile = args[++i];
+            } else if (opt.equals("seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (opt.equals("pgn")) {
+                pgnFile = args[++i];
+            } else if (opt.equals("sprt")) {
+                sprtPars = new double[4];
+                for (int j = 0; j < 4; j++)
+                    sprtPars[j] = Double.parseDouble(args[++i]);
+            } else if (opt.equals("adj")) {
+                adjPars = new int[6];
+                for (int j = 0; j < 6; j++)
+                    adjPars[j] = Integer.parseInt(args[++i]);
+            } else if (opt.startsWith("a.") || opt.startsWith("b.")) {
+                int e = opt.startsWith("a.") ? 0 : 1;
+                String what = opt.substring(2);
+                String val = args[++i];
+                if (what.equals("name")) {
+                    names[e] = val;
+                } else if (what.equals("param")) {
+                    int idx = val.indexOf('=');
+                    if ((idx < 0) || (Parameters.instance().getParam(val.substring(0, idx).toLowerCase()) == null))
+                        throw new IllegalArgumentException("Invalid parameter: " + val);
+                    if (!Evaluate.isInstanceParam(val.substring(0, idx)))
+                        throw new IllegalArgumentException("Parameter can not differ between engines: " + val);
+                    if (params[e] == null)
+                        params[e] = Parameters.instance().copy();
+                    params[e].set(val.substring(0, idx), val.substring(idx + 1));
+                } else if (what.equals("net")) {
+                    nets[e] = NNUE.load(val);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + opt);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + opt);
+            }
+        }
+        if ((time < 0) && (nodes < 0) && (depth < 0))
+            nodes = 20000;
+
+        MatchRunner mr = new MatchRunner(new Engine(names[0], params[0], nets[0]),
+                                         new Engine(names[1], params[1], nets[1]),
+                                         threads, hashSizeMB);
+        mr.setLimits(time, depth, nodes);
+        if (sprtPars != null)
+            mr.setSPRT(sprtPars[0], sprtPars[1], sprtPars[2], sprtPars[3]);
+        if (adjPars != null)
+            mr.setAdjudication(adjPars[0], adjPars[1], adjPars[2], adjPars[3], adjPars[4], adjPars[5]);
+        List<String> openings = (epdFile != null) ? readOpenings(epdFile)
+                                                  : bookOpenings((games + 1) / 2, bookPlies, seed);
+        PrintStream pgn = null;
+        if (pgnFile != null)
+            pgn = new PrintStream(new FileOutputStream(pgnFile), false, "UTF-8");
+        try {
+            Stats s = mr.run(openings, games, System.out, pgn);
+            mr.printSummary(System.out, s);
+        } finally {
+            if (pgn != null)
+                pgn.close();
+        }
+    }
+}
@@ -21,7 +21,13 @@ package chess;
 import java.util.Comparator;
 
 /**
+ * A chess move.
  *
+ * Move generation and search use a packed int representation instead of Move objects,
+ * to avoid allocating and dereferencing objects in the inner loops. Bits 0-5 hold the
+ * from square, bits 6-11 the to square, bits 12-15 the promotion piece and bits 16-31
+ * a signed score, which must be in the range [-32768,32767].
+ * Move objects are used by the rest of the program.
  * @author petero
  */
 public class Move {
@@ -85,6 +91,65 @@ public class Move {
         this.score = score;
     }
 
+    /** Return this move in packed form, including the score. */
+    public final int getPacked() {
+        return pack(from, to, promoteTo, score);
+    }
+
+    /** Set this move from a packed move, including the score. */
+    public final void setPacked(int m) {
+        from = getFrom(m);
+        to = getTo(m);
+        promoteTo = getPromoteTo(m);
+        score = getScore(m);
+    }
+
+    /** Create a move object from a packed move. */
+    public static final Move fromPacked(int m) {
+        return new Move(getFrom(m), getTo(m), getPromoteTo(m), getScore(m));
+    }
+
+    /** Create a packed move with zero score. */
+    public static final int pack(int from, int to, int promoteTo) {
+        return from | (to << 6) | (promoteTo << 12);
+    }
+
+    /** Create a packed move. */
+    public static final int pack(int from, int to, int promoteTo, int score) {
+        return from | (to << 6) | (promoteTo << 12) | (score << 16);
+    }
+
+    public static final int getFrom(int m) {
+        return m & 63;
+    }
+
+    public static final int getTo(int m) {
+        return (m >> 6) & 63;
+    }
+
+    public static final int getPromoteTo(int m) {
+        return (m >> 12) & 15;
+    }
+
+    public static final int getScore(int m) {
+        return m >> 16;
+    }
+
+    /** Return packed move m with its score replaced. */
+    public static final int setScore(int m, int score) {
+        return (m & 0xffff) | (score << 16);
+    }
+
+    /** Return packed move m with zero score. Two packed moves are equal if their noScore values are equal. */
+    public static final int noScore(int m) {
+        return m & 0xffff;
+    }
+
+    /** Return true if packed move m is the empty move, from square equal to to square. */
+    public static final boolean isEmpty(int m) {
+        return (m & 63) == ((m >> 6) & 63);
+    }
+
     /** Note that score is not included in the comparison. */
     @Override
     public boolean equals(Object o) {
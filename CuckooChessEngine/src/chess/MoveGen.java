@@ -21,26 +21,28 @@ package chess;
 import java.util.List;
 
 /**
- *
+ * Move generator. A MoveGen object caches move lists, so each thread must use its own object.
  * @author petero
  */
 public final class MoveGen {
-    static final MoveGen instance;
-    static {
-        instance = new MoveGen();
-    }
+    private final AttackInfo attackInfo = new AttackInfo(); // Used by legalMoves()
 
+    /** A list of moves in packed form, see Move.pack(). */
     public final static class MoveList {
-        public final Move[] m;
+        public final int[] m;
         public int size;
         MoveList() {
-            m = new Move[MAX_MOVES];
+            m = new int[MAX_MOVES];
             this.size = 0;
         }
+        /** Create a Move object for the i:th move in the list. */
+        public final Move getMove(int i) {
+            return Move.fromPacked(m[i]);
+        }
         public final void filter(List<Move> searchMoves) {
             int used = 0;
             for (int i = 0; i < size; i++)
-                if (searchMoves.contains(m[i]))
+                if (searchMoves.contains(getMove(i)))
                     m[used++] = m[i];
             size = used;
         }
@@ -211,6 +213,18 @@ public final class MoveGen {
         return moveList;
     }
 
+    /**
+     * Generate and return a list of legal moves.
+     * Checkers and pinned pieces are computed first, so no move has to be
+     * played to find out if it is legal.
+     */
+    public final MoveList legalMoves(Position pos) {
+        attackInfo.computeCheckInfo(pos);
+        MoveList moveList = (attackInfo.checkers != 0) ? checkEvasions(pos) : pseudoLegalMoves(pos);
+        removeIllegal(pos, moveList, attackInfo);
+        return moveList;
+    }
+
     /**
      * Generate and return a list of pseudo-legal check evasion moves.
      * Pseudo-legal means that the moves doesn't necessarily defend from check threats.
@@ -726,6 +740,105 @@ public final class MoveGen {
         return sqAttacked(pos, kingSq);
     }
 
+    /** Like inCheck(Position), but uses the check information in ai. */
+    public static final boolean inCheck(Position pos, AttackInfo ai) {
+        ai.computeCheckInfo(pos);
+        return ai.checkers != 0;
+    }
+
+    /**
+     * Return true if m is one of the moves generated by pseudoLegalMoves(pos).
+     * This is used to validate a hash move without generating the move list.
+     * The check for king capture positions, where pseudoLegalMoves() only
+     * returns the king capture, is left to the caller.
+     */
+    public static final boolean isPseudoLegal(Position pos, Move m) {
+        return isPseudoLegal(pos, Move.pack(m.from, m.to, m.promoteTo));
+    }
+
+    /** Packed move version of isPseudoLegal(). */
+    public static final boolean isPseudoLegal(Position pos, int m) {
+        final int from = Move.getFrom(m);
+        final int to = Move.getTo(m);
+        final int promoteTo = Move.getPromoteTo(m);
+        if ((from < 0) || (from > 63) || (to < 0) || (to > 63) || (from == to))
+            return false;
+        final boolean wtm = pos.whiteMove;
+        final int p = pos.getPiece(from);
+        if ((p == Piece.EMPTY) || (Piece.isWhite(p) != wtm))
+            return false;
+        final long toMask = 1L << to;
+        if ((toMask & (wtm ? pos.whiteBB : pos.blackBB)) != 0)
+            return false;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final int pt = Piece.makeWhite(p);
+        if (pt != Piece.WPAWN) {
+            if (promoteTo != Piece.EMPTY)
+                return false;
+            switch (pt) {
+            case Piece.WQUEEN:
+                return ((BitBoard.rookAttacks(from, occupied) | BitBoard.bishopAttacks(from, occupied)) & toMask) != 0;
+            case Piece.WROOK:
+                return (BitBoard.rookAttacks(from, occupied) & toMask) != 0;
+            case Piece.WBISHOP:
+                return (BitBoard.bishopAttacks(from, occupied) & toMask) != 0;
+            case Piece.WKNIGHT:
+                return (BitBoard.knightAttacks[from] & toMask) != 0;
+            case Piece.WKING: {
+                if ((BitBoard.kingAttacks[from] & toMask) != 0)
+                    return true;
+                final int k0 = wtm ? 4 : 60;
+                if (from != k0)
+                    return false;
+                final int rook = wtm ? Piece.WROOK : Piece.BROOK;
+                if (to == k0 + 2) {
+                    final long OO_SQ = wtm ? 0x60L : 0x6000000000000000L;
+                    return ((pos.getCastleMask() & (1 << (wtm ? Position.H1_CASTLE : Position.H8_CASTLE))) != 0) &&
+                           ((OO_SQ & occupied) == 0) &&
+                           (pos.getPiece(k0 + 3) == rook) &&
+                           !sqAttacked(pos, k0) &&
+                           !sqAttacked(pos, k0 + 1);
+                } else if (to == k0 - 2) {
+                    final long OOO_SQ = wtm ? 0xEL : 0xE00000000000000L;
+                    return ((pos.getCastleMask() & (1 << (wtm ? Position.A1_CASTLE : Position.A8_CASTLE))) != 0) &&
+                           ((OOO_SQ & occupied) == 0) &&
+                           (pos.getPiece(k0 - 4) == rook) &&
+                           !sqAttacked(pos, k0) &&
+                           !sqAttacked(pos, k0 - 1);
+                }
+                return false;
+            }
+            default:
+                return false;
+            }
+        }
+
+        // Pawn moves
+        if ((toMask & BitBoard.maskRow1Row8) != 0) {
+            int prom = promoteTo;
+            if (wtm ? (prom != Piece.WQUEEN) && (prom != Piece.WROOK) &&
+                      (prom != Piece.WBISHOP) && (prom != Piece.WKNIGHT)
+                    : (prom != Piece.BQUEEN) && (prom != Piece.BROOK) &&
+                      (prom != Piece.BBISHOP) && (prom != Piece.BKNIGHT))
+                return false;
+        } else if (promoteTo != Piece.EMPTY) {
+            return false;
+        }
+        final int fwd = wtm ? 8 : -8;
+        if (to == from + fwd)
+            return (occupied & toMask) == 0;
+        if (to == from + 2 * fwd) {
+            long rowMask = wtm ? BitBoard.maskRow2 : BitBoard.maskRow7;
+            return ((1L << from) & rowMask) != 0 &&
+                   (occupied & ((1L << (from + fwd)) | toMask)) == 0;
+        }
+        long attacks = wtm ? BitBoard.wPawnAttacks[from] : BitBoard.bPawnAttacks[from];
+        if ((attacks & toMask) == 0)
+            return false;
+        int epSquare = pos.getEpSquare();
+        return (to == epSquare) || ((toMask & (wtm ? pos.blackBB : pos.whiteBB)) != 0);
+    }
+
     /**
      * Return the next piece in a given direction, starting from sq.
      */
@@ -769,23 +882,31 @@ public final class MoveGen {
      * Return true if making a move delivers check to the opponent
      */
     public static final boolean givesCheck(Position pos, Move m) {
+        return givesCheck(pos, Move.pack(m.from, m.to, m.promoteTo));
+    }
+
+    /** Packed move version of givesCheck(). */
+    public static final boolean givesCheck(Position pos, int m) {
+        final int from = Move.getFrom(m);
+        final int to = Move.getTo(m);
+        final int promoteTo = Move.getPromoteTo(m);
         boolean wtm = pos.whiteMove;
         int oKingSq = pos.getKingSq(!wtm);
         int oKing = wtm ? Piece.BKING : Piece.WKING;
-        int p = Piece.makeWhite(m.promoteTo == Piece.EMPTY ? pos.getPiece(m.from) : m.promoteTo);
-        int d1 = BitBoard.getDirection(m.to, oKingSq);
+        int p = Piece.makeWhite(promoteTo == Piece.EMPTY ? pos.getPiece(from) : promoteTo);
+        int d1 = BitBoard.getDirection(to, oKingSq);
         switch (d1) {
         case 8: case -8: case 1: case -1: // Rook direction
             if ((p == Piece.WQUEEN) || (p == Piece.WROOK))
-                if ((d1 != 0) && (MoveGen.nextPiece(pos, m.to, d1) == oKing))
+                if ((d1 != 0) && (MoveGen.nextPiece(pos, to, d1) == oKing))
                     return true;
             break;
         case 9: case 7: case -9: case -7: // Bishop direction
             if ((p == Piece.WQUEEN) || (p == Piece.WBISHOP)) {
-                if ((d1 != 0) && (MoveGen.nextPiece(pos, m.to, d1) == oKing))
+                if ((d1 != 0) && (MoveGen.nextPiece(pos, to, d1) == oKing))
                     return true;
             } else if (p == Piece.WPAWN) {
-                if (((d1 > 0) == wtm) && (pos.getPiece(m.to + d1) == oKing))
+                if (((d1 > 0) == wtm) && (pos.getPiece(to + d1) == oKing))
                     return true;
             }
             break;
@@ -795,9 +916,9 @@ public final class MoveGen {
                     return true;
             }
         }
-        int d2 = BitBoard.getDirection(m.from, oKingSq);
-        if ((d2 != 0) && (d2 != d1) && (MoveGen.nextPiece(pos, m.from, d2) == oKing)) {
-            int p2 = MoveGen.nextPieceSafe(pos, m.from, -d2);
+        int d2 = BitBoard.getDirection(from, oKingSq);
+        if ((d2 != 0) && (d2 != d1) && (MoveGen.nextPiece(pos, from, d2) == oKing)) {
+            int p2 = MoveGen.nextPieceSafe(pos, from, -d2);
             switch (d2) {
             case 8: case -8: case 1: case -1: // Rook direction
                 if ((p2 == (wtm ? Piece.WQUEEN : Piece.BQUEEN)) ||
@@ -811,38 +932,38 @@ public final class MoveGen {
                 break;
             }
         }
-        if ((m.promoteTo != Piece.EMPTY) && (d1 != 0) && (d1 == d2)) {
+        if ((promoteTo != Piece.EMPTY) && (d1 != 0) && (d1 == d2)) {
             switch (d1) {
             case 8: case -8: case 1: case -1: // Rook direction
                 if ((p == Piece.WQUEEN) || (p == Piece.WROOK))
-                    if ((d1 != 0) && (MoveGen.nextPiece(pos, m.from, d1) == oKing))
+                    if ((d1 != 0) && (MoveGen.nextPiece(pos, from, d1) == oKing))
                         return true;
                 break;
             case 9: case 7: case -9: case -7: // Bishop direction
                 if ((p == Piece.WQUEEN) || (p == Piece.WBISHOP)) {
-                    if ((d1 != 0) && (MoveGen.nextPiece(pos, m.from, d1) == oKing))
+                    if ((d1 != 0) && (MoveGen.nextPiece(pos, from, d1) == oKing))
                         return true;
                 }
                 break;
             }
         }
         if (p == Piece.WKING) {
-            if (m.to - m.from == 2) { // O-O
-                if (MoveGen.nextPieceSafe(pos, m.from, -1) == oKing)
+            if (to - from == 2) { // O-O
+                if (MoveGen.nextPieceSafe(pos, from, -1) == oKing)
                     return true;
-                if (MoveGen.nextPieceSafe(pos, m.from + 1, wtm ? 8 : -8) == oKing)
+                if (MoveGen.nextPieceSafe(pos, from + 1, wtm ? 8 : -8) == oKing)
                     return true;
-            } else if (m.to - m.from == -2) { // O-O-O
-                if (MoveGen.nextPieceSafe(pos, m.from, 1) == oKing)
+            } else if (to - from == -2) { // O-O-O
+                if (MoveGen.nextPieceSafe(pos, from, 1) == oKing)
                     return true;
-                if (MoveGen.nextPieceSafe(pos, m.from - 1, wtm ? 8 : -8) == oKing)
+                if (MoveGen.nextPieceSafe(pos, from - 1, wtm ? 8 : -8) == oKing)
                     return true;
             }
         } else if (p == Piece.WPAWN) {
-            if (pos.getPiece(m.to) == Piece.EMPTY) {
-                int dx = Position.getX(m.to) - Position.getX(m.from);
+            if (pos.getPiece(to) == Piece.EMPTY) {
+                int dx = Position.getX(to) - Position.getX(from);
                 if (dx != 0) { // en passant
-                    int epSq = m.from + dx;
+                    int epSq = from + dx;
                     int d3 = BitBoard.getDirection(epSq, oKingSq);
                     switch (d3) {
                     case 9: case 7: case -9: case -7:
@@ -854,16 +975,16 @@ public final class MoveGen {
                         }
                         break;
                     case 1:
-                        if (MoveGen.nextPiece(pos, Math.max(epSq, m.from), d3) == oKing) {
-                            int p2 = MoveGen.nextPieceSafe(pos, Math.min(epSq, m.from), -d3);
+                        if (MoveGen.nextPiece(pos, Math.max(epSq, from), d3) == oKing) {
+                            int p2 = MoveGen.nextPieceSafe(pos, Math.min(epSq, from), -d3);
                             if ((p2 == (wtm ? Piece.WQUEEN : Piece.BQUEEN)) ||
                                 (p2 == (wtm ? Piece.WROOK : Piece.BROOK)))
                                 return true;
                         }
                         break;
                     case -1:
-                        if (MoveGen.nextPiece(pos, Math.min(epSq, m.from), d3) == oKing) {
-                            int p2 = MoveGen.nextPieceSafe(pos, Math.max(epSq, m.from), -d3);
+                        if (MoveGen.nextPiece(pos, Math.min(epSq, from), d3) == oKing) {
+                            int p2 = MoveGen.nextPieceSafe(pos, Math.max(epSq, from), -d3);
                             if ((p2 == (wtm ? Piece.WQUEEN : Piece.BQUEEN)) ||
                                 (p2 == (wtm ? Piece.WROOK : Piece.BROOK)))
                                 return true;
@@ -876,6 +997,52 @@ public final class MoveGen {
         return false;
     }
 
+    /**
+     * Like givesCheck(Position, int), but uses the check information in ai.
+     * Castling, en passant and promotion moves are handled by givesCheck(Position, int).
+     */
+    public static final boolean givesCheck(Position pos, int m, AttackInfo ai) {
+        final int from = Move.getFrom(m);
+        final int to = Move.getTo(m);
+        final int p = Piece.makeWhite(pos.getPiece(from));
+        if (Move.getPromoteTo(m) != Piece.EMPTY)
+            return givesCheck(pos, m);
+        if ((p == Piece.WKING) && ((to - from == 2) || (to - from == -2)))
+            return givesCheck(pos, m);
+        if ((p == Piece.WPAWN) && (to == pos.getEpSquare()))
+            return givesCheck(pos, m);
+        ai.computeCheckInfo(pos);
+        final long toMask = 1L << to;
+        switch (p) {
+        case Piece.WQUEEN:
+            if (((ai.bishopCheckSq | ai.rookCheckSq) & toMask) != 0)
+                return true;
+            break;
+        case Piece.WROOK:
+            if ((ai.rookCheckSq & toMask) != 0)
+                return true;
+            break;
+        case Piece.WBISHOP:
+            if ((ai.bishopCheckSq & toMask) != 0)
+                return true;
+            break;
+        case Piece.WKNIGHT:
+            if ((ai.knightCheckSq & toMask) != 0)
+                return true;
+            break;
+        case Piece.WPAWN:
+            if ((ai.pawnCheckSq & toMask) != 0)
+                return true;
+            break;
+        }
+        if ((ai.discCheckers & (1L << from)) != 0) {
+            int oKingSq = pos.getKingSq(!pos.whiteMove);
+            if (BitBoard.getDirection(from, oKingSq) != BitBoard.getDirection(to, oKingSq))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Return true if the side to move can take the opponents king.
      */
@@ -886,6 +1053,35 @@ public final class MoveGen {
         return ret;
     }
 
+    /** Like canTakeKing(Position), but uses the check information in ai. */
+    public static final boolean canTakeKing(Position pos, AttackInfo ai) {
+        ai.computeCheckInfo(pos);
+        return ai.kingCapture;
+    }
+
+    /**
+     * Return true if a square is attacked by the opposite side, when the
+     * squares in "occupied" are the only occupied squares.
+     */
+    private static final boolean sqAttacked(Position pos, int sq, long occupied) {
+        final long[] bb = pos.pieceTypeBB;
+        if (pos.whiteMove) {
+            long bQueens = bb[Piece.BQUEEN];
+            return ((BitBoard.knightAttacks[sq] & bb[Piece.BKNIGHT]) |
+                    (BitBoard.kingAttacks[sq] & bb[Piece.BKING]) |
+                    (BitBoard.wPawnAttacks[sq] & bb[Piece.BPAWN]) |
+                    (BitBoard.bishopAttacks(sq, occupied) & (bb[Piece.BBISHOP] | bQueens)) |
+                    (BitBoard.rookAttacks(sq, occupied) & (bb[Piece.BROOK] | bQueens))) != 0;
+        } else {
+            long wQueens = bb[Piece.WQUEEN];
+            return ((BitBoard.knightAttacks[sq] & bb[Piece.WKNIGHT]) |
+                    (BitBoard.kingAttacks[sq] & bb[Piece.WKING]) |
+                    (BitBoard.bPawnAttacks[sq] & bb[Piece.WPAWN]) |
+                    (BitBoard.bishopAttacks(sq, occupied) & (bb[Piece.WBISHOP] | wQueens)) |
+                    (BitBoard.rookAttacks(sq, occupied) & (bb[Piece.WROOK] | wQueens))) != 0;
+        }
+    }
+
     /**
      * Return true if a square is attacked by the opposite side.
      */
@@ -926,51 +1122,86 @@ public final class MoveGen {
      * This function removes the moves that don't defend from check threats.
      */
     public static final void removeIllegal(Position pos, MoveList moveList) {
-        int length = 0;
-        UndoInfo ui = new UndoInfo();
+        removeIllegal(pos, moveList, new AttackInfo());
+    }
 
-        boolean isInCheck = inCheck(pos);
-        final long occupied = pos.whiteBB | pos.blackBB;
-        int kSq = pos.getKingSq(pos.whiteMove);
-        long kingAtks = BitBoard.rookAttacks(kSq, occupied) | BitBoard.bishopAttacks(kSq, occupied);
-        int epSquare = pos.getEpSquare();
-        if (isInCheck) {
-            kingAtks |= pos.pieceTypeBB[pos.whiteMove ? Piece.BKNIGHT : Piece.WKNIGHT];
+    /** Like removeIllegal(Position, MoveList), but uses the check information in ai. */
+    public static final void removeIllegal(Position pos, MoveList moveList, AttackInfo ai) {
+        ai.computeCheckInfo(pos);
+        int length = 0;
+        if (ai.kingCapture) {
+            // Not a legal position. Let makeMove() sort out what capturing the king means.
+            UndoInfo ui = new UndoInfo();
             for (int mi = 0; mi < moveList.size; mi++) {
-                Move m = moveList.m[mi];
-                boolean legal;
-                if ((m.from != kSq) && ((kingAtks & (1L<<m.to)) == 0) && (m.to != epSquare)) {
-                    legal = false;
-                } else {
-                    pos.makeMove(m, ui);
-                    pos.setWhiteMove(!pos.whiteMove);
-                    legal = !inCheck(pos);
-                    pos.setWhiteMove(!pos.whiteMove);
-                    pos.unMakeMove(m, ui);
-                }
+                int m = moveList.m[mi];
+                pos.makeMove(m, ui);
+                pos.setWhiteMove(!pos.whiteMove);
+                boolean legal = !inCheck(pos);
+                pos.setWhiteMove(!pos.whiteMove);
+                pos.unMakeMove(m, ui);
                 if (legal)
-                    moveList.m[length++].copyFrom(m);
+                    moveList.m[length++] = m;
             }
         } else {
             for (int mi = 0; mi < moveList.size; mi++) {
-                Move m = moveList.m[mi];
-                boolean legal;
-                if ((m.from != kSq) && ((kingAtks & (1L<<m.from)) == 0) && (m.to != epSquare)) {
-                    legal = true;
-                } else {
-                    pos.makeMove(m, ui);
-                    pos.setWhiteMove(!pos.whiteMove);
-                    legal = !inCheck(pos);
-                    pos.setWhiteMove(!pos.whiteMove);
-                    pos.unMakeMove(m, ui);
-                }
-                if (legal)
-                    moveList.m[length++].copyFrom(m);
+                int m = moveList.m[mi];
+                if (isLegal(pos, m, ai))
+                    moveList.m[length++] = m;
             }
         }
         moveList.size = length;
     }
 
+    /**
+     * Return true if the pseudo-legal move m does not leave the own king in check.
+     * The pinned pieces and checkers in ai are used, so the move is not played.
+     */
+    public static final boolean isLegal(Position pos, int m, AttackInfo ai) {
+        ai.computeCheckInfo(pos);
+        final boolean wtm = pos.whiteMove;
+        final int from = Move.getFrom(m);
+        final int to = Move.getTo(m);
+        final int kSq = pos.getKingSq(wtm);
+        final long fromMask = 1L << from;
+        final long toMask = 1L << to;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        if (from == kSq)
+            return !sqAttacked(pos, to, occupied & ~fromMask);
+
+        final int p = pos.getPiece(from);
+        if ((to == pos.getEpSquare()) && (p == (wtm ? Piece.WPAWN : Piece.BPAWN))) {
+            // The captured pawn is not on the to square, so also test lines through its square
+            final long capMask = 1L << (to + (wtm ? -8 : 8));
+            final long occ = (occupied & ~(fromMask | capMask)) | toMask;
+            final long[] bb = pos.pieceTypeBB;
+            if (wtm) {
+                long bQueens = bb[Piece.BQUEEN];
+                return ((BitBoard.knightAttacks[kSq] & bb[Piece.BKNIGHT]) |
+                        (BitBoard.wPawnAttacks[kSq] & bb[Piece.BPAWN] & ~capMask) |
+                        (BitBoard.bishopAttacks(kSq, occ) & (bb[Piece.BBISHOP] | bQueens)) |
+                        (BitBoard.rookAttacks(kSq, occ) & (bb[Piece.BROOK] | bQueens))) == 0;
+            } else {
+                long wQueens = bb[Piece.WQUEEN];
+                return ((BitBoard.knightAttacks[kSq] & bb[Piece.WKNIGHT]) |
+                        (BitBoard.bPawnAttacks[kSq] & bb[Piece.WPAWN] & ~capMask) |
+                        (BitBoard.bishopAttacks(kSq, occ) & (bb[Piece.WBISHOP] | wQueens)) |
+                        (BitBoard.rookAttacks(kSq, occ) & (bb[Piece.WROOK] | wQueens))) == 0;
+            }
+        }
+
+        final long checkers = ai.checkers;
+        if (checkers != 0) {
+            if ((checkers & (checkers-1)) != 0)
+                return false; // Double check, only king moves are possible
+            int cSq = BitBoard.numberOfTrailingZeros(checkers);
+            if (((checkers | BitBoard.squaresBetween[kSq][cSq]) & toMask) == 0)
+                return false;
+        }
+        if ((ai.pinned & fromMask) != 0)
+            return BitBoard.getDirection(from, kSq) == BitBoard.getDirection(to, kSq);
+        return true;
+    }
+
     private final static boolean addPawnMovesByMask(MoveList moveList, Position pos, long mask,
                                                     int delta, boolean allPromotions) {
         if (mask == 0)
@@ -1038,11 +1269,7 @@ public final class MoveGen {
     }
 
     private final static void setMove(MoveList moveList, int from, int to, int promoteTo) {
-        Move m = moveList.m[moveList.size++];
-        m.from = from;
-        m.to = to;
-        m.promoteTo = promoteTo;
-        m.score = 0;
+        moveList.m[moveList.size++] = Move.pack(from, to, promoteTo);
     }
 
     // Code to handle the Move cache.
@@ -1058,13 +1285,11 @@ public final class MoveGen {
             ml.size = 0;
         } else {
             ml = new MoveList();
-            for (int i = 0; i < MAX_MOVES; i++)
-                ml.m[i] = new Move(0, 0, Piece.EMPTY);
         }
         return ml;
     }
 
-    /** Return all move objects in moveList to the move cache. */
+    /** Return moveList to the move list cache. */
     public final void returnMoveList(MoveList moveList) {
         if (moveListsInCache < moveListCache.length) {
             moveListCache[moveListsInCache++] = moveList;
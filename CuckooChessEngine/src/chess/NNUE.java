@@ -0,0 +1,281 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Neural network evaluation, an alternative to the handcrafted terms in Evaluate.
+ *
+ * The network has one input for each piece type and square. The first layer is computed
+ * from both sides' point of view and kept up to date incrementally by Position, see
+ * Accumulator. The clipped first layer outputs, side to move first, are fed through two
+ * small dense layers with 8 bit weights and a single output neuron.
+ *
+ * Network file format, all values little endian:
+ *   int    magic, version, nHidden, nL2, nL3
+ *   short  ftWeights[768][nHidden], ftBias[nHidden]
+ *   byte   l1Weights[nL2][2*nHidden]
+ *   int    l1Bias[nL2]
+ *   byte   l2Weights[nL3][nL2]
+ *   int    l2Bias[nL3]
+ *   byte   outWeights[nL3]
+ *   int    outBias
+ *
+ * The weights are immutable after loading, so one object can be shared by all search threads.
+ * @author petero
+ */
+public class NNUE {
+    /** Number of network inputs, one per (piece type, square) pair. */
+    static final int N_INPUTS = 12 * 64;
+
+    private static final int FILE_MAGIC = 0x4e4e4343; // "CCNN"
+    private static final int FILE_VERSION = 1;       // Increase when the file format changes
+    private static final int MAX_LAYER_SIZE = 4096;
+
+    /** Dense layer sums are shifted right this many bits before clipping. */
+    static final int WEIGHT_SHIFT = 6;
+    /** Neuron outputs are clipped to the range [0,ACT_MAX]. */
+    static final int ACT_MAX = 127;
+    /** The output neuron value is divided by this number to get centipawns. */
+    static final int OUTPUT_DIV = 16;
+
+    final int nHidden;
+    final int nL2;
+    final int nL3;
+    private final short[] ftWeights;  // First layer, nHidden weights for each input
+    private final short[] ftBias;
+    private final byte[] l1Weights;   // 2*nHidden weights for each L2 neuron
+    private final int[] l1Bias;
+    private final byte[] l2Weights;   // nL2 weights for each L3 neuron
+    private final int[] l2Bias;
+    private final byte[] outWeights;
+    private final int outBias;
+
+    /**
+     * First layer values for a position, from white's and black's point of view.
+     * Also holds scratch space for the dense layers, so that evaluation does not
+     * allocate and is thread safe as long as each thread uses its own Position.
+     */
+    public static final class Accumulator {
+        final NNUE net;
+        final short[] white;
+        final short[] black;
+        private final int[] input;
+        private final int[] l2Out;
+        private final int[] l3Out;
+
+        Accumulator(NNUE net) {
+            this.net = net;
+            white = new short[net.nHidden];
+            black = new short[net.nHidden];
+            input = new int[2 * net.nHidden];
+            l2Out = new int[net.nL2];
+            l3Out = new int[net.nL3];
+        }
+
+        Accumulator(Accumulator other) {
+            this(other.net);
+            System.arraycopy(other.white, 0, white, 0, white.length);
+            System.arraycopy(other.black, 0, black, 0, black.length);
+        }
+
+        /** Recompute all values from the pieces in pos. */
+        final void refresh(Position pos) {
+            System.arraycopy(net.ftBias, 0, white, 0, white.length);
+            System.arraycopy(net.ftBias, 0, black, 0, black.length);
+            for (int sq = 0; sq < 64; sq++)
+                add(pos.getPiece(sq), sq);
+        }
+
+        /** Update for a piece placed on a square. Does nothing if piece is EMPTY. */
+        final void add(int piece, int square) {
+            if (piece == Piece.EMPTY)
+                return;
+            final short[] w = net.ftWeights;
+            final int n = net.nHidden;
+            final int wOffs = whiteInput(piece, square) * n;
+            final int bOffs = blackInput(piece, square) * n;
+            for (int i = 0; i < n; i++)
+                white[i] = (short)(white[i] + w[wOffs + i]);
+            for (int i = 0; i < n; i++)
+                black[i] = (short)(black[i] + w[bOffs + i]);
+        }
+
+        /** Update for a piece removed from a square. Does nothing if piece is EMPTY. */
+        final void remove(int piece, int square) {
+            if (piece == Piece.EMPTY)
+                return;
+            final short[] w = net.ftWeights;
+            final int n = net.nHidden;
+            final int wOffs = whiteInput(piece, square) * n;
+            final int bOffs = blackInput(piece, square) * n;
+            for (int i = 0; i < n; i++)
+                white[i] = (short)(white[i] - w[wOffs + i]);
+            for (int i = 0; i < n; i++)
+                black[i] = (short)(black[i] - w[bOffs + i]);
+        }
+
+        /** Update for a piece moving from one square to another. */
+        final void move(int piece, int from, int to) {
+            final short[] w = net.ftWeights;
+            final int n = net.nHidden;
+            final int wFrom = whiteInput(piece, from) * n;
+            final int wTo = whiteInput(piece, to) * n;
+            final int bFrom = blackInput(piece, from) * n;
+            final int bTo = blackInput(piece, to) * n;
+            for (int i = 0; i < n; i++)
+                white[i] = (short)(white[i] + w[wTo + i] - w[wFrom + i]);
+            for (int i = 0; i < n; i++)
+                black[i] = (short)(black[i] + w[bTo + i] - w[bFrom + i]);
+        }
+    }
+
+    /** Input index for a piece on a square, from white's point of view. */
+    static final int whiteInput(int piece, int square) {
+        return (piece - 1) * 64 + square;
+    }
+
+    /** Input index for a piece on a square, from black's point of view. Colors and ranks are flipped. */
+    static final int blackInput(int piece, int square) {
+        final int p = Piece.isWhite(piece) ? Piece.makeBlack(piece) : Piece.makeWhite(piece);
+        return (p - 1) * 64 + (square ^ 56);
+    }
+
+    private NNUE(ByteBuffer buf) throws IOException {
+        if ((buf.getInt() != FILE_MAGIC) || (buf.getInt() != FILE_VERSION))
+            throw new IOException("Incompatible network file");
+        nHidden = buf.getInt();
+        nL2 = buf.getInt();
+        nL3 = buf.getInt();
+        if (!validSize(nHidden) || !validSize(nL2) || !validSize(nL3))
+            throw new IOException("Invalid network size");
+        ftWeights = readShorts(buf, N_INPUTS * nHidden);
+        ftBias = readShorts(buf, nHidden);
+        l1Weights = readBytes(buf, nL2 * 2 * nHidden);
+        l1Bias = readInts(buf, nL2);
+        l2Weights = readBytes(buf, nL3 * nL2);
+        l2Bias = readInts(buf, nL3);
+        outWeights = readBytes(buf, nL3);
+        outBias = buf.getInt();
+        if (buf.hasRemaining())
+            throw new IOException("Network file too long");
+    }
+
+    private static boolean validSize(int n) {
+        return (n > 0) && (n <= MAX_LAYER_SIZE);
+    }
+
+    private static short[] readShorts(ByteBuffer buf, int n) {
+        short[] ret = new short[n];
+        buf.asShortBuffer().get(ret);
+        buf.position(buf.position() + n * 2);
+        return ret;
+    }
+
+    private static int[] readInts(ByteBuffer buf, int n) {
+        int[] ret = new int[n];
+        buf.asIntBuffer().get(ret);
+        buf.position(buf.position() + n * 4);
+        return ret;
+    }
+
+    private static byte[] readBytes(ByteBuffer buf, int n) {
+        byte[] ret = new byte[n];
+        buf.get(ret);
+        return ret;
+    }
+
+    /**
+     * Load a network from a file. The file is memory mapped and the weights are
+     * copied into arrays, so the file is not needed after this method returns.
+     * @throws IOException  If the file can not be read or has an incompatible format.
+     */
+    public static NNUE load(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return new NNUE(buf);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated network file: " + fileName);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Create an accumulator for this network. */
+    public final Accumulator newAccumulator() {
+        return new Accumulator(this);
+    }
+
+    /**
+     * Evaluate a position. If pos does not have an accumulator for this network,
+     * one is created and attached to pos, so that following moves update it incrementally.
+     * @return The evaluation score, measured in centipawns.
+     *         Positive values are good for the side to make the next move.
+     */
+    public final int evalPos(Position pos) {
+        Accumulator acc = pos.getAccumulator();
+        if ((acc == null) || (acc.net != this)) {
+            acc = newAccumulator();
+            pos.setAccumulator(acc);
+        }
+
+        // Clipped first layer, side to move first
+        final int n = nHidden;
+        final short[] us = pos.whiteMove ? acc.white : acc.black;
+        final short[] them = pos.whiteMove ? acc.black : acc.white;
+        final int[] input = acc.input;
+        for (int i = 0; i < n; i++)
+            input[i] = Math.min(Math.max(us[i], 0), ACT_MAX);
+        for (int i = 0; i < n; i++)
+            input[n + i] = Math.min(Math.max(them[i], 0), ACT_MAX);
+
+        dense(input, 2 * n, l1Weights, l1Bias, acc.l2Out, nL2);
+        dense(acc.l2Out, nL2, l2Weights, l2Bias, acc.l3Out, nL3);
+
+        final int[] l3Out = acc.l3Out;
+        int sum = outBias;
+        for (int i = 0; i < nL3; i++)
+            sum += outWeights[i] * l3Out[i];
+        return sum / OUTPUT_DIV;
+    }
+
+    /**
+     * Compute a dense layer with clipped ReLU activation.
+     * The inner loop is kept simple so that the JIT compiler can vectorize it.
+     */
+    private static void dense(int[] in, int nIn, byte[] weights, int[] bias, int[] out, int nOut) {
+        for (int j = 0; j < nOut; j++) {
+            final int offs = j * nIn;
+            int sum = 0;
+            for (int i = 0; i < nIn; i++)
+                sum += weights[offs + i] * in[i];
+            sum = (sum + bias[j]) >> WEIGHT_SHIFT;
+            out[j] = Math.min(Math.max(sum, 0), ACT_MAX);
+        }
+    }
+}
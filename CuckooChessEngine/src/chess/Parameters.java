@@ -105,6 +105,53 @@ public class Parameters {
         addPar(new SpinParam("bV", false, -200, 200, 0));
         addPar(new SpinParam("nV", false, -200, 200, 0));
         addPar(new SpinParam("pV", false, -200, 200, 0));
+        addPar(new SpinParam("LazyEvalMargin", true, 0, 2000, 200));
+    }
+
+    /**
+     * Return an independent copy of the current parameter values. Used when several
+     * engines with different settings run in the same JVM.
+     */
+    public final Parameters copy() {
+        return new Parameters(this);
+    }
+
+    private Parameters(Parameters other) {
+        for (ParamBase p : other.params.values()) {
+            switch (p.type) {
+            case CHECK: {
+                CheckParam o = (CheckParam)p;
+                CheckParam n = new CheckParam(o.name, o.visible, o.defaultValue);
+                n.value = o.value;
+                addPar(n);
+                break;
+            }
+            case SPIN: {
+                SpinParam o = (SpinParam)p;
+                SpinParam n = new SpinParam(o.name, o.visible, o.minValue, o.maxValue, o.defaultValue);
+                n.value = o.value;
+                addPar(n);
+                break;
+            }
+            case COMBO: {
+                ComboParam o = (ComboParam)p;
+                ComboParam n = new ComboParam(o.name, o.visible, o.allowedValues, o.defaultValue);
+                n.value = o.value;
+                addPar(n);
+                break;
+            }
+            case BUTTON:
+                addPar(new ButtonParam(p.name, p.visible));
+                break;
+            case STRING: {
+                StringParam o = (StringParam)p;
+                StringParam n = new StringParam(o.name, o.visible, o.defaultValue);
+                n.value = o.value;
+                addPar(n);
+                break;
+            }
+            }
+        }
     }
 
     private final void addPar(ParamBase p) {
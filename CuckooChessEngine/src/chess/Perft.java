@@ -0,0 +1,207 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Count the number of leaf nodes in the legal move tree, for testing the move generator.
+ * The subtrees are searched in parallel using a fork/join pool. Subtree node counts
+ * are stored in a hash table, so that transpositions are only counted once.
+ * Leaf nodes are not visited, the legal moves at depth 1 are only counted.
+ * @author petero
+ */
+public class Perft {
+    public static final int DEFAULT_HASH_MB = 64;
+
+    /** Subtrees with at least this depth are split into one task for each move. */
+    private static final int SPLIT_DEPTH = 4;
+
+    /** Hash key modifiers, so that the same position at different depths has different keys. */
+    private static final long[] depthKeys = new long[256];
+    static {
+        Random rnd = new Random(0x5eed);
+        for (int i = 0; i < depthKeys.length; i++)
+            depthKeys[i] = rnd.nextLong();
+    }
+
+    private final long[] table; // Pairs of (key ^ nodes, nodes), or null if no hash table
+    private final int mask;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor.
+     * @param hashSizeMB Size of the subtree hash table in megabytes. 0 disables hashing.
+     * @param threads    Number of worker threads.
+     */
+    public Perft(int hashSizeMB, int threads) {
+        if (hashSizeMB > 0) {
+            long nEntries = hashSizeMB * (1L << 20) / 16;
+            int logSize = Math.min(63 - Long.numberOfLeadingZeros(nEntries), 29);
+            table = new long[2 << logSize];
+            mask = (1 << logSize) - 1;
+        } else {
+            table = null;
+            mask = 0;
+        }
+        pool = new ForkJoinPool(Math.max(threads, 1));
+    }
+
+    /** Stop the worker threads. The object can not be used after this call. */
+    public final void shutdown() {
+        pool.shutdown();
+    }
+
+    /** Return the number of leaf nodes at the given depth below pos. */
+    public final long perfT(Position pos, int depth) {
+        if (depth <= 0)
+            return 1;
+        if (depth > depthKeys.length)
+            throw new IllegalArgumentException("Depth too large: " + depth);
+        return pool.invoke(new Task(new Position(pos), depth));
+    }
+
+    /**
+     * Count leaf nodes below each legal move in pos and print the counts,
+     * followed by the total node count, the time and the number of nodes per second.
+     * @return The total number of leaf nodes.
+     */
+    public final long divide(Position pos, int depth, PrintStream os) {
+        long t0 = System.currentTimeMillis();
+        MoveGen moveGen = new MoveGen();
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        long nodes = 0;
+        if (depth <= 0) {
+            nodes = 1;
+        } else {
+            Task[] tasks = new Task[moves.size];
+            UndoInfo ui = new UndoInfo();
+            for (int mi = 0; mi < moves.size; mi++) {
+                pos.makeMove(moves.m[mi], ui);
+                tasks[mi] = new Task(new Position(pos), depth - 1);
+                pos.unMakeMove(moves.m[mi], ui);
+            }
+            for (Task t : tasks)
+                pool.execute(t);
+            for (int mi = 0; mi < moves.size; mi++) {
+                long n = tasks[mi].join();
+                os.printf("%s: %d%n", TextIO.moveToUCIString(Move.fromPacked(moves.m[mi])), n);
+                nodes += n;
+            }
+        }
+        moveGen.returnMoveList(moves);
+        long t1 = System.currentTimeMillis();
+        os.printf("Nodes searched: %d%n", nodes);
+        os.printf("Time (ms): %d%n", t1 - t0);
+        os.printf("Nodes/second: %d%n", (t1 > t0) ? nodes * 1000 / (t1 - t0) : 0);
+        return nodes;
+    }
+
+    /** Count leaf nodes below a position. Large subtrees are split into subtasks. */
+    private final class Task extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final Position pos;
+        private final int depth;
+
+        Task(Position pos, int depth) {
+            this.pos = pos;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            MoveGen moveGen = new MoveGen();
+            if (depth < SPLIT_DEPTH)
+                return perfT(moveGen, pos, depth);
+            long nodes = probe(pos.zobristHash(), depth);
+            if (nodes >= 0)
+                return nodes;
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            Task[] tasks = new Task[moves.size];
+            UndoInfo ui = new UndoInfo();
+            for (int mi = 0; mi < moves.size; mi++) {
+                pos.makeMove(moves.m[mi], ui);
+                tasks[mi] = new Task(new Position(pos), depth - 1);
+                pos.unMakeMove(moves.m[mi], ui);
+            }
+            moveGen.returnMoveList(moves);
+            invokeAll(tasks);
+            nodes = 0;
+            for (Task t : tasks)
+                nodes += t.getRawResult();
+            store(pos.zobristHash(), depth, nodes);
+            return nodes;
+        }
+    }
+
+    /** Sequential perft, using the hash table for depths larger than 1. */
+    private final long perfT(MoveGen moveGen, Position pos, int depth) {
+        if (depth == 0)
+            return 1;
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        if (depth == 1) {
+            int ret = moves.size;
+            moveGen.returnMoveList(moves);
+            return ret;
+        }
+        final long key = pos.zobristHash();
+        long nodes = probe(key, depth);
+        if (nodes < 0) {
+            nodes = 0;
+            UndoInfo ui = new UndoInfo();
+            for (int mi = 0; mi < moves.size; mi++) {
+                int m = moves.m[mi];
+                pos.makeMove(m, ui);
+                nodes += perfT(moveGen, pos, depth - 1);
+                pos.unMakeMove(m, ui);
+            }
+            store(key, depth, nodes);
+        }
+        moveGen.returnMoveList(moves);
+        return nodes;
+    }
+
+    /**
+     * Return the stored node count for a position and depth, or -1 if not found.
+     * The table is accessed without locking. An entry that was partially written
+     * by another thread does not match, because the key word is xor:ed with the count.
+     */
+    private final long probe(long key, int depth) {
+        if (table == null)
+            return -1;
+        key ^= depthKeys[depth - 1];
+        int idx = ((int)key & mask) * 2;
+        long nodes = table[idx + 1];
+        if ((table[idx] ^ nodes) != key)
+            return -1;
+        return nodes;
+    }
+
+    private final void store(long key, int depth, long nodes) {
+        if (table == null)
+            return;
+        key ^= depthKeys[depth - 1];
+        int idx = ((int)key & mask) * 2;
+        table[idx] = key ^ nodes;
+        table[idx + 1] = nodes;
+    }
+}
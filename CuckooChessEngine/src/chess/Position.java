@@ -59,6 +59,8 @@ public class Position {
 
     private long hashKey;           // Cached Zobrist hash key
     private long pHashKey;
+    private long matKey;            // Number of pieces of each type, 4 bits per piece type
+    private NNUE.Accumulator nnAcc; // Neural network first layer, or null if not used
     public int wKingSq, bKingSq;   // Cached king positions
     public int wMtrl;      // Total value of all white pieces and pawns
     public int bMtrl;      // Total value of all black pieces and pawns
@@ -88,6 +90,8 @@ public class Position {
         wKingSq = bKingSq = -1;
         wMtrl = bMtrl = -Evaluate.kV;
         wMtrlPawns = bMtrlPawns = 0;
+        matKey = 0;
+        nnAcc = null;
     }
 
     public Position(Position other) {
@@ -117,6 +121,8 @@ public class Position {
         bMtrl = other.bMtrl;
         wMtrlPawns = other.wMtrlPawns;
         bMtrlPawns = other.bMtrlPawns;
+        matKey = other.matKey;
+        nnAcc = (other.nnAcc != null) ? new NNUE.Accumulator(other.nnAcc) : null;
     }
     
     @Override
@@ -151,6 +157,30 @@ public class Position {
     public final long pawnZobristHash() {
         return pHashKey;
     }
+    /**
+     * Return a key that identifies the material on the board. Two positions have
+     * the same key if and only if they have the same number of pieces of each type,
+     * which holds as long as there are at most 15 pieces of each type.
+     */
+    public final long materialKey() {
+        return matKey;
+    }
+
+    /** Return the neural network accumulator, or null if none has been set. */
+    public final NNUE.Accumulator getAccumulator() {
+        return nnAcc;
+    }
+
+    /**
+     * Set the neural network accumulator to keep up to date when pieces are moved.
+     * The accumulator is initialized from the current position. Use null to stop updating.
+     */
+    public final void setAccumulator(NNUE.Accumulator acc) {
+        nnAcc = acc;
+        if (acc != null)
+            acc.refresh(this);
+    }
+
     public final long kingZobristHash() {
         return psHashKeys[Piece.WKING][wKingSq] ^ 
                psHashKeys[Piece.BKING][bKingSq];
@@ -239,6 +269,9 @@ public class Position {
 
         psScore1[piece] += Evaluate.psTab1[piece][to] - Evaluate.psTab1[piece][from];
         psScore2[piece] += Evaluate.psTab2[piece][to] - Evaluate.psTab2[piece][from];
+
+        if (nnAcc != null)
+            nnAcc.move(piece, from, to);
     }
 
     /** Set a square to a piece value. */
@@ -257,6 +290,7 @@ public class Position {
 
         if (removedPiece != Piece.EMPTY) {
             int pVal = Evaluate.pieceValue[removedPiece];
+            matKey -= 1L << (4 * removedPiece);
             if (Piece.isWhite(removedPiece)) {
                 wMtrl -= pVal;
                 whiteBB &= ~sqMask;
@@ -276,6 +310,7 @@ public class Position {
 
         if (piece != Piece.EMPTY) {
             int pVal = Evaluate.pieceValue[piece];
+            matKey += 1L << (4 * piece);
             if (Piece.isWhite(piece)) {
                 wMtrl += pVal;
                 whiteBB |= sqMask;
@@ -302,6 +337,11 @@ public class Position {
         psScore2[removedPiece] -= Evaluate.psTab2[removedPiece][square];
         psScore1[piece]        += Evaluate.psTab1[piece][square];
         psScore2[piece]        += Evaluate.psTab2[piece][square];
+
+        if (nnAcc != null) {
+            nnAcc.remove(removedPiece, square);
+            nnAcc.add(piece, square);
+        }
     }
 
     /**
@@ -377,15 +417,23 @@ public class Position {
 
     /** Apply a move to the current position. */
     public final void makeMove(Move move, UndoInfo ui) {
-        ui.capturedPiece = squares[move.to];
+        makeMove(Move.pack(move.from, move.to, move.promoteTo), ui);
+    }
+
+    /** Apply a packed move to the current position. */
+    public final void makeMove(int move, UndoInfo ui) {
+        final int from = Move.getFrom(move);
+        final int to = Move.getTo(move);
+        final int promoteTo = Move.getPromoteTo(move);
+        ui.capturedPiece = squares[to];
         ui.castleMask = castleMask;
         ui.epSquare = epSquare;
         ui.halfMoveClock = halfMoveClock;
         boolean wtm = whiteMove;
         
-        final int p = squares[move.from];
-        int capP = squares[move.to];
-        long fromMask = 1L << move.from;
+        final int p = squares[from];
+        int capP = squares[to];
+        long fromMask = 1L << from;
 
         int prevEpSquare = epSquare;
         setEpSquare(-1);
@@ -395,24 +443,24 @@ public class Position {
 
             // Handle en passant and epSquare
             if (p == Piece.WPAWN) {
-                if (move.to - move.from == 2 * 8) {
-                    int x = Position.getX(move.to);
-                    if (    ((x > 0) && (squares[move.to - 1] == Piece.BPAWN)) ||
-                            ((x < 7) && (squares[move.to + 1] == Piece.BPAWN))) {
-                        setEpSquare(move.from + 8);
+                if (to - from == 2 * 8) {
+                    int x = Position.getX(to);
+                    if (    ((x > 0) && (squares[to - 1] == Piece.BPAWN)) ||
+                            ((x < 7) && (squares[to + 1] == Piece.BPAWN))) {
+                        setEpSquare(from + 8);
                     }
-                } else if (move.to == prevEpSquare) {
-                    setPiece(move.to - 8, Piece.EMPTY);
+                } else if (to == prevEpSquare) {
+                    setPiece(to - 8, Piece.EMPTY);
                 }
             } else if (p == Piece.BPAWN) {
-                if (move.to - move.from == -2 * 8) {
-                    int x = Position.getX(move.to);
-                    if (    ((x > 0) && (squares[move.to - 1] == Piece.WPAWN)) ||
-                            ((x < 7) && (squares[move.to + 1] == Piece.WPAWN))) {
-                        setEpSquare(move.from - 8);
+                if (to - from == -2 * 8) {
+                    int x = Position.getX(to);
+                    if (    ((x > 0) && (squares[to - 1] == Piece.WPAWN)) ||
+                            ((x < 7) && (squares[to + 1] == Piece.WPAWN))) {
+                        setEpSquare(from - 8);
                     }
-                } else if (move.to == prevEpSquare) {
-                    setPiece(move.to + 8, Piece.EMPTY);
+                } else if (to == prevEpSquare) {
+                    setPiece(to + 8, Piece.EMPTY);
                 }
             }
 
@@ -427,22 +475,22 @@ public class Position {
             }
 
             // Perform move
-            setPiece(move.from, Piece.EMPTY);
+            setPiece(from, Piece.EMPTY);
             // Handle promotion
-            if (move.promoteTo != Piece.EMPTY) {
-                setPiece(move.to, move.promoteTo);
+            if (promoteTo != Piece.EMPTY) {
+                setPiece(to, promoteTo);
             } else {
-                setPiece(move.to, p);
+                setPiece(to, p);
             }
         } else {
             halfMoveClock++;
 
             // Handle castling
             if (((pieceTypeBB[Piece.WKING] | pieceTypeBB[Piece.BKING]) & fromMask) != 0) {
-                int k0 = move.from;
-                if (move.to == k0 + 2) { // O-O
+                int k0 = from;
+                if (to == k0 + 2) { // O-O
                     movePieceNotPawn(k0 + 3, k0 + 1);
-                } else if (move.to == k0 - 2) { // O-O-O
+                } else if (to == k0 - 2) { // O-O-O
                     movePieceNotPawn(k0 - 4, k0 - 1);
                 }
                 if (wtm) {
@@ -455,28 +503,28 @@ public class Position {
             }
 
             // Perform move
-            movePieceNotPawn(move.from, move.to);
+            movePieceNotPawn(from, to);
         }
         if (wtm) {
             // Update castling rights when rook moves
             if ((BitBoard.maskCorners & fromMask) != 0) {
                 if (p == Piece.WROOK)
-                    removeCastleRights(move.from);
+                    removeCastleRights(from);
             }
-            if ((BitBoard.maskCorners & (1L << move.to)) != 0) {
+            if ((BitBoard.maskCorners & (1L << to)) != 0) {
                 if (capP == Piece.BROOK)
-                    removeCastleRights(move.to);
+                    removeCastleRights(to);
             }
         } else {
             fullMoveCounter++;
             // Update castling rights when rook moves
             if ((BitBoard.maskCorners & fromMask) != 0) {
                 if (p == Piece.BROOK)
-                    removeCastleRights(move.from);
+                    removeCastleRights(from);
             }
-            if ((BitBoard.maskCorners & (1L << move.to)) != 0) {
+            if ((BitBoard.maskCorners & (1L << to)) != 0) {
                 if (capP == Piece.WROOK)
-                    removeCastleRights(move.to);
+                    removeCastleRights(to);
             }
         }
 
@@ -485,18 +533,25 @@ public class Position {
     }
 
     public final void unMakeMove(Move move, UndoInfo ui) {
+        unMakeMove(Move.pack(move.from, move.to, move.promoteTo), ui);
+    }
+
+    public final void unMakeMove(int move, UndoInfo ui) {
+        final int from = Move.getFrom(move);
+        final int to = Move.getTo(move);
+        final int promoteTo = Move.getPromoteTo(move);
         hashKey ^= whiteHashKey;
         whiteMove = !whiteMove;
-        int p = squares[move.to];
-        setPiece(move.from, p);
-        setPiece(move.to, ui.capturedPiece);
+        int p = squares[to];
+        setPiece(from, p);
+        setPiece(to, ui.capturedPiece);
         setCastleMask(ui.castleMask);
         setEpSquare(ui.epSquare);
         halfMoveClock = ui.halfMoveClock;
         boolean wtm = whiteMove;
-        if (move.promoteTo != Piece.EMPTY) {
+        if (promoteTo != Piece.EMPTY) {
             p = wtm ? Piece.WPAWN : Piece.BPAWN;
-            setPiece(move.from, p);
+            setPiece(from, p);
         }
         if (!wtm) {
             fullMoveCounter--;
@@ -505,20 +560,20 @@ public class Position {
         // Handle castling
         int king = wtm ? Piece.WKING : Piece.BKING;
         if (p == king) {
-            int k0 = move.from;
-            if (move.to == k0 + 2) { // O-O
+            int k0 = from;
+            if (to == k0 + 2) { // O-O
                 movePieceNotPawn(k0 + 1, k0 + 3);
-            } else if (move.to == k0 - 2) { // O-O-O
+            } else if (to == k0 - 2) { // O-O-O
                 movePieceNotPawn(k0 - 1, k0 - 4);
             }
         }
 
         // Handle en passant
-        if (move.to == epSquare) {
+        if (to == epSquare) {
             if (p == Piece.WPAWN) {
-                setPiece(move.to - 8, Piece.BPAWN);
+                setPiece(to - 8, Piece.BPAWN);
             } else if (p == Piece.BPAWN) {
-                setPiece(move.to + 8, Piece.WPAWN);
+                setPiece(to + 8, Piece.WPAWN);
             }
         }
     }
@@ -528,37 +583,50 @@ public class Position {
      * Special version that only updates enough of the state for the SEE function to be happy.
      */
     public final void makeSEEMove(Move move, UndoInfo ui) {
-        ui.capturedPiece = squares[move.to];
+        makeSEEMove(Move.pack(move.from, move.to, move.promoteTo), ui);
+    }
+
+    /** Packed move version of makeSEEMove(). */
+    public final void makeSEEMove(int move, UndoInfo ui) {
+        final int from = Move.getFrom(move);
+        final int to = Move.getTo(move);
+        ui.capturedPiece = squares[to];
         
-        int p = squares[move.from];
+        int p = squares[from];
 
         // Handle en passant
-        if (move.to == epSquare) {
+        if (to == epSquare) {
             if (p == Piece.WPAWN) {
-                setSEEPiece(move.to - 8, Piece.EMPTY);
+                setSEEPiece(to - 8, Piece.EMPTY);
             } else if (p == Piece.BPAWN) {
-                setSEEPiece(move.to + 8, Piece.EMPTY);
+                setSEEPiece(to + 8, Piece.EMPTY);
             }
         }
 
         // Perform move
-        setSEEPiece(move.from, Piece.EMPTY);
-        setSEEPiece(move.to, p);
+        setSEEPiece(from, Piece.EMPTY);
+        setSEEPiece(to, p);
         whiteMove = !whiteMove;
     }
 
     public final void unMakeSEEMove(Move move, UndoInfo ui) {
+        unMakeSEEMove(Move.pack(move.from, move.to, move.promoteTo), ui);
+    }
+
+    public final void unMakeSEEMove(int move, UndoInfo ui) {
+        final int from = Move.getFrom(move);
+        final int to = Move.getTo(move);
         whiteMove = !whiteMove;
-        int p = squares[move.to];
-        setSEEPiece(move.from, p);
-        setSEEPiece(move.to, ui.capturedPiece);
+        int p = squares[to];
+        setSEEPiece(from, p);
+        setSEEPiece(to, ui.capturedPiece);
 
         // Handle en passant
-        if (move.to == epSquare) {
+        if (to == epSquare) {
             if (p == Piece.WPAWN) {
-                setSEEPiece(move.to - 8, Piece.BPAWN);
+                setSEEPiece(to - 8, Piece.BPAWN);
             } else if (p == Piece.BPAWN) {
-                setSEEPiece(move.to + 8, Piece.WPAWN);
+                setSEEPiece(to + 8, Piece.WPAWN);
             }
         }
     }
@@ -23,6 +23,12 @@ import chess.TranspositionTable.TTEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -42,31 +48,94 @@ public class Search {
     TranspositionTable tt;
     TreeLogger log = null;
 
-    private static final class SearchTreeInfo {
+    static final class SearchTreeInfo {
         UndoInfo undoInfo;
-        Move hashMove;         // Temporary storage for local hashMove variable
+        AttackInfo attackInfo; // Lazily computed attack information for the position at this ply
+        TTEntry ent;           // Temporary storage for local ent variable
         boolean allowNullMove; // Don't allow two null-moves in a row
-        Move bestMove;         // Copy of the best found move at this ply
-        Move currentMove;      // Move currently being searched
+        int hashMove;          // Hash move at this ply, packed
+        int bestMove;          // Best found move at this ply, packed. See getBestMove()
+        boolean hashMoveLinked;// True if the best move is linked to the hash move, see linkHashMove()
+        int currentMove;       // Move currently being searched, packed
         int lmr;               // LMR reduction amount
         long nodeIdx;
-        SearchTreeInfo() {
+        int[] pv;              // Principal variation from this ply, packed moves
+        int pvLength;          // Number of moves in pv
+        SearchTreeInfo(int maxPVLength) {
+            pv = new int[maxPVLength];
+            pvLength = 0;
             undoInfo = new UndoInfo();
-            hashMove = new Move(0, 0, 0);
+            attackInfo = new AttackInfo();
+            ent = new TTEntry();
             allowNullMove = true;
-            bestMove = new Move(0, 0, 0);
+            hashMove = 0;
+            bestMove = 0;
+            hashMoveLinked = false;
+        }
+
+        /**
+         * Link the best move to the hash move. This is done at the first transposition table
+         * cutoff at this ply and lasts for the rest of the search. After that, a hash move
+         * probed at this ply is also the best move, so the null move threat detection at the
+         * previous ply sees the latest refutation from the hash table. A best move found by a
+         * razoring quiesce() call also becomes the hash move, and is then used for internal
+         * iterative deepening and move ordering. The search parameters were tuned with this
+         * behavior, and node counts change without it.
+         */
+        final void linkHashMove() {
+            hashMoveLinked = true;
+        }
+
+        /** Return the best move, which is the hash move if linkHashMove() has been called. */
+        final int getBestMove() {
+            return hashMoveLinked ? hashMove : bestMove;
+        }
+
+        /** Set the best move, which is the hash move if linkHashMove() has been called. */
+        final void setBestMove(int m) {
+            if (hashMoveLinked)
+                hashMove = m;
+            else
+                bestMove = m;
         }
     }
     SearchTreeInfo[] searchTreeInfo;
+    private final Move[] pvMoves;         // Preallocated moves for pvList
+    private final ArrayList<Move> pvList; // PV passed to Listener.notifyPV
 
     // Time management
-    long tStart;            // Time when search started
-    long minTimeMillis;     // Minimum recommended thinking time
-    long maxTimeMillis;     // Maximum allowed thinking time
-    boolean searchNeedMoreTime; // True if negaScout should use up to maxTimeMillis time.
+    long tStart;            // Time when search started, from currentTimeMillis()
+    volatile long minTimeMillis; // Minimum recommended thinking time
+    volatile long maxTimeMillis; // Maximum allowed thinking time
+    volatile boolean searchNeedMoreTime; // True if negaScout should use up to maxTimeMillis time.
     private long maxNodes;  // Maximum number of nodes to search (approximately)
-    int nodesToGo;          // Number of nodes until next time check
-    public int nodesBetweenTimeCheck = 5000; // How often to check remaining time
+    int nodesToGo;          // Number of nodes until next node limit check
+    public int nodesBetweenTimeCheck = 5000; // How often to check node limit and report stats
+    private volatile boolean stopSearch = false;    // Set to make negaScout and quiesce throw StopSearch
+    private volatile boolean minTimeElapsed = false; // True when minTimeMillis has passed
+    private final Object timerLock = new Object();
+    private boolean searchRunning = false;  // True while iterativeDeepening runs. Guarded by timerLock
+    private ScheduledFuture<?> minTimeTask = null;
+    private ScheduledFuture<?> maxTimeTask = null;
+
+    /** Timer thread shared by all searches. Only sets stop flags, so it never blocks. */
+    private static final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "search timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    // Lazy SMP variables
+    private int nThreads = 1;       // Number of search threads, including the main thread
+    private int helperIdx = 0;      // 0 for the main search, > 0 for helper searches
+    private Search[] helpers = null;
+    private Thread[] helperThreads = null;
+    private Evaluate[] threadEvals = null; // Evaluators to reuse for helper searches
+
+    private int multiPV = 1;        // Number of best lines to search with exact scores
 
     // Reduced strength variables
     private int strength = 1000; // Strength (0-1000)
@@ -80,6 +149,7 @@ public class Search {
     int[] nodesDepthVec;
     long totalNodes;
     long tLastStats;        // Time when notifyStats was last called
+    TranspositionTable.Stats ttStats = new TranspositionTable.Stats();
     boolean verbose;
     
     public final static int MATE0 = 32000;
@@ -89,13 +159,22 @@ public class Search {
 
     public Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
                   History ht) {
+        this(pos, posHashList, posHashListSize, tt, ht, new Evaluate());
+    }
+
+    /**
+     * Constructor that uses a given evaluator. An evaluator, and its pawn and king
+     * safety caches, must only be used by one search thread at a time.
+     */
+    public Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
+                  History ht, Evaluate eval) {
         this.pos = new Position(pos);
         this.moveGen = new MoveGen();
         this.posHashList = posHashList;
         this.posHashListSize = posHashListSize;
         this.tt = tt;
         this.ht = ht;
-        eval = new Evaluate();
+        this.eval = eval;
         kt = new KillerTable();
         posHashFirstNew = posHashListSize;
         initNodeStats();
@@ -106,8 +185,12 @@ public class Search {
         final int vecLen = 200;
         searchTreeInfo = new SearchTreeInfo[vecLen];
         for (int i = 0; i < vecLen; i++) {
-            searchTreeInfo[i] = new SearchTreeInfo();
+            searchTreeInfo[i] = new SearchTreeInfo(vecLen - i);
         }
+        pvMoves = new Move[vecLen];
+        for (int i = 0; i < vecLen; i++)
+            pvMoves[i] = new Move(0, 0, Piece.EMPTY);
+        pvList = new ArrayList<Move>(vecLen);
     }
 
     static final class StopSearch extends Exception {
@@ -120,7 +203,9 @@ public class Search {
     }
 
     /**
-     * Used to get various search information during search
+     * Used to get various search information during search.
+     * The pv list passed to notifyPV is reused by the search, so it is
+     * only valid until notifyPV returns.
      */
     public interface Listener {
         public void notifyDepth(int depth);
@@ -130,15 +215,33 @@ public class Search {
         public void notifyStats(long nodes, int nps, int time);
     }
 
+    /**
+     * Listener that also gets transposition table and evaluation cache statistics. The statistics are
+     * reported each time notifyStats is called.
+     */
+    public interface HashStatsListener extends Listener {
+        public void notifyHashStats(int hashFull, TranspositionTable.Stats stats,
+                                    Evaluate.CacheStats evalStats);
+    }
+
+    /** Listener that also gets the extra lines in MultiPV mode. */
+    public interface MultiPVListener extends Listener {
+        public void notifyMultiPV(int multiPV, int depth, int score, int time, long nodes, int nps,
+                boolean isMate, boolean upperBound, boolean lowerBound, ArrayList<Move> pv);
+    }
+
     Listener listener;
     public void setListener(Listener listener) {
         this.listener = listener;
     }
 
     private final static class MoveInfo {
-        Move move;
+        int move;       // Packed move, the score is the search score
+        int listIdx;    // Index of the move in the root move list
         long nodes;
-        MoveInfo(Move m, int n) { move = m;  nodes = n; }
+        int[] pv;       // PV for this move, only used in MultiPV mode
+        int pvLength;
+        MoveInfo(int m, int idx) { move = m;  listIdx = idx;  nodes = 0; }
         public static final class SortByScore implements Comparator<MoveInfo> {
             public int compare(MoveInfo mi1, MoveInfo mi2) {
                 if ((mi1 == null) && (mi2 == null))
@@ -147,7 +250,7 @@ public class Search {
                     return 1;
                 if (mi2 == null)
                     return -1;
-                return mi2.move.score - mi1.move.score;
+                return Move.getScore(mi2.move) - Move.getScore(mi1.move);
             }
         }
         public static final class SortByNodes implements Comparator<MoveInfo> {
@@ -169,9 +272,109 @@ public class Search {
         }
     }
 
+    /**
+     * Set search time limits in milliseconds, -1 means no limit. Can be called from
+     * another thread while the search is running, for example to handle ponderhit.
+     * The limits are relative to the time when the search started.
+     */
     final public void timeLimit(int minTimeLimit, int maxTimeLimit) {
-        minTimeMillis = minTimeLimit;
-        maxTimeMillis = maxTimeLimit;
+        synchronized (timerLock) {
+            minTimeMillis = minTimeLimit;
+            maxTimeMillis = maxTimeLimit;
+            if (searchRunning)
+                scheduleTimeChecks();
+        }
+    }
+
+    /** Stop the search as soon as possible. Can be called from any thread. */
+    final public void stop() {
+        stopSearch = true;
+    }
+
+    /** Return the number of milliseconds since the search started. */
+    final public long getElapsedMillis() {
+        return currentTimeMillis() - tStart;
+    }
+
+    /** Monotonic time in milliseconds. */
+    private static final long currentTimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Schedule timer tasks that stop the search when the time limits expire. Limits that
+     * have already expired, for example at ponderhit, stop the search directly.
+     */
+    private final void scheduleTimeChecks() {
+        cancelTimeChecks();
+        long elapsed = getElapsedMillis();
+        if (minTimeMillis >= 0) {
+            Runnable minTimeCheck = new Runnable() {
+                public void run() {
+                    minTimeElapsed = true;
+                    if (!searchNeedMoreTime)
+                        stopSearch = true;
+                }
+            };
+            if (minTimeMillis <= elapsed)
+                minTimeCheck.run();
+            else
+                minTimeTask = timer.schedule(minTimeCheck, minTimeMillis - elapsed, TimeUnit.MILLISECONDS);
+        }
+        if (maxTimeMillis >= 0) {
+            if (maxTimeMillis <= elapsed) {
+                stopSearch = true;
+            } else {
+                maxTimeTask = timer.schedule(new Runnable() {
+                    public void run() {
+                        stopSearch = true;
+                    }
+                }, maxTimeMillis - elapsed, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private final void cancelTimeChecks() {
+        if (minTimeTask != null) {
+            minTimeTask.cancel(false);
+            minTimeTask = null;
+        }
+        if (maxTimeTask != null) {
+            maxTimeTask.cancel(false);
+            maxTimeTask = null;
+        }
+    }
+
+    /** Set searchNeedMoreTime, and stop the search if the minimum time has already passed. */
+    private final void setNeedMoreTime(boolean needMoreTime) {
+        searchNeedMoreTime = needMoreTime;
+        if (!needMoreTime && minTimeElapsed)
+            stopSearch = true;
+    }
+
+    /**
+     * Set the number of search threads. The extra threads run helper searches that
+     * only communicate with the main search through the transposition table.
+     */
+    final public void setThreads(int nThreads) {
+        this.nThreads = Math.max(nThreads, 1);
+    }
+
+    /**
+     * Set evaluators to reuse between searches, so that the evaluation caches stay warm.
+     * evals[i] is used by search thread i. Entry 0 is ignored, the main search uses the
+     * evaluator given to the constructor. Missing entries are created when needed.
+     */
+    final public void setThreadEvaluators(Evaluate[] evals) {
+        threadEvals = evals;
+    }
+
+    /**
+     * Set the number of best root moves to search with a full window. In MultiPV
+     * mode all lines are reported at the end of each iteration.
+     */
+    final public void setMultiPV(int multiPV) {
+        this.multiPV = Math.max(multiPV, 1);
     }
 
     final public void setStrength(int strength, long randomSeed) {
@@ -184,7 +387,10 @@ public class Search {
 
     final public Move iterativeDeepening(MoveGen.MoveList scMovesIn,
             int maxDepth, long initialMaxNodes, boolean verbose) {
-        tStart = System.currentTimeMillis();
+        tStart = currentTimeMillis();
+        tLastStats = tStart;
+        eval.resetCacheStats();
+        eval.readParameters();
 //        log = TreeLogger.getWriter("/home/petero/treelog.dmp", pos);
         totalNodes = 0;
         if (scMovesIn.size <= 0)
@@ -210,17 +416,22 @@ public class Search {
             scMoves = new MoveInfo[nIncludedMoves];
             for (int mi = 0, len = 0; mi < scMovesIn.size; mi++) {
                 if (includedMoves[mi]) {
-                    Move m = scMovesIn.m[mi];
-                    scMoves[len++] = new MoveInfo(m, 0);
+                    scMoves[len++] = new MoveInfo(scMovesIn.m[mi], mi);
                 }
             }
         }
         maxNodes = initialMaxNodes;
         nodesToGo = 0;
+        minTimeElapsed = false;
+        synchronized (timerLock) {
+            searchRunning = true;
+            scheduleTimeChecks();
+        }
         Position origPos = new Position(pos);
+        boolean stopped = false;
         int bestScoreLastIter = 0;
         boolean firstIteration = true;
-        Move bestMove = scMoves[0].move;
+        int bestMove = scMoves[0].move;
         this.verbose = verbose;
         if ((maxDepth < 0) || (maxDepth > 100)) {
             maxDepth = 100;
@@ -228,37 +439,43 @@ public class Search {
         for (int i = 0; i < searchTreeInfo.length; i++) {
             searchTreeInfo[i].allowNullMove = true;
         }
+        final int nPV = Math.min(multiPV, scMoves.length);
         try {
+        startHelpers(scMovesIn, maxDepth);
         for (int depthS = plyScale; ; depthS += plyScale, firstIteration = false) {
             initNodeStats();
             if (listener != null) listener.notifyDepth(depthS/plyScale);
             int aspirationDelta = (Math.abs(bestScoreLastIter) <= MATE0 / 2) ? 20 : 1000;
-            int alpha = firstIteration ? -Search.MATE0 : Math.max(bestScoreLastIter - aspirationDelta, -Search.MATE0);
+            int alpha = (firstIteration || (nPV > 1)) ? -Search.MATE0 :
+                        Math.max(bestScoreLastIter - aspirationDelta, -Search.MATE0);
             int bestScore = -Search.MATE0;
             UndoInfo ui = new UndoInfo();
             boolean needMoreTime = false;
+            int nSearched = 0;
             for (int mi = 0; mi < scMoves.length; mi++) {
-                searchNeedMoreTime = (mi > 0);
-                Move m = scMoves[mi].move;
-                if ((listener != null) && (System.currentTimeMillis() - tStart >= 1000)) {
-                    listener.notifyCurrMove(m, mi + 1);
+                setNeedMoreTime(mi > 0);
+                int m = scMoves[mi].move;
+                if ((listener != null) && (getElapsedMillis() >= 1000)) {
+                    listener.notifyCurrMove(Move.fromPacked(m), mi + 1);
                 }
                 nodes = qNodes = 0;
                 posHashList[posHashListSize++] = pos.zobristHash();
-                boolean givesCheck = MoveGen.givesCheck(pos, m);
+                boolean givesCheck = MoveGen.givesCheck(pos, m, searchTreeInfo[0].attackInfo);
                 int beta;
                 if (firstIteration) {
                     beta = Search.MATE0;
+                } else if (nPV > 1) {
+                    beta = (mi < nPV) ? Search.MATE0 : alpha + 1;
                 } else {
                     beta = (mi == 0) ? Math.min(bestScoreLastIter + aspirationDelta, Search.MATE0) : alpha + 1;
                 }
 
                 int lmrS = 0;
-                boolean isCapture = (pos.getPiece(m.to) != Piece.EMPTY);
-                boolean isPromotion = (m.promoteTo != Piece.EMPTY);
+                boolean isCapture = (pos.getPiece(Move.getTo(m)) != Piece.EMPTY);
+                boolean isPromotion = (Move.getPromoteTo(m) != Piece.EMPTY);
                 if ((depthS >= 3*plyScale) && !isCapture && !isPromotion) {
                     if (!givesCheck && !passedPawnPush(pos, m)) {
-                        if (mi >= 3)
+                        if ((mi >= 3) && (mi >= nPV))
                             lmrS = plyScale;
                     }
                 }
@@ -287,8 +504,9 @@ public class Search {
                     } else if (score >= beta) {
                         type = TTEntry.T_GE;
                     }
-                    m.score = score;
-                    tt.insert(pos.historyHash(), m, type, 0, depthS, UNKNOWN_SCORE);
+                    m = Move.setScore(m, score);
+                    scMoves[mi].move = m;
+                    tt.insert(pos.historyHash(), m, type, 0, depthS, UNKNOWN_SCORE, ttStats);
                 }
                 if (score >= beta) {
                     int retryDelta = aspirationDelta * 2;
@@ -297,11 +515,14 @@ public class Search {
                         retryDelta = Search.MATE0 * 2;
                         if (mi != 0)
                             needMoreTime = true;
-                        bestMove = m;
                         if (verbose)
-                            System.out.printf("%-6s %6d %6d %6d >=\n", TextIO.moveToString(pos, m, false),
+                            System.out.printf("%-6s %6d %6d %6d >=\n", TextIO.moveToString(pos, Move.fromPacked(m), false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, false, true, m);
+                        if (nPV == 1) {
+                            bestMove = m;
+                            updatePV(0, m);
+                            notifyPV(depthS/plyScale, score, false, true);
+                        }
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
@@ -316,11 +537,13 @@ public class Search {
                     while (score <= alpha) {
                         alpha = Math.max(score - retryDelta, -Search.MATE0);
                         retryDelta = Search.MATE0 * 2;
-                        needMoreTime = searchNeedMoreTime = true;
+                        needMoreTime = true;
+                        setNeedMoreTime(true);
                         if (verbose)
-                            System.out.printf("%-6s %6d %6d %6d <=\n", TextIO.moveToString(pos, m, false),
+                            System.out.printf("%-6s %6d %6d %6d <=\n", TextIO.moveToString(pos, Move.fromPacked(m), false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, true, false, m);
+                        updatePV(0, m);
+                        notifyPV(depthS/plyScale, score, true, false);
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
@@ -336,7 +559,7 @@ public class Search {
                     if ((score > alpha) || (mi == 0)) {
                         havePV = true;
                         if (verbose) {
-                            PV = TextIO.moveToString(pos, m, false) + " ";
+                            PV = TextIO.moveToString(pos, Move.fromPacked(m), false) + " ";
                             pos.makeMove(m, ui);
                             PV += tt.extractPV(pos);
                             pos.unMakeMove(m, ui);
@@ -347,17 +570,40 @@ public class Search {
                                 mi, score, alpha, beta, nodes-nodes0, qNodes-qNodes0);
                         System.out.printf("%-6s\n", TextIO.moveToUCIString(m)); */
                         System.out.printf("%-6s %6d %6d %6d%s %s\n",
-                                TextIO.moveToString(pos, m, false), score,
+                                TextIO.moveToString(pos, Move.fromPacked(m), false), score,
                                 nodes, qNodes, (score > alpha ? " *" : ""), PV);
                     }
-                    if (havePV && !firstIteration) {
-                        notifyPV(depthS/plyScale, score, false, false, m);
+                    if (havePV && !firstIteration && (nPV == 1)) {
+                        updatePV(0, m);
+                        notifyPV(depthS/plyScale, score, false, false);
                     }
                 }
-                scMoves[mi].move.score = score;
+                m = Move.setScore(m, score);
+                scMoves[mi].move = m;
                 scMoves[mi].nodes = nodesThisMove;
+                nSearched++;
+                if (firstIteration && (score > bestScore))
+                    updatePV(0, m);
+                if ((nPV > 1) && (firstIteration || (mi < nPV) || (score > alpha))) {
+                    updatePV(0, m);
+                    saveRootPV(scMoves[mi]);
+                }
                 bestScore = Math.max(bestScore, score);
-                if (!firstIteration) {
+                if (!firstIteration && (nPV > 1)) {
+                    if ((mi < nPV) || (score > alpha)) {
+                        // Insert the move among the nPV best moves, which are kept sorted
+                        MoveInfo tmp = scMoves[mi];
+                        int i = mi;
+                        while ((i > 0) && ((i >= nPV) || (Move.getScore(scMoves[i - 1].move) < score))) {
+                            scMoves[i] = scMoves[i - 1];
+                            i--;
+                        }
+                        scMoves[i] = tmp;
+                        if (mi + 1 >= nPV)
+                            alpha = Move.getScore(scMoves[nPV - 1].move);
+                        bestMove = scMoves[0].move;
+                    }
+                } else if (!firstIteration) {
                     if ((score > alpha) || (mi == 0)) {
                         alpha = score;
                         MoveInfo tmp = scMoves[mi];
@@ -371,8 +617,7 @@ public class Search {
                 if (!firstIteration) {
                     long timeLimit = needMoreTime ? maxTimeMillis : minTimeMillis;
                     if (timeLimit >= 0) {
-                        long tNow = System.currentTimeMillis();
-                        if (tNow - tStart >= timeLimit)
+                        if (getElapsedMillis() >= timeLimit)
                             break;
                     }
                 }
@@ -380,15 +625,23 @@ public class Search {
             if (firstIteration) {
                 Arrays.sort(scMoves, new MoveInfo.SortByScore());
                 bestMove = scMoves[0].move;
-                notifyPV(depthS/plyScale, bestMove.score, false, false, bestMove);
+                if (nPV > 1)
+                    notifyMultiPV(depthS/plyScale, scMoves, nPV);
+                else
+                    notifyPV(depthS/plyScale, Move.getScore(bestMove), false, false);
+            } else if (nPV > 1) {
+                notifyMultiPV(depthS/plyScale, scMoves, Math.min(nPV, nSearched));
             }
-            long tNow = System.currentTimeMillis();
+            long tNow = currentTimeMillis();
             if (verbose) {
                 for (int i = 0; i < 20; i++) {
                     System.out.printf("%2d %7d %7d\n", i, nodesPlyVec[i], nodesDepthVec[i]);
                 }
                 System.out.printf("Time: %.3f depth:%.2f nps:%d\n", (tNow - tStart) * .001, depthS/(double)plyScale,
                         (int)(totalNodes / ((tNow - tStart) * .001)));
+                Evaluate.CacheStats evalStats = getEvalCacheStats();
+                System.out.printf("Eval cache: %s saved evals/s:%d\n", evalStats.toString(),
+                        (int)(evalStats.evalHits / ((tNow - tStart) * .001)));
             }
             if (maxTimeMillis >= 0) {
                 if (tNow - tStart >= minTimeMillis)
@@ -397,32 +650,159 @@ public class Search {
             if (depthS >= maxDepth * plyScale)
                 break;
             if (maxNodes >= 0) {
-                if (totalNodes >= maxNodes)
+                if (getTotalNodes() >= maxNodes)
                     break;
             }
             int plyToMate = Search.MATE0 - Math.abs(bestScore);
-            if (depthS >= plyToMate * plyScale)
+            if ((nPV == 1) && (depthS >= plyToMate * plyScale))
                 break;
             bestScoreLastIter = bestScore;
+            if (firstIteration && ((helperIdx & 1) != 0) && (depthS + 2*plyScale <= maxDepth * plyScale)) {
+                // Odd numbered helpers search one ply deeper than the main search
+                depthS += plyScale;
+            }
 
             if (!firstIteration) {
                 // Moves that were hard to search should be searched early in the next iteration
-                Arrays.sort(scMoves, 1, scMoves.length, new MoveInfo.SortByNodes());
+                Arrays.sort(scMoves, nPV, scMoves.length, new MoveInfo.SortByNodes());
             }
         }
         } catch (StopSearch ss) {
             pos = origPos;
+            stopped = true;
+        } finally {
+            // Also stop the timer and the helper threads if the search failed
+            synchronized (timerLock) {
+                searchRunning = false;
+                cancelTimeChecks();
+            }
+            stopSearch = false;
+            stopHelpers();
+        }
+        // Report the root scores in the input move list, and return the best move
+        // with its most recent score.
+        for (MoveInfo mi : scMoves) {
+            scMovesIn.m[mi.listIdx] = mi.move;
+            if (Move.noScore(mi.move) == Move.noScore(bestMove))
+                bestMove = mi.move;
         }
-        notifyStats();
+        notifyStats(!stopped);
 
         if (log != null) {
             log.close();
             log = null;
         }
-        return bestMove;
+        return Move.fromPacked(bestMove);
+    }
+
+    /** Start helper searches for the same root position, one for each extra search thread. */
+    private final void startHelpers(MoveGen.MoveList scMovesIn, final int maxDepth) {
+        int nHelpers = weak ? 0 : nThreads - 1; // Extra threads would make weak play stronger
+        helpers = new Search[nHelpers];
+        helperThreads = new Thread[nHelpers];
+        for (int i = 0; i < nHelpers; i++) {
+            long[] hashList = new long[posHashList.length];
+            System.arraycopy(posHashList, 0, hashList, 0, posHashListSize);
+            Evaluate e = null;
+            if ((threadEvals != null) && (i + 1 < threadEvals.length))
+                e = threadEvals[i + 1];
+            if (e == null)
+                e = new Evaluate();
+            if (e.getParameters() != eval.getParameters())
+                e.setParameters(eval.getParameters());
+            final Search sc = new Search(pos, hashList, posHashListSize, tt, new History(), e);
+            sc.posHashFirstNew = posHashFirstNew;
+            sc.helperIdx = i + 1;
+            sc.nodesBetweenTimeCheck = nodesBetweenTimeCheck;
+            final MoveGen.MoveList moves = new MoveGen.MoveList();
+            for (int mi = 0; mi < scMovesIn.size; mi++)
+                moves.m[moves.size++] = scMovesIn.m[mi];
+            helpers[i] = sc;
+            helperThreads[i] = new Thread(new Runnable() {
+                public void run() {
+                    sc.iterativeDeepening(moves, maxDepth, -1, false);
+                }
+            });
+            helperThreads[i].start();
+        }
+    }
+
+    /**
+     * Stop all helper searches and wait for them to finish. Handles the case where
+     * startHelpers failed before all helpers were started.
+     */
+    private final void stopHelpers() {
+        if (helpers == null)
+            return;
+        for (Search sc : helpers)
+            if (sc != null)
+                sc.stop();
+        boolean interrupted = false;
+        for (Thread t : helperThreads) {
+            if (t == null)
+                continue;
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true; // Helpers use the shared TT, so they must finish first
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** Return number of nodes searched by this search and its helper searches. */
+    public final long getTotalNodes() {
+        long ret = totalNodes;
+        if (helpers != null)
+            for (Search sc : helpers)
+                ret += sc.totalNodes;
+        return ret;
+    }
+
+    /** Return transposition table statistics for this search and its helper searches. */
+    public final TranspositionTable.Stats getTTStats() {
+        TranspositionTable.Stats ret = new TranspositionTable.Stats();
+        ret.add(ttStats);
+        if (helpers != null)
+            for (Search sc : helpers)
+                ret.add(sc.ttStats);
+        return ret;
     }
 
-    private final void notifyPV(int depth, int score, boolean uBound, boolean lBound, Move m) {
+    /** Return evaluation cache statistics for this search and its helper searches. */
+    public final Evaluate.CacheStats getEvalCacheStats() {
+        Evaluate.CacheStats ret = new Evaluate.CacheStats();
+        ret.add(eval.getCacheStats());
+        if (helpers != null)
+            for (Search sc : helpers)
+                ret.add(sc.eval.getCacheStats());
+        return ret;
+    }
+
+    /** Report the PV stored at ply 0 to the listener. */
+    private final void notifyPV(int depth, int score, boolean uBound, boolean lBound) {
+        SearchTreeInfo sti = searchTreeInfo[0];
+        notifyPV(0, depth, score, uBound, lBound, sti.pv, sti.pvLength);
+    }
+
+    /** Report the nLines best lines to the listener. */
+    private final void notifyMultiPV(int depth, MoveInfo[] scMoves, int nLines) {
+        for (int i = 0; i < nLines; i++) {
+            MoveInfo mi = scMoves[i];
+            notifyPV(i + 1, depth, Move.getScore(mi.move), false, false, mi.pv, mi.pvLength);
+        }
+    }
+
+    /**
+     * Report a PV to the listener. multiPVIdx is 0 in single PV mode, otherwise the
+     * 1-based line number. Listeners that don't handle MultiPV only get the first line.
+     */
+    private final void notifyPV(int multiPVIdx, int depth, int score, boolean uBound, boolean lBound,
+                                int[] pv, int pvLength) {
         if (listener != null) {
             boolean isMate = false;
             if (score > MATE0 / 2) {
@@ -432,25 +812,65 @@ public class Search {
                 isMate = true;
                 score = -((MATE0 + score - 1) / 2);
             }
-            long tNow = System.currentTimeMillis();
-            int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
-            ArrayList<Move> pv = tt.extractPVMoves(pos, m);
-            listener.notifyPV(depth, score, time, totalNodes, nps, isMate, uBound, lBound, pv);
+            int time = (int)getElapsedMillis();
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
+            pvList.clear();
+            for (int i = 0; i < pvLength; i++) {
+                int pm = pv[i];
+                pvMoves[i].setMove(Move.getFrom(pm), Move.getTo(pm), Move.getPromoteTo(pm), 0);
+                pvList.add(pvMoves[i]);
+            }
+            if (multiPVIdx == 0) {
+                listener.notifyPV(depth, score, time, nodes, nps, isMate, uBound, lBound, pvList);
+            } else if (listener instanceof MultiPVListener) {
+                ((MultiPVListener)listener).notifyMultiPV(multiPVIdx, depth, score, time, nodes, nps,
+                                                          isMate, uBound, lBound, pvList);
+            } else if (multiPVIdx == 1) {
+                listener.notifyPV(depth, score, time, nodes, nps, isMate, uBound, lBound, pvList);
+            }
         }
     }
 
-    private final void notifyStats() {
-        long tNow = System.currentTimeMillis();
+    /** Copy the PV stored at ply 0 to a root move. */
+    private final void saveRootPV(MoveInfo mi) {
+        SearchTreeInfo sti = searchTreeInfo[0];
+        if (mi.pv == null)
+            mi.pv = new int[sti.pv.length];
+        System.arraycopy(sti.pv, 0, mi.pv, 0, sti.pvLength);
+        mi.pvLength = sti.pvLength;
+    }
+
+    /**
+     * Report node statistics, and also hash statistics if hashStats is true. A stopped
+     * search skips the slower hash statistics so that the best move can be sent at once.
+     */
+    private final void notifyStats(boolean hashStats) {
+        long tNow = currentTimeMillis();
         if (listener != null) {
             int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
-            listener.notifyStats(totalNodes, nps, time);
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
+            listener.notifyStats(nodes, nps, time);
+            if (hashStats && (listener instanceof HashStatsListener))
+                ((HashStatsListener)listener).notifyHashStats(tt.hashFull(), getTTStats(),
+                                                              getEvalCacheStats());
         }
         tLastStats = tNow;
     }
 
-    private static final Move emptyMove = new Move(0, 0, Piece.EMPTY, 0);
+    /**
+     * Set the PV at ply to move m followed by the PV at ply + 1.
+     * This is the triangular PV table, so no TT lookups are needed to get the PV.
+     */
+    private final void updatePV(int ply, int m) {
+        SearchTreeInfo sti = searchTreeInfo[ply];
+        SearchTreeInfo child = searchTreeInfo[ply + 1];
+        sti.pv[0] = Move.noScore(m);
+        int len = child.pvLength;
+        System.arraycopy(child.pv, 0, sti.pv, 1, len);
+        sti.pvLength = len + 1;
+    }
 
     /** 
      * Main recursive search algorithm.
@@ -463,16 +883,15 @@ public class Search {
             long idx = log.logNodeStart(sti.nodeIdx, sti.currentMove, alpha, beta, ply, depth/plyScale);
             searchTreeInfo[ply].nodeIdx = idx;
         }
+        if (stopSearch)
+            throw new StopSearch();
         if (--nodesToGo <= 0) {
             nodesToGo = nodesBetweenTimeCheck;
-            long tNow = System.currentTimeMillis();
-            long timeLimit = searchNeedMoreTime ? maxTimeMillis : minTimeMillis;
-            if (    ((timeLimit >= 0) && (tNow - tStart >= timeLimit)) ||
-                    ((maxNodes >= 0) && (totalNodes >= maxNodes))) {
+            if ((maxNodes >= 0) && (getTotalNodes() >= maxNodes))
                 throw new StopSearch();
-            }
+            long tNow = currentTimeMillis();
             if (tNow - tLastStats >= 1000) {
-                notifyStats();
+                notifyStats(true);
             }
         }
         
@@ -482,17 +901,18 @@ public class Search {
             if (depth < 20*plyScale) nodesDepthVec[depth/plyScale]++;
         }
         final long hKey = pos.historyHash();
+        final AttackInfo ai = searchTreeInfo[ply].attackInfo;
+        searchTreeInfo[ply].pvLength = 0;
 
         // Draw tests
         if (canClaimDraw50(pos)) {
-            if (MoveGen.canTakeKing(pos)) {
+            if (MoveGen.canTakeKing(pos, ai)) {
                 int score = MATE0 - ply;
                 if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
                 return score;
             }
             if (inCheck) {
-                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-                MoveGen.removeIllegal(pos, moves);
+                MoveGen.MoveList moves = moveGen.legalMoves(pos);
                 if (moves.size == 0) {            // Can't claim draw if already check mated.
                     int score = -(MATE0-(ply+1));
                     if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
@@ -512,27 +932,29 @@ public class Search {
 
         int evalScore = UNKNOWN_SCORE;
         // Check transposition table
-        TTEntry ent = tt.probe(hKey);
-        Move hashMove = null;
         SearchTreeInfo sti = searchTreeInfo[ply];
+        TTEntry ent = sti.ent;
+        tt.probe(hKey, ent, ttStats);
+        int hashMove = 0;   // Empty move if there is no hash move
+        boolean haveHashMove = false; // True if hashMove is also stored in sti.hashMove
         if (ent.type != TTEntry.T_EMPTY) {
             int score = ent.getScore(ply);
             evalScore = ent.evalScore;
             int plyToMate = MATE0 - Math.abs(score);
             int eDepth = ent.getDepth();
-            hashMove = sti.hashMove;
-            ent.getMove(hashMove);
+            hashMove = sti.hashMove = ent.getMove();
+            haveHashMove = true;
             if ((beta == alpha + 1) && ((eDepth >= depth) || (eDepth >= plyToMate*plyScale))) {
                 if (    (ent.type == TTEntry.T_EXACT) ||
                         (ent.type == TTEntry.T_GE) && (score >= beta) ||
                         (ent.type == TTEntry.T_LE) && (score <= alpha)) {
                     if (score >= beta) {
-                        hashMove = sti.hashMove;
-                        if ((hashMove != null) && (hashMove.from != hashMove.to))
-                            if (pos.getPiece(hashMove.to) == Piece.EMPTY)
+                        if (!Move.isEmpty(hashMove))
+                            if (pos.getPiece(Move.getTo(hashMove)) == Piece.EMPTY)
                                 kt.addKiller(ply, hashMove);
                     }
-                    sti.bestMove = hashMove;
+                    sti.linkHashMove();
+                    ttStats.cutoffs++;
                     if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, ent.type, evalScore, hKey);
                     return score;
                 }
@@ -544,7 +966,7 @@ public class Search {
         // If out of depth, perform quiescence search
         if (depth + posExtend <= 0) {
             q0Eval = evalScore;
-            sti.bestMove.clear();
+            sti.setBestMove(0);
             int score = quiesce(alpha, beta, ply, 0, inCheck);
             int type = TTEntry.T_EXACT;
             if (score <= alpha) {
@@ -552,8 +974,7 @@ public class Search {
             } else if (score >= beta) {
                 type = TTEntry.T_GE;
             }
-            sti.bestMove.score = score;
-            tt.insert(hKey, sti.bestMove, type, ply, depth, q0Eval);
+            tt.insert(hKey, Move.setScore(sti.getBestMove(), score), type, ply, depth, q0Eval, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, score, type, q0Eval, hKey);
             return score;
         }
@@ -561,15 +982,16 @@ public class Search {
         // Razoring
         if ((Math.abs(alpha) <= MATE0 / 2) && (depth < 4*plyScale) && (beta == alpha + 1)) {
             if (evalScore == UNKNOWN_SCORE) {
-                evalScore = eval.evalPos(pos);
+                evalScore = eval.evalPos(pos, ai);
             }
             final int razorMargin = 250;
             if (evalScore < beta - razorMargin) {
                 q0Eval = evalScore;
                 int score = quiesce(alpha-razorMargin, beta-razorMargin, ply, 0, inCheck);
+                if (haveHashMove)
+                    hashMove = sti.hashMove; // Can be changed by quiesce(), see linkHashMove()
                 if (score <= alpha-razorMargin) {
-                    emptyMove.score = score;
-                    tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, q0Eval);
+                    tt.insert(hKey, Move.setScore(0, score), TTEntry.T_LE, ply, depth, q0Eval, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_LE, q0Eval, hKey);
                     return score;
                 }
@@ -592,10 +1014,9 @@ public class Search {
                 else if (depth <= 3*plyScale) margin = 533;
                 else                          margin = 788;
                 if (evalScore == UNKNOWN_SCORE)
-                    evalScore = eval.evalPos(pos);
+                    evalScore = eval.evalPos(pos, ai);
                 if (evalScore - margin >= beta) {
-                    emptyMove.score = evalScore - margin;
-                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore);
+                    tt.insert(hKey, Move.setScore(0, evalScore - margin), TTEntry.T_GE, ply, depth, evalScore, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, evalScore - margin, TTEntry.T_GE, evalScore, hKey);
                     return evalScore - margin;
                 }
@@ -604,10 +1025,10 @@ public class Search {
 
         // Try null-move pruning
         // FIXME! Try null-move verification in late endgames. See loss in round 21.
-        sti.currentMove = emptyMove;
+        sti.currentMove = 0;
         if (    (depth >= 3*plyScale) && !inCheck && sti.allowNullMove &&
                 (Math.abs(beta) <= MATE0 / 2)) {
-            if (MoveGen.canTakeKing(pos)) {
+            if (MoveGen.canTakeKing(pos, ai)) {
                 int score = MATE0 - ply;
                 if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_EXACT, evalScore, hKey);
                 return score;
@@ -620,7 +1041,7 @@ public class Search {
             }
             if (nullOk) {
                 if (evalScore == UNKNOWN_SCORE)
-                    evalScore = eval.evalPos(pos);
+                    evalScore = eval.evalPos(pos, ai);
                 if (evalScore < beta)
                     nullOk = false;
             }
@@ -630,7 +1051,7 @@ public class Search {
                 int epSquare = pos.getEpSquare();
                 pos.setEpSquare(-1);
                 searchTreeInfo[ply+1].allowNullMove = false;
-                searchTreeInfo[ply+1].bestMove.clear();
+                searchTreeInfo[ply+1].setBestMove(0);
                 int score = -negaScout(-beta, -(beta - 1), ply + 1, depth - R, -1, false);
                 searchTreeInfo[ply+1].allowNullMove = true;
                 pos.setEpSquare(epSquare);
@@ -638,14 +1059,13 @@ public class Search {
                 if (score >= beta) {
                     if (score > MATE0 / 2)
                         score = beta;
-                    emptyMove.score = score;
-                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore);
+                    tt.insert(hKey, Move.setScore(0, score), TTEntry.T_GE, ply, depth, evalScore, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_GE, evalScore, hKey);
                     return score;
                 } else {
                     if ((searchTreeInfo[ply-1].lmr > 0) && (depth < 5*plyScale)) {
-                        Move m1 = searchTreeInfo[ply-1].currentMove;
-                        Move m2 = searchTreeInfo[ply+1].bestMove; // threat move
+                        int m1 = searchTreeInfo[ply-1].currentMove;
+                        int m2 = searchTreeInfo[ply+1].getBestMove(); // threat move
                         if (relatedMoves(m1, m2)) {
                             // if the threat move was made possible by a reduced
                             // move on the previous ply, the reduction was unsafe.
@@ -668,14 +1088,14 @@ public class Search {
                 else if (depth <= 3*plyScale) margin = 268;
                 else                          margin = 334;
                 if (evalScore == UNKNOWN_SCORE)
-                    evalScore = eval.evalPos(pos);
+                    evalScore = eval.evalPos(pos, ai);
                 futilityScore = evalScore + margin;
                 if (futilityScore <= alpha)
                     futilityPrune = true;
             }
         }
 
-        if ((depth > 4*plyScale) && ((hashMove == null) || (hashMove.from == hashMove.to))) {
+        if ((depth > 4*plyScale) && Move.isEmpty(hashMove)) {
             boolean isPv = beta > alpha + 1;
             if (isPv || (depth > 8 * plyScale)) {
                 // No hash move. Try internal iterative deepening.
@@ -683,27 +1103,36 @@ public class Search {
                 int newDepth = isPv ? depth  - 2 * plyScale : depth * 3 / 8;
                 negaScout(alpha, beta, ply, newDepth, -1, inCheck);
                 sti.nodeIdx = savedNodeIdx;
-                ent = tt.probe(hKey);
+                tt.probe(hKey, ent, ttStats);
                 if (ent.type != TTEntry.T_EMPTY) {
+                    hashMove = sti.hashMove = ent.getMove();
+                    haveHashMove = true;
+                } else if (haveHashMove) {
                     hashMove = sti.hashMove;
-                    ent.getMove(hashMove);
                 }
             }
         }
 
-        // Start searching move alternatives
-        // FIXME! Try hash move before generating move list.
-        MoveGen.MoveList moves;
-        if (inCheck)
-            moves = moveGen.checkEvasions(pos);
-        else 
-            moves = moveGen.pseudoLegalMoves(pos);
+        // Start searching move alternatives. A valid hash move is searched before
+        // the move list is generated, because it often causes a beta cutoff.
+        MoveGen.MoveList moves = null;
         boolean seeDone = false;
         boolean hashMoveSelected = true;
-        if (!selectHashMove(moves, hashMove)) {
-            scoreMoveList(moves, ply);
-            seeDone = true;
-            hashMoveSelected = false;
+        if (!inCheck && MoveGen.isPseudoLegal(pos, hashMove) &&
+            !MoveGen.canTakeKing(pos, ai)) {
+            hashMove = sti.hashMove = Move.setScore(hashMove, 10000);
+        } else {
+            if (inCheck)
+                moves = moveGen.checkEvasions(pos);
+            else
+                moves = moveGen.pseudoLegalMoves(pos);
+            if (!selectHashMove(moves, hashMove)) {
+                if (!Move.isEmpty(hashMove))
+                    ttStats.collisions++;
+                scoreMoveList(moves, ply);
+                seeDone = true;
+                hashMoveSelected = false;
+            }
         }
 
         UndoInfo ui = sti.undoInfo;
@@ -713,7 +1142,17 @@ public class Search {
         int bestScore = illegalScore;
         int bestMove = -1;
         int lmrCount = 0;
-        for (int mi = 0; mi < moves.size; mi++) {
+        for (int mi = 0; (moves == null) || (mi < moves.size); mi++) {
+            if ((mi == 1) && (moves == null)) {
+                // The hash move did not cause a cutoff. Generate the remaining moves and
+                // put the hash move first, giving the same order as if the list had been
+                // generated before searching the hash move.
+                moves = moveGen.pseudoLegalMoves(pos);
+                selectHashMove(moves, hashMove);
+                moves.m[0] = Move.setScore(moves.m[0], Move.getScore(hashMove));
+                if (moves.size == 1)
+                    break;
+            }
             if ((mi == 1) && !seeDone) {
                 scoreMoveList(moves, ply, 1);
                 seeDone = true;
@@ -721,20 +1160,24 @@ public class Search {
             if ((mi > 0) || !hashMoveSelected) {
                 selectBest(moves, mi);
             }
-            Move m = moves.m[mi];
-            if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
-                moveGen.returnMoveList(moves);
+            int m = (moves != null) ? moves.m[mi] : hashMove;
+            final int mFrom = Move.getFrom(m);
+            final int mTo = Move.getTo(m);
+            if (pos.getPiece(mTo) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
+                if (moves != null)
+                    moveGen.returnMoveList(moves);
                 int score = MATE0-ply;
                 if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_EXACT, evalScore, hKey);
                 return score;       // King capture
             }
             int newCaptureSquare = -1;
-            boolean isCapture = (pos.getPiece(m.to) != Piece.EMPTY);
-            boolean isPromotion = (m.promoteTo != Piece.EMPTY);
+            boolean isCapture = (pos.getPiece(mTo) != Piece.EMPTY);
+            boolean isPromotion = (Move.getPromoteTo(m) != Piece.EMPTY);
             int sVal = Integer.MIN_VALUE;
             // FIXME! Test extending pawn pushes to 7:th rank
-            boolean mayReduce = (m.score < 53) && (!isCapture || m.score < 0) && !isPromotion;
-            boolean givesCheck = MoveGen.givesCheck(pos, m); 
+            final int mScore = Move.getScore(m);
+            boolean mayReduce = (mScore < 53) && (!isCapture || mScore < 0) && !isPromotion;
+            boolean givesCheck = MoveGen.givesCheck(pos, m, ai); 
             boolean doFutility = false;
             if (mayReduce && haveLegalMoves && !givesCheck && !passedPawnPush(pos, m)) {
                 if ((Math.abs(alpha) <= MATE0 / 2) && (Math.abs(beta) <= MATE0 / 2)) {
@@ -757,15 +1200,15 @@ public class Search {
                 int moveExtend = 0;
                 if (posExtend == 0) {
                     final int pV = Evaluate.pV;
-                    if ((m.to == recaptureSquare)) {
-                        if (sVal == Integer.MIN_VALUE) sVal = SEE(m);
-                        int tVal = Evaluate.pieceValue[pos.getPiece(m.to)];
+                    if ((mTo == recaptureSquare)) {
+                        if (sVal == Integer.MIN_VALUE) sVal = SEE(m, ai);
+                        int tVal = Evaluate.pieceValue[pos.getPiece(mTo)];
                         if (sVal > tVal - pV / 2)
                             moveExtend = plyScale;
                     }
                     if ((moveExtend < plyScale) && isCapture && (pos.wMtrlPawns + pos.bMtrlPawns > pV)) {
                         // Extend if going into pawn endgame
-                        int capVal = Evaluate.pieceValue[pos.getPiece(m.to)];
+                        int capVal = Evaluate.pieceValue[pos.getPiece(mTo)];
                         if (pos.whiteMove) {
                             if ((pos.wMtrl == pos.wMtrlPawns) && (pos.bMtrl - pos.bMtrlPawns == capVal))
                                 moveExtend = plyScale;
@@ -791,75 +1234,85 @@ public class Search {
                 if (isCapture && (givesCheck || (depth + extend) > plyScale)) {
                     // Compute recapture target square, but only if we are not going
                     // into q-search at the next ply.
-                    int fVal = Evaluate.pieceValue[pos.getPiece(m.from)];
-                    int tVal = Evaluate.pieceValue[pos.getPiece(m.to)];
+                    int fVal = Evaluate.pieceValue[pos.getPiece(mFrom)];
+                    int tVal = Evaluate.pieceValue[pos.getPiece(mTo)];
                     final int pV = Evaluate.pV;
                     if (Math.abs(tVal - fVal) < pV / 2) {    // "Equal" capture
-                        sVal = SEE(m);
+                        sVal = SEE(m, ai);
                         if (Math.abs(sVal) < pV / 2)
-                            newCaptureSquare = m.to;
+                            newCaptureSquare = mTo;
                     }
                 }
-                posHashList[posHashListSize++] = pos.zobristHash();
-                pos.makeMove(m, ui);
-                nodes++;
-                totalNodes++;
-                sti.currentMove = m;
-/*              long nodes0 = nodes;
-                long qNodes0 = qNodes;
-                if ((ply < 3) && (newDepth > plyScale)) {
-                    System.out.printf("%2d %5s %5d %5d %6s %6s ",
-                            mi, "-", alpha, beta, "-", "-");
-                    for (int i = 0; i < ply; i++)
-                        System.out.printf("      ");
-                    System.out.printf("%-6s...\n", TextIO.moveToUCIString(m));
-                } */
-                sti.lmr = lmr;
-                score = -negaScout(-b, -alpha, ply + 1, newDepth, newCaptureSquare, givesCheck);
-                if (((lmr > 0) && (score > alpha)) ||
-                    ((score > alpha) && (score < beta) && (b != beta) && (score != illegalScore))) {
-                    sti.lmr = 0;
-                    newDepth += lmr;
-                    score = -negaScout(-beta, -alpha, ply + 1, newDepth, newCaptureSquare, givesCheck);
+                if (!MoveGen.isLegal(pos, m, ai)) {
+                    // The child node would detect the king capture and return this score
+                    score = illegalScore;
+                } else {
+                    posHashList[posHashListSize++] = pos.zobristHash();
+                    pos.makeMove(m, ui);
+                    nodes++;
+                    totalNodes++;
+                    sti.currentMove = m;
+/*                  long nodes0 = nodes;
+                    long qNodes0 = qNodes;
+                    if ((ply < 3) && (newDepth > plyScale)) {
+                        System.out.printf("%2d %5s %5d %5d %6s %6s ",
+                                mi, "-", alpha, beta, "-", "-");
+                        for (int i = 0; i < ply; i++)
+                            System.out.printf("      ");
+                        System.out.printf("%-6s...\n", TextIO.moveToUCIString(Move.fromPacked(m)));
+                    } */
+                    sti.lmr = lmr;
+                    score = -negaScout(-b, -alpha, ply + 1, newDepth, newCaptureSquare, givesCheck);
+                    if (((lmr > 0) && (score > alpha)) ||
+                        ((score > alpha) && (score < beta) && (b != beta) && (score != illegalScore))) {
+                        sti.lmr = 0;
+                        newDepth += lmr;
+                        score = -negaScout(-beta, -alpha, ply + 1, newDepth, newCaptureSquare, givesCheck);
+                    }
+/*                  if (ply <= 3) {
+                        System.out.printf("%2d %5d %5d %5d %6d %6d ",
+                                mi, score, alpha, beta, nodes-nodes0, qNodes-qNodes0);
+                        for (int i = 0; i < ply; i++)
+                            System.out.printf("      ");
+                        System.out.printf("%-6s\n", TextIO.moveToUCIString(Move.fromPacked(m)));
+                    }*/
+                    posHashListSize--;
+                    pos.unMakeMove(m, ui);
                 }
-/*              if (ply <= 3) {
-                    System.out.printf("%2d %5d %5d %5d %6d %6d ",
-                            mi, score, alpha, beta, nodes-nodes0, qNodes-qNodes0);
-                    for (int i = 0; i < ply; i++)
-                        System.out.printf("      ");
-                    System.out.printf("%-6s\n", TextIO.moveToUCIString(m));
-                }*/
-                posHashListSize--;
-                pos.unMakeMove(m, ui);
             }
             if (weak && haveLegalMoves)
                 if (weakPlaySkipMove(pos, m, ply))
                     score = illegalScore;
-            m.score = score;
+            m = Move.setScore(m, score);
+            if (moves != null)
+                moves.m[mi] = m;
+            else
+                hashMove = sti.hashMove = m;
 
             if (score != illegalScore) {
                 haveLegalMoves = true;
             }
             bestScore = Math.max(bestScore, score);
             if (score > alpha) {
+                if ((score < beta) && (score != illegalScore))
+                    updatePV(ply, m);
                 alpha = score;
                 bestMove = mi;
-                sti.bestMove.from      = m.from;
-                sti.bestMove.to        = m.to;
-                sti.bestMove.promoteTo = m.promoteTo;
+                sti.setBestMove(m);
             }
             if (alpha >= beta) {
-                if (pos.getPiece(m.to) == Piece.EMPTY) {
+                if (pos.getPiece(mTo) == Piece.EMPTY) {
                     kt.addKiller(ply, m);
                     ht.addSuccess(pos, m, depth/plyScale);
                     for (int mi2 = mi - 1; mi2 >= 0; mi2--) {
-                        Move m2 = moves.m[mi2];
-                        if (pos.getPiece(m2.to) == Piece.EMPTY)
+                        int m2 = moves.m[mi2];
+                        if (pos.getPiece(Move.getTo(m2)) == Piece.EMPTY)
                             ht.addFail(pos, m2, depth/plyScale);
                     }
                 }
-                tt.insert(hKey, m, TTEntry.T_GE, ply, depth, evalScore);
-                moveGen.returnMoveList(moves);
+                tt.insert(hKey, m, TTEntry.T_GE, ply, depth, evalScore, ttStats);
+                if (moves != null)
+                    moveGen.returnMoveList(moves);
                 if (log != null) log.logNodeEnd(sti.nodeIdx, alpha, TTEntry.T_GE, evalScore, hKey);
                 return alpha;
             }
@@ -871,11 +1324,10 @@ public class Search {
             return 0;       // Stale-mate
         }
         if (bestMove >= 0) {
-            tt.insert(hKey, moves.m[bestMove], TTEntry.T_EXACT, ply, depth, evalScore);
+            tt.insert(hKey, moves.m[bestMove], TTEntry.T_EXACT, ply, depth, evalScore, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, bestScore, TTEntry.T_EXACT, evalScore, hKey);
         } else {
-            emptyMove.score = bestScore;
-            tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, evalScore);
+            tt.insert(hKey, Move.setScore(0, bestScore), TTEntry.T_LE, ply, depth, evalScore, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, bestScore, TTEntry.T_LE, evalScore, hKey);
         }
         moveGen.returnMoveList(moves);
@@ -883,19 +1335,21 @@ public class Search {
     }
 
     /** Return true if move m2 was made possible by move m1. */
-    private final boolean relatedMoves(Move m1, Move m2) {
-        if ((m1.from == m1.to) || (m2.from == m2.to))
+    private final boolean relatedMoves(int m1, int m2) {
+        if (Move.isEmpty(m1) || Move.isEmpty(m2))
             return false;
-        if ((m1.to == m2.from) || (m1.from == m2.to) ||
-            ((BitBoard.squaresBetween[m2.from][m2.to] & (1L << m1.from)) != 0))
+        final int from1 = Move.getFrom(m1), to1 = Move.getTo(m1);
+        final int from2 = Move.getFrom(m2), to2 = Move.getTo(m2);
+        if ((to1 == from2) || (from1 == to2) ||
+            ((BitBoard.squaresBetween[from2][to2] & (1L << from1)) != 0))
             return true;
         return false;
     }
 
     /** Return true if move should be skipped in order to make engine play weaker. */
-    private final boolean weakPlaySkipMove(Position pos, Move m, int ply) {
-        long rndL = pos.zobristHash() ^ Position.psHashKeys[0][m.from] ^
-                    Position.psHashKeys[0][m.to] ^ randomSeed;
+    private final boolean weakPlaySkipMove(Position pos, int m, int ply) {
+        long rndL = pos.zobristHash() ^ Position.psHashKeys[0][Move.getFrom(m)] ^
+                    Position.psHashKeys[0][Move.getTo(m)] ^ randomSeed;
         double rnd = ((rndL & 0x7fffffffffffffffL) % 1000000000) / 1e9;
 
         double s = strength * 1e-3;
@@ -903,8 +1357,8 @@ public class Search {
         double effPly = ply * Evaluate.interpolate(pos.wMtrl + pos.bMtrl, 0, 30, Evaluate.qV * 4, 100) * 1e-2;
         double t = effPly + offs;
         double p = 1/(1+Math.exp(t)); // Probability to "see" move
-        boolean easyMove = ((pos.getPiece(m.to) != Piece.EMPTY) ||
-                            (ply < 2) || (searchTreeInfo[ply-2].currentMove.to == m.from));
+        boolean easyMove = ((pos.getPiece(Move.getTo(m)) != Piece.EMPTY) ||
+                            (ply < 2) || (Move.getTo(searchTreeInfo[ply-2].currentMove) == Move.getFrom(m)));
         if (easyMove)
             p = 1-(1-p)*(1-p);
         if (rnd > p)
@@ -912,42 +1366,48 @@ public class Search {
         return false;
     }
 
-    private static final boolean passedPawnPush(Position pos, Move m) {
-        int p = pos.getPiece(m.from);
+    private static final boolean passedPawnPush(Position pos, int m) {
+        int p = pos.getPiece(Move.getFrom(m));
+        int to = Move.getTo(m);
         if (pos.whiteMove) {
             if (p != Piece.WPAWN)
                 return false;
-            if ((BitBoard.wPawnBlockerMask[m.to] & pos.pieceTypeBB[Piece.BPAWN]) != 0)
+            if ((BitBoard.wPawnBlockerMask[to] & pos.pieceTypeBB[Piece.BPAWN]) != 0)
                 return false;
-            return m.to >= 40;
+            return to >= 40;
         } else {
             if (p != Piece.BPAWN)
                 return false;
-            if ((BitBoard.bPawnBlockerMask[m.to] & pos.pieceTypeBB[Piece.WPAWN]) != 0)
+            if ((BitBoard.bPawnBlockerMask[to] & pos.pieceTypeBB[Piece.WPAWN]) != 0)
                 return false;
-            return m.to <= 23;
+            return to <= 23;
         }
     }
 
     /**
      * Quiescence search. Only non-losing captures are searched.
      */
-    final private int quiesce(int alpha, int beta, int ply, int depth, final boolean inCheck) {
+    final private int quiesce(int alpha, int beta, int ply, int depth, final boolean inCheck) throws StopSearch {
+        if (stopSearch)
+            throw new StopSearch();
+        final AttackInfo ai = searchTreeInfo[ply].attackInfo;
+        searchTreeInfo[ply].pvLength = 0;
         int score;
         if (inCheck) {
             score = -(MATE0 - (ply+1));
         } else {
-            if ((depth == 0) && (q0Eval != UNKNOWN_SCORE)) {
+            if (depth == 0) {
+                // q0Eval is stored in the transposition table, so it must be exact
+                if (q0Eval == UNKNOWN_SCORE)
+                    q0Eval = eval.evalPos(pos, ai);
                 score = q0Eval;
             } else {
-                score = eval.evalPos(pos);
-                if (depth == 0)
-                    q0Eval = score;
+                score = eval.evalPos(pos, alpha, beta, ai);
             }
         }
         if (score >= beta) {
             if ((depth == 0) && (score < MATE0 - ply)) {
-                if (MoveGen.canTakeKing(pos)) {
+                if (MoveGen.canTakeKing(pos, ai)) {
                     // To make stale-mate detection work
                     score = MATE0 - ply;
                 }
@@ -975,8 +1435,10 @@ public class Search {
                 // so spending more effort on move ordering is probably wasted time.
                 selectBest(moves, mi);
             }
-            Move m = moves.m[mi];
-            if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
+            int m = moves.m[mi];
+            final int mTo = Move.getTo(m);
+            final int mPromoteTo = Move.getPromoteTo(m);
+            if (pos.getPiece(mTo) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
                 moveGen.returnMoveList(moves);
                 return MATE0-ply;       // King capture
             }
@@ -985,27 +1447,27 @@ public class Search {
             if (inCheck) {
                 // Allow all moves
             } else {
-                if ((pos.getPiece(m.to) == Piece.EMPTY) && (m.promoteTo == Piece.EMPTY)) {
+                if ((pos.getPiece(mTo) == Piece.EMPTY) && (mPromoteTo == Piece.EMPTY)) {
                     // Non-capture
                     if (!tryChecks)
                         continue;
-                    givesCheck = MoveGen.givesCheck(pos, m);
+                    givesCheck = MoveGen.givesCheck(pos, m, ai);
                     givesCheckComputed = true;
                     if (!givesCheck)
                         continue;
-                    if (negSEE(m)) // Needed because m.score is not computed for non-captures
+                    if (negSEE(m, ai)) // Needed because the move score is not computed for non-captures
                         continue;
                 } else {
-                    if (negSEE(m))
+                    if (negSEE(m, ai))
                         continue;
-                    int capt = Evaluate.pieceValue[pos.getPiece(m.to)];
-                    int prom = Evaluate.pieceValue[m.promoteTo];
+                    int capt = Evaluate.pieceValue[pos.getPiece(mTo)];
+                    int prom = Evaluate.pieceValue[mPromoteTo];
                     int optimisticScore = evalScore + capt + prom + 200;
                     if (optimisticScore < alpha) { // Delta pruning
                         if ((pos.wMtrlPawns > 0) && (pos.wMtrl > capt + pos.wMtrlPawns) &&
                             (pos.bMtrlPawns > 0) && (pos.bMtrl > capt + pos.bMtrlPawns)) {
                             if (depth -1 > -2) {
-                                givesCheck = MoveGen.givesCheck(pos, m);
+                                givesCheck = MoveGen.givesCheck(pos, m, ai);
                                 givesCheckComputed = true;
                             }
                             if (!givesCheck) {
@@ -1018,9 +1480,11 @@ public class Search {
                 }
             }
 
+            if (!MoveGen.isLegal(pos, m, ai))
+                continue;
             if (!givesCheckComputed) {
                 if (depth - 1 > -2) {
-                    givesCheck = MoveGen.givesCheck(pos, m);
+                    givesCheck = MoveGen.givesCheck(pos, m, ai);
                 }
             }
             final boolean nextInCheck = (depth - 1) > -2 ? givesCheck : false;
@@ -1033,9 +1497,11 @@ public class Search {
             if (score > bestScore) {
                 bestScore = score;
                 if (score > alpha) {
+                    if (score < beta)
+                        updatePV(ply, m);
                     if (depth == 0) {
                         SearchTreeInfo sti = searchTreeInfo[ply];
-                        sti.bestMove.setMove(m.from, m.to, m.promoteTo, score);
+                        sti.setBestMove(Move.setScore(m, score));
                     }
                     alpha = score;
                     if (alpha >= beta) {
@@ -1051,35 +1517,87 @@ public class Search {
 
     /** Return >0, 0, <0, depending on the sign of SEE(m). */
     final public int signSEE(Move m) {
-        int p0 = Evaluate.pieceValue[pos.getPiece(m.from)];
-        int p1 = Evaluate.pieceValue[pos.getPiece(m.to)];
+        return signSEE(Move.pack(m.from, m.to, m.promoteTo));
+    }
+
+    /** Packed move version of signSEE(). */
+    final public int signSEE(int m) {
+        return signSEE(m, null);
+    }
+
+    /** Like signSEE(int), but uses the attack maps in ai if ai is not null. */
+    final int signSEE(int m, AttackInfo ai) {
+        int p0 = Evaluate.pieceValue[pos.getPiece(Move.getFrom(m))];
+        int p1 = Evaluate.pieceValue[pos.getPiece(Move.getTo(m))];
         if (p0 < p1)
             return 1;
-        return SEE(m);
+        return SEE(m, ai);
     }
 
     /** Return true if SEE(m) < 0. */
     final public boolean negSEE(Move m) {
-        int p0 = Evaluate.pieceValue[pos.getPiece(m.from)];
-        int p1 = Evaluate.pieceValue[pos.getPiece(m.to)];
+        return negSEE(Move.pack(m.from, m.to, m.promoteTo));
+    }
+
+    /** Packed move version of negSEE(). */
+    final public boolean negSEE(int m) {
+        return negSEE(m, null);
+    }
+
+    /** Like negSEE(int), but uses the attack maps in ai if ai is not null. */
+    final boolean negSEE(int m, AttackInfo ai) {
+        int p0 = Evaluate.pieceValue[pos.getPiece(Move.getFrom(m))];
+        int p1 = Evaluate.pieceValue[pos.getPiece(Move.getTo(m))];
         if (p1 >= p0)
             return false;
-        return SEE(m) < 0;
+        return SEE(m, ai) < 0;
     }
 
     private int[] captures = new int[64];   // Value of captured pieces
-    private UndoInfo seeUi = new UndoInfo();
 
     /**
      * Static exchange evaluation function.
      * @return SEE score for m. Positive value is good for the side that makes the first move.
      */
     final public int SEE(Move m) {
+        return SEE(Move.pack(m.from, m.to, m.promoteTo));
+    }
+
+    /**
+     * Packed move version of SEE().
+     * The attackers are computed from the bitboards and pos is not modified, so several
+     * searches can compute SEE values for the same position at the same time.
+     */
+    final public int SEE(int m) {
+        return SEE(m, null);
+    }
+
+    /**
+     * Like SEE(int), but if ai is not null, its attack maps are used to return early
+     * when the opponent attacks neither the from nor the to square. In that case no
+     * recapture is possible, not even by a slider behind the moving piece.
+     */
+    final int SEE(int m, AttackInfo ai) {
+        if ((ai != null) && (Move.getTo(m) != pos.getEpSquare())) {
+            ai.computeAttacks(pos);
+            long oAttacks = pos.whiteMove ? ai.bAttacks : ai.wAttacks;
+            if ((oAttacks & ((1L << Move.getTo(m)) | (1L << Move.getFrom(m)))) == 0)
+                return Evaluate.pieceValue[pos.getPiece(Move.getTo(m))];
+        }
         final int kV = Evaluate.kV;
-        
-        final int square = m.to;
+        final Position pos = this.pos;
+        final long[] bb = pos.pieceTypeBB;
+
+        final int from = Move.getFrom(m);
+        final int square = Move.getTo(m);
+        final int p = pos.getPiece(from);
+        long occupied = (pos.whiteBB | pos.blackBB) & ~(1L << from);
         if (square == pos.getEpSquare()) {
             captures[0] = Evaluate.pV;
+            if (p == Piece.WPAWN)
+                occupied &= ~(1L << (square - 8));
+            else if (p == Piece.BPAWN)
+                occupied &= ~(1L << (square + 8));
         } else {
             captures[0] = Evaluate.pieceValue[pos.getPiece(square)];
             if (captures[0] == kV)
@@ -1087,91 +1605,54 @@ public class Search {
         }
         int nCapt = 1;                  // Number of entries in captures[]
 
-        pos.makeSEEMove(m, seeUi);
-        boolean white = pos.whiteMove;
-        int valOnSquare = Evaluate.pieceValue[pos.getPiece(square)];
-        long occupied = pos.whiteBB | pos.blackBB;
+        // Attackers of both colors. Removing a piece from a line through square can
+        // uncover a slider behind it, so that line is rescanned when that happens.
+        final long diagSliders = bb[Piece.WBISHOP] | bb[Piece.BBISHOP] | bb[Piece.WQUEEN] | bb[Piece.BQUEEN];
+        final long orthoSliders = bb[Piece.WROOK] | bb[Piece.BROOK] | bb[Piece.WQUEEN] | bb[Piece.BQUEEN];
+        final long diagMask = BitBoard.bishopAttacks(square, 0);
+        final long orthoMask = BitBoard.rookAttacks(square, 0);
+        long attackers = ((BitBoard.bPawnAttacks[square] & bb[Piece.WPAWN]) |
+                          (BitBoard.wPawnAttacks[square] & bb[Piece.BPAWN]) |
+                          (BitBoard.knightAttacks[square] & (bb[Piece.WKNIGHT] | bb[Piece.BKNIGHT])) |
+                          (BitBoard.kingAttacks[square] & (bb[Piece.WKING] | bb[Piece.BKING])) |
+                          (BitBoard.bishopAttacks(square, occupied) & diagSliders) |
+                          (BitBoard.rookAttacks(square, occupied) & orthoSliders)) & occupied;
+
+        boolean white = !pos.whiteMove;
+        int valOnSquare = Evaluate.pieceValue[p];
         while (true) {
-            int bestValue = Integer.MAX_VALUE;
+            final int offs = white ? 0 : Piece.BKING - Piece.WKING;
             long atk;
-            if (white) {
-                atk = BitBoard.bPawnAttacks[square] & pos.pieceTypeBB[Piece.WPAWN] & occupied;
-                if (atk != 0) {
-                    bestValue = Evaluate.pV;
-                } else {
-                    atk = BitBoard.knightAttacks[square] & pos.pieceTypeBB[Piece.WKNIGHT] & occupied;
-                    if (atk != 0) {
-                        bestValue = Evaluate.nV;
-                    } else {
-                        long bAtk = BitBoard.bishopAttacks(square, occupied) & occupied;
-                        atk = bAtk & pos.pieceTypeBB[Piece.WBISHOP];
-                        if (atk != 0) {
-                            bestValue = Evaluate.bV;
-                        } else {
-                            long rAtk = BitBoard.rookAttacks(square, occupied) & occupied;
-                            atk = rAtk & pos.pieceTypeBB[Piece.WROOK];
-                            if (atk != 0) {
-                                bestValue = Evaluate.rV;
-                            } else {
-                                atk = (bAtk | rAtk) & pos.pieceTypeBB[Piece.WQUEEN];
-                                if (atk != 0) {
-                                    bestValue = Evaluate.qV;
-                                } else {
-                                    atk = BitBoard.kingAttacks[square] & pos.pieceTypeBB[Piece.WKING] & occupied;
-                                    if (atk != 0) {
-                                        bestValue = kV;
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+            int bestValue;
+            if ((atk = attackers & bb[Piece.WPAWN + offs]) != 0) {
+                bestValue = Evaluate.pV;
+            } else if ((atk = attackers & bb[Piece.WKNIGHT + offs]) != 0) {
+                bestValue = Evaluate.nV;
+            } else if ((atk = attackers & bb[Piece.WBISHOP + offs]) != 0) {
+                bestValue = Evaluate.bV;
+            } else if ((atk = attackers & bb[Piece.WROOK + offs]) != 0) {
+                bestValue = Evaluate.rV;
+            } else if ((atk = attackers & bb[Piece.WQUEEN + offs]) != 0) {
+                bestValue = Evaluate.qV;
+            } else if ((atk = attackers & bb[Piece.WKING + offs]) != 0) {
+                bestValue = kV;
             } else {
-                atk = BitBoard.wPawnAttacks[square] & pos.pieceTypeBB[Piece.BPAWN] & occupied;
-                if (atk != 0) {
-                    bestValue = Evaluate.pV;
-                } else {
-                    atk = BitBoard.knightAttacks[square] & pos.pieceTypeBB[Piece.BKNIGHT] & occupied;
-                    if (atk != 0) {
-                        bestValue = Evaluate.nV;
-                    } else {
-                        long bAtk = BitBoard.bishopAttacks(square, occupied) & occupied;
-                        atk = bAtk & pos.pieceTypeBB[Piece.BBISHOP];
-                        if (atk != 0) {
-                            bestValue = Evaluate.bV;
-                        } else {
-                            long rAtk = BitBoard.rookAttacks(square, occupied) & occupied;
-                            atk = rAtk & pos.pieceTypeBB[Piece.BROOK];
-                            if (atk != 0) {
-                                bestValue = Evaluate.rV;
-                            } else {
-                                atk = (bAtk | rAtk) & pos.pieceTypeBB[Piece.BQUEEN];
-                                if (atk != 0) {
-                                    bestValue = Evaluate.qV;
-                                } else {
-                                    atk = BitBoard.kingAttacks[square] & pos.pieceTypeBB[Piece.BKING] & occupied;
-                                    if (atk != 0) {
-                                        bestValue = kV;
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+                break;
             }
             captures[nCapt++] = valOnSquare;
             if (valOnSquare == kV)
                 break;
             valOnSquare = bestValue;
-            occupied &= ~(atk & -atk);
+            long atkBit = atk & -atk;
+            occupied &= ~atkBit;
+            attackers &= ~atkBit;
+            if ((atkBit & diagMask) != 0)
+                attackers |= BitBoard.bishopAttacks(square, occupied) & diagSliders & occupied;
+            else if ((atkBit & orthoMask) != 0)
+                attackers |= BitBoard.rookAttacks(square, occupied) & orthoSliders & occupied;
             white = !white;
         }
-        pos.unMakeSEEMove(m, seeUi);
-        
+
         int score = 0;
         for (int i = nCapt - 1; i > 0; i--) {
             score = Math.max(0, captures[i] - score);
@@ -1179,6 +1660,25 @@ public class Search {
         return captures[0] - score;
     }
 
+    /**
+     * Piece ranks, used to make move ordering scores fit in the 16 bit score field of
+     * a packed move. Ranks are in the range 0-6 and are ordered like pieceValue/10 for
+     * captureRank and like pieceValue for mvvLvaRank, so the move order is the same
+     * as when using the piece values directly.
+     */
+    private static final int[] captureRank = pieceRanks(10);
+    private static final int[] mvvLvaRank = pieceRanks(1);
+
+    private static int[] pieceRanks(int div) {
+        TreeSet<Integer> values = new TreeSet<Integer>();
+        for (int p = 0; p < Piece.nPieceTypes; p++)
+            values.add(Evaluate.pieceValue[p] / div);
+        int[] ret = new int[Piece.nPieceTypes];
+        for (int p = 0; p < Piece.nPieceTypes; p++)
+            ret[p] = values.headSet(Evaluate.pieceValue[p] / div).size();
+        return ret;
+    }
+
     /**
      * Compute scores for each move in a move list, using SEE, killer and history information.
      * @param moves  List of moves to score.
@@ -1188,21 +1688,15 @@ public class Search {
     }
     final void scoreMoveList(MoveGen.MoveList moves, int ply, int startIdx) {
         for (int i = startIdx; i < moves.size; i++) {
-            Move m = moves.m[i];
-            boolean isCapture = (pos.getPiece(m.to) != Piece.EMPTY) || (m.promoteTo != Piece.EMPTY);
+            int m = moves.m[i];
+            int v = pos.getPiece(Move.getTo(m));
+            boolean isCapture = (v != Piece.EMPTY) || (Move.getPromoteTo(m) != Piece.EMPTY);
             int score = 0;
             if (isCapture) {
-                int seeScore = isCapture ? signSEE(m) : 0;
-                int v = pos.getPiece(m.to);
-                int a = pos.getPiece(m.from);
-                score = Evaluate.pieceValue[v]/10 * 1000 - Evaluate.pieceValue[a]/10;
-                if (seeScore > 0)
-                    score += 2000000;
-                else if (seeScore == 0)
-                    score += 1000000;
-                else
-                    score -= 1000000;
-                score *= 100;
+                int seeScore = signSEE(m, searchTreeInfo[ply].attackInfo);
+                int a = pos.getPiece(Move.getFrom(m));
+                int seeClass = (seeScore > 0) ? 2 : ((seeScore == 0) ? 1 : -1);
+                score = ((seeClass * 8 + captureRank[v]) * 8 + 7 - captureRank[a]) * 64;
             }
             int ks = kt.getKillerScore(ply, m);
             if (ks > 0) {
@@ -1211,15 +1705,15 @@ public class Search {
                 int hs = ht.getHistScore(pos, m);
                 score += hs;
             }
-            m.score = score;
+            moves.m[i] = Move.setScore(m, score);
         }
     }
     private final void scoreMoveListMvvLva(MoveGen.MoveList moves) {
         for (int i = 0; i < moves.size; i++) {
-            Move m = moves.m[i];
-            int v = pos.getPiece(m.to);
-            int a = pos.getPiece(m.from);
-            m.score = Evaluate.pieceValue[v] * 10000 - Evaluate.pieceValue[a];
+            int m = moves.m[i];
+            int v = pos.getPiece(Move.getTo(m));
+            int a = pos.getPiece(Move.getFrom(m));
+            moves.m[i] = Move.setScore(m, mvvLvaRank[v] * 8 + 7 - mvvLvaRank[a]);
         }
     }
 
@@ -1227,33 +1721,33 @@ public class Search {
      * Find move with highest score and move it to the front of the list.
      */
     final static void selectBest(MoveGen.MoveList moves, int startIdx) {
+        final int[] m = moves.m;
         int bestIdx = startIdx;
-        int bestScore = moves.m[bestIdx].score;
+        int bestScore = Move.getScore(m[bestIdx]);
         for (int i = startIdx + 1; i < moves.size; i++) {
-            int sc = moves.m[i].score;
+            int sc = Move.getScore(m[i]);
             if (sc > bestScore) {
                 bestIdx = i;
                 bestScore = sc;
             }
         }
         if (bestIdx != startIdx) {
-            Move m = moves.m[startIdx];
-            moves.m[startIdx] = moves.m[bestIdx];
-            moves.m[bestIdx] = m;
+            int tmp = m[startIdx];
+            m[startIdx] = m[bestIdx];
+            m[bestIdx] = tmp;
         }
     }
 
     /** If hashMove exists in the move list, move the hash move to the front of the list. */
-    final static boolean selectHashMove(MoveGen.MoveList moves, Move hashMove) {
-        if (hashMove == null) {
+    final static boolean selectHashMove(MoveGen.MoveList moves, int hashMove) {
+        if (Move.isEmpty(hashMove))
             return false;
-        }
+        final int hm = Move.noScore(hashMove);
         for (int i = 0; i < moves.size; i++) {
-            Move m = moves.m[i];
-            if (m.equals(hashMove)) {
+            int m = moves.m[i];
+            if (Move.noScore(m) == hm) {
                 moves.m[i] = moves.m[0];
-                moves.m[0] = m;
-                m.score = 10000;
+                moves.m[0] = Move.setScore(m, 10000);
                 return true;
             }
         }
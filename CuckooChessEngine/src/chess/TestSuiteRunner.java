@@ -0,0 +1,458 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run an EPD test suite. The positions are searched concurrently by a number of
+ * worker threads. Each worker has its own ComputerPlayer, and therefore its own
+ * transposition table and evaluation caches, and searches with one search thread.
+ * The transposition table is cleared before each position, so when only the depth
+ * or node limit is used, the result for a position does not depend on the number
+ * of workers or on which worker searched it.
+ * @author petero
+ */
+public class TestSuiteRunner {
+    public static final int DEFAULT_HASH_MB = 32;
+
+    /** A test position read from an EPD line. */
+    public static final class TestPosition {
+        public final int lineNo;
+        public final String id;
+        public final String fen;
+        public final List<Move> bestMoves;  // From the "bm" opcode
+        public final List<Move> avoidMoves; // From the "am" opcode
+        public final String bm;             // Best moves as written in the EPD line
+        public final String am;             // Avoid moves as written in the EPD line
+
+        TestPosition(int lineNo, String id, String fen, List<Move> bestMoves, List<Move> avoidMoves,
+                     String bm, String am) {
+            this.lineNo = lineNo;
+            this.id = id;
+            this.fen = fen;
+            this.bestMoves = bestMoves;
+            this.avoidMoves = avoidMoves;
+            this.bm = bm;
+            this.am = am;
+        }
+
+        /** Return true if m is one of the best moves and not one of the moves to avoid. */
+        public final boolean isCorrect(Move m) {
+            if (m == null)
+                return false;
+            if (!bestMoves.isEmpty() && !bestMoves.contains(m))
+                return false;
+            return !avoidMoves.contains(m);
+        }
+    }
+
+    /** Search result for one test position. */
+    public static final class Result {
+        public final TestPosition test;
+        public Move move;         // Best move found, or null if no legal moves
+        public String pv = "";
+        public boolean solved;
+        public long solveTime;    // Time in ms when the search found a correct move and kept it, or -1
+        public long solveNodes;   // Node count when the correct move was found, or -1
+        public int solveDepth;    // Search depth when the correct move was found, or -1
+        public long time;         // Total search time in ms
+        public long nodes;        // Total number of searched nodes
+        public int depth;         // Last reported search depth
+        public String error;      // Description of the exception if the search failed, otherwise null
+
+        Result(TestPosition test) {
+            this.test = test;
+            solveTime = -1;
+            solveNodes = -1;
+            solveDepth = -1;
+        }
+    }
+
+    private final int threads;
+    private final int ttLogSize;
+    private int maxTimeMillis = -1;
+    private int maxDepth = -1;
+    private int maxNodes = -1;
+
+    /**
+     * Constructor.
+     * @param threads    Number of positions searched at the same time.
+     * @param hashSizeMB Transposition table size for each worker, in megabytes.
+     */
+    public TestSuiteRunner(int threads, int hashSizeMB) {
+        this.threads = Math.max(threads, 1);
+        long nEntries = Math.max(hashSizeMB, 1) * (1L << 20) / TranspositionTable.BYTES_PER_ENTRY;
+        ttLogSize = 63 - Long.numberOfLeadingZeros(nEntries);
+    }
+
+    /**
+     * Set the search limits for each position. -1 means no limit. At least one
+     * limit must be set. Use only depth and/or node limits for reproducible results.
+     */
+    public final void setLimits(int maxTimeMillis, int maxDepth, int maxNodes) {
+        if ((maxTimeMillis < 0) && (maxDepth < 0) && (maxNodes < 0))
+            throw new IllegalArgumentException("No search limit");
+        this.maxTimeMillis = maxTimeMillis;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    /** Read all test positions from an EPD file. Empty lines and lines starting with "#" are ignored. */
+    public static List<TestPosition> readEPD(String fileName) throws IOException, ChessParseError {
+        List<TestPosition> ret = new ArrayList<TestPosition>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.startsWith("#") || (line.length() == 0))
+                    continue;
+                try {
+                    ret.add(parseEPD(line, lineNo));
+                } catch (ChessParseError cpe) {
+                    throw new ChessParseError("Line " + lineNo + ": " + cpe.getMessage());
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Parse one EPD line. The first four fields are the position. They can be followed
+     * by the half-move clock and move number, and by operations terminated by ";".
+     * The "bm", "am" and "id" operations are used, other operations are ignored.
+     */
+    public static TestPosition parseEPD(String line, int lineNo) throws ChessParseError {
+        String[] fenOps = splitEPD(line);
+        String fen = fenOps[0];
+        String ops = fenOps[1];
+        Position pos = TextIO.readFEN(fen);
+
+        String id = "line " + lineNo;
+        String bm = "";
+        String am = "";
+        for (String op : splitOperations(ops)) {
+            String[] t = op.split("\\s+", 2);
+            String arg = (t.length > 1) ? t[1].trim() : "";
+            if (t[0].equals("bm")) {
+                bm = arg;
+            } else if (t[0].equals("am")) {
+                am = arg;
+            } else if (t[0].equals("id")) {
+                if ((arg.length() >= 2) && arg.startsWith("\"") && arg.endsWith("\""))
+                    arg = arg.substring(1, arg.length() - 1);
+                id = arg;
+            }
+        }
+        if ((bm.length() == 0) && (am.length() == 0))
+            throw new ChessParseError("No bm or am operation");
+        return new TestPosition(lineNo, id, fen, parseMoves(pos, bm), parseMoves(pos, am), bm, am);
+    }
+
+    /**
+     * Split an EPD line in a FEN string and the operations. The half-move clock and move
+     * number are taken from the line if present, otherwise they are set to 0 and 1.
+     */
+    static String[] splitEPD(String line) throws ChessParseError {
+        String[] fields = line.trim().split("\\s+", 5);
+        if (fields.length < 4)
+            throw new ChessParseError("Too few fields in EPD line");
+        String fen = fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3];
+        String ops = (fields.length > 4) ? fields[4] : "";
+        String[] counters = ops.split("\\s+", 3);
+        if ((counters.length >= 2) && isNumber(counters[0]) && isNumber(counters[1])) {
+            fen += " " + counters[0] + " " + counters[1];
+            ops = (counters.length > 2) ? counters[2] : "";
+        } else {
+            fen += " 0 1";
+        }
+        return new String[]{ fen, ops };
+    }
+
+    /** Split the operation part of an EPD line at ";" characters that are not inside quotes. */
+    private static List<String> splitOperations(String ops) {
+        List<String> ret = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < ops.length(); i++) {
+            char c = ops.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if ((c == ';') && !quoted) {
+                String op = ops.substring(start, i).trim();
+                if (op.length() > 0)
+                    ret.add(op);
+                start = i + 1;
+            }
+        }
+        String op = ops.substring(start).trim();
+        if (op.length() > 0)
+            ret.add(op);
+        return ret;
+    }
+
+    private static List<Move> parseMoves(Position pos, String moves) throws ChessParseError {
+        List<Move> ret = new ArrayList<Move>();
+        if (moves.length() == 0)
+            return ret;
+        for (String s : moves.split("\\s+")) {
+            Move m = TextIO.stringToMove(pos, s);
+            if (m == null)
+                throw new ChessParseError("Invalid move " + s);
+            ret.add(m);
+        }
+        return ret;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.length() == 0)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (!Character.isDigit(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Search all test positions. A line is printed to os each time a position
+     * has been searched, so the lines are not necessarily in file order. If the search
+     * of a position fails with an exception, its result is unsolved and has error set.
+     * @return The results, in the same order as tests.
+     */
+    public final Result[] run(final List<TestPosition> tests, final PrintStream os) {
+        final Result[] results = new Result[tests.size()];
+        final AtomicInteger nextIdx = new AtomicInteger(0);
+        final AtomicInteger nSolved = new AtomicInteger(0);
+        final AtomicInteger nDone = new AtomicInteger(0);
+        int nWorkers = Math.min(threads, Math.max(tests.size(), 1));
+        Thread[] workers = new Thread[nWorkers];
+        for (int i = 0; i < nWorkers; i++) {
+            final ComputerPlayer cp = new ComputerPlayer();
+            cp.verbose = false;
+            cp.setTTLogSize(ttLogSize);
+            workers[i] = new Thread() {
+                public void run() {
+                    while (true) {
+                        int idx = nextIdx.getAndIncrement();
+                        if (idx >= tests.size())
+                            break;
+                        Result r;
+                        try {
+                            r = searchOne(cp, tests.get(idx));
+                        } catch (RuntimeException ex) {
+                            // Record the failure and continue with the next position
+                            r = new Result(tests.get(idx));
+                            r.error = ex.toString();
+                        }
+                        results[idx] = r;
+                        int solved = r.solved ? nSolved.incrementAndGet() : nSolved.get();
+                        int done = nDone.incrementAndGet();
+                        synchronized (os) {
+                            os.printf("%4d : %-8s %d %4d/%4d %8d %10d %2d %s : %s%n", r.test.lineNo,
+                                      (r.move == null) ? "none" : TextIO.moveToString(readFEN(r.test.fen), r.move, false),
+                                      r.solved ? 1 : 0, solved, done, r.solveTime, r.nodes, r.depth,
+                                      r.test.id, (r.error != null) ? ("error: " + r.error) : r.pv);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    // Keep waiting, the workers can not be stopped early
+                }
+            }
+        }
+        return results;
+    }
+
+    /** Search one position. The time to solution is taken from the PV updates. */
+    private final Result searchOne(ComputerPlayer cp, final TestPosition test) {
+        final Result r = new Result(test);
+        Position pos = readFEN(test.fen);
+        if (new MoveGen().legalMoves(pos).size == 0)
+            return r;
+        cp.clearTT();
+        cp.setListener(new Search.Listener() {
+            public void notifyDepth(int depth) {
+                r.depth = depth;
+            }
+            public void notifyCurrMove(Move m, int moveNr) { }
+            public void notifyPV(int depth, int score, int time, long nodes, int nps,
+                                 boolean isMate, boolean upperBound, boolean lowerBound, ArrayList<Move> pv) {
+                if (pv.isEmpty())
+                    return;
+                if (test.isCorrect(pv.get(0))) {
+                    if (r.solveTime < 0) {
+                        r.solveTime = time;
+                        r.solveNodes = nodes;
+                        r.solveDepth = depth;
+                    }
+                } else {
+                    r.solveTime = -1;
+                    r.solveNodes = -1;
+                    r.solveDepth = -1;
+                }
+            }
+            public void notifyStats(long nodes, int nps, int time) {
+                r.nodes = nodes;
+                r.time = time;
+            }
+        });
+        long t0 = System.currentTimeMillis();
+        TwoReturnValues<Move, String> ret = cp.searchPosition(pos, maxTimeMillis, maxDepth, maxNodes);
+        long t1 = System.currentTimeMillis();
+        cp.setListener(null);
+        r.move = ret.first;
+        r.pv = ret.second.trim();
+        r.solved = test.isCorrect(r.move);
+        if (r.time == 0)
+            r.time = t1 - t0;
+        if (!r.solved) {
+            r.solveTime = -1;
+            r.solveNodes = -1;
+            r.solveDepth = -1;
+        } else if (r.solveTime < 0) {
+            // Solved without a PV update, for example when there is only one legal move
+            r.solveTime = r.time;
+            r.solveNodes = r.nodes;
+            r.solveDepth = r.depth;
+        }
+        return r;
+    }
+
+    private static Position readFEN(String fen) {
+        try {
+            return TextIO.readFEN(fen);
+        } catch (ChessParseError ex) {
+            throw new RuntimeException(ex); // Can not happen, the FEN was checked by parseEPD
+        }
+    }
+
+    /** Aggregate statistics for a test suite run. */
+    public static final class Summary {
+        public int total;
+        public int solved;
+        public long totalTime;      // Sum of search times in ms
+        public long totalNodes;
+        public long meanSolveTime;  // Statistics for the time to solution of the solved positions
+        public long medianSolveTime;
+        public long maxSolveTime;
+        public long totalSolveNodes;
+
+        public Summary(Result[] results) {
+            long[] solveTimes = new long[results.length];
+            for (Result r : results) {
+                total++;
+                totalTime += r.time;
+                totalNodes += r.nodes;
+                if (r.solved) {
+                    solveTimes[solved++] = r.solveTime;
+                    totalSolveNodes += r.solveNodes;
+                }
+            }
+            if (solved > 0) {
+                long[] t = Arrays.copyOf(solveTimes, solved);
+                Arrays.sort(t);
+                long sum = 0;
+                for (long v : t)
+                    sum += v;
+                meanSolveTime = sum / solved;
+                medianSolveTime = ((solved & 1) != 0) ? t[solved / 2] : (t[solved / 2 - 1] + t[solved / 2]) / 2;
+                maxSolveTime = t[solved - 1];
+            }
+        }
+
+        public final void print(PrintStream os) {
+            os.printf("Solved: %d/%d%n", solved, total);
+            os.printf("Total time (ms): %d%n", totalTime);
+            os.printf("Total nodes: %d%n", totalNodes);
+            os.printf("Solve time (ms): mean %d median %d max %d%n", meanSolveTime, medianSolveTime, maxSolveTime);
+        }
+    }
+
+    /** Write the settings, summary and per position results to a file in JSON format. */
+    public final void writeResults(String fileName, String suiteName, Result[] results) throws IOException {
+        Summary s = new Summary(results);
+        PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+        try {
+            w.printf("{%n");
+            w.printf("  \"suite\": %s,%n", jsonString(suiteName));
+            w.printf("  \"settings\": {\"threads\": %d, \"ttLogSize\": %d, \"maxTime\": %d, \"maxDepth\": %d, \"maxNodes\": %d},%n",
+                     threads, ttLogSize, maxTimeMillis, maxDepth, maxNodes);
+            w.printf("  \"summary\": {\"total\": %d, \"solved\": %d, \"totalTime\": %d, \"totalNodes\": %d, " +
+                     "\"meanSolveTime\": %d, \"medianSolveTime\": %d, \"maxSolveTime\": %d, \"totalSolveNodes\": %d},%n",
+                     s.total, s.solved, s.totalTime, s.totalNodes,
+                     s.meanSolveTime, s.medianSolveTime, s.maxSolveTime, s.totalSolveNodes);
+            w.printf("  \"positions\": [");
+            for (int i = 0; i < results.length; i++) {
+                Result r = results[i];
+                Position pos = readFEN(r.test.fen);
+                w.printf("%s%n    {\"line\": %d, \"id\": %s, \"fen\": %s, \"bm\": %s, \"am\": %s, " +
+                         "\"move\": %s, \"solved\": %b, \"solveTime\": %d, \"solveNodes\": %d, \"solveDepth\": %d, " +
+                         "\"time\": %d, \"nodes\": %d, \"depth\": %d, \"pv\": %s}",
+                         (i > 0) ? "," : "", r.test.lineNo, jsonString(r.test.id), jsonString(r.test.fen),
+                         jsonString(r.test.bm), jsonString(r.test.am),
+                         jsonString((r.move == null) ? "" : TextIO.moveToString(pos, r.move, false)),
+                         r.solved, r.solveTime, r.solveNodes, r.solveDepth, r.time, r.nodes, r.depth,
+                         jsonString(r.pv));
+            }
+            w.printf("%n  ]%n}%n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -155,11 +155,11 @@ public class TextIO {
     public static final void fixupEPSquare(Position pos) {
         int epSquare = pos.getEpSquare();
         if (epSquare >= 0) {
-            MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
+            MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
             MoveGen.removeIllegal(pos, moves);
             boolean epValid = false;
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 if (m.to == epSquare) {
                     if (pos.getPiece(m.from) == (pos.whiteMove ? Piece.WPAWN : Piece.BPAWN)) {
                         epValid = true;
@@ -276,7 +276,7 @@ public class TextIO {
      *                 Otherwise, use short notation, eg Nf3
      */
     public static final String moveToString(Position pos, Move move, boolean longForm) {
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
+        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
         MoveGen.removeIllegal(pos, moves);
         return moveToString(pos, move, longForm, moves);
     }
@@ -320,9 +320,7 @@ public class TextIO {
                     int numSameFile = 0;
                     int numSameRow = 0;
                     for (int mi = 0; mi < moves.size; mi++) {
-                        Move m = moves.m[mi];
-                        if (m == null)
-                            break;
+                        Move m = moves.getMove(mi);
                         if ((pos.getPiece(m.from) == p) && (m.to == move.to)) {
                             numSameTarget++;
                             if (Position.getX(m.from) == x1)
@@ -355,7 +353,7 @@ public class TextIO {
         UndoInfo ui = new UndoInfo();
         if (MoveGen.givesCheck(pos, move)) {
             pos.makeMove(move, ui);
-            MoveGen.MoveList nextMoves = MoveGen.instance.pseudoLegalMoves(pos);
+            MoveGen.MoveList nextMoves = new MoveGen().pseudoLegalMoves(pos);
             MoveGen.removeIllegal(pos, nextMoves);
             if (nextMoves.size == 0) {
                 ret.append('#');
@@ -467,7 +465,7 @@ public class TextIO {
         Move move = null;
         if (strMove.length() == 0)
             return move;
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
+        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
         MoveGen.removeIllegal(pos, moves);
         {
             char lastChar = strMove.charAt(strMove.length() - 1);
@@ -475,10 +473,10 @@ public class TextIO {
                 MoveGen.MoveList subMoves = new MoveGen.MoveList();
                 int len = 0;
                 for (int mi = 0; mi < moves.size; mi++) {
-                    Move m = moves.m[mi];
+                    Move m = moves.getMove(mi);
                     String str1 = TextIO.moveToString(pos, m, true, moves);
                     if (str1.charAt(str1.length() - 1) == lastChar) {
-                        subMoves.m[len++] = m;
+                        subMoves.m[len++] = moves.m[mi];
                     }
                 }
                 subMoves.size = len;
@@ -490,7 +488,7 @@ public class TextIO {
         for (int i = 0; i < 2; i++) {
             // Search for full match
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 String str1 = normalizeMoveString(TextIO.moveToString(pos, m, true, moves));
                 String str2 = normalizeMoveString(TextIO.moveToString(pos, m, false, moves));
                 if (i == 0) {
@@ -509,7 +507,7 @@ public class TextIO {
         for (int i = 0; i < 2; i++) {
             // Search for unique substring match
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 String str1 = normalizeMoveString(TextIO.moveToString(pos, m, true));
                 String str2 = normalizeMoveString(TextIO.moveToString(pos, m, false));
                 boolean match;
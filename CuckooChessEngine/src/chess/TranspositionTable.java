@@ -18,7 +18,16 @@
 
 package chess;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -67,6 +76,10 @@ public class TranspositionTable {
             m.to = (move >> 6) & 63;
             m.promoteTo = (move >> 12) & 15;
         }
+        /** Get the move in packed form, with zero score. */
+        public final int getMove() {
+            return move & 0xffff;
+        }
         public final void setMove(Move move) {
             this.move = (short)(move.from + (move.to << 6) + (move.promoteTo << 12));
         }
@@ -112,94 +125,394 @@ public class TranspositionTable {
             depthSlot |= (s << 15);
         }
     }
-    TTEntry[] table;
-    TTEntry emptySlot;
+    /**
+     * Transposition table usage statistics. Each search thread has its own Stats object,
+     * so the counters can be updated without synchronization. Use add() to merge them.
+     */
+    static final public class Stats {
+        public long probes;         // Number of probe calls
+        public long hits;           // Number of probes that found an entry
+        public long cutoffs;        // Number of hits that produced a cutoff in the search
+        public long collisions;     // Number of hits where the hash move was not a valid move
+        public long storesNew;      // Number of stores to an empty slot
+        public long storesUpdate;   // Number of stores to a slot with the same key
+        public long storesSkipped;  // Number of stores not done because the old entry was better
+        public long replacedOld;    // Number of stores replacing an entry from an old generation
+        public long replacedCurrent; // Number of stores replacing an entry from the current generation
+        public long relocations;    // Number of entries moved to their alternative slot
+
+        /** Add counters from "other" to this object. */
+        public final void add(Stats other) {
+            probes += other.probes;
+            hits += other.hits;
+            cutoffs += other.cutoffs;
+            collisions += other.collisions;
+            storesNew += other.storesNew;
+            storesUpdate += other.storesUpdate;
+            storesSkipped += other.storesSkipped;
+            replacedOld += other.replacedOld;
+            replacedCurrent += other.replacedCurrent;
+            relocations += other.relocations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("probes %d hits %d (%.1f%%) cutoffs %d collisions %d " +
+                                 "stores new %d update %d skipped %d replaced old %d current %d relocations %d",
+                                 probes, hits, probes > 0 ? hits * 100.0 / probes : 0.0, cutoffs, collisions,
+                                 storesNew, storesUpdate, storesSkipped, replacedOld, replacedCurrent, relocations);
+        }
+    }
+
+    /**
+     * Each entry is stored as two longs. The second long contains the packed entry data
+     * and the first long contains the hash key xor'ed with the data. If a reader sees an
+     * entry that is only partially written by another thread, the key check fails and the
+     * entry is treated as a miss, so the table can be shared between search threads
+     * without locking.
+     *
+     * Data layout: move (bit 0-15), score (bit 16-31), evalScore (bit 32-47),
+     * depth (bit 48-57), type+1 (bit 58-59), generation bit 0-3 (bit 60-63).
+     * The data word is full, so generation bit 4-7 is stored in bit 0-3 of the key word,
+     * in place of the lowest 4 key bits. Only key bit 4-63 are compared, so 4 key
+     * verification bits are given up for the generation. The entry index does not
+     * depend on key bit 0-3 either, so those bits are not checked at all. With 8
+     * generation bits, an entry is only mistaken for a current entry if it was last
+     * used 256 searches ago.
+     * The hash slot is not stored, it is computed from the entry index and the key.
+     * An all-zero entry is empty.
+     *
+     * Two replacement schemes are supported. The default cuckoo scheme stores an entry in
+     * one of two unrelated slots and can move a valuable entry to its alternative slot.
+     * The bucket scheme stores an entry in one of the 4 slots in a 64 byte bucket and
+     * replaces the least valuable entry in the bucket.
+     */
+    long[] table;               // Entry storage, or null if the table is stored off-heap
+    private LongBuffer[] segments; // Off-heap entry storage, or null if the table is on the heap
+    private final long mask;    // Number of entries - 1
+    private final boolean buckets; // True if the bucket replacement scheme is used
     byte generation;
 
-    /** Constructor. Creates an empty transposition table with numEntries slots. */
+    public static final int BYTES_PER_ENTRY = 16;
+    private static final int SEG_LOG_SIZE = 27;     // 2^27 longs = 1GB per off-heap segment
+    private static final int SEG_MASK = (1 << SEG_LOG_SIZE) - 1;
+    public static final int MAX_HEAP_LOG_SIZE = 26; // Larger tables are stored off-heap by default
+    private static final int FILE_MAGIC = 0x43435454; // "CCTT"
+    private static final int FILE_VERSION = 3;       // Increase when the file format changes
+    private static final int FILE_HEADER_SIZE = 64;
+    private static final int MAX_DEPTH = 0x3ff;
+    private static final int GEN_MASK = 0xff;
+    private static final long KEY_MASK = ~0xfL;     // Key bits stored in an entry
+
+    /** Constructor. Creates an empty transposition table with 2^log2Size slots. */
     public TranspositionTable(int log2Size) {
-        final int numEntries = (1 << log2Size);
-        table = new TTEntry[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            TTEntry ent = new TTEntry();
-            ent.key = 0;
-            ent.depthSlot = 0;
-            ent.type = TTEntry.T_EMPTY;
-            table[i] = ent;
+        this(log2Size, log2Size > MAX_HEAP_LOG_SIZE, false);
+    }
+
+    /** Constructor. Creates an empty transposition table with 2^log2Size slots. */
+    public TranspositionTable(int log2Size, boolean offHeap) {
+        this(log2Size, offHeap, false);
+    }
+
+    /**
+     * Constructor. Creates an empty transposition table with 2^log2Size slots.
+     * @param offHeap  If true, store the table in direct byte buffers outside the java heap.
+     *                 This is needed for tables larger than 16GB. Note that the JVM limits the
+     *                 amount of direct memory, see -XX:MaxDirectMemorySize.
+     * @param buckets  If true, use the bucket replacement scheme instead of the cuckoo scheme.
+     */
+    public TranspositionTable(int log2Size, boolean offHeap, boolean buckets) {
+        if (buckets && (log2Size < 2))
+            log2Size = 2;
+        final long numEntries = (1L << log2Size);
+        final long numWords = numEntries * 2;
+        if (!offHeap) {
+            table = new long[(int)numWords];
+        } else {
+            int nSegs = (int)((numWords + SEG_MASK) >>> SEG_LOG_SIZE);
+            segments = new LongBuffer[nSegs];
+            for (int i = 0; i < nSegs; i++) {
+                int segWords = (int)Math.min(numWords - ((long)i << SEG_LOG_SIZE), 1 << SEG_LOG_SIZE);
+                segments[i] = ByteBuffer.allocateDirect(segWords * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
         }
-        emptySlot = new TTEntry();
-        emptySlot.type = TTEntry.T_EMPTY;
+        mask = numEntries - 1;
+        this.buckets = buckets;
         generation = 0;
     }
 
+    /** Create a table using already allocated off-heap storage. */
+    private TranspositionTable(LongBuffer[] segments, int log2Size, boolean buckets) {
+        this.segments = segments;
+        mask = (1L << log2Size) - 1;
+        this.buckets = buckets;
+        generation = 0;
+    }
+
+    /** Return true if the bucket replacement scheme is used. */
+    public final boolean useBuckets() {
+        return buckets;
+    }
+
+    /** Return number of entries in the table. */
+    public final long getSize() {
+        return mask + 1;
+    }
+
+    private static final long packData(int move, int score, int depth, int type, int gen, int evalScore) {
+        return (move & 0xffffL) |
+               ((score & 0xffffL) << 16) |
+               ((evalScore & 0xffffL) << 32) |
+               ((long)Math.min(depth, MAX_DEPTH) << 48) |
+               ((long)((type + 1) & 3) << 58) |
+               ((long)(gen & 0xf) << 60);
+    }
+    private static final int getMove(long data)      { return (int)data & 0xffff; }
+    private static final int getScore(long data)     { return (short)(data >>> 16); }
+    private static final int getEvalScore(long data) { return (short)(data >>> 32); }
+    private static final int getDepth(long data)     { return (int)(data >>> 48) & MAX_DEPTH; }
+    private static final int getType(long data)      { return ((int)(data >>> 58) + 3) & 3; }
+
+    /** Return the stored key bits of an entry, given its key word and data word. */
+    private static final long getKey(long keyWord, long data) {
+        return (keyWord ^ data) & KEY_MASK;
+    }
+    /** Return the generation of an entry, given its key word and data word. */
+    private static final int getGeneration(long keyWord, long data) {
+        return ((int)(keyWord ^ data) & 0xf) << 4 | (int)(data >>> 60);
+    }
+
+    /** Same as TTEntry.betterThan(), but for packed entry data and generations. */
+    private static final boolean betterThan(long data, int gen, long otherData, int otherGen, int currGen) {
+        if ((gen == currGen) != (otherGen == currGen)) {
+            return gen == currGen;              // Old entries are less valuable
+        }
+        int type = getType(data);
+        int otherType = getType(otherData);
+        if ((type == TTEntry.T_EXACT) != (otherType == TTEntry.T_EXACT)) {
+            return type == TTEntry.T_EXACT;     // Exact score more valuable than lower/upper bound
+        }
+        int depth = getDepth(data);
+        int otherDepth = getDepth(otherData);
+        if (depth != otherDepth) {
+            return depth > otherDepth;          // Larger depth is more valuable
+        }
+        return false;   // Otherwise, pretty much equally valuable
+    }
+
+    /** Same as TTEntry.valuable(), but for packed entry data. */
+    private static final boolean valuable(long data, int gen, int currGen) {
+        if (gen != currGen)
+            return false;
+        int type = getType(data);
+        return (type == TTEntry.T_EXACT) || ((type != TTEntry.T_EMPTY) && (getDepth(data) > 3 * Search.plyScale));
+    }
+
     public final void insert(long key, Move sm, int type, int ply, int depth, int evalScore) {
+        insert(key, sm.getPacked(), type, ply, depth, evalScore, null);
+    }
+
+    public final void insert(long key, Move sm, int type, int ply, int depth, int evalScore, Stats stats) {
+        insert(key, sm.getPacked(), type, ply, depth, evalScore, stats);
+    }
+
+    /** Insert an entry. sm is a packed move, whose score is the score to store. */
+    public final void insert(long key, int sm, int type, int ply, int depth, int evalScore) {
+        insert(key, sm, type, ply, depth, evalScore, null);
+    }
+
+    /** Insert an entry and update statistics in "stats", unless it is null. */
+    public final void insert(long key, int sm, int type, int ply, int depth, int evalScore, Stats stats) {
+        final int smScore = Move.getScore(sm);
         if (depth < 0) depth = 0;
-        int idx0 = h0(key);
-        int idx1 = h1(key);
-        TTEntry ent = table[idx0];
-        byte hashSlot = 0;
-        if (ent.key != key) {
-            ent = table[idx1];
-            hashSlot = 1;
-        }
-        if (ent.key != key) {
-            if (table[idx1].betterThan(table[idx0], generation)) {
-                ent = table[idx0];
-                hashSlot = 0;
-            }
-            if (ent.valuable(generation)) {
-                int altEntIdx = (ent.getHashSlot() == 0) ? h1(ent.key) : h0(ent.key);
-                if (ent.betterThan(table[altEntIdx], generation)) {
-                    TTEntry altEnt = table[altEntIdx];
-                    altEnt.key = ent.key;
-                    altEnt.move = ent.move;
-                    altEnt.score = ent.score;
-                    altEnt.depthSlot = ent.depthSlot;
-                    altEnt.generation = (byte)ent.generation;
-                    altEnt.type = ent.type;
-                    altEnt.setHashSlot(1 - ent.getHashSlot());
-                    altEnt.evalScore = ent.evalScore;
-                }
-            }
-        }
+        key &= KEY_MASK;
+        final int gen = generation & GEN_MASK;
+        long idx = buckets ? bucketStoreIdx(key, gen) : cuckooStoreIdx(key, gen, stats);
+        long data = dataWord(idx);
+        long kw = keyWord(idx);
+        long entKey = getKey(kw, data);
         boolean doStore = true;
-        if ((ent.key == key) && (ent.getDepth() > depth) && (ent.type == type)) {
+        if ((entKey == key) && (getDepth(data) > depth) && (getType(data) == type)) {
             if (type == TTEntry.T_EXACT) {
                 doStore = false;
-            } else if ((type == TTEntry.T_GE) && (sm.score <= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_GE) && (smScore <= scoreFromTT(getScore(data), ply))) {
                 doStore = false;
-            } else if ((type == TTEntry.T_LE) && (sm.score >= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_LE) && (smScore >= scoreFromTT(getScore(data), ply))) {
                 doStore = false;
             }
         }
+        if (stats != null) {
+            if (!doStore)
+                stats.storesSkipped++;
+            else if (entKey == key)
+                stats.storesUpdate++;
+            else if (getType(data) == TTEntry.T_EMPTY)
+                stats.storesNew++;
+            else if (getGeneration(kw, data) != gen)
+                stats.replacedOld++;
+            else
+                stats.replacedCurrent++;
+        }
         if (doStore) {
-            if ((ent.key != key) || (sm.from != sm.to))
-                ent.setMove(sm);
-            ent.key = key;
-            ent.setScore(sm.score, ply);
-            ent.setDepth(depth);
-            ent.generation = (byte)generation;
-            ent.type = (byte)type;
-            ent.setHashSlot(hashSlot);
-            ent.evalScore = (short)evalScore;
+            int move = getMove(data);
+            if ((entKey != key) || !Move.isEmpty(sm))
+                move = Move.noScore(sm);
+            long newData = packData(move, scoreToTT(smScore, ply), depth, type, gen, evalScore);
+            setEntry(idx, key, newData, gen);
+        }
+    }
+
+    /**
+     * Return the index of the entry where a new entry for key should be stored, using the
+     * cuckoo scheme. Moves the replaced entry to its alternative slot if it is valuable.
+     */
+    private final long cuckooStoreIdx(long key, int gen, Stats stats) {
+        long idx0 = h0(key);
+        long idx1 = h1(key);
+        long idx = idx0;
+        long data = dataWord(idx);
+        long kw = keyWord(idx);
+        if (getKey(kw, data) != key) {
+            idx = idx1;
+            data = dataWord(idx);
+            kw = keyWord(idx);
+        }
+        if (getKey(kw, data) != key) {
+            long data0 = dataWord(idx0);
+            long kw0 = keyWord(idx0);
+            if (betterThan(data, getGeneration(kw, data), data0, getGeneration(kw0, data0), gen)) {
+                idx = idx0;
+                data = data0;
+                kw = kw0;
+            }
+            long entKey = getKey(kw, data);
+            int entGen = getGeneration(kw, data);
+            if (valuable(data, entGen, gen)) {
+                long altEntIdx = (idx == h0(entKey)) ? h1(entKey) : h0(entKey);
+                long altData = dataWord(altEntIdx);
+                if (betterThan(data, entGen, altData, getGeneration(keyWord(altEntIdx), altData), gen)) {
+                    setEntry(altEntIdx, entKey, data, entGen);
+                    if (stats != null)
+                        stats.relocations++;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Return the index of the entry where a new entry for key should be stored, using the
+     * bucket scheme. This is the entry with the same key if it exists, otherwise the least
+     * valuable entry in the bucket.
+     */
+    private final long bucketStoreIdx(long key, int gen) {
+        final long idx0 = h0(key) & ~3L;
+        long idx = idx0;
+        long data = dataWord(idx);
+        long kw = keyWord(idx);
+        if (getKey(kw, data) == key)
+            return idx;
+        int dataGen = getGeneration(kw, data);
+        for (long i = idx0 + 1; i < idx0 + 4; i++) {
+            long d = dataWord(i);
+            long k = keyWord(i);
+            if (getKey(k, d) == key)
+                return i;
+            int g = getGeneration(k, d);
+            if (betterThan(data, dataGen, d, g, gen)) {
+                idx = i;
+                data = d;
+                dataGen = g;
+            }
+        }
+        return idx;
+    }
+
+    /** Return the index of the non-empty entry matching key, or -1 if there is no such entry. */
+    private final long findEntry(long key) {
+        key &= KEY_MASK;
+        if (buckets) {
+            final long idx0 = h0(key) & ~3L;
+            for (long idx = idx0; idx < idx0 + 4; idx++) {
+                long data = dataWord(idx);
+                if ((getKey(keyWord(idx), data) == key) && (getType(data) != TTEntry.T_EMPTY))
+                    return idx;
+            }
+            return -1;
         }
+        long idx = h0(key);
+        long data = dataWord(idx);
+        if ((getKey(keyWord(idx), data) == key) && (getType(data) != TTEntry.T_EMPTY))
+            return idx;
+        idx = h1(key);
+        data = dataWord(idx);
+        if ((getKey(keyWord(idx), data) == key) && (getType(data) != TTEntry.T_EMPTY))
+            return idx;
+        return -1;
+    }
+
+    /**
+     * Retrieve an entry from the hash table corresponding to "pos".
+     * The entry is copied to "ent". ent.type is T_EMPTY if there is no matching entry.
+     */
+    public final void probe(long key, TTEntry ent) {
+        probe(key, ent, null);
+    }
+
+    /** Same as probe(key, ent), but also updates statistics in "stats", unless it is null. */
+    public final void probe(long key, TTEntry ent, Stats stats) {
+        if (stats != null)
+            stats.probes++;
+        long idx = findEntry(key);
+        long data = (idx >= 0) ? dataWord(idx) : 0;
+        long kw = (idx >= 0) ? keyWord(idx) : 0;
+        if ((idx < 0) || (getKey(kw, data) != (key & KEY_MASK))) { // Entry could have been changed by other thread
+            ent.type = TTEntry.T_EMPTY;
+            return;
+        }
+        final int gen = generation & GEN_MASK;
+        if (getGeneration(kw, data) != gen) {
+            data = (data & ~(0xfL << 60)) | ((long)(gen & 0xf) << 60);
+            setEntry(idx, key & KEY_MASK, data, gen);
+        }
+        if (stats != null)
+            stats.hits++;
+        ent.key = key;
+        ent.move = (short)getMove(data);
+        ent.score = (short)getScore(data);
+        ent.depthSlot = 0;
+        ent.setDepth(getDepth(data));
+        ent.setHashSlot((buckets || (idx == h0(key & KEY_MASK))) ? 0 : 1);
+        ent.generation = (byte)gen;
+        ent.type = (byte)getType(data);
+        ent.evalScore = (short)getEvalScore(data);
     }
 
     /** Retrieve an entry from the hash table corresponding to "pos". */
     public final TTEntry probe(long key) {
-        int idx0 = h0(key);
-        TTEntry ent = table[idx0];
-        if (ent.key == key) {
-            ent.generation = (byte)generation;
-            return ent;
+        TTEntry ent = new TTEntry();
+        probe(key, ent);
+        return ent;
+    }
+
+    /** Convert score from "mate at ply" to "mate in x". */
+    private static final int scoreToTT(int score, int ply) {
+        if (score > Search.MATE0 - 1000) {
+            score += ply;
+        } else if (score < -(Search.MATE0 - 1000)) {
+            score -= ply;
         }
-        int idx1 = h1(key);
-        ent = table[idx1];
-        if (ent.key == key) {
-            ent.generation = (byte)generation;
-            return ent;
+        return score;
+    }
+
+    /** Convert score from "mate in x" to "mate at ply". */
+    private static final int scoreFromTT(int score, int ply) {
+        if (score > Search.MATE0 - 1000) {
+            score -= ply;
+        } else if (score < -(Search.MATE0 - 1000)) {
+            score += ply;
         }
-        return emptySlot;
+        return score;
     }
 
     /**
@@ -210,48 +523,153 @@ public class TranspositionTable {
         generation++;
     }
 
-    /** Clear the transposition table. */
+    /**
+     * Return an estimate of how full the table is, in permill. Only entries from the
+     * current generation are counted.
+     */
+    public final int hashFull() {
+        final int gen = generation & GEN_MASK;
+        long n = Math.min(1000, getSize());
+        int used = 0;
+        for (long i = 0; i < n; i++) {
+            long data = dataWord(i);
+            if ((getType(data) != TTEntry.T_EMPTY) && (getGeneration(keyWord(i), data) == gen))
+                used++;
+        }
+        return (int)(used * 1000 / n);
+    }
+
+    /** Clear the transposition table. Large tables are cleared by several threads in parallel. */
     public final void clear() {
-        for (TTEntry ent : table) {
-            ent.type = TTEntry.T_EMPTY;
+        final long numWords = getSize() * 2;
+        int nThreads = (numWords >= (1 << 24)) ? Runtime.getRuntime().availableProcessors() : 1;
+        if (segments != null)
+            nThreads = Math.min(nThreads, segments.length);
+        if (nThreads <= 1) {
+            clearRange(0, numWords);
+            return;
+        }
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final long start = numWords / nThreads * t;
+            final long end = (t == nThreads - 1) ? numWords : numWords / nThreads * (t + 1);
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    clearRange(start, end);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException();
+            }
         }
     }
 
     /**
-     * Extract a list of PV moves, starting from "rootPos" and first move "m".
+     * Save the table to a file. The file starts with a header containing a format version
+     * and the current generation, followed by the raw table contents.
      */
-    public final ArrayList<Move> extractPVMoves(Position rootPos, Move m) {
-        Position pos = new Position(rootPos);
-        m = new Move(m);
-        ArrayList<Move> ret = new ArrayList<Move>();
-        UndoInfo ui = new UndoInfo();
-        List<Long> hashHistory = new ArrayList<Long>();
-        MoveGen moveGen = new MoveGen();
-        while (true) {
-            ret.add(m);
-            pos.makeMove(m, ui);
-            if (hashHistory.contains(pos.zobristHash())) {
-                break;
+    public final void save(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            ch.truncate(0);
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(FILE_MAGIC);
+            buf.putInt(FILE_VERSION);
+            buf.putInt(63 - Long.numberOfLeadingZeros(getSize()));
+            buf.putInt(generation & 0xff);
+            buf.putInt(buckets ? 1 : 0);
+            buf.position(FILE_HEADER_SIZE);
+            final long numWords = getSize() * 2;
+            for (long i = 0; i < numWords; i++) {
+                if (!buf.hasRemaining())
+                    writeBuffer(ch, buf);
+                buf.putLong(getWord(i));
             }
-            hashHistory.add(pos.zobristHash());
-            TTEntry ent = probe(pos.historyHash());
-            if (ent.type == TTEntry.T_EMPTY) {
-                break;
+            writeBuffer(ch, buf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static final void writeBuffer(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Load a table previously saved by save(). The file is memory mapped, so pages are only
+     * read from disk when they are accessed. Changes to the table are not written back to
+     * the file. Entries from the file are considered older than all entries inserted after
+     * loading.
+     * <p>
+     * The file must be writable, even though it is never modified, because a private
+     * (copy-on-write) mapping can only be created from a file opened for writing.
+     * @throws IOException  If the file can not be read or written, or has an incompatible format.
+     */
+    public static TranspositionTable load(String fileName) throws IOException {
+        File f = new File(fileName);
+        if (!f.isFile())
+            throw new FileNotFoundException(fileName);
+        if (!f.canWrite())
+            throw new IOException("Hash file must be writable: " + fileName);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer hdr = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (hdr.hasRemaining() && (ch.read(hdr) >= 0))
+                ;
+            hdr.flip();
+            if ((hdr.remaining() < FILE_HEADER_SIZE) || (hdr.getInt() != FILE_MAGIC) ||
+                (hdr.getInt() != FILE_VERSION))
+                throw new IOException("Incompatible hash file: " + fileName);
+            int log2Size = hdr.getInt();
+            int gen = hdr.getInt();
+            boolean buckets = hdr.getInt() != 0;
+            if ((log2Size < 0) || (log2Size > 40))
+                throw new IOException("Incompatible hash file: " + fileName);
+            final long numWords = 2L << log2Size;
+            if (ch.size() != FILE_HEADER_SIZE + numWords * 8)
+                throw new IOException("Truncated hash file: " + fileName);
+            int nSegs = (int)((numWords + SEG_MASK) >>> SEG_LOG_SIZE);
+            LongBuffer[] segments = new LongBuffer[nSegs];
+            for (int i = 0; i < nSegs; i++) {
+                long offs = (long)i << SEG_LOG_SIZE;
+                long segWords = Math.min(numWords - offs, 1 << SEG_LOG_SIZE);
+                segments[i] = ch.map(FileChannel.MapMode.PRIVATE, FILE_HEADER_SIZE + offs * 8, segWords * 8)
+                                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
             }
-            m = new Move(0,0,0);
-            ent.getMove(m);
-            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
-            boolean contains = false;
-            for (int mi = 0; mi < moves.size; mi++)
-                if (moves.m[mi].equals(m)) {
-                    contains = true;
-                    break;
-                }
-            if  (!contains)
-                break;
+            TranspositionTable tt = new TranspositionTable(segments, log2Size, buckets);
+            tt.generation = (byte)(gen + 1);
+            return tt;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Set table words in the range [start,end) to zero. */
+    private final void clearRange(long start, long end) {
+        if (table != null) {
+            Arrays.fill(table, (int)start, (int)end, 0);
+            return;
+        }
+        long[] zeros = new long[4096];
+        while (start < end) {
+            LongBuffer seg = segments[(int)(start >>> SEG_LOG_SIZE)].duplicate();
+            int offs = (int)start & SEG_MASK;
+            int len = (int)Math.min(end - start, seg.capacity() - offs);
+            seg.position(offs);
+            for (int i = 0; i < len; i += zeros.length)
+                seg.put(zeros, 0, Math.min(zeros.length, len - i));
+            start += len;
         }
-        return ret;
     }
 
     /** Extract the PV starting from pos, using hash entries, both exact scores and bounds. */
@@ -263,7 +681,7 @@ public class TranspositionTable {
         UndoInfo ui = new UndoInfo();
         ArrayList<Long> hashHistory = new ArrayList<Long>();
         boolean repetition = false;
-        MoveGen moveGen = MoveGen.instance;
+        MoveGen moveGen = new MoveGen();
         while (ent.type != TTEntry.T_EMPTY) {
             String type = "";
             if (ent.type == TTEntry.T_LE) {
@@ -277,7 +695,7 @@ public class TranspositionTable {
             MoveGen.removeIllegal(pos, moves);
             boolean contains = false;
             for (int mi = 0; mi < moves.size; mi++)
-                if (moves.m[mi].equals(m)) {
+                if (moves.getMove(mi).equals(m)) {
                     contains = true;
                     break;
                 }
@@ -311,21 +729,25 @@ public class TranspositionTable {
         for (int i = 0; i < maxDepth; i++) {
             depHist.add(0);
         }
-        for (TTEntry ent : table) {
-            if (ent.type == TTEntry.T_EMPTY) {
+        final int gen = generation & GEN_MASK;
+        final long numEntries = getSize();
+        for (long i = 0; i < numEntries; i++) {
+            long data = dataWord(i);
+            if (getType(data) == TTEntry.T_EMPTY) {
                 unused++;
             } else {
-                if (ent.generation == generation) {
+                if (getGeneration(keyWord(i), data) == gen) {
                     thisGen++;
                 }
-                if (ent.getDepth() < maxDepth) {
-                    depHist.set(ent.getDepth(), depHist.get(ent.getDepth()) + 1);
+                int depth = getDepth(data);
+                if (depth < maxDepth) {
+                    depHist.set(depth, depHist.get(depth) + 1);
                 }
             }
         }
-        double w = 100.0 / table.length;
+        double w = 100.0 / numEntries;
         System.out.printf("Hash stats: size:%d unused:%d (%.2f%%) thisGen:%d (%.2f%%)\n",
-                          table.length, unused, unused*w, thisGen, thisGen*w);
+                          numEntries, unused, unused*w, thisGen, thisGen*w);
         for (int i = 0; i < maxDepth; i++) {
             int c = depHist.get(i);
             if (c > 0)
@@ -333,11 +755,45 @@ public class TranspositionTable {
         }
     }
     
-    private final int h0(long key) {
-        return (int)(key & (table.length - 1));
+    private final long h0(long key) {
+        return (key >>> 4) & mask;
     }
-    
-    private final int h1(long key) {
-        return (int)((key >> 32) & (table.length - 1));
+
+    private final long h1(long key) {
+        return Long.rotateRight(key, 32) & mask;
+    }
+
+    /** Return table word i. */
+    private final long getWord(long i) {
+        if (table != null)
+            return table[(int)i];
+        return segments[(int)(i >>> SEG_LOG_SIZE)].get((int)i & SEG_MASK);
+    }
+
+    /** Return the first word (key xor data) of entry idx. */
+    private final long keyWord(long idx) {
+        return getWord(idx * 2);
+    }
+
+    /** Return the second word (data) of entry idx. */
+    private final long dataWord(long idx) {
+        return getWord(idx * 2 + 1);
+    }
+
+    /**
+     * Store key and data in entry idx. The lowest 4 bits of key must be zero.
+     * Generation bit 0-3 must already be stored in data, bit 4-7 is stored in the key word.
+     */
+    private final void setEntry(long idx, long key, long data, int gen) {
+        final long kw = (key | ((gen >>> 4) & 0xf)) ^ data;
+        if (table != null) {
+            table[(int)idx * 2] = kw;
+            table[(int)idx * 2 + 1] = data;
+        } else {
+            long i = idx * 2;
+            LongBuffer seg = segments[(int)(i >>> SEG_LOG_SIZE)];
+            seg.put((int)i & SEG_MASK, kw);
+            seg.put(((int)i & SEG_MASK) + 1, data);
+        }
     }
 }
@@ -142,17 +142,17 @@ public final class TreeLogger {
     /** 
      * Log information when entering a search node.
      * @param parentId     Index of parent node.
-     * @param m            Move made to go from parent node to this node
+     * @param m            Packed move made to go from parent node to this node
      * @param alpha        Search parameter
      * @param beta         Search parameter
      * @param ply          Search parameter
      * @param depth        Search parameter
      * @return node index
      */
-    final long logNodeStart(long parentIndex, Move m, int alpha, int beta, int ply, int depth) {
+    final long logNodeStart(long parentIndex, int m, int alpha, int beta, int ply, int depth) {
         bb.putInt  ( 0, (int)-1);
         bb.putInt  ( 4, (int)parentIndex);
-        bb.putShort( 8, (short)(m.from + (m.to << 6) + (m.promoteTo << 12)));
+        bb.putShort( 8, (short)Move.noScore(m));
         bb.putShort(10, (short)alpha);
         bb.putShort(12, (short)beta);
         bb.put     (14, (byte)ply);
@@ -442,7 +442,7 @@ public class ChessController {
         MoveGen.removeIllegal(pos, moves);
         int promoteTo = move.promoteTo;
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             if ((m.from == move.from) && (m.to == move.to)) {
                 if ((m.promoteTo != Piece.EMPTY) && (promoteTo == Piece.EMPTY)) {
                     promoteMove = m;
@@ -0,0 +1,186 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class AttackInfoTest {
+
+    public AttackInfoTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static final String[] fens = {
+        TextIO.startPosFEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+    };
+
+    /**
+     * Play random games from some start positions and call check for all positions.
+     * The same AttackInfo object is used for all positions, to test that it is
+     * recomputed when the position changes.
+     */
+    private static int forAllPositions(PositionCheck check) throws ChessParseError {
+        Random rnd = new Random(4711);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        AttackInfo ai = new AttackInfo();
+        int nPos = 0;
+        for (String fen : fens) {
+            for (int game = 0; game < 20; game++) {
+                Position pos = TextIO.readFEN(fen);
+                for (int ply = 0; ply < 100; ply++) {
+                    MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+                    MoveGen.removeIllegal(pos, moves);
+                    if (moves.size == 0) {
+                        moveGen.returnMoveList(moves);
+                        break;
+                    }
+                    check.check(pos, ai);
+                    nPos++;
+                    pos.makeMove(moves.m[rnd.nextInt(moves.size)], ui);
+                    moveGen.returnMoveList(moves);
+                }
+            }
+        }
+        return nPos;
+    }
+
+    private interface PositionCheck {
+        void check(Position pos, AttackInfo ai);
+    }
+
+    /**
+     * Test of computeCheckInfo method, of class AttackInfo.
+     */
+    @Test
+    public void testCheckInfo() throws ChessParseError {
+        System.out.println("checkInfo");
+        final MoveGen moveGen = new MoveGen();
+        int nPos = forAllPositions(new PositionCheck() {
+            public void check(Position pos, AttackInfo ai) {
+                assertEquals(MoveGen.inCheck(pos), MoveGen.inCheck(pos, ai));
+                assertEquals(MoveGen.canTakeKing(pos), MoveGen.canTakeKing(pos, ai));
+                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+                for (int mi = 0; mi < moves.size; mi++) {
+                    int m = moves.m[mi];
+                    assertEquals(MoveGen.givesCheck(pos, m), MoveGen.givesCheck(pos, m, ai));
+                }
+                moveGen.returnMoveList(moves);
+
+                ai.computeCheckInfo(pos);
+                boolean wtm = pos.whiteMove;
+                long kingBB = 1L << pos.getKingSq(wtm);
+                long own = (wtm ? pos.whiteBB : pos.blackBB) & ~kingBB;
+                // A piece gives check if the king is still in check when all other opponent
+                // pieces are replaced by own pawns, which keeps the occupied squares unchanged.
+                boolean inCheck = MoveGen.inCheck(pos);
+                long opp = (wtm ? pos.blackBB : pos.whiteBB) & ~(1L << pos.getKingSq(!wtm));
+                long checkers = 0;
+                for (int sq = 0; sq < 64; sq++) {
+                    if ((opp & (1L << sq)) == 0)
+                        continue;
+                    Position tmp = new Position(pos);
+                    for (int sq2 = 0; sq2 < 64; sq2++)
+                        if ((sq2 != sq) && ((opp & (1L << sq2)) != 0))
+                            tmp.setPiece(sq2, wtm ? Piece.WPAWN : Piece.BPAWN);
+                    if (MoveGen.inCheck(tmp))
+                        checkers |= 1L << sq;
+                }
+                assertEquals(checkers, ai.checkers);
+                assertEquals(inCheck, checkers != 0);
+
+                // A piece is pinned if removing it exposes the king to a new slider attack
+                // and discovers check if removing it lets a slider attack the opponent king.
+                boolean kingCapture = MoveGen.canTakeKing(pos);
+                for (int sq = 0; sq < 64; sq++) {
+                    if ((own & (1L << sq)) == 0)
+                        continue;
+                    int p = pos.getPiece(sq);
+                    pos.setPiece(sq, Piece.EMPTY);
+                    if (!inCheck)
+                        assertEquals(MoveGen.inCheck(pos), (ai.pinned & (1L << sq)) != 0);
+                    if (!kingCapture)
+                        assertEquals(MoveGen.canTakeKing(pos), (ai.discCheckers & (1L << sq)) != 0);
+                    pos.setPiece(sq, p);
+                }
+            }
+        });
+        assertTrue(nPos > 5000);
+    }
+
+    /**
+     * Test of computeAttacks method, of class AttackInfo.
+     */
+    @Test
+    public void testAttacks() throws ChessParseError {
+        System.out.println("attacks");
+        forAllPositions(new PositionCheck() {
+            public void check(Position pos, AttackInfo ai) {
+                ai.computeAttacks(pos);
+                boolean wtm = pos.whiteMove;
+                for (int sq = 0; sq < 64; sq++) {
+                    long mask = 1L << sq;
+                    pos.setWhiteMove(true);
+                    assertEquals(MoveGen.sqAttacked(pos, sq), (ai.bAttacks & mask) != 0);
+                    pos.setWhiteMove(false);
+                    assertEquals(MoveGen.sqAttacked(pos, sq), (ai.wAttacks & mask) != 0);
+                    assertEquals((BitBoard.bPawnAttacks[sq] & pos.pieceTypeBB[Piece.WPAWN]) != 0,
+                                 (ai.wPawnAttacks & mask) != 0);
+                    assertEquals((BitBoard.wPawnAttacks[sq] & pos.pieceTypeBB[Piece.BPAWN]) != 0,
+                                 (ai.bPawnAttacks & mask) != 0);
+                    assertEquals((BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.WKNIGHT]) != 0,
+                                 (ai.wKnightAttacks & mask) != 0);
+                    assertEquals((BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.BKNIGHT]) != 0,
+                                 (ai.bKnightAttacks & mask) != 0);
+                }
+                pos.setWhiteMove(wtm);
+            }
+        });
+    }
+}
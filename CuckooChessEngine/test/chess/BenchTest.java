@@ -0,0 +1,81 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class BenchTest {
+
+    public BenchTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of run method, of class Bench.
+     */
+    @Test
+    public void testRun() throws ChessParseError {
+        System.out.println("run");
+        for (String fen : Bench.fens) {
+            Position pos = TextIO.readFEN(fen);
+            assertEquals(fen, TextIO.toFEN(pos));
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream os = new PrintStream(bos);
+        long nodes1 = Bench.run(1, 4, 1, os);
+        os.flush();
+        String out = bos.toString();
+        assertTrue(nodes1 > 0);
+        assertTrue(out.contains("Nodes searched: " + nodes1));
+        String[] lines = out.split("\n");
+        assertEquals(Bench.fens.length + 4, lines.length);
+
+        // Node counts only depend on the search algorithm, not on earlier searches
+        long nodes2 = Bench.run(1, 4, 1, new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(nodes1, nodes2);
+    }
+}
@@ -138,6 +138,42 @@ public class BitBoardTest {
                 assertEquals(computeDistance(from, to), BitBoard.getDistance(from, to));
     }
 
+    private static final long computeSliderAttacks(int sq, long occupied, boolean rook) {
+        long ret = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if (((dx == 0) && (dy == 0)) || (((dx == 0) || (dy == 0)) != rook))
+                    continue;
+                int x = Position.getX(sq) + dx;
+                int y = Position.getY(sq) + dy;
+                while ((x >= 0) && (x < 8) && (y >= 0) && (y < 8)) {
+                    int sq2 = Position.getSquare(x, y);
+                    ret |= 1L << sq2;
+                    if ((occupied & (1L << sq2)) != 0)
+                        break;
+                    x += dx;
+                    y += dy;
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Test
+    public void testSliderAttacks() {
+        System.out.println("sliderAttacks");
+        java.util.Random rnd = new java.util.Random(4711);
+        for (int sq = 0; sq < 64; sq++) {
+            for (int i = 0; i < 1000; i++) {
+                long occupied = rnd.nextLong() & rnd.nextLong();
+                if (i % 2 == 0)
+                    occupied &= rnd.nextLong();
+                assertEquals(computeSliderAttacks(sq, occupied, true), BitBoard.rookAttacks(sq, occupied));
+                assertEquals(computeSliderAttacks(sq, occupied, false), BitBoard.bishopAttacks(sq, occupied));
+            }
+        }
+    }
+
     @Test
     public void testTrailingZeros() {
         System.out.println("trailingZeros");
@@ -76,7 +76,7 @@ public class BookTest {
         MoveGen.removeIllegal(pos, moveList);
         boolean contains = false;
         for (int mi = 0; mi < moveList.size; mi++)
-            if (moveList.m[mi].equals(move)) {
+            if (moveList.getMove(mi).equals(move)) {
                 contains = true;
                 break;
             }
@@ -18,6 +18,9 @@
 
 package chess;
 
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -474,6 +477,115 @@ public class EvaluateTest {
         assertTrue(evalWhite(pos) < -winScore + pV);
     }
 
+    /**
+     * Test that evaluation caches give the same scores as a fresh evaluation,
+     * also when several evaluators are used concurrently by different threads.
+     */
+    @Test
+    public void testEvalCache() throws Throwable {
+        System.out.println("evalCache");
+        // Collect positions from random games
+        final ArrayList<Position> positions = new ArrayList<Position>();
+        Random rnd = new Random(4711);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        for (int game = 0; game < 20; game++) {
+            Position pos = TextIO.readFEN(TextIO.startPosFEN);
+            for (int ply = 0; ply < 150; ply++) {
+                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+                MoveGen.removeIllegal(pos, moves);
+                if (moves.size == 0)
+                    break;
+                pos.makeMove(moves.m[rnd.nextInt(moves.size)], ui);
+                positions.add(new Position(pos));
+                moveGen.returnMoveList(moves);
+            }
+        }
+        final int nPos = positions.size();
+
+        // Reference scores, computed with an empty cache for each position
+        final int[] refScores = new int[nPos];
+        for (int i = 0; i < nPos; i++)
+            refScores[i] = new Evaluate(1).evalPos(positions.get(i));
+
+        // Small caches, so that entries are frequently replaced
+        final int nThreads = 4;
+        final AtomicInteger nErrors = new AtomicInteger(0);
+        final Evaluate[] evals = new Evaluate[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final Evaluate eval = new Evaluate(1);
+            final int seed = t;
+            evals[t] = eval;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random r = new Random(seed);
+                    for (int n = 0; n < 100000; n++) {
+                        int i = r.nextInt(nPos);
+                        if (eval.evalPos(positions.get(i)) != refScores[i])
+                            nErrors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, nErrors.get());
+
+        for (Evaluate eval : evals) {
+            Evaluate.CacheStats stats = eval.getCacheStats();
+            assertEquals(100000, stats.evalProbes);
+            assertTrue(stats.evalHits > 0);
+            assertTrue(stats.evalHits < stats.evalProbes);
+            assertTrue(stats.pawnHits > 0);
+            assertTrue(stats.pawnHits < stats.pawnProbes);
+            assertTrue(stats.kingHits > 0);
+            assertTrue(stats.kingHits <= stats.kingProbes);
+            eval.resetCacheStats();
+            assertEquals(0, eval.getCacheStats().evalProbes);
+        }
+    }
+
+    /**
+     * Test of evalPos method with an alpha/beta window, of class Evaluate.
+     */
+    @Test
+    public void testLazyEval() throws ChessParseError {
+        System.out.println("lazyEval");
+        Position pos = TextIO.readFEN("r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N2N2/PP2BPPP/R2QKB1R w KQ - 0 8");
+        final int score = new Evaluate().evalPos(pos);
+        final int margin = Parameters.instance().getIntPar("LazyEvalMargin");
+        assertTrue(margin > 0);
+
+        // Window containing the score, full evaluation needed
+        Evaluate eval = new Evaluate();
+        assertEquals(score, eval.evalPos(pos, score - 1, score + 1));
+        assertEquals(0, eval.getCacheStats().lazyExits);
+
+        // Window far away from the score, expensive terms skipped
+        eval = new Evaluate();
+        int lazyScore = eval.evalPos(pos, score + 2 * margin, score + 2 * margin + 1);
+        assertEquals(1, eval.getCacheStats().lazyExits);
+        assertTrue(lazyScore < score + 2 * margin);
+        assertTrue(Math.abs(lazyScore - score) < margin);
+        lazyScore = eval.evalPos(pos, score - 2 * margin - 1, score - 2 * margin);
+        assertEquals(2, eval.getCacheStats().lazyExits);
+        assertTrue(lazyScore > score - 2 * margin);
+
+        // Lazy scores are not stored in the evaluation cache
+        assertEquals(score, eval.evalPos(pos));
+        assertEquals(score, eval.evalPos(pos, score + 2 * margin, score + 2 * margin + 1));
+        assertEquals(2, eval.getCacheStats().lazyExits);
+
+        // No lazy evaluation in end games, where endGameEval can change the score a lot
+        pos = TextIO.readFEN("8/8/8/3k4/3p4/3K4/4N3/8 w - - 0 1");
+        eval = new Evaluate();
+        eval.evalPos(pos, 5000, 5001);
+        assertEquals(0, eval.getCacheStats().lazyExits);
+    }
+
     /** Return static evaluation score for white, regardless of whose turn it is to move. */
     final static int evalWhite(Position pos) {
         Evaluate eval = new Evaluate();
@@ -426,6 +426,15 @@ public class GameTest {
 
         game.processString("setpos r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -");
         doTestPerfT(game.pos, 4, new long[]{48,2039,97862,4085603,193690690});
+
+        game.processString("setpos r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+        doTestPerfT(game.pos, 4, new long[]{6,264,9467,422333,15833292});
+
+        game.processString("setpos rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8");
+        doTestPerfT(game.pos, 3, new long[]{44,1486,62379,2103487,89941194});
+
+        game.processString("setpos r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+        doTestPerfT(game.pos, 3, new long[]{46,2079,89890,3894594});
     }
 
     private void doTestPerfT(Position pos, int maxDepth, long[] expectedNodeCounts) {
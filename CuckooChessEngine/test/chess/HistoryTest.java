@@ -58,8 +58,8 @@ public class HistoryTest {
         System.out.println("getHistScore");
         Position pos = TextIO.readFEN(TextIO.startPosFEN);
         History hs = new History();
-        Move m1 = TextIO.stringToMove(pos, "e4");
-        Move m2 = TextIO.stringToMove(pos, "d4");
+        int m1 = TextIO.stringToMove(pos, "e4").getPacked();
+        int m2 = TextIO.stringToMove(pos, "d4").getPacked();
         assertEquals(0, hs.getHistScore(pos, m1));
 
         hs.addSuccess(pos, m1, 1);
@@ -47,7 +47,7 @@ public class KillerTableTest {
     public void testAddKiller() {
         System.out.println("addKiller");
         KillerTable kt = new KillerTable();
-        Move m = new Move(TextIO.getSquare("b1"), TextIO.getSquare("b5"), Piece.EMPTY);
+        int m = Move.pack(TextIO.getSquare("b1"), TextIO.getSquare("b5"), Piece.EMPTY);
         kt.addKiller(3, m);
         kt.addKiller(7, m);
         kt.addKiller(3, m);
@@ -61,20 +61,20 @@ public class KillerTableTest {
     public void testGetKillerScore() {
         System.out.println("getKillerScore");
         KillerTable kt = new KillerTable();
-        Move m1 = new Move(TextIO.getSquare("b1"), TextIO.getSquare("b5"), Piece.EMPTY);
-        Move m2 = new Move(TextIO.getSquare("c1"), TextIO.getSquare("d2"), Piece.EMPTY);
-        Move m3 = new Move(TextIO.getSquare("e1"), TextIO.getSquare("g1"), Piece.EMPTY);
+        int m1 = Move.pack(TextIO.getSquare("b1"), TextIO.getSquare("b5"), Piece.EMPTY);
+        int m2 = Move.pack(TextIO.getSquare("c1"), TextIO.getSquare("d2"), Piece.EMPTY);
+        int m3 = Move.pack(TextIO.getSquare("e1"), TextIO.getSquare("g1"), Piece.EMPTY);
         kt.addKiller(0, m1);
         assertEquals(4, kt.getKillerScore(0, m1));
         assertEquals(0, kt.getKillerScore(0, m2));
-        assertEquals(0, kt.getKillerScore(0, new Move(m2)));
+        assertEquals(0, kt.getKillerScore(0, Move.setScore(m2, 17)));
         kt.addKiller(0, m1);
         assertEquals(4, kt.getKillerScore(0, m1));
         kt.addKiller(0, m2);
         assertEquals(4, kt.getKillerScore(0, m2));
-        assertEquals(4, kt.getKillerScore(0, new Move(m2)));    // Must compare by value
+        assertEquals(4, kt.getKillerScore(0, Move.setScore(m2, 17)));    // Must compare by value
         assertEquals(3, kt.getKillerScore(0, m1));
-        kt.addKiller(0, new Move(m2));
+        kt.addKiller(0, Move.setScore(m2, 17));
         assertEquals(4, kt.getKillerScore(0, m2));
         assertEquals(3, kt.getKillerScore(0, m1));
         assertEquals(0, kt.getKillerScore(0, m3));
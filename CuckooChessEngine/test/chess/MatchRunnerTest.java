@@ -0,0 +1,173 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class MatchRunnerTest {
+
+    public MatchRunnerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of Stats class, of class MatchRunner.
+     */
+    @Test
+    public void testStats() {
+        System.out.println("stats");
+        MatchRunner.Stats s = new MatchRunner.Stats();
+        assertEquals(0, s.games());
+        assertEquals(0.0, s.llr(0, 10), 1e-9);
+
+        s.wins = 60;
+        s.losses = 40;
+        assertEquals(0.6, s.score(), 1e-9);
+        assertEquals(70.4, s.elo(), 0.1);
+        assertEquals(0.977, s.los(), 0.001);
+        assertTrue(s.eloError() > 0);
+
+        s.wins = s.losses = 50;
+        assertEquals(0.0, s.elo(), 1e-9);
+        assertEquals(0.5, s.los(), 1e-9);
+
+        // A clearly better engine is accepted by the SPRT, a clearly worse one is rejected
+        MatchRunner mr = new MatchRunner(new MatchRunner.Engine("a", null, null),
+                                         new MatchRunner.Engine("b", null, null), 1, 1);
+        assertNull(mr.sprtResult(s));
+        mr.setSPRT(0, 10, 0.05, 0.05);
+        assertEquals(-2.944, mr.sprtLowerBound(), 0.001);
+        assertEquals(2.944, mr.sprtUpperBound(), 0.001);
+        assertNull(mr.sprtResult(s));
+        s.wins = 600; s.losses = 400; s.draws = 1000;
+        assertEquals("H1", mr.sprtResult(s));
+        s.wins = 400; s.losses = 600;
+        assertEquals("H0", mr.sprtResult(s));
+
+        assertEquals(0.0, MatchRunner.erf(0), 1e-7);
+        assertEquals(0.8427008, MatchRunner.erf(1), 1e-6);
+        assertEquals(-0.8427008, MatchRunner.erf(-1), 1e-6);
+    }
+
+    /**
+     * Test of bookOpenings method, of class MatchRunner.
+     */
+    @Test
+    public void testBookOpenings() throws ChessParseError {
+        System.out.println("bookOpenings");
+        List<String> o1 = MatchRunner.bookOpenings(10, 6, 17);
+        List<String> o2 = MatchRunner.bookOpenings(10, 6, 17);
+        assertEquals(10, o1.size());
+        assertEquals(o1, o2);
+        for (String fen : o1) {
+            Position pos = TextIO.readFEN(fen);
+            assertTrue(pos.fullMoveCounter > 1);
+        }
+    }
+
+    /**
+     * Test that main rejects parameters that can not differ between the engines.
+     */
+    @Test
+    public void testParamOption() throws Exception {
+        System.out.println("paramOption");
+        assertTrue(Evaluate.isInstanceParam("LazyEvalMargin"));
+        assertTrue(Evaluate.isInstanceParam("lazyevalmargin"));
+        for (String par : new String[]{ "pV", "nV", "bV", "rV", "qV" }) {
+            assertFalse(Evaluate.isInstanceParam(par));
+            try {
+                MatchRunner.main(new String[]{ "games", "0", "b.param", par + "=10" });
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(par));
+            }
+        }
+    }
+
+    /**
+     * Test of run method, of class MatchRunner.
+     */
+    @Test
+    public void testRun() {
+        System.out.println("run");
+        Parameters p = Parameters.instance().copy();
+        p.set("LazyEvalMargin", "50");
+        assertEquals(50, p.getIntPar("LazyEvalMargin"));
+        assertEquals(200, Parameters.instance().getIntPar("LazyEvalMargin"));
+
+        MatchRunner mr = new MatchRunner(new MatchRunner.Engine("base", null, null),
+                                         new MatchRunner.Engine("test", p, null), 2, 1);
+        mr.setLimits(-1, 2, -1);
+        mr.setAdjudication(500, 2, 10, 4, 20, 60);
+        List<String> openings = new ArrayList<String>();
+        openings.add(TextIO.startPosFEN);
+        openings.add("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream pgn = new ByteArrayOutputStream();
+        MatchRunner.Stats s = mr.run(openings, 4, new PrintStream(log), new PrintStream(pgn));
+        assertEquals(4, s.games());
+
+        String pgnStr = pgn.toString();
+        assertEquals(4, pgnStr.split("\\[Event ").length - 1);
+        for (int r = 1; r <= 4; r++)
+            assertTrue(pgnStr.contains("[Round \"" + r + "\"]"));
+        assertTrue(pgnStr.contains("[White \"base\"]\n[Black \"test\"]") ||
+                   pgnStr.contains("[White \"base\"]\r\n[Black \"test\"]"));
+        assertTrue(pgnStr.contains("[White \"test\"]"));
+        assertTrue(pgnStr.contains("[FEN \"" + openings.get(1) + "\"]"));
+        assertTrue(pgnStr.contains("3. "));
+        assertTrue(log.toString().contains("Score of base vs test:"));
+
+        // Games with a fixed depth are reproducible
+        MatchRunner.GameRecord g1 = mr.playGame(1, openings.get(1), 0);
+        MatchRunner.GameRecord g2 = mr.playGame(1, openings.get(1), 0);
+        assertEquals(g1.moves, g2.moves);
+        assertEquals(g1.result, g2.result);
+        assertTrue(g1.moves.size() <= 60);
+    }
+}
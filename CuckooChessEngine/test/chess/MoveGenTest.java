@@ -351,6 +351,60 @@ public class MoveGenTest {
         assertEquals(1, strMoves.size());
     }
     
+    /**
+     * Test of legalMoves method, of class MoveGen.
+     * The result is compared to playing each pseudo-legal move and testing if the king can be captured.
+     */
+    @Test
+    public void testLegalMoves() throws ChessParseError {
+        System.out.println("legalMoves");
+        String[] fens = {
+            TextIO.startPosFEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "8/6p1/4p3/2k1Pp1B/4KP1p/6rP/8/8 w - f6 0 55"
+        };
+        java.util.Random rnd = new java.util.Random(11);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        int nPos = 0;
+        for (String fen : fens) {
+            for (int game = 0; game < 20; game++) {
+                Position pos = TextIO.readFEN(fen);
+                for (int ply = 0; ply < 100; ply++) {
+                    MoveGen.MoveList legal = moveGen.legalMoves(pos);
+                    MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+                    int nLegal = 0;
+                    for (int mi = 0; mi < moves.size; mi++) {
+                        int m = moves.m[mi];
+                        pos.makeMove(m, ui);
+                        boolean valid = !MoveGen.canTakeKing(pos);
+                        pos.unMakeMove(m, ui);
+                        if (valid) {
+                            boolean found = false;
+                            for (int li = 0; li < legal.size; li++)
+                                if (legal.m[li] == m)
+                                    found = true;
+                            assertTrue(found);
+                            nLegal++;
+                        }
+                    }
+                    assertEquals(nLegal, legal.size);
+                    moveGen.returnMoveList(moves);
+                    nPos++;
+                    if (legal.size == 0) {
+                        moveGen.returnMoveList(legal);
+                        break;
+                    }
+                    pos.makeMove(legal.m[rnd.nextInt(legal.size)], ui);
+                    moveGen.returnMoveList(legal);
+                }
+            }
+        }
+        assertTrue(nPos > 5000);
+    }
+
     /**
      * Test that if king capture is possible, only a king capture move is returned in the move list.
      */
@@ -402,6 +456,37 @@ public class MoveGenTest {
         getMoveList(pos, false);
     }
 
+    /**
+     * Test of isPseudoLegal method, of class MoveGen.
+     */
+    @Test
+    public void testIsPseudoLegal() throws ChessParseError {
+        System.out.println("isPseudoLegal");
+        Position pos = TextIO.readFEN("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        getMoveList(pos, false);
+        assertTrue(MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e1g1")));
+        assertTrue(MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e1c1")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e8g8")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("a2a5")));
+
+        // En passant and promotions
+        pos = TextIO.readFEN("1n2k3/P7/8/3pP3/8/8/8/4K3 w - d6 0 1");
+        getMoveList(pos, false);
+        assertTrue(MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e5d6")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e5f6")));
+        assertTrue(MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("a7b8r")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("a7a8")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, new Move(48, 56, Piece.BQUEEN)));
+
+        // Castling through an attacked square
+        pos = TextIO.readFEN("r3k2r/8/8/8/8/8/8/R3K1r1 w KQkq - 0 1");
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e1g1")));
+        pos = TextIO.readFEN("r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1");
+        getMoveList(pos, false);
+        assertTrue(MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e8c8")));
+        assertTrue(!MoveGen.isPseudoLegal(pos, TextIO.uciStringToMove("e1g1")));
+    }
+
     @Test
     public void testCheckEvasions() throws ChessParseError {
         System.out.println("checkEvasions");
@@ -441,11 +526,14 @@ public class MoveGenTest {
             MoveGen.removeIllegal(pos, moves);
         ArrayList<String> strMoves = new ArrayList<String>();
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             String mStr = TextIO.moveToUCIString(m);
             strMoves.add(mStr);
         }
 
+        if (!onlyLegal && !MoveGen.canTakeKing(pos))
+            checkPseudoLegal(pos, strMoves);
+
         List<String> capList1 = getCaptureList(pos, false, onlyLegal);
         assertTrue(strMoves.containsAll(capList1));
 
@@ -508,6 +596,26 @@ public class MoveGenTest {
         return strMoves;
     }
 
+    /** Check that MoveGen.isPseudoLegal() accepts exactly the moves in strMoves. */
+    private void checkPseudoLegal(Position pos, List<String> strMoves) {
+        Move m = new Move(0, 0, Piece.EMPTY);
+        int nLegal = 0;
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                for (int prom = 0; prom < 16; prom++) {
+                    m.from = from;
+                    m.to = to;
+                    m.promoteTo = prom;
+                    if (MoveGen.isPseudoLegal(pos, m)) {
+                        assertTrue(strMoves.contains(TextIO.moveToUCIString(m)));
+                        nLegal++;
+                    }
+                }
+            }
+        }
+        assertEquals(strMoves.size(), nLegal);
+    }
+
     private List<String> getCaptureList(Position pos, boolean includeChecks, boolean onlyLegal) {
         MoveGen.MoveList moves;
         if (includeChecks) {
@@ -519,7 +627,7 @@ public class MoveGenTest {
             MoveGen.removeIllegal(pos, moves);
         ArrayList<String> strMoves = new ArrayList<String>();
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             String mStr = TextIO.moveToUCIString(m);
             strMoves.add(mStr);
         }
@@ -534,7 +642,7 @@ public class MoveGenTest {
             MoveGen.removeIllegal(pos, moves);
         ArrayList<String> strMoves = new ArrayList<String>();
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             String mStr = TextIO.moveToUCIString(m);
             strMoves.add(mStr);
         }
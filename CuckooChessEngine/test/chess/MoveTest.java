@@ -81,4 +81,30 @@ public class MoveTest {
         assertTrue(!m1.equals(m4));
         assertTrue(m1.equals(m5));
     }
+
+    /**
+     * Test of packed move representation, of class Move.
+     */
+    @Test
+    public void testPacked() {
+        System.out.println("packed");
+        int f = Position.getSquare(6, 6);
+        int t = Position.getSquare(7, 7);
+        for (int score : new int[]{ 0, 1, -1, 10000, -32000, 32000 }) {
+            int m = Move.pack(f, t, Piece.BQUEEN, score);
+            assertEquals(f, Move.getFrom(m));
+            assertEquals(t, Move.getTo(m));
+            assertEquals(Piece.BQUEEN, Move.getPromoteTo(m));
+            assertEquals(score, Move.getScore(m));
+            assertEquals(Move.pack(f, t, Piece.BQUEEN), Move.noScore(m));
+            assertEquals(m, Move.setScore(Move.pack(f, t, Piece.BQUEEN, 17), score));
+
+            Move move = Move.fromPacked(m);
+            assertEquals(new Move(f, t, Piece.BQUEEN), move);
+            assertEquals(score, move.score);
+            assertEquals(m, move.getPacked());
+        }
+        assertTrue(Move.isEmpty(0));
+        assertTrue(!Move.isEmpty(Move.pack(f, t, Piece.EMPTY)));
+    }
 }
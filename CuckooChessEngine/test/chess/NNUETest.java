@@ -0,0 +1,207 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class NNUETest {
+
+    public NNUETest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    /** Write a network with random weights to a temporary file and return the file name. */
+    private static String writeRandomNetwork(int nHidden, int nL2, int nL3, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        int size = 5 * 4 + (NNUE.N_INPUTS + 1) * nHidden * 2 + nL2 * 2 * nHidden + nL2 * 4 +
+                   nL3 * nL2 + nL3 * 4 + nL3 + 4;
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0x4e4e4343);
+        buf.putInt(1);
+        buf.putInt(nHidden);
+        buf.putInt(nL2);
+        buf.putInt(nL3);
+        for (int i = 0; i < (NNUE.N_INPUTS + 1) * nHidden; i++)
+            buf.putShort((short)(rnd.nextInt(41) - 20));
+        for (int i = 0; i < nL2 * 2 * nHidden; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        for (int i = 0; i < nL2; i++)
+            buf.putInt(rnd.nextInt(2000) - 1000);
+        for (int i = 0; i < nL3 * nL2; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        for (int i = 0; i < nL3; i++)
+            buf.putInt(rnd.nextInt(2000) - 1000);
+        for (int i = 0; i < nL3; i++)
+            buf.put((byte)(rnd.nextInt(255) - 127));
+        buf.putInt(rnd.nextInt(2000) - 1000);
+        assertEquals(0, buf.remaining());
+
+        File f = File.createTempFile("nnue", ".bin");
+        f.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(f);
+        try {
+            os.write(buf.array());
+        } finally {
+            os.close();
+        }
+        return f.getAbsolutePath();
+    }
+
+    /** Check that the incrementally updated accumulator matches one computed from scratch. */
+    private static void checkAccumulator(Position pos) {
+        NNUE.Accumulator acc = pos.getAccumulator();
+        Position fresh = new Position(pos);
+        fresh.setAccumulator(acc.net.newAccumulator());
+        NNUE.Accumulator ref = fresh.getAccumulator();
+        for (int i = 0; i < acc.net.nHidden; i++) {
+            assertEquals(ref.white[i], acc.white[i]);
+            assertEquals(ref.black[i], acc.black[i]);
+        }
+    }
+
+    /**
+     * Test of incremental accumulator updates in makeMove and unMakeMove.
+     */
+    @Test
+    public void testIncrementalUpdate() throws IOException, ChessParseError {
+        System.out.println("incrementalUpdate");
+        NNUE net = NNUE.load(writeRandomNetwork(32, 8, 4, 1));
+        Position pos = TextIO.readFEN("rnbqkbnr/pppp1ppp/8/2P1p3/8/8/PP1PPPPP/RNBQKBNR b KQkq - 0 1");
+        pos.setAccumulator(net.newAccumulator());
+
+        // Includes en passant, castling, captures and promotion
+        String[] moves = {
+            "b5", "cxb6", "Nf6", "bxa7", "Be7", "Nc3", "O-O", "axb8N", "Rxa2", "Rxa2"
+        };
+        List<UndoInfo> uiList = new ArrayList<UndoInfo>();
+        List<Move> moveList = new ArrayList<Move>();
+        List<Integer> scoreList = new ArrayList<Integer>();
+        for (int i = 0; i < moves.length; i++) {
+            uiList.add(new UndoInfo());
+            Move m = TextIO.stringToMove(pos, moves[i]);
+            moveList.add(m);
+            pos.makeMove(m, uiList.get(i));
+            checkAccumulator(pos);
+            scoreList.add(net.evalPos(pos));
+        }
+        for (int i = moves.length - 1; i >= 0; i--) {
+            assertEquals((int)scoreList.get(i), net.evalPos(pos));
+            pos.unMakeMove(moveList.get(i), uiList.get(i));
+            checkAccumulator(pos);
+        }
+
+        // A copied position gets its own accumulator
+        Position copy = new Position(pos);
+        assertTrue(copy.getAccumulator() != pos.getAccumulator());
+        UndoInfo ui = new UndoInfo();
+        copy.makeMove(TextIO.stringToMove(copy, "b5"), ui);
+        checkAccumulator(pos);
+        checkAccumulator(copy);
+    }
+
+    /**
+     * Test of evalPos method, of class NNUE.
+     */
+    @Test
+    public void testEvalPos() throws IOException, ChessParseError {
+        System.out.println("evalPos");
+        NNUE net = NNUE.load(writeRandomNetwork(64, 16, 8, 2));
+        String[] fens = {
+            TextIO.startPosFEN,
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "8/8/4k3/8/8/3K4/3p4/7Q b - - 0 1",
+            "2r3k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1"
+        };
+        for (String fen : fens) {
+            Position pos = TextIO.readFEN(fen);
+            assertNull(pos.getAccumulator());
+            int score = net.evalPos(pos);
+            assertNotNull(pos.getAccumulator());
+            assertEquals(score, net.evalPos(pos));
+
+            // The network sees the position from the side to move's point of view
+            Position symPos = EvaluateTest.swapColors(pos);
+            assertEquals(score, net.evalPos(symPos));
+
+            // Evaluate delegates to the network when one is set
+            Evaluate eval = new Evaluate();
+            eval.setNetwork(net);
+            assertEquals(score, eval.evalPos(pos));
+            assertEquals(score, eval.evalPos(pos, score + 1000, score + 1001));
+            eval.setNetwork(null);
+            assertEquals(new Evaluate().evalPos(pos), eval.evalPos(pos));
+        }
+
+        // A position with an accumulator for a different network gets a new one
+        NNUE net2 = NNUE.load(writeRandomNetwork(16, 4, 4, 3));
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        net.evalPos(pos);
+        net2.evalPos(pos);
+        assertTrue(pos.getAccumulator().net == net2);
+    }
+
+    /**
+     * Test of load method, of class NNUE.
+     */
+    @Test
+    public void testLoad() throws IOException {
+        System.out.println("load");
+        String fileName = writeRandomNetwork(8, 4, 2, 4);
+        NNUE net = NNUE.load(fileName);
+        assertEquals(8, net.nHidden);
+        assertEquals(4, net.nL2);
+        assertEquals(2, net.nL3);
+
+        File f = File.createTempFile("nnue", ".bin");
+        f.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(f);
+        try {
+            os.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        } finally {
+            os.close();
+        }
+        try {
+            NNUE.load(f.getAbsolutePath());
+            fail();
+        } catch (IOException ex) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class PerftTest {
+
+    public PerftTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static final String[] fens = {
+        TextIO.startPosFEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+    };
+
+    private static final long[][] expected = {
+        { 20, 400, 8902, 197281, 4865609 },
+        { 48, 2039, 97862, 4085603 },
+        { 14, 191, 2812, 43238, 674624 },
+        { 6, 264, 9467, 422333 },
+        { 44, 1486, 62379, 2103487 },
+    };
+
+    /**
+     * Test of perfT method, of class Perft.
+     */
+    @Test
+    public void testPerfT() throws ChessParseError {
+        System.out.println("perfT");
+        Perft[] perfts = { new Perft(0, 1), new Perft(1, 1), new Perft(16, 3) };
+        for (Perft perft : perfts) {
+            for (int i = 0; i < fens.length; i++) {
+                Position pos = TextIO.readFEN(fens[i]);
+                String fen = TextIO.toFEN(pos);
+                assertEquals(1, perft.perfT(pos, 0));
+                for (int d = 1; d <= expected[i].length; d++)
+                    assertEquals(expected[i][d-1], perft.perfT(pos, d));
+                assertEquals(fen, TextIO.toFEN(pos));
+            }
+            perft.shutdown();
+        }
+    }
+
+    /**
+     * Test of divide method, of class Perft.
+     */
+    @Test
+    public void testDivide() throws ChessParseError {
+        System.out.println("divide");
+        Position pos = TextIO.readFEN(fens[1]);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream os = new PrintStream(bos);
+        Perft perft = new Perft(4, 2);
+        assertEquals(97862, perft.divide(pos, 3, os));
+        perft.shutdown();
+        os.flush();
+        String[] lines = bos.toString().split("\n");
+        assertEquals(48 + 3, lines.length);
+        long sum = 0;
+        for (int i = 0; i < 48; i++) {
+            String[] s = lines[i].trim().split(": ");
+            Move m = TextIO.uciStringToMove(s[0]);
+            assertNotNull(m);
+            Position tmp = new Position(pos);
+            tmp.makeMove(m, new UndoInfo());
+            long n = Long.parseLong(s[1]);
+            assertEquals(Game.perfT(new MoveGen(), tmp, 2), n);
+            sum += n;
+        }
+        assertEquals(97862, sum);
+        assertEquals("Nodes searched: 97862", lines[48].trim());
+        assertEquals(TextIO.toFEN(TextIO.readFEN(fens[1])), TextIO.toFEN(pos));
+    }
+}
@@ -421,6 +421,49 @@ public class PositionTest {
         }
     }
 
+    /**
+     * Test of materialKey method, of class Position.
+     */
+    @Test
+    public void testMaterialKey() throws ChessParseError {
+        System.out.println("materialKey");
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        long k1 = pos.materialKey();
+        UndoInfo ui = new UndoInfo();
+        Move move = TextIO.stringToMove(pos, "e4");
+        pos.makeMove(move, ui);
+        assertEquals(k1, pos.materialKey());
+        pos.unMakeMove(move, ui);
+        assertEquals(k1, pos.materialKey());
+
+        // Same material in a different position gives the same key
+        Position pos2 = TextIO.readFEN("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 3");
+        assertEquals(k1, pos2.materialKey());
+
+        pos = TextIO.readFEN("8/1P6/8/7k/8/8/8/4K1n1 w - - 0 1");
+        k1 = pos.materialKey();
+        String[] moves = { "b8Q", "Nf3", "Kf2", "Ne5", "Qxe5" };
+        List<UndoInfo> uiList = new ArrayList<UndoInfo>();
+        List<Long> keyList = new ArrayList<Long>();
+        List<Move> moveList = new ArrayList<Move>();
+        for (int i = 0; i < moves.length; i++) {
+            uiList.add(new UndoInfo());
+            Move m = TextIO.stringToMove(pos, moves[i]);
+            moveList.add(m);
+            pos.makeMove(m, uiList.get(i));
+            keyList.add(pos.materialKey());
+        }
+        assertTrue(keyList.get(0) != k1);
+        assertEquals(keyList.get(0), keyList.get(3));
+        assertTrue(!keyList.get(3).equals(keyList.get(4)));
+        assertEquals(TextIO.readFEN("8/8/8/4Q2k/8/8/5K2/8 b - - 0 1").materialKey(),
+                     (long)keyList.get(4));
+        for (int i = moves.length - 1; i >= 0; i--) {
+            pos.unMakeMove(moveList.get(i), uiList.get(i));
+            assertEquals(i > 0 ? (long)keyList.get(i - 1) : k1, pos.materialKey());
+        }
+    }
+
     /**
      * Test of getKingSq method, of class Position.
      */
@@ -19,7 +19,9 @@
 package chess;
 
 import chess.Search.StopSearch;
+import chess.TranspositionTable.TTEntry;
 
+import java.util.ArrayList;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -250,6 +252,167 @@ public class SearchTest {
         assertEquals(Search.MATE0-18, bestM.score);
     }
 
+    /**
+     * Test of Lazy SMP search, of class Search.
+     */
+    @Test
+    public void testLazySMP() throws ChessParseError {
+        System.out.println("lazySMP");
+        final int mate0 = Search.MATE0;
+
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, new TranspositionTable(16), new History());
+        sc.setThreads(4);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(mate0 - 4, bestM.score);   // Helpers must not change the mate score
+
+        pos = TextIO.readFEN("r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4");
+        sc = new Search(pos, nullHist, 0, new TranspositionTable(16), new History());
+        sc.setThreads(3);
+        bestM = idSearch(sc, 4);
+        assertEquals("Qxf7#", TextIO.moveToString(pos, bestM, false));
+        assertEquals(mate0 - 2, bestM.score);
+    }
+
+    /**
+     * Test of principal variation reporting, of class Search.
+     */
+    @Test
+    public void testPV() throws ChessParseError {
+        System.out.println("PV");
+        final ArrayList<Move> lastPV = new ArrayList<Move>();
+        Search.Listener listener = new Search.Listener() {
+            public void notifyDepth(int depth) { }
+            public void notifyCurrMove(Move m, int moveNr) { }
+            public void notifyPV(int depth, int score, int time, long nodes, int nps,
+                                 boolean isMate, boolean upperBound, boolean lowerBound,
+                                 ArrayList<Move> pv) {
+                lastPV.clear();
+                for (Move m : pv)
+                    lastPV.add(new Move(m));
+            }
+            public void notifyStats(long nodes, int nps, int time) { }
+        };
+
+        // Mate in 2, the PV must contain the whole mating line
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, new TranspositionTable(16), new History());
+        sc.setListener(listener);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(Search.MATE0 - 4, bestM.score);
+        assertEquals(3, lastPV.size());
+        assertEquals(bestM, lastPV.get(0));
+        checkPV(pos, lastPV);
+        pos = new Position(pos);
+        UndoInfo ui = new UndoInfo();
+        for (Move m : lastPV)
+            pos.makeMove(m, ui);
+        assertTrue(MoveGen.inCheck(pos));
+
+        pos = TextIO.readFEN("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+        sc = new Search(pos, nullHist, 0, new TranspositionTable(16), new History());
+        sc.setListener(listener);
+        bestM = idSearch(sc, 6);
+        assertTrue(lastPV.size() >= 1);
+        assertEquals(bestM, lastPV.get(0));
+        checkPV(pos, lastPV);
+    }
+
+    /**
+     * Test of MultiPV mode, of class Search.
+     */
+    @Test
+    public void testMultiPV() throws ChessParseError {
+        System.out.println("multiPV");
+        final int nPV = 3;
+        final Move[] lineMoves = new Move[nPV + 1];
+        final int[] lineScores = new int[nPV + 1];
+        Search.MultiPVListener listener = new Search.MultiPVListener() {
+            public void notifyDepth(int depth) { }
+            public void notifyCurrMove(Move m, int moveNr) { }
+            public void notifyPV(int depth, int score, int time, long nodes, int nps,
+                                 boolean isMate, boolean upperBound, boolean lowerBound,
+                                 ArrayList<Move> pv) {
+                fail();
+            }
+            public void notifyMultiPV(int multiPV, int depth, int score, int time, long nodes, int nps,
+                                      boolean isMate, boolean upperBound, boolean lowerBound,
+                                      ArrayList<Move> pv) {
+                assertTrue(!upperBound && !lowerBound);
+                lineMoves[multiPV] = new Move(pv.get(0));
+                lineScores[multiPV] = isMate ? Search.MATE0 - 2 * score : score;
+            }
+            public void notifyStats(long nodes, int nps, int time) { }
+        };
+
+        // Only one move mates in 2
+        Position pos = TextIO.readFEN("8/1P6/k7/2K5/8/8/8/8 w - - 0 1");
+        Search sc = new Search(pos, nullHist, 0, new TranspositionTable(16), new History());
+        sc.setListener(listener);
+        sc.setMultiPV(nPV);
+        Move bestM = idSearch(sc, 6);
+        assertEquals(Search.MATE0 - 4, bestM.score);
+        assertEquals(bestM, lineMoves[1]);
+        assertEquals(Search.MATE0 - 4, lineScores[1]);
+        for (int i = 2; i <= nPV; i++) {
+            assertTrue(lineScores[i] <= lineScores[i - 1]);
+            assertTrue(lineScores[i] < Search.MATE0 / 2);
+            for (int j = 1; j < i; j++)
+                assertTrue(!lineMoves[i].equals(lineMoves[j]));
+        }
+
+        // Compare with repeated searches, excluding the best moves from earlier searches
+        pos = TextIO.readFEN("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+        final int depth = 6;
+        sc = new Search(pos, nullHist, 0, new TranspositionTable(19), new History());
+        sc.setListener(listener);
+        sc.setMultiPV(nPV);
+        long t0 = System.nanoTime();
+        idSearch(sc, depth);
+        long multiPVNodes = sc.totalNodes;
+        long multiPVTime = System.nanoTime() - t0;
+        for (int i = 2; i <= nPV; i++)
+            assertTrue(lineScores[i] <= lineScores[i - 1]);
+
+        TranspositionTable tt2 = new TranspositionTable(19);
+        ArrayList<Move> excluded = new ArrayList<Move>();
+        long repeatedNodes = 0;
+        t0 = System.nanoTime();
+        for (int i = 0; i < nPV; i++) {
+            Search sc2 = new Search(pos, nullHist, 0, tt2, new History());
+            MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
+            MoveGen.removeIllegal(pos, moves);
+            int len = 0;
+            for (int mi = 0; mi < moves.size; mi++)
+                if (!excluded.contains(moves.getMove(mi)))
+                    moves.m[len++] = moves.m[mi];
+            moves.size = len;
+            sc2.scoreMoveList(moves, 0);
+            sc2.timeLimit(-1, -1);
+            excluded.add(new Move(sc2.iterativeDeepening(moves, depth, -1, false)));
+            repeatedNodes += sc2.totalNodes;
+        }
+        long repeatedTime = System.nanoTime() - t0;
+        System.out.printf("multiPV %d: nodes %d time %dms, repeated searches: nodes %d time %dms%n",
+                          nPV, multiPVNodes, multiPVTime / 1000000, repeatedNodes, repeatedTime / 1000000);
+    }
+
+    /** Check that all moves in a PV are legal. */
+    private void checkPV(Position pos, ArrayList<Move> pv) {
+        pos = new Position(pos);
+        UndoInfo ui = new UndoInfo();
+        for (Move m : pv) {
+            MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
+            MoveGen.removeIllegal(pos, moves);
+            boolean found = false;
+            for (int mi = 0; mi < moves.size; mi++)
+                if (moves.getMove(mi).equals(m))
+                    found = true;
+            assertTrue(found);
+            pos.makeMove(m, ui);
+        }
+    }
+
     private Move idSearch(Search sc, int maxDepth) {
         MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(sc.pos);
         MoveGen.removeIllegal(sc.pos, moves);
@@ -427,6 +590,113 @@ public class SearchTest {
         assertEquals(h1, h2);
     }
 
+    /** SEE implementation that makes and unmakes moves, used as reference for the bitboard SEE. */
+    private static int refSEE(Position pos, int m) {
+        final int kV = Evaluate.kV;
+        int[] captures = new int[64];
+        UndoInfo ui = new UndoInfo();
+        final int square = Move.getTo(m);
+        if (square == pos.getEpSquare()) {
+            captures[0] = Evaluate.pV;
+        } else {
+            captures[0] = Evaluate.pieceValue[pos.getPiece(square)];
+            if (captures[0] == kV)
+                return kV;
+        }
+        int nCapt = 1;
+        pos.makeSEEMove(m, ui);
+        boolean white = pos.whiteMove;
+        int valOnSquare = Evaluate.pieceValue[pos.getPiece(square)];
+        long occupied = pos.whiteBB | pos.blackBB;
+        final int[] order = { Piece.WPAWN, Piece.WKNIGHT, Piece.WBISHOP, Piece.WROOK, Piece.WQUEEN, Piece.WKING };
+        while (true) {
+            long atk = 0;
+            int bestValue = 0;
+            long bAtk = BitBoard.bishopAttacks(square, occupied) & occupied;
+            long rAtk = BitBoard.rookAttacks(square, occupied) & occupied;
+            for (int wp : order) {
+                int p = white ? wp : Piece.makeBlack(wp);
+                long a;
+                switch (wp) {
+                case Piece.WPAWN:   a = white ? BitBoard.bPawnAttacks[square] : BitBoard.wPawnAttacks[square]; break;
+                case Piece.WKNIGHT: a = BitBoard.knightAttacks[square]; break;
+                case Piece.WBISHOP: a = bAtk; break;
+                case Piece.WROOK:   a = rAtk; break;
+                case Piece.WQUEEN:  a = bAtk | rAtk; break;
+                default:            a = BitBoard.kingAttacks[square]; break;
+                }
+                atk = a & pos.pieceTypeBB[p] & occupied;
+                if (atk != 0) {
+                    bestValue = Evaluate.pieceValue[p];
+                    break;
+                }
+            }
+            if (atk == 0)
+                break;
+            captures[nCapt++] = valOnSquare;
+            if (valOnSquare == kV)
+                break;
+            valOnSquare = bestValue;
+            occupied &= ~(atk & -atk);
+            white = !white;
+        }
+        pos.unMakeSEEMove(m, ui);
+        int score = 0;
+        for (int i = nCapt - 1; i > 0; i--)
+            score = Math.max(0, captures[i] - score);
+        return captures[0] - score;
+    }
+
+    /**
+     * Test that the bitboard SEE gives the same result as the reference implementation,
+     * for all pseudo-legal moves in positions from random games.
+     */
+    @Test
+    public void testSEEEquivalence() throws ChessParseError {
+        System.out.println("SEEEquivalence");
+        String[] fens = {
+            TextIO.startPosFEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r2qk2r/ppp2ppp/1bnp1nb1/1N2p3/3PP3/1PP2N2/1P3PPP/R1BQRBK1 w kq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "1q2r1k1/1b1r1pp1/p2b1n1p/1p1Bp3/4P3/1PN1BQ1P/P4PP1/2RR2K1 b - - 0 1"
+        };
+        java.util.Random rnd = new java.util.Random(17);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        AttackInfo ai = new AttackInfo();
+        int nPos = 0;
+        int nMoves = 0;
+        for (String fen : fens) {
+            for (int game = 0; game < 40; game++) {
+                Search sc = new Search(TextIO.readFEN(fen), nullHist, 0, tt, ht);
+                Position pos = sc.pos;
+                for (int ply = 0; ply < 100; ply++) {
+                    MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
+                    MoveGen.removeIllegal(pos, moves);
+                    if (moves.size == 0)
+                        break;
+                    long hash = pos.zobristHash();
+                    long occupied = pos.whiteBB | pos.blackBB;
+                    for (int mi = 0; mi < moves.size; mi++) {
+                        int m = moves.m[mi];
+                        int see = refSEE(pos, m);
+                        assertEquals(see, sc.SEE(m));
+                        assertEquals(see, sc.SEE(m, ai));
+                        nMoves++;
+                    }
+                    assertEquals(hash, pos.zobristHash());
+                    assertEquals(occupied, pos.whiteBB | pos.blackBB);
+                    nPos++;
+                    pos.makeMove(moves.m[rnd.nextInt(moves.size)], ui);
+                    moveGen.returnMoveList(moves);
+                }
+            }
+        }
+        assertTrue(nPos > 10000);
+        System.out.printf("SEE equivalence: positions %d moves %d%n", nPos, nMoves);
+    }
+
     /**
      * Test of scoreMoveList method, of class Search.
      */
@@ -441,24 +711,24 @@ public class SearchTest {
         for (int i = 0; i < moves.size; i++) {
             Search.selectBest(moves, i);
             if (i > 0) {
-                int sc1 = moves.m[i - 1].score;
-                int sc2 = moves.m[i].score;
+                int sc1 = Move.getScore(moves.m[i - 1]);
+                int sc2 = Move.getScore(moves.m[i]);
                 assertTrue(sc2 <= sc1);
             }
         }
 
         moves = moveGen.pseudoLegalMoves(pos);
-        moves.m[0].score = 17;
-        moves.m[1].score = 666;
-        moves.m[2].score = 4711;
+        moves.m[0] = Move.setScore(moves.m[0], 17);
+        moves.m[1] = Move.setScore(moves.m[1], 666);
+        moves.m[2] = Move.setScore(moves.m[2], 4711);
         sc.scoreMoveList(moves, 0, 2);
-        assertEquals(17, moves.m[0].score);
-        assertEquals(666, moves.m[1].score);
+        assertEquals(17, Move.getScore(moves.m[0]));
+        assertEquals(666, Move.getScore(moves.m[1]));
         for (int i = 1; i < moves.size; i++) {
             Search.selectBest(moves, i);
             if (i > 1) {
-                int sc1 = moves.m[i - 1].score;
-                int sc2 = moves.m[i].score;
+                int sc1 = Move.getScore(moves.m[i - 1]);
+                int sc2 = Move.getScore(moves.m[i]);
                 assertTrue(sc2 <= sc1);
             }
         }
@@ -466,8 +736,45 @@ public class SearchTest {
         // The hashMove should be first in the list
         Move m = TextIO.stringToMove(pos, "Ra6");
         moves = moveGen.pseudoLegalMoves(pos);
-        boolean res = Search.selectHashMove(moves, m);
+        boolean res = Search.selectHashMove(moves, m.getPacked());
         assertEquals(true, res);
-        assertEquals(m, moves.m[0]);
+        assertEquals(m, moves.getMove(0));
+    }
+
+    /**
+     * Test of hash move linking, see Search.SearchTreeInfo.linkHashMove().
+     */
+    @Test
+    public void testHashMoveLink() throws ChessParseError, StopSearch {
+        System.out.println("hashMoveLink");
+        final int plyScale = Search.plyScale;
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        TranspositionTable tt = new TranspositionTable(16);
+        Search sc = new Search(pos, nullHist, 0, tt, ht);
+        Search.SearchTreeInfo sti = sc.searchTreeInfo[0];
+        int e4 = TextIO.stringToMove(pos, "e4").getPacked();
+        int d4 = TextIO.stringToMove(pos, "d4").getPacked();
+        int nf3 = TextIO.stringToMove(pos, "Nf3").getPacked();
+
+        // Not linked before the first hash table cutoff
+        sti.setBestMove(nf3);
+        assertEquals(nf3, sti.getBestMove());
+        assertEquals(0, sti.hashMove);
+
+        tt.insert(pos.historyHash(), Move.setScore(e4, 10), TTEntry.T_EXACT, 0, 10*plyScale, 0);
+        int score = sc.negaScout(0, 1, 0, 2*plyScale, -1, false);
+        assertEquals(10, score);
+        assertEquals(e4, Move.noScore(sti.getBestMove()));
+
+        // A later hash move at the same ply is also the best move
+        tt.insert(pos.historyHash(), Move.setScore(d4, 20), TTEntry.T_EXACT, 0, 10*plyScale, 0);
+        score = sc.negaScout(0, 1, 0, 2*plyScale, -1, false);
+        assertEquals(20, score);
+        assertEquals(d4, Move.noScore(sti.getBestMove()));
+
+        // Setting the best move also sets the hash move
+        sti.setBestMove(nf3);
+        assertEquals(nf3, sti.hashMove);
+        assertEquals(nf3, sti.getBestMove());
     }
 }
@@ -0,0 +1,172 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package chess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author petero
+ */
+public class TestSuiteRunnerTest {
+
+    public TestSuiteRunnerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of parseEPD method, of class TestSuiteRunner.
+     */
+    @Test
+    public void testParseEPD() throws ChessParseError {
+        System.out.println("parseEPD");
+        TestSuiteRunner.TestPosition tp = TestSuiteRunner.parseEPD(
+                "1k1r4/pp1b1R2/3q2pp/4p3/2B5/4Q3/PPP2B2/2K5 b - - bm Qd1+; id \"BK.01\";", 3);
+        assertEquals("1k1r4/pp1b1R2/3q2pp/4p3/2B5/4Q3/PPP2B2/2K5 b - - 0 1", tp.fen);
+        assertEquals("BK.01", tp.id);
+        assertEquals(3, tp.lineNo);
+        assertEquals(1, tp.bestMoves.size());
+        assertEquals(0, tp.avoidMoves.size());
+        assertEquals(new Move(TextIO.getSquare("d6"), TextIO.getSquare("d1"), Piece.EMPTY), tp.bestMoves.get(0));
+
+        // Move counters, several best moves, am, quoted ";" and unknown opcodes
+        tp = TestSuiteRunner.parseEPD(
+                "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3 " +
+                "bm Bb5 Bc4; am Nxe5; c0 \"a;b\"; id \"x\";", 7);
+        assertEquals("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3", tp.fen);
+        assertEquals("x", tp.id);
+        assertEquals(2, tp.bestMoves.size());
+        assertEquals(1, tp.avoidMoves.size());
+        Move bb5 = new Move(TextIO.getSquare("f1"), TextIO.getSquare("b5"), Piece.EMPTY);
+        Move nxe5 = new Move(TextIO.getSquare("f3"), TextIO.getSquare("e5"), Piece.EMPTY);
+        Move d4 = new Move(TextIO.getSquare("d2"), TextIO.getSquare("d4"), Piece.EMPTY);
+        assertTrue(tp.isCorrect(bb5));
+        assertFalse(tp.isCorrect(nxe5));
+        assertFalse(tp.isCorrect(d4));
+
+        // Only am, id defaults to the line number
+        tp = TestSuiteRunner.parseEPD(
+                "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - am Nxe5;", 12);
+        assertEquals("line 12", tp.id);
+        assertTrue(tp.isCorrect(d4));
+        assertFalse(tp.isCorrect(nxe5));
+
+        boolean error = false;
+        try {
+            TestSuiteRunner.parseEPD("8/8/8/8/8/8/8/K6k w - - bm Qa2;", 1);
+        } catch (ChessParseError cpe) {
+            error = true;
+        }
+        assertTrue(error);
+        error = false;
+        try {
+            TestSuiteRunner.parseEPD(TextIO.startPosFEN + " id \"no bm\";", 1);
+        } catch (ChessParseError cpe) {
+            error = true;
+        }
+        assertTrue(error);
+    }
+
+    /**
+     * Test of run method, of class TestSuiteRunner.
+     */
+    @Test
+    public void testRun() throws ChessParseError, IOException {
+        System.out.println("run");
+        List<TestSuiteRunner.TestPosition> tests = new ArrayList<TestSuiteRunner.TestPosition>();
+        tests.add(TestSuiteRunner.parseEPD("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - bm Ra8#; id \"mate1\";", 1));
+        tests.add(TestSuiteRunner.parseEPD("7k/8/8/8/8/8/r7/K7 w - - bm Kxa2; id \"only\";", 2));
+        tests.add(TestSuiteRunner.parseEPD("4k3/8/8/8/8/8/4q3/4K3 w - - bm Kxe2; id \"stalemate?\";", 3));
+        tests.add(TestSuiteRunner.parseEPD("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - am Ra8#; id \"avoid\";", 4));
+
+        TestSuiteRunner runner = new TestSuiteRunner(2, 1);
+        runner.setLimits(-1, 4, -1);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TestSuiteRunner.Result[] res = runner.run(tests, new PrintStream(bos));
+        assertEquals(4, res.length);
+        assertEquals(4, bos.toString().split("\n").length);
+        for (int i = 0; i < res.length; i++)
+            assertSame(tests.get(i), res[i].test);
+        assertTrue(res[0].solved);
+        assertTrue(res[0].solveTime >= 0);
+        assertTrue(res[0].solveDepth >= 1);
+        assertTrue(res[1].solved);
+        assertTrue(res[2].solved);
+        assertFalse(res[3].solved);
+        assertEquals(-1, res[3].solveTime);
+
+        // Depth limited searches are reproducible
+        TestSuiteRunner runner1 = new TestSuiteRunner(1, 1);
+        runner1.setLimits(-1, 4, -1);
+        TestSuiteRunner.Result[] res1 = runner1.run(tests, new PrintStream(new ByteArrayOutputStream()));
+        for (int i = 0; i < res.length; i++) {
+            assertEquals(res[i].nodes, res1[i].nodes);
+            assertEquals(res[i].move, res1[i].move);
+        }
+
+        TestSuiteRunner.Summary s = new TestSuiteRunner.Summary(res);
+        assertEquals(4, s.total);
+        assertEquals(3, s.solved);
+        assertTrue(s.maxSolveTime >= s.medianSolveTime);
+
+        File f = File.createTempFile("testsuite", ".json");
+        try {
+            runner.writeResults(f.getPath(), "test.epd", res);
+            byte[] data = new byte[(int)f.length()];
+            FileInputStream is = new FileInputStream(f);
+            is.read(data);
+            is.close();
+            String json = new String(data, "UTF-8");
+            assertTrue(json.contains("\"suite\": \"test.epd\""));
+            assertTrue(json.contains("\"solved\": 3"));
+            assertTrue(json.contains("\"id\": \"stalemate?\""));
+            assertTrue(json.contains("\"maxDepth\": 4"));
+        } finally {
+            f.delete();
+        }
+    }
+}
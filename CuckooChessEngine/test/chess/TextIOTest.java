@@ -395,4 +395,44 @@ public class TextIOTest {
         m = TextIO.uciStringToMove("i1i3");
         assertEquals(null, m);  // Outside board
     }
+
+    /**
+     * Test that moveToString and stringToMove can be called from several threads at the same time.
+     */
+    @Test
+    public void testConcurrentMoveStrings() throws Exception {
+        System.out.println("concurrentMoveStrings");
+        final Position pos = TextIO.readFEN("r1bqk2r/pppp1ppp/2n2n2/2b1p3/2B1P3/2N2N2/PPPP1PPP/R1BQK2R w KQkq - 4 5");
+        final MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
+        MoveGen.removeIllegal(pos, moves);
+        final String[] expected = new String[moves.size];
+        for (int mi = 0; mi < moves.size; mi++)
+            expected[mi] = TextIO.moveToString(pos, moves.getMove(mi), false);
+
+        final int nThreads = 4;
+        final boolean[] ok = new boolean[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int threadNo = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Position p = new Position(pos);
+                    for (int i = 0; i < 2000; i++) {
+                        int mi = i % expected.length;
+                        Move m = moves.getMove(mi);
+                        if (!TextIO.moveToString(p, m, false).equals(expected[mi]))
+                            return;
+                        if (!m.equals(TextIO.stringToMove(p, expected[mi])))
+                            return;
+                    }
+                    ok[threadNo] = true;
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < nThreads; t++) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
 }
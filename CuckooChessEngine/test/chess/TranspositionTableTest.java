@@ -159,4 +159,278 @@ public class TranspositionTableTest {
             assertEquals(m, tmpMove);
         }
     }
+
+    /**
+     * Test that partially written entries are never returned, and that concurrent
+     * inserts and probes only return consistent entries.
+     */
+    @Test
+    public void testLockless() throws InterruptedException {
+        System.out.println("lockless");
+        final TranspositionTable tt = new TranspositionTable(8);
+        Move m = new Move(12, 28, Piece.EMPTY);
+        m.score = 17;
+        long key = 0x123456789abcdefL;
+        tt.insert(key, m, TTEntry.T_EXACT, 0, 40, 5);
+        TTEntry ent = tt.probe(key);
+        assertEquals(TTEntry.T_EXACT, ent.type);
+        assertEquals(17, ent.getScore(0));
+        assertEquals(40, ent.getDepth());
+
+        // Simulate a torn write by changing only the data word
+        for (int i = 1; i < tt.table.length; i += 2)
+            if (tt.table[i] != 0)
+                tt.table[i] ^= 1L << 16;
+        ent = tt.probe(key);
+        assertEquals(TTEntry.T_EMPTY, ent.type);
+
+        final int nThreads = 4;
+        final boolean[] ok = new boolean[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int threadNo = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    java.util.Random rnd = new java.util.Random(threadNo);
+                    Move m = new Move(0, 0, Piece.EMPTY);
+                    TTEntry ent = new TTEntry();
+                    boolean good = true;
+                    for (int i = 0; i < 200000; i++) {
+                        long key = rnd.nextLong() & 0xffffffffffff0fffL;
+                        int val = (int)(key >>> 52) & 1023;    // Entry data is a function of the key
+                        m.from = val & 63;
+                        m.to = (val >> 4) & 63;
+                        m.score = val;
+                        tt.insert(key, m, TTEntry.T_EXACT, 0, val, -val);
+                        tt.probe(key ^ (i & 0xf000), ent);
+                        if (ent.type != TTEntry.T_EMPTY) {
+                            int v = (int)(ent.key >>> 52) & 1023;
+                            Move tmp = new Move(0, 0, 0);
+                            ent.getMove(tmp);
+                            if ((ent.getScore(0) != v) || (ent.evalScore != -v) || (ent.getDepth() != v) ||
+                                (tmp.from != (v & 63)) || (tmp.to != ((v >> 4) & 63)))
+                                good = false;
+                        }
+                    }
+                    ok[threadNo] = good;
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < nThreads; t++) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
+
+    /**
+     * Test that an off-heap table behaves like a table on the java heap.
+     */
+    @Test
+    public void testOffHeap() {
+        System.out.println("offHeap");
+        TranspositionTable tt1 = new TranspositionTable(12, false);
+        TranspositionTable tt2 = new TranspositionTable(12, true);
+        assertEquals(tt1.getSize(), tt2.getSize());
+        java.util.Random rnd = new java.util.Random(17);
+        long[] keys = new long[10000];
+        Move m = new Move(0, 0, Piece.EMPTY);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rnd.nextLong();
+            m.from = i & 63;
+            m.to = (i >> 6) & 63;
+            m.score = i - 5000;
+            int type = i % 3;
+            int depth = (i * 7) % 200;
+            tt1.insert(keys[i], m, type, i % 10, depth, i % 1000);
+            tt2.insert(keys[i], m, type, i % 10, depth, i % 1000);
+            if (i % 1000 == 999) {
+                tt1.nextGeneration();
+                tt2.nextGeneration();
+            }
+        }
+        int nFound = 0;
+        Move m1 = new Move(0, 0, 0);
+        Move m2 = new Move(0, 0, 0);
+        for (int i = 0; i < keys.length; i++) {
+            TTEntry ent1 = tt1.probe(keys[i]);
+            TTEntry ent2 = tt2.probe(keys[i]);
+            assertEquals(ent1.type, ent2.type);
+            if (ent1.type == TTEntry.T_EMPTY)
+                continue;
+            nFound++;
+            assertEquals(ent1.getScore(0), ent2.getScore(0));
+            assertEquals(ent1.getDepth(), ent2.getDepth());
+            assertEquals(ent1.evalScore, ent2.evalScore);
+            ent1.getMove(m1);
+            ent2.getMove(m2);
+            assertEquals(m1, m2);
+        }
+        assertTrue(nFound > 1000);
+        tt2.clear();
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(TTEntry.T_EMPTY, tt2.probe(keys[i]).type);
+    }
+
+    /**
+     * Test of save and load methods, of class TranspositionTable.
+     */
+    @Test
+    public void testSaveLoad() throws java.io.IOException {
+        System.out.println("saveLoad");
+        TranspositionTable tt = new TranspositionTable(10);
+        java.util.Random rnd = new java.util.Random(4711);
+        long[] keys = new long[500];
+        Move m = new Move(0, 0, Piece.EMPTY);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rnd.nextLong();
+            m.from = i & 63;
+            m.to = 63 - (i & 63);
+            m.score = i;
+            tt.insert(keys[i], m, TTEntry.T_EXACT, 0, i % 100, -i);
+        }
+        java.io.File f = java.io.File.createTempFile("hashfile", ".bin");
+        f.deleteOnExit();
+        tt.save(f.getPath());
+        TranspositionTable tt2 = TranspositionTable.load(f.getPath());
+        assertEquals(tt.getSize(), tt2.getSize());
+        Move m1 = new Move(0, 0, 0);
+        Move m2 = new Move(0, 0, 0);
+        for (int i = 0; i < keys.length; i++) {
+            TTEntry ent1 = tt.probe(keys[i]);
+            TTEntry ent2 = tt2.probe(keys[i]);
+            assertEquals(ent1.type, ent2.type);
+            if (ent1.type == TTEntry.T_EMPTY)
+                continue;
+            assertEquals(ent1.getScore(0), ent2.getScore(0));
+            assertEquals(ent1.getDepth(), ent2.getDepth());
+            assertEquals(ent1.evalScore, ent2.evalScore);
+            ent1.getMove(m1);
+            ent2.getMove(m2);
+            assertEquals(m1, m2);
+        }
+
+        // Loaded entries are older than new entries
+        TranspositionTable tt3 = TranspositionTable.load(f.getPath());
+        assertEquals(tt.generation + 1, tt3.generation);
+        int idx = 0;
+        while (tt3.probe(keys[idx]).type == TTEntry.T_EMPTY)
+            idx++;
+
+        // Changes to a loaded table are not written back to the file
+        tt3.clear();
+        TranspositionTable tt4 = TranspositionTable.load(f.getPath());
+        assertEquals(TTEntry.T_EXACT, tt4.probe(keys[idx]).type);
+
+        // Files with the wrong format are rejected
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(f, "rw");
+        raf.seek(4);
+        raf.write(99);
+        raf.close();
+        boolean rejected = false;
+        try {
+            TranspositionTable.load(f.getPath());
+        } catch (java.io.IOException ex) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+
+        // A missing file is rejected and not created
+        f.delete();
+        rejected = false;
+        try {
+            TranspositionTable.load(f.getPath());
+        } catch (java.io.IOException ex) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+        assertFalse(f.exists());
+    }
+
+    /**
+     * Test of the bucket replacement scheme, of class TranspositionTable.
+     */
+    @Test
+    public void testBuckets() {
+        System.out.println("buckets");
+        TranspositionTable tt = new TranspositionTable(8, false, true);
+        assertTrue(tt.useBuckets());
+        Move m = new Move(8, 16, Piece.EMPTY);
+        long[] keys = new long[5];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long)(i + 1) << 40) + 0x42;    // All keys map to the same bucket
+            m.score = i * 10;
+            int depth = (i < 4) ? (i + 1) * 10 : 5;
+            tt.insert(keys[i], m, TTEntry.T_GE, 0, depth, 0);
+        }
+        assertEquals(TTEntry.T_EMPTY, tt.probe(keys[0]).type); // Least valuable entry replaced
+        for (int i = 1; i < keys.length; i++) {
+            TTEntry ent = tt.probe(keys[i]);
+            assertEquals(TTEntry.T_GE, ent.type);
+            assertEquals(i * 10, ent.getScore(0));
+        }
+
+        // Old entries are replaced before deeper entries
+        tt.nextGeneration();
+        tt.probe(keys[1]);     // Refreshes generation
+        tt.probe(keys[2]);
+        tt.probe(keys[4]);
+        m.score = 17;
+        tt.insert(keys[0], m, TTEntry.T_LE, 0, 1, 0);
+        assertEquals(TTEntry.T_LE, tt.probe(keys[0]).type);
+        assertEquals(TTEntry.T_EMPTY, tt.probe(keys[3]).type);
+        assertEquals(TTEntry.T_GE, tt.probe(keys[1]).type);
+        assertEquals(TTEntry.T_GE, tt.probe(keys[4]).type);
+
+        // Existing entry for the same key is updated
+        m.score = 18;
+        tt.insert(keys[0], m, TTEntry.T_EXACT, 0, 3, 0);
+        TTEntry ent = tt.probe(keys[0]);
+        assertEquals(TTEntry.T_EXACT, ent.type);
+        assertEquals(18, ent.getScore(0));
+        assertEquals(TTEntry.T_GE, tt.probe(keys[2]).type);
+    }
+
+    /**
+     * Test of statistics counters and hashFull method.
+     */
+    @Test
+    public void testStats() {
+        System.out.println("stats");
+        TranspositionTable tt = new TranspositionTable(10);
+        TranspositionTable.Stats stats = new TranspositionTable.Stats();
+        assertEquals(0, tt.hashFull());
+        Move m = new Move(8, 16, Piece.EMPTY);
+        m.score = 10;
+        tt.insert(17, m, TTEntry.T_EXACT, 0, 5, 0, stats);
+        tt.insert(17, m, TTEntry.T_EXACT, 0, 6, 0, stats);
+        assertEquals(1, stats.storesNew);
+        assertEquals(1, stats.storesUpdate);
+
+        TTEntry ent = new TTEntry();
+        tt.probe(17, ent, stats);
+        tt.probe(4711, ent, stats);
+        assertEquals(2, stats.probes);
+        assertEquals(1, stats.hits);
+
+        for (long i = 0; i < 1000; i++)
+            tt.insert(i * 0x1234567891L + 3, m, TTEntry.T_GE, 0, 3, 0, stats);
+        int full = tt.hashFull();
+        assertTrue(full > 0);
+        assertTrue(full <= 1000);
+        tt.nextGeneration();
+        assertEquals(0, tt.hashFull());
+        for (int i = 1; i < 16; i++)
+            tt.nextGeneration();
+        assertEquals(0, tt.hashFull());         // Old entries not current after 16 generations
+        for (int i = 16; i < 256; i++)
+            tt.nextGeneration();
+        assertEquals(full, tt.hashFull());      // Generation counter wraps after 256
+
+        TranspositionTable.Stats sum = new TranspositionTable.Stats();
+        sum.add(stats);
+        sum.add(stats);
+        assertEquals(2 * stats.probes, sum.probes);
+        assertEquals(2 * stats.storesNew, sum.storesNew);
+    }
 }
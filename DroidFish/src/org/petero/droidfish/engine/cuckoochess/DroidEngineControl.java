@@ -20,6 +20,7 @@ package org.petero.droidfish.engine.cuckoochess;
 
 import chess.Book;
 import chess.ComputerPlayer;
+import chess.Evaluate;
 import chess.History;
 import chess.Move;
 import chess.MoveGen;
@@ -32,7 +33,6 @@ import chess.TranspositionTable.TTEntry;
 import chess.UndoInfo;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -49,6 +49,7 @@ public class DroidEngineControl {
     private final Object threadMutex;
     Search sc;
     TranspositionTable tt;
+    Evaluate eval;      // Reused between searches to keep the evaluation caches warm
     History ht;
     MoveGen moveGen;
 
@@ -120,6 +121,7 @@ public class DroidEngineControl {
         this.os = os;
         threadMutex = new Object();
         setupTT();
+        eval = new Evaluate();
         ht = new History();
         moveGen = new MoveGen();
     }
@@ -224,7 +226,7 @@ public class DroidEngineControl {
     final private void startThread(final int minTimeLimit, final int maxTimeLimit,
                                    int maxDepth, final int maxNodes) {
         synchronized (threadMutex) {} // Must not start new search until old search is finished
-        sc = new Search(pos, posHashList, posHashListSize, tt, ht);
+        sc = new Search(pos, posHashList, posHashListSize, tt, ht, eval);
         sc.timeLimit(minTimeLimit, maxTimeLimit);
         sc.setListener(new SearchListener(os));
         sc.setStrength(strength, randomSeed);
@@ -300,7 +302,7 @@ public class DroidEngineControl {
 
 
     private final void setupTT() {
-        int nEntries = hashSizeMB > 0 ? hashSizeMB * (1 << 20) / 24 : 1024;
+        int nEntries = hashSizeMB > 0 ? hashSizeMB * (1 << 20) / 16 : 1024;
         int logSize = (int) Math.floor(Math.log(nEntries) / Math.log(2));
         tt = new TranspositionTable(logSize);
     }
@@ -331,9 +333,14 @@ public class DroidEngineControl {
             ent.getMove(ret);
             MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
             MoveGen.removeIllegal(pos, moves);
-            if (!Arrays.asList(moves.m).contains(ret)) {
+            boolean contains = false;
+            for (int mi = 0; mi < moves.size; mi++)
+                if (moves.getMove(mi).equals(ret)) {
+                    contains = true;
+                    break;
+                }
+            if (!contains)
                 ret = null;
-            }
         }
         pos.unMakeMove(m, ui);
         return ret;